@@ -0,0 +1,128 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.appliance.config;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * The appliances configured in the properties file, each one with its own session.
+ * <p>
+ * The appliances are listed by name in {@code appliances}. Each appliance needs {@code appliance.<name>.path} and
+ * may override the shared {@code appliance.username} and {@code appliance.password} with
+ * {@code appliance.<name>.username} and {@code appliance.<name>.password}. Passwords are Base64 encoded.
+ */
+public class ApplianceFleet implements AutoCloseable {
+
+   private final List<ApplianceSession> sessions;
+
+   /**
+    * Creates the sessions of all appliances listed in the properties. No appliance is called.
+    *
+    * @param properties The loaded properties file.
+    */
+   public ApplianceFleet(Properties properties) {
+
+      List<ApplianceSession> appliances = new ArrayList<>();
+      for (String name : properties.getProperty("appliances", "").split(",")) {
+         name = name.trim();
+         if (name.isEmpty()) {
+            continue;
+         }
+         String prefix = "appliance." + name + ".";
+         String path = properties.getProperty(prefix + "path");
+         if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException("Property " + prefix + "path is not set.");
+         }
+         String username = properties.getProperty(prefix + "username", properties.getProperty("appliance.username"));
+         String password = properties.getProperty(prefix + "password", properties.getProperty("appliance.password"));
+         if (username == null || password == null) {
+            throw new IllegalArgumentException("Credentials of appliance " + name + " are not set.");
+         }
+         appliances.add(new ApplianceSession(name, path, username, new String(Base64.getDecoder().decode(password))));
+      }
+      if (appliances.isEmpty()) {
+         throw new IllegalArgumentException("Property appliances does not list any appliance.");
+      }
+      this.sessions = Collections.unmodifiableList(appliances);
+   }
+
+   public List<ApplianceSession> getSessions() {
+      return sessions;
+   }
+
+   /**
+    * Finds the session of an appliance.
+    *
+    * @param name The name of the appliance.
+    * @return The session of the appliance.
+    * @throws IllegalArgumentException If there is no such appliance.
+    */
+   public ApplianceSession getSession(String name) {
+
+      for (ApplianceSession session : sessions) {
+         if (session.getName().equals(name)) {
+            return session;
+         }
+      }
+      throw new IllegalArgumentException("Appliance " + name + " is not listed in property appliances.");
+   }
+
+   /**
+    * Logs in to all appliances concurrently. An appliance which cannot be reached stays logged out and is retried
+    * by its first call.
+    *
+    * @param executor The executor to run the logins on.
+    */
+   public void loginAll(ExecutorService executor) {
+      runAll(executor, ApplianceSession::login, "Login");
+   }
+
+   /**
+    * Keeps the sessions of all logged in appliances alive, concurrently.
+    *
+    * @param executor The executor to run the calls on.
+    */
+   public void keepAliveAll(ExecutorService executor) {
+      runAll(executor, session -> {
+         if (session.isLoggedIn()) {
+            session.keepAlive();
+         }
+      }, "Keep-alive");
+   }
+
+   /**
+    * Logs out from all appliances. Errors are printed and do not stop the logout from the other appliances.
+    */
+   @Override
+   public void close() {
+
+      for (ApplianceSession session : sessions) {
+         try {
+            session.logout();
+         } catch (RuntimeException e) {
+            System.out.println("Logout from " + session.getName() + " failed: " + e.getMessage());
+         }
+      }
+   }
+
+   private void runAll(ExecutorService executor, Consumer<ApplianceSession> action, String what) {
+
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      for (ApplianceSession session : sessions) {
+         futures.add(CompletableFuture.runAsync(() -> action.accept(session), executor)
+                                      .exceptionally(e -> {
+                                         System.out.println(what + " to " + session.getName() + " failed: "
+                                                            + (e.getCause() != null ? e.getCause() : e).getMessage());
+                                         return null;
+                                      }));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+   }
+}
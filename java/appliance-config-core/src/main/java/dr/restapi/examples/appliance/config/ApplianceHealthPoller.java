@@ -0,0 +1,350 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.appliance.config;
+
+import dr.restapi.examples.apiclient.applianceconfig.api.ApplianceApi;
+import dr.restapi.examples.apiclient.applianceconfig.api.ServicesApi;
+import dr.restapi.examples.apiclient.applianceconfig.model.ApplianceDisk;
+import dr.restapi.examples.apiclient.applianceconfig.model.ApplianceInfo;
+import dr.restapi.examples.apiclient.applianceconfig.model.ServiceInfo;
+import dr.restapi.examples.apiclient.applianceconfig.model.TimeSettings;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static dr.restapi.examples.appliance.config.Util.getAllPages;
+import static dr.restapi.examples.appliance.config.Util.loadProperties;
+import static dr.restapi.examples.appliance.config.Util.toEpochMillis;
+
+/**
+ * Polls the health of all appliances of a fleet and prints one consolidated snapshot per cycle.
+ * <p>The appliance info, services, disks and time settings of all appliances are requested concurrently, so a cycle
+ * takes about as long as the slowest appliance. An appliance which does not answer within the cycle timeout is
+ * reported as unreachable instead of holding back the snapshot. The sessions are kept between cycles and kept alive
+ * while waiting for the next cycle, so only the first cycle logs in.
+ */
+public class ApplianceHealthPoller implements AutoCloseable {
+
+   private static final Properties properties;
+   private static final int PARALLELISM;
+   private static final int CYCLES;
+   private static final long INTERVAL;
+   private static final long TIMEOUT;
+   private static final long KEEP_ALIVE_INTERVAL;
+   private static final int DISK_USAGE_THRESHOLD;
+   private static final long MAX_TIME_DRIFT;
+
+   static {
+      properties = loadProperties();
+      PARALLELISM = Integer.parseInt(properties.getProperty("health.parallelism", "16"));
+      CYCLES = Integer.parseInt(properties.getProperty("health.cycles", "1"));
+      INTERVAL = Long.parseLong(properties.getProperty("health.interval", "60000"));
+      TIMEOUT = Long.parseLong(properties.getProperty("health.timeout", "30000"));
+      KEEP_ALIVE_INTERVAL = Long.parseLong(properties.getProperty("health.keep_alive_interval", "300000"));
+      DISK_USAGE_THRESHOLD = Integer.parseInt(properties.getProperty("health.disk_usage_threshold", "80"));
+      MAX_TIME_DRIFT = Long.parseLong(properties.getProperty("health.max_time_drift", "5000"));
+   }
+
+   /**
+    * Health status of an appliance.
+    */
+   public enum Status {
+      HEALTHY, DEGRADED, UNREACHABLE
+   }
+
+   /**
+    * The health of one appliance in one cycle.
+    */
+   public static final class ApplianceHealth {
+      private final String name;
+      private final List<String> problems = new ArrayList<>();
+      private final List<String> stoppedServices = new ArrayList<>();
+      private final List<String> errors = new ArrayList<>();
+      private ApplianceInfo info;
+      private long responseTime;
+
+      private ApplianceHealth(String name) {
+         this.name = name;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public ApplianceInfo getInfo() {
+         return info;
+      }
+
+      /**
+       * Stopped services, full disks and time drift found on the appliance.
+       *
+       * @return The problems.
+       */
+      public List<String> getProblems() {
+         return problems;
+      }
+
+      /**
+       * Services with automatic startup which are not running.
+       *
+       * @return The IDs of the services.
+       */
+      public List<String> getStoppedServices() {
+         return stoppedServices;
+      }
+
+      /**
+       * Requests which failed or did not complete in time.
+       *
+       * @return The errors.
+       */
+      public List<String> getErrors() {
+         return errors;
+      }
+
+      public long getResponseTime() {
+         return responseTime;
+      }
+
+      public Status getStatus() {
+         if (info == null) {
+            return Status.UNREACHABLE;
+         }
+         return problems.isEmpty() && errors.isEmpty() ? Status.HEALTHY : Status.DEGRADED;
+      }
+   }
+
+   /**
+    * The health of all appliances in one cycle.
+    */
+   public static final class Snapshot {
+      private final long time;
+      private final long duration;
+      private final List<ApplianceHealth> appliances;
+
+      private Snapshot(long time, long duration, List<ApplianceHealth> appliances) {
+         this.time = time;
+         this.duration = duration;
+         this.appliances = Collections.unmodifiableList(appliances);
+      }
+
+      public long getTime() {
+         return time;
+      }
+
+      public long getDuration() {
+         return duration;
+      }
+
+      public List<ApplianceHealth> getAppliances() {
+         return appliances;
+      }
+
+      public long count(Status status) {
+         return appliances.stream().filter(appliance -> appliance.getStatus() == status).count();
+      }
+   }
+
+   private final ApplianceFleet fleet;
+   private final ExecutorService executor;
+   private final long timeout;
+
+   /**
+    * Creates a poller for a fleet.
+    *
+    * @param fleet       The appliances to poll.
+    * @param parallelism The maximum number of concurrent requests over all appliances.
+    * @param timeout     The time in milliseconds after which a cycle reports the appliances which did not answer.
+    */
+   public ApplianceHealthPoller(ApplianceFleet fleet, int parallelism, long timeout) {
+      this.fleet = fleet;
+      this.executor = Executors.newFixedThreadPool(parallelism);
+      this.timeout = timeout;
+   }
+
+   public static void main(String[] args) throws InterruptedException {
+
+      try (ApplianceFleet fleet = new ApplianceFleet(properties);
+           ApplianceHealthPoller poller = new ApplianceHealthPoller(fleet, PARALLELISM, TIMEOUT)) {
+         fleet.loginAll(poller.executor);
+
+         for (int cycle = 1; ; cycle++) {
+            print(poller.poll());
+            if (CYCLES > 0 && cycle >= CYCLES) {
+               break;
+            }
+            poller.waitAndKeepAlive(INTERVAL);
+         }
+      }
+   }
+
+   /**
+    * Runs one cycle: polls all appliances concurrently and waits at most for the timeout.
+    *
+    * @return The health of all appliances, in the order of the fleet.
+    */
+   public Snapshot poll() {
+
+      long start = System.currentTimeMillis();
+      Map<ApplianceSession, CompletableFuture<ApplianceHealth>> polls = new LinkedHashMap<>();
+      for (ApplianceSession session : fleet.getSessions()) {
+         polls.put(session, poll(session));
+      }
+
+      try {
+         CompletableFuture.allOf(polls.values().toArray(new CompletableFuture<?>[0]))
+                          .get(timeout, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException | ExecutionException e) {
+         // the appliances which did not answer in time are reported below
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+
+      List<ApplianceHealth> appliances = new ArrayList<>();
+      for (Map.Entry<ApplianceSession, CompletableFuture<ApplianceHealth>> poll : polls.entrySet()) {
+         ApplianceHealth timedOut = new ApplianceHealth(poll.getKey().getName());
+         timedOut.errors.add("no answer within " + timeout + " ms");
+         timedOut.responseTime = timeout;
+         appliances.add(poll.getValue().getNow(timedOut));
+      }
+      return new Snapshot(start, System.currentTimeMillis() - start, appliances);
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+   }
+
+   /**
+    * Requests the four health sources of one appliance concurrently and evaluates them when all have completed.
+    *
+    * @param session The session to the appliance.
+    * @return The health of the appliance, completed when all requests have completed.
+    */
+   public CompletableFuture<ApplianceHealth> poll(ApplianceSession session) {
+
+      long start = System.currentTimeMillis();
+      CompletableFuture<ApplianceInfo> info =
+            request(() -> session.call(client -> new ApplianceApi(client).getApplianceInfo()));
+      CompletableFuture<List<ServiceInfo>> services = request(() -> session.call(client -> getAllPages(
+            (limit, offset) -> new ServicesApi(client).getAllServices(null, null, null, null, limit, offset)
+                                                      .getList())));
+      CompletableFuture<List<ApplianceDisk>> disks = request(() -> session.call(client -> getAllPages(
+            (limit, offset) -> new ApplianceApi(client).getApplianceDisks(null, null, null, null, limit, offset)
+                                                       .getList())));
+      CompletableFuture<TimeSettings> time =
+            request(() -> session.call(client -> new ApplianceApi(client).getTimeSettings()));
+
+      return CompletableFuture.allOf(info, services, disks, time).handle((ignored, e) -> {
+         ApplianceHealth health = new ApplianceHealth(session.getName());
+         health.responseTime = System.currentTimeMillis() - start;
+         health.info = result(info, "appliance info", health);
+         checkServices(result(services, "services", health), health);
+         checkDisks(result(disks, "disks", health), health);
+         checkTime(result(time, "time settings", health), health);
+         return health;
+      });
+   }
+
+   private <T> CompletableFuture<T> request(Supplier<T> call) {
+      return CompletableFuture.supplyAsync(call, executor);
+   }
+
+   private static <T> T result(CompletableFuture<T> future, String source, ApplianceHealth health) {
+
+      try {
+         return future.join();
+      } catch (CompletionException e) {
+         Throwable cause = e.getCause() != null ? e.getCause() : e;
+         health.errors.add(source + ": " + cause.getMessage());
+         return null;
+      }
+   }
+
+   private static void checkServices(List<ServiceInfo> services, ApplianceHealth health) {
+
+      if (services == null) {
+         return;
+      }
+      for (ServiceInfo service : services) {
+         if (service.getStartupType() == ServiceInfo.StartupTypeEnum.AUTOMATIC
+             && !Boolean.TRUE.equals(service.isIsRunning())) {
+            health.stoppedServices.add(service.getId());
+            health.problems.add("service " + service.getId() + " stopped");
+         }
+      }
+   }
+
+   private static void checkDisks(List<ApplianceDisk> disks, ApplianceHealth health) {
+
+      if (disks == null) {
+         return;
+      }
+      for (ApplianceDisk disk : disks) {
+         if (disk.getTotalSpace() == null || disk.getUsedSpace() == null || disk.getTotalSpace().signum() == 0) {
+            continue;
+         }
+         long usage = disk.getUsedSpace().multiply(BigDecimal.valueOf(100))
+                          .divide(disk.getTotalSpace(), RoundingMode.DOWN)
+                          .longValue();
+         if (usage >= DISK_USAGE_THRESHOLD) {
+            health.problems.add("disk " + disk.getName() + " " + usage + "% used");
+         }
+      }
+   }
+
+   /**
+    * Compares the appliance clock with the local clock. The drift includes the response time of the request.
+    */
+   private static void checkTime(TimeSettings time, ApplianceHealth health) {
+
+      Long currentTime = time != null ? toEpochMillis(time.getCurrentTime()) : null;
+      if (currentTime == null) {
+         return;
+      }
+      long drift = currentTime - System.currentTimeMillis();
+      if (Math.abs(drift) > MAX_TIME_DRIFT) {
+         health.problems.add("clock drift " + drift + " ms");
+      }
+   }
+
+   /**
+    * Waits for the next cycle and keeps the sessions alive meanwhile.
+    */
+   private void waitAndKeepAlive(long interval) throws InterruptedException {
+
+      long next = System.currentTimeMillis() + interval;
+      long remaining;
+      while ((remaining = next - System.currentTimeMillis()) > 0) {
+         Thread.sleep(Math.min(remaining, KEEP_ALIVE_INTERVAL));
+         if (next - System.currentTimeMillis() > 0) {
+            fleet.keepAliveAll(executor);
+         }
+      }
+   }
+
+   private static void print(Snapshot snapshot) {
+
+      System.out.printf("Fleet health at %tT: %d appliances, %d healthy, %d degraded, %d unreachable, "
+                        + "collected in %d ms%n",
+                        snapshot.getTime(),
+                        snapshot.getAppliances().size(),
+                        snapshot.count(Status.HEALTHY),
+                        snapshot.count(Status.DEGRADED),
+                        snapshot.count(Status.UNREACHABLE),
+                        snapshot.getDuration());
+      for (ApplianceHealth appliance : snapshot.getAppliances()) {
+         List<String> details = new ArrayList<>(appliance.getProblems());
+         details.addAll(appliance.getErrors());
+         System.out.printf("%-30s %-12s %-16s %7d ms  %s%n",
+                           appliance.getName(),
+                           appliance.getStatus(),
+                           appliance.getInfo() != null ? appliance.getInfo().getApplianceVersion() : "-",
+                           appliance.getResponseTime(),
+                           String.join("; ", details));
+      }
+   }
+}
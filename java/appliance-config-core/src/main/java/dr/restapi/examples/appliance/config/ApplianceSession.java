@@ -0,0 +1,130 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.appliance.config;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.ApiException;
+import dr.restapi.examples.apiclient.auth.HttpBasicAuth;
+import dr.restapi.examples.apiclient.applianceconfig.api.AuthenticationApi;
+
+import java.util.function.Function;
+
+/**
+ * A session to one appliance.
+ * Every appliance has its own ApiClient, so the sessions of a fleet can be used concurrently.
+ * The session is reused by all calls and is renewed once when a call is rejected with 401 Unauthorized.
+ */
+public class ApplianceSession {
+
+   private static final String SESSION_HEADER = "x-dr-session";
+
+   private static final int UNAUTHORIZED = 401;
+
+   private final String name;
+   private final ApiClient client;
+   private final String username;
+   private final String password;
+
+   private volatile String sessionId;
+
+   /**
+    * Creates a session to an appliance. The session is not logged in until the first call.
+    *
+    * @param name     The name of the appliance, used in the output.
+    * @param path     The base path of the configuration REST API of the appliance.
+    * @param username The appliance username.
+    * @param password The appliance password.
+    */
+   public ApplianceSession(String name, String path, String username, String password) {
+
+      this.name = name;
+      this.username = username;
+      this.password = password;
+      this.client = new ApiClient();
+      this.client.setVerifyingSsl(false);
+      this.client.setBasePath(path);
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public ApiClient getClient() {
+      return client;
+   }
+
+   public boolean isLoggedIn() {
+      return sessionId != null;
+   }
+
+   /**
+    * Runs a login operation with the appliance credentials and adds the session ID to all further calls.
+    */
+   public synchronized void login() {
+
+      HttpBasicAuth auth = (HttpBasicAuth) client.getAuthentication("BasicAuth");
+      auth.setUsername(username);
+      auth.setPassword(password);
+
+      sessionId = new AuthenticationApi(client).login().getSessionId();
+      client.addDefaultHeader(SESSION_HEADER, sessionId);
+   }
+
+   /**
+    * Calls the appliance with the current session, logging in first if needed.
+    * A call rejected with 401 Unauthorized is repeated once with a new session.
+    *
+    * @param operation The operation to call with the ApiClient of the appliance.
+    * @param <T>       The result type of the operation.
+    * @return The result of the operation.
+    */
+   public <T> T call(Function<ApiClient, T> operation) {
+
+      String usedSessionId = sessionId;
+      if (usedSessionId == null) {
+         usedSessionId = renew(null);
+      }
+      try {
+         return operation.apply(client);
+      } catch (ApiException e) {
+         if (e.getCode() != UNAUTHORIZED) {
+            throw e;
+         }
+         renew(usedSessionId);
+         return operation.apply(client);
+      }
+   }
+
+   /**
+    * Keeps the session from expiring by reading it. An expired session is renewed.
+    */
+   public void keepAlive() {
+      call(apiClient -> new AuthenticationApi(apiClient).getCurrentSession());
+   }
+
+   /**
+    * Runs a logout operation, if there is a session.
+    */
+   public synchronized void logout() {
+
+      if (sessionId == null) {
+         return;
+      }
+      try {
+         new AuthenticationApi(client).logout();
+      } finally {
+         sessionId = null;
+      }
+   }
+
+   /**
+    * Logs in again unless another thread already replaced the expired session.
+    */
+   private synchronized String renew(String expiredSessionId) {
+
+      if (sessionId == null || sessionId.equals(expiredSessionId)) {
+         login();
+      }
+      return sessionId;
+   }
+}
@@ -0,0 +1,287 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.appliance.config;
+
+import dr.restapi.examples.apiclient.applianceconfig.api.ConfigurationApi;
+import dr.restapi.examples.apiclient.applianceconfig.api.NetworkApi;
+import dr.restapi.examples.apiclient.applianceconfig.model.NetworkInterfaceInfo;
+import dr.restapi.examples.apiclient.applianceconfig.model.ReplicationServerSettings;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static dr.restapi.examples.appliance.config.Util.loadProperties;
+
+/**
+ * Brings the replication server settings of a fleet of VRMS and VRS appliances in line with a desired profile.
+ * <p>The profile names the network interface which carries the replication traffic (filter IP) and the one which
+ * carries the management traffic (management IP), e.g. a dedicated 10 GbE interface for replication on every
+ * appliance. The address of the interface is resolved on each appliance; an appliance can also be given fixed
+ * addresses. Settings which the profile leaves empty are not managed.
+ * <p>The settings of all appliances are read concurrently and compared with the profile. Only appliances with drift
+ * are updated, with a concurrency limit, and their unchanged settings are sent as they were read. Each update is
+ * verified by reading the settings again, and the drift of the whole fleet is reported per setting.
+ */
+public class ReplicationServerSettingsTuner implements AutoCloseable {
+
+   private static final Properties properties;
+   private static final String FILTER_INTERFACE;
+   private static final String MANAGEMENT_INTERFACE;
+   private static final int PARALLELISM;
+   private static final int MAX_CONCURRENT_UPDATES;
+   private static final boolean DRY_RUN;
+
+   private static final String FILTER_IP = "filterIp";
+   private static final String MANAGEMENT_IP = "managementIp";
+
+   static {
+      properties = loadProperties();
+      FILTER_INTERFACE = properties.getProperty("settings.filter_interface", "");
+      MANAGEMENT_INTERFACE = properties.getProperty("settings.management_interface", "");
+      PARALLELISM = Integer.parseInt(properties.getProperty("settings.parallelism", "16"));
+      MAX_CONCURRENT_UPDATES = Integer.parseInt(properties.getProperty("settings.max_concurrent_updates", "4"));
+      DRY_RUN = Boolean.parseBoolean(properties.getProperty("settings.dry_run", "true"));
+   }
+
+   /**
+    * A managed setting: how to read it from and write it to the model.
+    */
+   private static final class Field {
+      private final String name;
+      private final Function<ReplicationServerSettings, String> getter;
+      private final BiConsumer<ReplicationServerSettings, String> setter;
+
+      private Field(String name,
+                    Function<ReplicationServerSettings, String> getter,
+                    BiConsumer<ReplicationServerSettings, String> setter) {
+         this.name = name;
+         this.getter = getter;
+         this.setter = setter;
+      }
+   }
+
+   private static final List<Field> FIELDS = Arrays.asList(
+         new Field(FILTER_IP, ReplicationServerSettings::getFilterIp, ReplicationServerSettings::setFilterIp),
+         new Field(MANAGEMENT_IP,
+                   ReplicationServerSettings::getManagementIp,
+                   ReplicationServerSettings::setManagementIp));
+
+   /**
+    * Outcome of the tuning of one appliance.
+    */
+   public enum Outcome {
+      IN_SYNC, DRIFT, UPDATED, NOT_APPLIED, FAILED
+   }
+
+   /**
+    * The settings of one appliance compared with the profile.
+    */
+   public static final class Result {
+      private final String appliance;
+      private final Map<String, String> drift = new LinkedHashMap<>();
+      private Outcome outcome;
+      private String message = "";
+
+      private Result(String appliance) {
+         this.appliance = appliance;
+      }
+
+      public String getAppliance() {
+         return appliance;
+      }
+
+      /**
+       * The settings which differed from the profile when they were read, as {@code current -> desired}.
+       *
+       * @return The drift by setting name.
+       */
+      public Map<String, String> getDrift() {
+         return drift;
+      }
+
+      public Outcome getOutcome() {
+         return outcome;
+      }
+
+      public String getMessage() {
+         return message;
+      }
+   }
+
+   private final Map<String, String> interfaces;
+   private final Properties overrides;
+   private final ExecutorService readers;
+   private final ExecutorService writers;
+
+   /**
+    * Creates a tuner.
+    *
+    * @param interfaces           The interface name by setting name; missing or empty settings are not managed.
+    * @param overrides            The properties with fixed addresses of single appliances,
+    *                             {@code appliance.<name>.filter_ip} and {@code appliance.<name>.management_ip}.
+    * @param parallelism          The maximum number of concurrent reads.
+    * @param maxConcurrentUpdates The maximum number of appliances updated at the same time.
+    */
+   public ReplicationServerSettingsTuner(Map<String, String> interfaces,
+                                         Properties overrides,
+                                         int parallelism,
+                                         int maxConcurrentUpdates) {
+      this.interfaces = interfaces;
+      this.overrides = overrides;
+      this.readers = Executors.newFixedThreadPool(parallelism);
+      this.writers = Executors.newFixedThreadPool(maxConcurrentUpdates);
+   }
+
+   public static void main(String[] args) {
+
+      Map<String, String> interfaces = new HashMap<>();
+      interfaces.put(FILTER_IP, FILTER_INTERFACE);
+      interfaces.put(MANAGEMENT_IP, MANAGEMENT_INTERFACE);
+      try (ApplianceFleet fleet = new ApplianceFleet(properties);
+           ReplicationServerSettingsTuner tuner = new ReplicationServerSettingsTuner(interfaces,
+                                                                                     properties,
+                                                                                     PARALLELISM,
+                                                                                     MAX_CONCURRENT_UPDATES)) {
+         List<Result> results = tuner.tune(fleet.getSessions(), DRY_RUN);
+
+         Map<String, Integer> driftBySetting = new TreeMap<>();
+         for (Result result : results) {
+            System.out.printf("%-30s %-12s %s%s%n",
+                              result.getAppliance(),
+                              result.getOutcome(),
+                              result.getDrift(),
+                              result.getMessage().isEmpty() ? "" : " - " + result.getMessage());
+            result.getDrift().keySet().forEach(setting -> driftBySetting.merge(setting, 1, Integer::sum));
+         }
+         System.out.println("Fleet drift: " + driftBySetting.values().stream().mapToInt(Integer::intValue).sum()
+                            + " settings on " + results.stream().filter(result -> !result.getDrift().isEmpty()).count()
+                            + " of " + results.size() + " appliances " + driftBySetting);
+      }
+   }
+
+   /**
+    * Reads the settings of all appliances, updates the ones with drift and verifies the updates.
+    *
+    * @param sessions The appliances.
+    * @param dryRun   Whether to report the drift only.
+    * @return The results, in the order of the sessions.
+    */
+   public List<Result> tune(List<ApplianceSession> sessions, boolean dryRun) {
+
+      Map<Result, CompletableFuture<Void>> tunings = new LinkedHashMap<>();
+      for (ApplianceSession session : sessions) {
+         Result result = new Result(session.getName());
+         CompletableFuture<Void> tuning = CompletableFuture
+               .supplyAsync(() -> diff(session, result), readers)
+               .thenAcceptAsync(desired -> {
+                  if (result.drift.isEmpty()) {
+                     result.outcome = Outcome.IN_SYNC;
+                  } else if (dryRun) {
+                     result.outcome = Outcome.DRIFT;
+                  } else {
+                     apply(session, desired, result);
+                  }
+               }, writers);
+         tunings.put(result, tuning);
+      }
+
+      for (Map.Entry<Result, CompletableFuture<Void>> tuning : tunings.entrySet()) {
+         try {
+            tuning.getValue().join();
+         } catch (CompletionException e) {
+            tuning.getKey().outcome = Outcome.FAILED;
+            tuning.getKey().message = (e.getCause() != null ? e.getCause() : e).getMessage();
+         }
+      }
+      return new ArrayList<>(tunings.keySet());
+   }
+
+   @Override
+   public void close() {
+      readers.shutdownNow();
+      writers.shutdownNow();
+   }
+
+   /**
+    * Reads the current settings and records the drift.
+    *
+    * @return The settings to write: the current settings with the drifted fields replaced.
+    */
+   private ReplicationServerSettings diff(ApplianceSession session, Result result) {
+
+      ReplicationServerSettings current = read(session);
+      ReplicationServerSettings desired = copy(current);
+      for (Field field : FIELDS) {
+         String value = desiredValue(session, field);
+         String currentValue = field.getter.apply(current);
+         if (value != null && !value.equals(currentValue)) {
+            field.setter.accept(desired, value);
+            result.drift.put(field.name, currentValue + " -> " + value);
+         }
+      }
+      return desired;
+   }
+
+   private void apply(ApplianceSession session, ReplicationServerSettings desired, Result result) {
+
+      session.call(client -> {
+         new ConfigurationApi(client).updateReplicationServerSettings(desired);
+         return null;
+      });
+
+      ReplicationServerSettings applied = read(session);
+      List<String> notApplied = new ArrayList<>();
+      for (Field field : FIELDS) {
+         if (result.drift.containsKey(field.name)
+             && !Objects.equals(field.getter.apply(desired), field.getter.apply(applied))) {
+            notApplied.add(field.name + " is " + field.getter.apply(applied));
+         }
+      }
+      result.outcome = notApplied.isEmpty() ? Outcome.UPDATED : Outcome.NOT_APPLIED;
+      result.message = String.join(", ", notApplied);
+   }
+
+   /**
+    * The desired value of a setting: the fixed address of the appliance, or the IPv4 address of the profile
+    * interface on the appliance.
+    *
+    * @return The value, or null when the setting is not managed.
+    */
+   private String desiredValue(ApplianceSession session, Field field) {
+
+      String key = "appliance." + session.getName() + "."
+                   + (FILTER_IP.equals(field.name) ? "filter_ip" : "management_ip");
+      String fixed = overrides.getProperty(key, "");
+      if (!fixed.isEmpty()) {
+         return fixed;
+      }
+      String interfaceName = interfaces.getOrDefault(field.name, "");
+      if (interfaceName.isEmpty()) {
+         return null;
+      }
+
+      NetworkInterfaceInfo nic =
+            session.call(client -> new NetworkApi(client).getNetworkInterfaceSettings(interfaceName));
+      if (nic.getStatus() != NetworkInterfaceInfo.StatusEnum.UP
+          || nic.getIpv4() == null || nic.getIpv4().getAddress() == null) {
+         throw new IllegalStateException("Interface " + interfaceName + " of " + session.getName()
+                                         + " is not up with an IPv4 address.");
+      }
+      return nic.getIpv4().getAddress();
+   }
+
+   private static ReplicationServerSettings read(ApplianceSession session) {
+      return session.call(client -> new ConfigurationApi(client).getReplicationServerSettings());
+   }
+
+   private static ReplicationServerSettings copy(ReplicationServerSettings settings) {
+
+      ReplicationServerSettings copy = new ReplicationServerSettings();
+      for (Field field : FIELDS) {
+         field.setter.accept(copy, field.getter.apply(settings));
+      }
+      return copy;
+   }
+}
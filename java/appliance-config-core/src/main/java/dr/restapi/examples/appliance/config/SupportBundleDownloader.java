@@ -0,0 +1,469 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.appliance.config;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.ApiException;
+import dr.restapi.examples.apiclient.applianceconfig.api.SupportBundlesApi;
+import dr.restapi.examples.apiclient.applianceconfig.model.SupportBundleInfo;
+import dr.restapi.examples.apiclient.applianceconfig.model.Task.StatusEnum;
+import dr.restapi.examples.apiclient.applianceconfig.model.TaskDrResponseEntity;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static dr.restapi.examples.appliance.config.Util.getAllPages;
+import static dr.restapi.examples.appliance.config.Util.loadProperties;
+import static dr.restapi.examples.appliance.config.Util.waitTaskEnd;
+
+/**
+ * Generates and downloads the support bundles of several appliances in parallel. Only SRM and VRMS appliances provide
+ * support bundles.
+ * <p>The generated {@code downloadSupportBundleInfo} operation does not return the bundle, so the download request is
+ * built with the ApiClient of the appliance and its body is streamed straight into the target file with
+ * {@link FileChannel#transferFrom}, without buffering the bundle in memory or in a temporary file. The MD5 checksum is
+ * computed while the bytes pass through and compared with the one reported by the appliance.
+ * <p>Bundles are written to a {@code .part} file first. A failed download is resumed with an HTTP range request from
+ * the end of the {@code .part} file, also by a later run, and the file is renamed only when it is complete and its
+ * checksum matches. The bandwidth can be capped for all downloads together and for each download.
+ */
+public class SupportBundleDownloader implements AutoCloseable {
+
+   private static final Properties properties;
+   private static final String APPLIANCES;
+   private static final boolean GENERATE;
+   private static final String OUTPUT_DIR;
+   private static final int PARALLELISM;
+   private static final long MAX_BYTES_PER_SECOND;
+   private static final long MAX_BYTES_PER_SECOND_PER_DOWNLOAD;
+   private static final int RETRIES;
+
+   private static final long TRANSFER_CHUNK = 1 << 20;
+   private static final int HTTP_PARTIAL_CONTENT = 206;
+   private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+   private static final int HTTP_UNAUTHORIZED = 401;
+
+   static {
+      properties = loadProperties();
+      APPLIANCES = properties.getProperty("bundle.appliances", "");
+      GENERATE = Boolean.parseBoolean(properties.getProperty("bundle.generate", "true"));
+      OUTPUT_DIR = properties.getProperty("bundle.output_dir", "support-bundles");
+      PARALLELISM = Integer.parseInt(properties.getProperty("bundle.parallelism", "4"));
+      MAX_BYTES_PER_SECOND = Long.parseLong(properties.getProperty("bundle.max_bytes_per_second", "0"));
+      MAX_BYTES_PER_SECOND_PER_DOWNLOAD =
+            Long.parseLong(properties.getProperty("bundle.max_bytes_per_second_per_download", "0"));
+      RETRIES = Integer.parseInt(properties.getProperty("bundle.retries", "3"));
+   }
+
+   /**
+    * A downloaded support bundle.
+    */
+   public static final class Download {
+      private final String appliance;
+      private final SupportBundleInfo bundle;
+      private final Path file;
+      private final long resumedFrom;
+      private final long duration;
+
+      private Download(String appliance, SupportBundleInfo bundle, Path file, long resumedFrom, long duration) {
+         this.appliance = appliance;
+         this.bundle = bundle;
+         this.file = file;
+         this.resumedFrom = resumedFrom;
+         this.duration = duration;
+      }
+
+      public String getAppliance() {
+         return appliance;
+      }
+
+      public SupportBundleInfo getBundle() {
+         return bundle;
+      }
+
+      public Path getFile() {
+         return file;
+      }
+
+      /**
+       * The size of the {@code .part} file the download was resumed from, 0 for a new download.
+       *
+       * @return The number of bytes which were not downloaded again.
+       */
+      public long getResumedFrom() {
+         return resumedFrom;
+      }
+
+      public long getDuration() {
+         return duration;
+      }
+   }
+
+   /**
+    * A token bucket which holds back the reading thread when more bytes were read than the rate allows.
+    */
+   private static final class RateLimiter {
+      private final long bytesPerSecond;
+      private long available;
+      private long refilledAt = System.nanoTime();
+
+      private RateLimiter(long bytesPerSecond) {
+         this.bytesPerSecond = bytesPerSecond;
+         this.available = bytesPerSecond;
+      }
+
+      private void acquire(long bytes) throws IOException {
+
+         long sleep;
+         synchronized (this) {
+            long now = System.nanoTime();
+            long elapsed = Math.min(now - refilledAt, TimeUnit.SECONDS.toNanos(1));
+            available = Math.min(bytesPerSecond, available + elapsed * bytesPerSecond / TimeUnit.SECONDS.toNanos(1));
+            refilledAt = now;
+            available -= bytes;
+            sleep = available < 0 ? -available * 1000 / bytesPerSecond : 0;
+         }
+         if (sleep > 0) {
+            try {
+               Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new IOException("Download interrupted.", e);
+            }
+         }
+      }
+   }
+
+   /**
+    * Passes the response body through the digest and the rate limiters on its way to the file channel.
+    */
+   private static final class MeteredChannel implements ReadableByteChannel {
+      private final ReadableByteChannel source;
+      private final MessageDigest digest;
+      private final List<RateLimiter> limiters;
+      private boolean endOfStream;
+
+      private MeteredChannel(ReadableByteChannel source, MessageDigest digest, List<RateLimiter> limiters) {
+         this.source = source;
+         this.digest = digest;
+         this.limiters = limiters;
+      }
+
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+
+         int start = dst.position();
+         int read = source.read(dst);
+         if (read < 0) {
+            endOfStream = true;
+            return read;
+         }
+         digest.update(dst.duplicate().position(start).limit(start + read));
+         for (RateLimiter limiter : limiters) {
+            limiter.acquire(read);
+         }
+         return read;
+      }
+
+      @Override
+      public boolean isOpen() {
+         return source.isOpen();
+      }
+
+      @Override
+      public void close() throws IOException {
+         source.close();
+      }
+   }
+
+   private final Path outputDir;
+   private final int retries;
+   private final long maxBytesPerSecondPerDownload;
+   private final RateLimiter sharedLimiter;
+   private final ExecutorService executor;
+
+   /**
+    * Creates a downloader.
+    *
+    * @param outputDir                    The directory to write the bundles to.
+    * @param parallelism                  The maximum number of concurrent downloads.
+    * @param maxBytesPerSecond            The bandwidth cap of all downloads together, 0 for none.
+    * @param maxBytesPerSecondPerDownload The bandwidth cap of each download, 0 for none.
+    * @param retries                      The number of times a failed download is resumed.
+    */
+   public SupportBundleDownloader(Path outputDir,
+                                  int parallelism,
+                                  long maxBytesPerSecond,
+                                  long maxBytesPerSecondPerDownload,
+                                  int retries) {
+      this.outputDir = outputDir;
+      this.retries = retries;
+      this.maxBytesPerSecondPerDownload = maxBytesPerSecondPerDownload;
+      this.sharedLimiter = maxBytesPerSecond > 0 ? new RateLimiter(maxBytesPerSecond) : null;
+      this.executor = Executors.newFixedThreadPool(parallelism);
+   }
+
+   public static void main(String[] args) throws IOException {
+
+      try (ApplianceFleet fleet = new ApplianceFleet(properties);
+           SupportBundleDownloader downloader = new SupportBundleDownloader(Paths.get(OUTPUT_DIR),
+                                                                            PARALLELISM,
+                                                                            MAX_BYTES_PER_SECOND,
+                                                                            MAX_BYTES_PER_SECOND_PER_DOWNLOAD,
+                                                                            RETRIES)) {
+         List<ApplianceSession> sessions = new ArrayList<>();
+         for (String name : APPLIANCES.split(",")) {
+            if (!name.trim().isEmpty()) {
+               sessions.add(fleet.getSession(name.trim()));
+            }
+         }
+         if (sessions.isEmpty()) {
+            sessions.addAll(fleet.getSessions());
+         }
+
+         Files.createDirectories(Paths.get(OUTPUT_DIR));
+         Map<String, CompletableFuture<Download>> downloads = new LinkedHashMap<>();
+         for (ApplianceSession session : sessions) {
+            downloads.put(session.getName(), downloader.downloadAsync(session, GENERATE));
+         }
+         for (Map.Entry<String, CompletableFuture<Download>> download : downloads.entrySet()) {
+            try {
+               Download done = download.getValue().join();
+               System.out.printf("%-30s %s %d bytes in %d ms%s%n",
+                                 done.getAppliance(),
+                                 done.getFile(),
+                                 Files.size(done.getFile()),
+                                 done.getDuration(),
+                                 done.getResumedFrom() > 0 ? ", resumed from " + done.getResumedFrom() : "");
+            } catch (CompletionException e) {
+               System.out.printf("%-30s download failed: %s%n", download.getKey(), e.getCause().getMessage());
+            }
+         }
+      }
+   }
+
+   /**
+    * Downloads the newest support bundle of an appliance on the executor of the downloader.
+    *
+    * @param session  The session to the appliance.
+    * @param generate Whether to generate a new support bundle first.
+    * @return The download, completed when the bundle is on disk and verified.
+    */
+   public CompletableFuture<Download> downloadAsync(ApplianceSession session, boolean generate) {
+      return CompletableFuture.supplyAsync(() -> {
+         try {
+            return download(session, newestBundle(session, generate));
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+      }, executor);
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+   }
+
+   private SupportBundleInfo newestBundle(ApplianceSession session, boolean generate) {
+
+      if (generate) {
+         TaskDrResponseEntity task = session.call(client -> new SupportBundlesApi(client).generateSupportBundle());
+         TaskDrResponseEntity result = waitTaskEnd(session, task.getId());
+         if (result.getStatus() != StatusEnum.SUCCESS) {
+            String error = result.getError() != null ? ": " + result.getError().getMessage() : ".";
+            throw new IllegalStateException("Support bundle generation ended with status " + result.getStatus()
+                                            + error);
+         }
+      }
+      List<SupportBundleInfo> bundles = session.call(client -> getAllPages(
+            (limit, offset) -> new SupportBundlesApi(client)
+                  .getSupportBundleInfos(null, null, null, null, limit, offset)
+                  .getList()));
+      return bundles.stream()
+                    .max(Comparator.comparing(SupportBundleInfo::getTimeCreated,
+                                              Comparator.nullsFirst(Comparator.naturalOrder())))
+                    .orElseThrow(() -> new IllegalStateException("There is no support bundle on the appliance."));
+   }
+
+   private Download download(ApplianceSession session, SupportBundleInfo bundle) throws IOException {
+
+      long start = System.currentTimeMillis();
+      String fileName = (session.getName() + "-" + bundle.getKey()).replaceAll("[^A-Za-z0-9._-]", "_") + ".tar";
+      Path target = outputDir.resolve(fileName);
+      if (Files.exists(target)) {
+         return new Download(session.getName(), bundle, target, Files.size(target), 0);
+      }
+
+      Path part = outputDir.resolve(fileName + ".part");
+      MessageDigest digest = newDigest();
+      List<RateLimiter> limiters = new ArrayList<>();
+      if (sharedLimiter != null) {
+         limiters.add(sharedLimiter);
+      }
+      if (maxBytesPerSecondPerDownload > 0) {
+         limiters.add(new RateLimiter(maxBytesPerSecondPerDownload));
+      }
+
+      long resumedFrom;
+      try (FileChannel file = FileChannel.open(part,
+                                               StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE)) {
+         resumedFrom = digestFile(file, digest);
+         for (int attempt = 0; ; attempt++) {
+            try {
+               transfer(session, bundle, file, digest, limiters);
+               break;
+            } catch (IOException | UncheckedIOException e) {
+               if (attempt >= retries) {
+                  throw e;
+               }
+               System.out.println("Download from " + session.getName() + " failed, resuming: " + e.getMessage());
+               // the chunk in flight may be partly written and partly digested, so both start again from the file
+               digestFile(file, digest);
+            }
+         }
+         file.force(false);
+      }
+
+      verify(bundle, part, digest);
+      Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+      return new Download(session.getName(), bundle, target, resumedFrom, System.currentTimeMillis() - start);
+   }
+
+   /**
+    * Requests the bundle from the end of the file on and streams the response body into the file.
+    */
+   private void transfer(ApplianceSession session,
+                         SupportBundleInfo bundle,
+                         FileChannel file,
+                         MessageDigest digest,
+                         List<RateLimiter> limiters) throws IOException {
+
+      long position = file.size();
+      if (bundle.getSize() != null && position == bundle.getSize()) {
+         return;
+      }
+      Response response = session.call(client -> execute(client, bundle.getKey(), position));
+      try (ResponseBody body = response.body()) {
+         if (response.code() == HTTP_RANGE_NOT_SATISFIABLE) {
+            // the file already holds the whole bundle; its size and checksum are verified afterwards
+            return;
+         }
+         if (position > 0 && response.code() != HTTP_PARTIAL_CONTENT) {
+            // the appliance ignored the range and sends the whole bundle
+            file.truncate(0);
+            digest.reset();
+         }
+         long offset = file.size();
+         try (MeteredChannel source = new MeteredChannel(Channels.newChannel(body.byteStream()), digest, limiters)) {
+            while (!source.endOfStream) {
+               offset += file.transferFrom(source, offset, TRANSFER_CHUNK);
+            }
+         }
+      }
+   }
+
+   private static Response execute(ApiClient client, String key, long position) {
+
+      Map<String, String> headers = new HashMap<>();
+      headers.put("Accept", "application/x-tar");
+      if (position > 0) {
+         headers.put("Range", "bytes=" + position + "-");
+      }
+      Call call = client.buildCall("/support-bundles/" + client.escapeString(key),
+                                   "GET",
+                                   new ArrayList<>(),
+                                   new ArrayList<>(),
+                                   null,
+                                   headers,
+                                   new HashMap<>(),
+                                   new String[] {"SessionHeader"},
+                                   null);
+      Response response;
+      try {
+         response = call.execute();
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      if (response.isSuccessful() || (position > 0 && response.code() == HTTP_RANGE_NOT_SATISFIABLE)) {
+         return response;
+      }
+      try {
+         response.body().close();
+      } catch (IOException e) {
+         // the error is reported below
+      }
+      if (response.code() == HTTP_UNAUTHORIZED) {
+         throw new ApiException(response.code(), response.message());
+      }
+      throw new UncheckedIOException(new IOException("HTTP " + response.code() + " " + response.message()));
+   }
+
+   /**
+    * Digests the bytes already in the file, so a resumed download gets the checksum of the whole bundle.
+    *
+    * @return The size of the file.
+    */
+   private static long digestFile(FileChannel file, MessageDigest digest) throws IOException {
+
+      digest.reset();
+      ByteBuffer buffer = ByteBuffer.allocateDirect((int) TRANSFER_CHUNK);
+      long position = 0;
+      int read;
+      while ((read = file.read(buffer, position)) > 0) {
+         buffer.flip();
+         digest.update(buffer);
+         buffer.clear();
+         position += read;
+      }
+      return position;
+   }
+
+   private static void verify(SupportBundleInfo bundle, Path part, MessageDigest digest) throws IOException {
+
+      long size = Files.size(part);
+      if (bundle.getSize() != null && size != bundle.getSize()) {
+         if (size > bundle.getSize()) {
+            Files.delete(part);
+         }
+         throw new IOException("Downloaded " + size + " bytes of " + part.getFileName() + ", expected "
+                               + bundle.getSize() + ".");
+      }
+      if (bundle.getMd5() != null && !bundle.getMd5().isEmpty()) {
+         StringBuilder md5 = new StringBuilder();
+         for (byte b : digest.digest()) {
+            md5.append(String.format("%02x", b));
+         }
+         if (!md5.toString().equalsIgnoreCase(bundle.getMd5())) {
+            Files.delete(part);
+            throw new IOException("MD5 checksum of " + part.getFileName() + " is " + md5 + ", expected "
+                                  + bundle.getMd5() + ". The download is deleted.");
+         }
+      }
+   }
+
+   private static MessageDigest newDigest() {
+      try {
+         return MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+}
@@ -0,0 +1,502 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.appliance.config;
+
+import dr.restapi.examples.apiclient.ApiException;
+import dr.restapi.examples.apiclient.applianceconfig.api.ApplianceApi;
+import dr.restapi.examples.apiclient.applianceconfig.api.TasksApi;
+import dr.restapi.examples.apiclient.applianceconfig.api.UpdatesApi;
+import dr.restapi.examples.apiclient.applianceconfig.model.Task.StatusEnum;
+import dr.restapi.examples.apiclient.applianceconfig.model.Task;
+import dr.restapi.examples.apiclient.applianceconfig.model.UpdateInfo;
+import dr.restapi.examples.appliance.config.ApplianceHealthPoller.ApplianceHealth;
+import dr.restapi.examples.appliance.config.ApplianceHealthPoller.Status;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static dr.restapi.examples.appliance.config.Util.getAllPages;
+import static dr.restapi.examples.appliance.config.Util.loadProperties;
+import static dr.restapi.examples.appliance.config.Util.toEpochMillis;
+
+/**
+ * Installs the newest available update on a fleet of appliances, wave by wave.
+ * <p>A wave holds at most {@code rollout.max_parallel} appliances and never both partners of a pairing, so the
+ * partner of an appliance which is being updated keeps serving. The appliances of a wave are updated concurrently:
+ * the available updates are retrieved, the update is installed, the appliance is restarted if the update requires it,
+ * and the install task is tracked until it ends, also across the restart. The next wave starts only when every
+ * appliance of the current wave answers again with all its services running; otherwise the rollout stops.
+ * <p>An appliance is not taken down while its partner is unreachable, even when the partner is not part of the rollout.
+ */
+public class UpdateRollout implements AutoCloseable {
+
+   private static final Properties properties;
+   private static final String APPLIANCES;
+   private static final String VERSION;
+   private static final int MAX_PARALLEL;
+   private static final String PARTNERS;
+   private static final long HEALTH_TIMEOUT;
+   private static final long POLL_INTERVAL;
+   private static final boolean DRY_RUN;
+
+   private static final int HTTP_NOT_FOUND = 404;
+   private static final Pattern VERSION_PATTERN = Pattern.compile("\\d+(\\.\\d+)+");
+
+   static {
+      properties = loadProperties();
+      APPLIANCES = properties.getProperty("rollout.appliances", "");
+      VERSION = properties.getProperty("rollout.version", "");
+      MAX_PARALLEL = Integer.parseInt(properties.getProperty("rollout.max_parallel", "2"));
+      PARTNERS = properties.getProperty("rollout.partners", "");
+      HEALTH_TIMEOUT = Long.parseLong(properties.getProperty("rollout.health_timeout", "1800000"));
+      POLL_INTERVAL = Long.parseLong(properties.getProperty("rollout.poll_interval", "10000"));
+      DRY_RUN = Boolean.parseBoolean(properties.getProperty("rollout.dry_run", "true"));
+   }
+
+   /**
+    * Outcome of the rollout on one appliance.
+    */
+   public enum Outcome {
+      PLANNED, UPDATED, UP_TO_DATE, DEFERRED, FAILED, NOT_STARTED
+   }
+
+   /**
+    * Result of the rollout on one appliance.
+    */
+   public static final class Result {
+      private final String appliance;
+      private final int wave;
+      private Outcome outcome = Outcome.NOT_STARTED;
+      private String version;
+      private String message = "";
+
+      private Result(String appliance, int wave) {
+         this.appliance = appliance;
+         this.wave = wave;
+      }
+
+      public String getAppliance() {
+         return appliance;
+      }
+
+      public int getWave() {
+         return wave;
+      }
+
+      public Outcome getOutcome() {
+         return outcome;
+      }
+
+      /**
+       * The installed or, in a dry run, the available update version.
+       *
+       * @return The version, or null when there is no update.
+       */
+      public String getVersion() {
+         return version;
+      }
+
+      public String getMessage() {
+         return message;
+      }
+   }
+
+   private final ApplianceFleet fleet;
+   private final ApplianceHealthPoller healthPoller;
+   private final Map<String, Set<String>> partners;
+   private final int maxParallel;
+   private final ExecutorService executor;
+
+   /**
+    * Creates a rollout over a fleet.
+    *
+    * @param fleet       The appliances.
+    * @param partners    The partners of each appliance by appliance name.
+    * @param maxParallel The maximum number of appliances per wave.
+    */
+   public UpdateRollout(ApplianceFleet fleet, Map<String, Set<String>> partners, int maxParallel) {
+      this.fleet = fleet;
+      this.partners = partners;
+      this.maxParallel = maxParallel;
+      this.healthPoller = new ApplianceHealthPoller(fleet, maxParallel * 4, HEALTH_TIMEOUT);
+      this.executor = Executors.newFixedThreadPool(maxParallel);
+   }
+
+   public static void main(String[] args) {
+
+      try (ApplianceFleet fleet = new ApplianceFleet(properties);
+           UpdateRollout rollout = new UpdateRollout(fleet, parsePartners(PARTNERS), MAX_PARALLEL)) {
+         List<String> appliances = new ArrayList<>();
+         for (String name : APPLIANCES.split(",")) {
+            if (!name.trim().isEmpty()) {
+               appliances.add(fleet.getSession(name.trim()).getName());
+            }
+         }
+         if (appliances.isEmpty()) {
+            fleet.getSessions().forEach(session -> appliances.add(session.getName()));
+         }
+
+         for (Result result : rollout.run(rollout.planWaves(appliances), DRY_RUN)) {
+            System.out.printf("wave %-3d %-30s %-12s %-20s %s%n",
+                              result.getWave(),
+                              result.getAppliance(),
+                              result.getOutcome(),
+                              result.getVersion() != null ? result.getVersion() : "-",
+                              result.getMessage());
+         }
+      }
+   }
+
+   /**
+    * Splits the appliances into waves of at most {@code maxParallel} appliances, in the given order, so that no wave
+    * holds two partners.
+    *
+    * @param appliances The names of the appliances to update.
+    * @return The waves.
+    */
+   public List<List<String>> planWaves(List<String> appliances) {
+
+      List<List<String>> waves = new ArrayList<>();
+      List<String> remaining = new ArrayList<>(appliances);
+      while (!remaining.isEmpty()) {
+         List<String> wave = new ArrayList<>();
+         for (Iterator<String> iterator = remaining.iterator(); iterator.hasNext() && wave.size() < maxParallel; ) {
+            String appliance = iterator.next();
+            if (Collections.disjoint(wave, partnersOf(appliance))) {
+               wave.add(appliance);
+               iterator.remove();
+            }
+         }
+         waves.add(wave);
+      }
+      return waves;
+   }
+
+   /**
+    * Runs the waves one after another. A wave with a failed appliance stops the rollout. Appliances deferred because
+    * a partner was unreachable are retried in final waves, so the rollout does not end with a pairing on mixed
+    * versions unnoticed; an appliance deferred again there stops the rollout as well.
+    *
+    * @param waves  The waves, see {@link #planWaves(List)}.
+    * @param dryRun Whether to retrieve the available updates only.
+    * @return The results of all appliances, in the order of the waves, with the retries at the end.
+    */
+   public List<Result> run(List<List<String>> waves, boolean dryRun) {
+
+      List<Result> results = new ArrayList<>();
+      List<String> deferred = new ArrayList<>();
+      int index = 0;
+      boolean stopped = false;
+      for (; index < waves.size() && !stopped; index++) {
+         stopped = !runWave(waves.get(index), index + 1, dryRun, results, deferred, Outcome.FAILED);
+      }
+      if (!stopped && !deferred.isEmpty()) {
+         System.out.println("Retrying the deferred appliances " + deferred + ".");
+         List<List<String>> retries = planWaves(deferred);
+         for (int retry = 0; retry < retries.size() && !stopped; retry++, index++) {
+            stopped = !runWave(retries.get(retry), index + 1, dryRun, results, new ArrayList<>(), Outcome.DEFERRED);
+         }
+      }
+      for (; index < waves.size(); index++) {
+         for (String appliance : waves.get(index)) {
+            results.add(new Result(appliance, index + 1));
+         }
+      }
+      return results;
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+      healthPoller.close();
+   }
+
+   /**
+    * Updates the appliances of one wave concurrently and waits for all of them.
+    *
+    * @param appliances The appliances of the wave.
+    * @param number     The number of the wave, used in the results.
+    * @param dryRun     Whether to retrieve the available updates only.
+    * @param results    Receives the results of the wave.
+    * @param deferred   Receives the appliances which were deferred.
+    * @param stopOn     The outcome which stops the rollout besides FAILED.
+    * @return False if the rollout must stop.
+    */
+   private boolean runWave(List<String> appliances,
+                           int number,
+                           boolean dryRun,
+                           List<Result> results,
+                           List<String> deferred,
+                           Outcome stopOn) {
+
+      Map<Result, Future<?>> wave = new LinkedHashMap<>();
+      for (String appliance : appliances) {
+         Result result = new Result(appliance, number);
+         results.add(result);
+         wave.put(result, executor.submit(() -> update(result, dryRun)));
+      }
+      boolean passed = true;
+      for (Map.Entry<Result, Future<?>> update : wave.entrySet()) {
+         try {
+            update.getValue().get();
+         } catch (ExecutionException e) {
+            update.getKey().outcome = Outcome.FAILED;
+            update.getKey().message = e.getCause().getMessage();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+         }
+         Outcome outcome = update.getKey().outcome;
+         if (outcome == Outcome.DEFERRED) {
+            deferred.add(update.getKey().appliance);
+         }
+         passed &= outcome != Outcome.FAILED && outcome != stopOn;
+      }
+      if (!passed) {
+         System.out.println("Wave " + number + " failed, the remaining waves are not started.");
+      }
+      return passed;
+   }
+
+   private void update(Result result, boolean dryRun) {
+
+      ApplianceSession session = fleet.getSession(result.appliance);
+      UpdateInfo update = chooseUpdate(availableUpdates(session));
+      if (update == null) {
+         result.outcome = Outcome.UP_TO_DATE;
+         result.message = VERSION.isEmpty() ? "no update available" : "version " + VERSION + " is not available";
+         return;
+      }
+      result.version = update.getVersion();
+      if (dryRun) {
+         result.outcome = Outcome.PLANNED;
+         result.message = Boolean.TRUE.equals(update.isRebootRequired()) ? "restart required" : "";
+         return;
+      }
+      for (String partner : partnersOf(result.appliance)) {
+         ApplianceHealth health = healthPoller.poll(fleet.getSession(partner)).join();
+         if (health.getStatus() == Status.UNREACHABLE) {
+            result.outcome = Outcome.DEFERRED;
+            result.message = "partner " + partner + " is unreachable";
+            return;
+         }
+      }
+
+      Task install = session.call(client -> new UpdatesApi(client).installUpdate(update.getVersion()));
+      Task installed = trackTask(session, install.getId());
+      if (installed != null && installed.getStatus() != StatusEnum.SUCCESS) {
+         result.outcome = Outcome.FAILED;
+         result.message = "install ended with status " + installed.getStatus()
+                          + (installed.getError() != null ? ": " + installed.getError().getMessage() : "");
+         return;
+      }
+      if (Boolean.TRUE.equals(update.isRebootRequired())) {
+         try {
+            session.call(client -> {
+               new ApplianceApi(client).restartAppliance();
+               return null;
+            });
+         } catch (ApiException e) {
+            // the appliance may drop the connection while it goes down
+         }
+         sleep(POLL_INTERVAL);
+      }
+
+      String problem = awaitHealthy(session);
+      if (problem == null) {
+         String version = session.call(client -> new ApplianceApi(client).getApplianceInfo()).getApplianceVersion();
+         if (!sameVersion(update.getVersion(), version)) {
+            problem = "version is " + version + " after the update, expected " + update.getVersion();
+         }
+      }
+      result.outcome = problem == null ? Outcome.UPDATED : Outcome.FAILED;
+      result.message = problem == null ? (installed == null ? "install task lost during restart, version verified" : "")
+                                       : problem;
+   }
+
+   /**
+    * Compares an update version with the version reported by the appliance info. Only the dotted numeric versions
+    * are compared, e.g. {@code 8.8.0.1234} matches {@code 8.8.0.1234 Build 5678}, and one may omit trailing
+    * components of the other, e.g. the build number.
+    */
+   static boolean sameVersion(String updateVersion, String applianceVersion) {
+
+      List<String> expected = versionComponents(updateVersion);
+      List<String> actual = versionComponents(applianceVersion);
+      if (expected.isEmpty() || actual.isEmpty()) {
+         return Objects.equals(updateVersion, applianceVersion);
+      }
+      int length = Math.min(expected.size(), actual.size());
+      return expected.subList(0, length).equals(actual.subList(0, length));
+   }
+
+   /**
+    * Returns the components of the first dotted numeric version in the text, without leading zeros.
+    */
+   private static List<String> versionComponents(String text) {
+
+      if (text == null) {
+         return Collections.emptyList();
+      }
+      Matcher matcher = VERSION_PATTERN.matcher(text);
+      if (!matcher.find()) {
+         return Collections.emptyList();
+      }
+      List<String> components = new ArrayList<>();
+      for (String component : matcher.group().split("\\.")) {
+         components.add(new BigInteger(component).toString());
+      }
+      return components;
+   }
+
+   /**
+    * Retrieves the available updates; the list is returned in the result of the retrieve task.
+    */
+   private List<UpdateInfo> availableUpdates(ApplianceSession session) {
+
+      Task retrieve = session.call(client -> new UpdatesApi(client).getUpdates());
+      Task retrieved = trackTask(session, retrieve.getId());
+      if (retrieved == null || retrieved.getStatus() != StatusEnum.SUCCESS) {
+         throw new IllegalStateException("Retrieving the updates failed"
+                                         + (retrieved != null && retrieved.getError() != null ?
+                                            ": " + retrieved.getError().getMessage() : "."));
+      }
+      if (retrieved.getResult() == null) {
+         return Collections.emptyList();
+      }
+
+      Gson gson = session.getClient().getJSON().getGson();
+      JsonElement result = gson.toJsonTree(retrieved.getResult());
+      if (result.isJsonObject()) {
+         JsonObject object = result.getAsJsonObject();
+         result = object.entrySet().stream()
+                        .map(Map.Entry::getValue)
+                        .filter(JsonElement::isJsonArray)
+                        .findFirst()
+                        .orElse(object);
+      }
+      if (!result.isJsonArray()) {
+         return Collections.emptyList();
+      }
+      return gson.fromJson(result, new TypeToken<List<UpdateInfo>>() {}.getType());
+   }
+
+   private static UpdateInfo chooseUpdate(List<UpdateInfo> updates) {
+
+      if (!VERSION.isEmpty()) {
+         return updates.stream().filter(update -> VERSION.equals(update.getVersion())).findFirst().orElse(null);
+      }
+      return updates.stream()
+                    .max(Comparator.comparing((UpdateInfo update) -> toEpochMillis(update.getReleaseDate()),
+                                              Comparator.nullsFirst(Comparator.naturalOrder())))
+                    .orElse(null);
+   }
+
+   /**
+    * Polls a task until it ends. While the appliance installs or restarts, failed requests are retried until the
+    * health timeout. A task which the appliance no longer knows by ID, e.g. after a restart, is looked up in the list
+    * of all tasks; a failed lookup is retried as well.
+    *
+    * @return The ended task, or null when the appliance does not know the task anymore.
+    */
+   private Task trackTask(ApplianceSession session, String taskId) {
+
+      long deadline = System.currentTimeMillis() + HEALTH_TIMEOUT;
+      while (true) {
+         Task task;
+         try {
+            try {
+               task = session.call(client -> new TasksApi(client).getTaskInfo(taskId));
+            } catch (ApiException e) {
+               if (e.getCode() != HTTP_NOT_FOUND) {
+                  throw e;
+               }
+               task = session.call(client -> getAllPages((limit, offset) -> new TasksApi(client)
+                     .getAllTasksInfo(null, null, null, null, limit, offset).getList()))
+                             .stream()
+                             .filter(listed -> taskId.equals(listed.getId()))
+                             .findFirst()
+                             .orElse(null);
+               if (task == null) {
+                  return null;
+               }
+            }
+         } catch (ApiException e) {
+            if (System.currentTimeMillis() > deadline) {
+               throw e;
+            }
+            task = null;
+         }
+         if (task != null && task.getStatus() != StatusEnum.RUNNING && task.getStatus() != StatusEnum.QUEUED) {
+            return task;
+         }
+         if (System.currentTimeMillis() > deadline) {
+            throw new IllegalStateException("Task " + taskId + " did not end within " + HEALTH_TIMEOUT + " ms.");
+         }
+         sleep(POLL_INTERVAL);
+      }
+   }
+
+   /**
+    * Waits until the appliance answers and all its services with automatic startup are running.
+    *
+    * @return null when the appliance is healthy, otherwise the last problem.
+    */
+   private String awaitHealthy(ApplianceSession session) {
+
+      long deadline = System.currentTimeMillis() + HEALTH_TIMEOUT;
+      String problem;
+      do {
+         ApplianceHealth health = healthPoller.poll(session).join();
+         if (health.getStatus() == Status.UNREACHABLE) {
+            problem = "unreachable: " + String.join("; ", health.getErrors());
+         } else if (!health.getStoppedServices().isEmpty()) {
+            problem = "services stopped: " + String.join(", ", health.getStoppedServices());
+         } else {
+            return null;
+         }
+         sleep(POLL_INTERVAL);
+      } while (System.currentTimeMillis() < deadline);
+      return problem;
+   }
+
+   private Set<String> partnersOf(String appliance) {
+      return partners.getOrDefault(appliance, Collections.emptySet());
+   }
+
+   /**
+    * Parses partners in the form {@code a:b,c:d}. Partnership is symmetric.
+    */
+   private static Map<String, Set<String>> parsePartners(String value) {
+
+      Map<String, Set<String>> partners = new HashMap<>();
+      for (String pair : value.split(",")) {
+         if (pair.trim().isEmpty()) {
+            continue;
+         }
+         String[] names = pair.split(":");
+         if (names.length != 2) {
+            throw new IllegalArgumentException(pair + " is not a valid pair of partners.");
+         }
+         partners.computeIfAbsent(names[0].trim(), key -> new HashSet<>()).add(names[1].trim());
+         partners.computeIfAbsent(names[1].trim(), key -> new HashSet<>()).add(names[0].trim());
+      }
+      return partners;
+   }
+
+   private static void sleep(long millis) {
+      try {
+         Thread.sleep(millis);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Rollout interrupted.", e);
+      }
+   }
+}
@@ -0,0 +1,110 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.appliance.config;
+
+import dr.restapi.examples.apiclient.applianceconfig.api.TasksApi;
+import dr.restapi.examples.apiclient.applianceconfig.model.Task.StatusEnum;
+import dr.restapi.examples.apiclient.applianceconfig.model.TaskDrResponseEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BiFunction;
+
+/**
+ * Utility class containing helper methods.
+ */
+public class Util {
+
+   private static final String CONFIG_FILE_NAME = "dr-rest-api-examples.properties";
+
+   private static final int PAGE_SIZE = 100;
+
+   private static final long TASK_POLL_INTERVAL = 1000;
+
+   /**
+    * Waits for a task of an appliance to finish execution and retrieves the final status.
+    * The method will block the current thread until the task is no longer in "RUNNING" or "QUEUED" state.
+    *
+    * @param session The session to the appliance which runs the task.
+    * @param taskId  The ID of the task to monitor.
+    * @return A TaskDrResponseEntity object containing the final status and other information about the task.
+    * @throws IllegalStateException If the thread is interrupted.
+    */
+   public static TaskDrResponseEntity waitTaskEnd(ApplianceSession session, String taskId) {
+
+      TaskDrResponseEntity info = session.call(client -> new TasksApi(client).getTaskInfo(taskId));
+      while (info.getStatus() == StatusEnum.RUNNING || info.getStatus() == StatusEnum.QUEUED) {
+         try {
+            Thread.sleep(TASK_POLL_INTERVAL);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for task " + taskId + ".", e);
+         }
+         info = session.call(client -> new TasksApi(client).getTaskInfo(taskId));
+      }
+      return info;
+   }
+
+   /**
+    * Loads properties from a configuration file.
+    *
+    * @return A Properties object containing the loaded properties.
+    */
+   public static Properties loadProperties() {
+
+      ClassLoader loader = Util.class.getClassLoader();
+      InputStream input = loader.getResourceAsStream(CONFIG_FILE_NAME);
+      Properties prop = new Properties();
+      try (InputStream io = input) {
+         prop.load(io);
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+      return prop;
+   }
+
+   /**
+    * Collects all items of a paged list operation.
+    * The operation is called with a limit and an offset until it returns a page smaller than the limit.
+    *
+    * @param operation The list operation, called with the limit and the offset of a page.
+    * @param <T>       The type of the items.
+    * @return All items of all pages.
+    */
+   public static <T> List<T> getAllPages(BiFunction<String, String, List<T>> operation) {
+
+      List<T> items = new ArrayList<>();
+      List<T> page;
+      do {
+         page = operation.apply(String.valueOf(PAGE_SIZE), String.valueOf(items.size()));
+         if (page != null) {
+            items.addAll(page);
+         }
+      } while (page != null && page.size() == PAGE_SIZE);
+      return items;
+   }
+
+   /**
+    * Converts a time reported by an appliance to milliseconds since the epoch.
+    * SRM and VRMS appliances report times in milliseconds, VRS appliances as ISO 8601 date-times.
+    *
+    * @param time The time as reported by the appliance.
+    * @return The time in milliseconds, or null if the appliance did not report it.
+    * @throws java.time.format.DateTimeParseException If the time is in neither format.
+    */
+   public static Long toEpochMillis(String time) {
+
+      if (time == null || time.isEmpty()) {
+         return null;
+      }
+      if (Character.isDigit(time.charAt(0)) && time.indexOf('-') < 0) {
+         return new BigDecimal(time).longValue();
+      }
+      return OffsetDateTime.parse(time).toInstant().toEpochMilli();
+   }
+}
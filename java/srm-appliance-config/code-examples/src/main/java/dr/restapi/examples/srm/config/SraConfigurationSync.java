@@ -0,0 +1,612 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm.config;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.ApiException;
+import dr.restapi.examples.apiclient.applianceconfig.model.Task.StatusEnum;
+import dr.restapi.examples.apiclient.applianceconfig.model.TaskDrResponseEntity;
+import dr.restapi.examples.apiclient.srmconfig.api.StorageReplicationAdaptersApi;
+import dr.restapi.examples.apiclient.srmconfig.model.StorageReplicationAdapterInfo;
+import dr.restapi.examples.apiclient.srmconfig.model.StringDrData;
+import dr.restapi.examples.appliance.config.ApplianceFleet;
+import dr.restapi.examples.appliance.config.ApplianceSession;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.reflect.TypeToken;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+
+import static dr.restapi.examples.appliance.config.Util.loadProperties;
+import static dr.restapi.examples.appliance.config.Util.waitTaskEnd;
+
+/**
+ * Applies the configuration of a storage replication adapter (SRA) to the same adapter on many SRM appliances.
+ * <p>The configuration archive is taken from a local file or downloaded from a source appliance. The generated
+ * {@code downloadConfiguration} and {@code uploadConfiguration} operations do not carry the archive, so both requests
+ * are built with the ApiClient of the appliance: the download is streamed into the file with a fixed size buffer, and
+ * the upload is a multipart request whose file part is read from disk while it is sent. The archive is never held in
+ * memory as a whole.
+ * <p>All target appliances are processed concurrently. On each one the adapter is looked up by its repository tag,
+ * the configuration is uploaded, or copied from another adapter on the same appliance, the adapter is reloaded if
+ * requested, and the configuration is downloaded again and compared with the applied archive or, after a copy, with
+ * the configuration of the source adapter. The appliance builds the archive anew for every download, so the archives
+ * are compared by the names and SHA-256 digests of their files, not byte by byte; tar headers such as modification
+ * times, owners and the order of the entries are ignored.
+ */
+public class SraConfigurationSync implements AutoCloseable {
+
+   private static final Properties properties;
+   private static final String MODE;
+   private static final String ARCHIVE;
+   private static final String SOURCE_APPLIANCE;
+   private static final String SOURCE_TAG;
+   private static final String TARGET_APPLIANCES;
+   private static final String TARGET_TAG;
+   private static final String UPLOAD_FIELD;
+   private static final boolean RELOAD;
+   private static final boolean VERIFY;
+   private static final int PARALLELISM;
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+   private static final int TAR_BLOCK_SIZE = 512;
+
+   static {
+      properties = loadProperties();
+      MODE = properties.getProperty("sra.mode", "upload");
+      ARCHIVE = properties.getProperty("sra.archive", "sra-configuration.tar");
+      SOURCE_APPLIANCE = properties.getProperty("sra.source_appliance", "");
+      SOURCE_TAG = properties.getProperty("sra.source_tag", "");
+      TARGET_APPLIANCES = properties.getProperty("sra.target_appliances", "");
+      TARGET_TAG = properties.getProperty("sra.target_tag", "");
+      UPLOAD_FIELD = properties.getProperty("sra.upload_field", "file");
+      RELOAD = Boolean.parseBoolean(properties.getProperty("sra.reload", "false"));
+      VERIFY = Boolean.parseBoolean(properties.getProperty("sra.verify", "true"));
+      PARALLELISM = Integer.parseInt(properties.getProperty("sra.parallelism", "8"));
+   }
+
+   /**
+    * Outcome of applying the configuration to one appliance.
+    */
+   public enum Outcome {
+      VERIFIED, APPLIED, DIFFERENT, FAILED
+   }
+
+   /**
+    * Result of applying the configuration to one appliance.
+    */
+   public static final class Result {
+      private final String appliance;
+      private final List<String> steps = new ArrayList<>();
+      private Outcome outcome;
+      private String message = "";
+
+      private Result(String appliance) {
+         this.appliance = appliance;
+      }
+
+      public String getAppliance() {
+         return appliance;
+      }
+
+      /**
+       * The completed steps with their duration, in order.
+       *
+       * @return The steps.
+       */
+      public List<String> getSteps() {
+         return steps;
+      }
+
+      public Outcome getOutcome() {
+         return outcome;
+      }
+
+      public String getMessage() {
+         return message;
+      }
+   }
+
+   private final ExecutorService executor;
+
+   /**
+    * Creates a sync.
+    *
+    * @param parallelism The maximum number of appliances processed concurrently.
+    */
+   public SraConfigurationSync(int parallelism) {
+      this.executor = Executors.newFixedThreadPool(parallelism);
+   }
+
+   public static void main(String[] args) {
+
+      try (ApplianceFleet fleet = new ApplianceFleet(properties);
+           SraConfigurationSync sync = new SraConfigurationSync(PARALLELISM)) {
+         List<ApplianceSession> targets = new ArrayList<>();
+         for (String name : TARGET_APPLIANCES.split(",")) {
+            if (!name.trim().isEmpty()) {
+               targets.add(fleet.getSession(name.trim()));
+            }
+         }
+         if (targets.isEmpty()) {
+            throw new IllegalArgumentException("Property sra.target_appliances does not list any appliance.");
+         }
+
+         List<Result> results;
+         if ("copy".equals(MODE)) {
+            results = sync.copyAll(targets, SOURCE_TAG, TARGET_TAG, RELOAD, VERIFY);
+         } else {
+            Path archive = Paths.get(ARCHIVE);
+            if (!SOURCE_APPLIANCE.isEmpty()) {
+               download(fleet.getSession(SOURCE_APPLIANCE), SOURCE_TAG, archive);
+               System.out.println("Configuration of " + SOURCE_TAG + " downloaded from " + SOURCE_APPLIANCE
+                                  + " to " + archive + ".");
+            }
+            results = sync.uploadAll(targets, TARGET_TAG, archive, RELOAD, VERIFY);
+         }
+         for (Result result : results) {
+            System.out.printf("%-30s %-10s %s%s%n",
+                              result.getAppliance(),
+                              result.getOutcome(),
+                              String.join(", ", result.getSteps()),
+                              result.getMessage().isEmpty() ? "" : " - " + result.getMessage());
+         }
+      }
+   }
+
+   /**
+    * Uploads a configuration archive to the adapter with the given tag on all appliances concurrently.
+    *
+    * @param sessions The target appliances.
+    * @param tag      The repository tag of the adapter.
+    * @param archive  The configuration archive.
+    * @param reload   Whether to reload the adapter after the upload.
+    * @param verify   Whether to download the configuration again and compare it with the archive.
+    * @return The results, in the order of the sessions.
+    */
+   public List<Result> uploadAll(List<ApplianceSession> sessions,
+                                 String tag,
+                                 Path archive,
+                                 boolean reload,
+                                 boolean verify) {
+
+      Map<String, String> expected = entryDigests(archive);
+      return runAll(sessions, (session, result) -> {
+         step(result, "upload", () -> upload(session, tag, archive.toFile()));
+         if (reload) {
+            step(result, "reload", () -> session.call(client -> {
+               new StorageReplicationAdaptersApi(client).reload(tag);
+               return null;
+            }));
+         }
+         if (verify) {
+            Map<String, String> actual = step(result, "verify", () -> entryDigests(session, tag));
+            result.outcome = expected.equals(actual) ? Outcome.VERIFIED : Outcome.DIFFERENT;
+         } else {
+            result.outcome = Outcome.APPLIED;
+         }
+      });
+   }
+
+   /**
+    * Copies the configuration of one adapter to another adapter on each appliance concurrently, e.g. after a new
+    * version of the adapter was installed next to the old one.
+    *
+    * @param sessions  The appliances.
+    * @param sourceTag The repository tag of the adapter to copy the configuration from.
+    * @param targetTag The repository tag of the adapter to copy the configuration to.
+    * @param reload    Whether to reload the target adapter after the copy.
+    * @param verify    Whether to download the configurations of both adapters and compare them.
+    * @return The results, in the order of the sessions.
+    */
+   public List<Result> copyAll(List<ApplianceSession> sessions,
+                               String sourceTag,
+                               String targetTag,
+                               boolean reload,
+                               boolean verify) {
+
+      StringDrData target = new StringDrData();
+      target.setValue(targetTag);
+      return runAll(sessions, (session, result) -> {
+         step(result, "check " + sourceTag, () -> requireAdapter(session, sourceTag));
+         step(result, "copy", () -> session.call(client -> {
+            new StorageReplicationAdaptersApi(client).copyConfiguration(target, sourceTag);
+            return null;
+         }));
+         if (reload) {
+            step(result, "reload", () -> session.call(client -> {
+               new StorageReplicationAdaptersApi(client).reload(targetTag);
+               return null;
+            }));
+         }
+         if (verify) {
+            Map<String, String> expected = step(result, "verify " + sourceTag, () -> entryDigests(session, sourceTag));
+            Map<String, String> actual = step(result, "verify " + targetTag, () -> entryDigests(session, targetTag));
+            result.outcome = expected.equals(actual) ? Outcome.VERIFIED : Outcome.DIFFERENT;
+         } else {
+            result.outcome = Outcome.APPLIED;
+         }
+      });
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+   }
+
+   /**
+    * Runs the action on all appliances concurrently. A failed action fails the result of its appliance only.
+    */
+   private List<Result> runAll(List<ApplianceSession> sessions,
+                               BiConsumer<ApplianceSession, Result> action) {
+
+      Map<Result, Future<?>> futures = new LinkedHashMap<>();
+      for (ApplianceSession session : sessions) {
+         Result result = new Result(session.getName());
+         futures.put(result, executor.submit(() -> action.accept(session, result)));
+      }
+      for (Map.Entry<Result, Future<?>> future : futures.entrySet()) {
+         try {
+            future.getValue().get();
+         } catch (ExecutionException e) {
+            future.getKey().outcome = Outcome.FAILED;
+            future.getKey().message = e.getCause().getMessage();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("SRA configuration sync interrupted.", e);
+         }
+      }
+      return new ArrayList<>(futures.keySet());
+   }
+
+   private static <T> T step(Result result, String name, Callable<T> step) {
+
+      long start = System.currentTimeMillis();
+      try {
+         T value = step.call();
+         result.steps.add(name + " " + (System.currentTimeMillis() - start) + " ms");
+         return value;
+      } catch (RuntimeException e) {
+         throw e;
+      } catch (Exception e) {
+         throw new IllegalStateException(name + " failed: " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Looks up the adapter by its repository tag; the adapters are listed by a task.
+    */
+   private static StorageReplicationAdapterInfo requireAdapter(ApplianceSession session, String tag) {
+
+      String taskId = session.call(client -> new StorageReplicationAdaptersApi(client)
+            .getStorageReplicationAdapters()).getId();
+      TaskDrResponseEntity result = waitTaskEnd(session, taskId);
+      if (result.getStatus() != StatusEnum.SUCCESS) {
+         throw new IllegalStateException("Listing the storage replication adapters ended with status "
+                                         + result.getStatus() + ".");
+      }
+
+      Gson gson = session.getClient().getJSON().getGson();
+      JsonElement adapters = gson.toJsonTree(result.getResult());
+      if (!adapters.isJsonArray()) {
+         JsonArray single = new JsonArray();
+         single.add(adapters);
+         adapters = single;
+      }
+      List<StorageReplicationAdapterInfo> infos =
+            gson.fromJson(adapters, new TypeToken<List<StorageReplicationAdapterInfo>>() {}.getType());
+      return infos.stream()
+                  .filter(info -> info.getRepoTags() != null && info.getRepoTags().contains(tag))
+                  .findFirst()
+                  .orElseThrow(() -> new IllegalStateException("There is no storage replication adapter with tag "
+                                                               + tag + " on " + session.getName() + "."));
+   }
+
+   /**
+    * Uploads the archive as the file part of a multipart request. The generated client streams the file into the
+    * request body.
+    */
+   private static Void upload(ApplianceSession session, String tag, File archive) {
+
+      requireAdapter(session, tag);
+      Map<String, String> headers = new HashMap<>();
+      headers.put("Content-Type", "multipart/form-data");
+      Map<String, Object> form = new HashMap<>();
+      form.put(UPLOAD_FIELD, archive);
+      Response response = session.call(client -> execute(client,
+                                                         "POST",
+                                                         configurationPath(client, tag, "upload-config"),
+                                                         headers,
+                                                         form));
+      try {
+         response.body().close();
+      } catch (IOException e) {
+         // the upload is complete once the status is received
+      }
+      return null;
+   }
+
+   /**
+    * Streams the configuration archive of an adapter into a file.
+    */
+   private static void download(ApplianceSession session, String tag, Path file) {
+
+      Response response = session.call(client -> execute(client,
+                                                         "GET",
+                                                         configurationPath(client, tag, "download-config"),
+                                                         new HashMap<>(),
+                                                         new HashMap<>()));
+      try (ResponseBody body = response.body();
+           ReadableByteChannel source = Channels.newChannel(body.byteStream());
+           FileChannel target = FileChannel.open(file,
+                                                 StandardOpenOption.CREATE,
+                                                 StandardOpenOption.WRITE,
+                                                 StandardOpenOption.TRUNCATE_EXISTING)) {
+         long position = 0;
+         long transferred;
+         while ((transferred = target.transferFrom(source, position, BUFFER_SIZE)) > 0) {
+            position += transferred;
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * Digests the files of the configuration archive of an adapter while it is downloaded, without writing it to disk.
+    */
+   private static Map<String, String> entryDigests(ApplianceSession session, String tag) {
+
+      Response response = session.call(client -> execute(client,
+                                                         "GET",
+                                                         configurationPath(client, tag, "download-config"),
+                                                         new HashMap<>(),
+                                                         new HashMap<>()));
+      try (ResponseBody body = response.body()) {
+         return entryDigests(body.byteStream());
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   private static Map<String, String> entryDigests(Path archive) {
+      try (InputStream input = Files.newInputStream(archive)) {
+         return entryDigests(input);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * Reads a tar archive, optionally gzip compressed, and digests the content of each regular file in it.
+    * GNU long names and PAX paths are honoured; all other header fields are ignored.
+    *
+    * @param input The archive.
+    * @return The Base64 encoded SHA-256 digests keyed by file name, sorted by name.
+    * @throws IOException If the archive cannot be read or is not a tar archive.
+    */
+   private static Map<String, String> entryDigests(InputStream input) throws IOException {
+
+      InputStream tar = new BufferedInputStream(input, BUFFER_SIZE);
+      tar.mark(2);
+      boolean gzip = tar.read() == 0x1f && tar.read() == 0x8b;
+      tar.reset();
+      if (gzip) {
+         tar = new BufferedInputStream(new GZIPInputStream(tar, BUFFER_SIZE), BUFFER_SIZE);
+      }
+
+      Map<String, String> digests = new TreeMap<>();
+      byte[] header = new byte[TAR_BLOCK_SIZE];
+      String nextName = null;
+      while (readFully(tar, header)) {
+         if (isZeroBlock(header)) {
+            break;
+         }
+         long size = tarNumber(header, 124, 12);
+         char type = (char) header[156];
+         if (type == 'L' || type == 'x') {
+            String data = new String(readEntry(tar, size), StandardCharsets.UTF_8);
+            nextName = type == 'L' ? trimNul(data) : paxPath(data, nextName);
+            continue;
+         }
+         String name = nextName != null ? nextName : tarName(header);
+         nextName = null;
+         if (type == '0' || type == '\0' || type == '7') {
+            digests.put(normalizeName(name), Base64.getEncoder().encodeToString(digestEntry(tar, size)));
+         } else {
+            skipEntry(tar, size);
+         }
+      }
+      return digests;
+   }
+
+   private static byte[] digestEntry(InputStream tar, long size) throws IOException {
+
+      MessageDigest digest;
+      try {
+         digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      }
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long remaining = size;
+      while (remaining > 0) {
+         int read = tar.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+         if (read < 0) {
+            throw new EOFException("Truncated tar archive.");
+         }
+         digest.update(buffer, 0, read);
+         remaining -= read;
+      }
+      skipFully(tar, padding(size));
+      return digest.digest();
+   }
+
+   private static byte[] readEntry(InputStream tar, long size) throws IOException {
+
+      byte[] data = new byte[(int) size];
+      if (!readFully(tar, data) && size > 0) {
+         throw new EOFException("Truncated tar archive.");
+      }
+      skipFully(tar, padding(size));
+      return data;
+   }
+
+   private static void skipEntry(InputStream tar, long size) throws IOException {
+      skipFully(tar, size + padding(size));
+   }
+
+   private static long padding(long size) {
+      return (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+   }
+
+   private static boolean readFully(InputStream input, byte[] buffer) throws IOException {
+
+      int offset = 0;
+      while (offset < buffer.length) {
+         int read = input.read(buffer, offset, buffer.length - offset);
+         if (read < 0) {
+            if (offset == 0) {
+               return false;
+            }
+            throw new EOFException("Truncated tar archive.");
+         }
+         offset += read;
+      }
+      return true;
+   }
+
+   private static void skipFully(InputStream input, long count) throws IOException {
+
+      long remaining = count;
+      while (remaining > 0) {
+         long skipped = input.skip(remaining);
+         if (skipped <= 0) {
+            if (input.read() < 0) {
+               throw new EOFException("Truncated tar archive.");
+            }
+            skipped = 1;
+         }
+         remaining -= skipped;
+      }
+   }
+
+   private static boolean isZeroBlock(byte[] block) {
+      for (byte b : block) {
+         if (b != 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Reads a numeric header field, either octal text or GNU base-256 binary.
+    */
+   private static long tarNumber(byte[] header, int offset, int length) throws IOException {
+
+      if ((header[offset] & 0x80) != 0) {
+         long value = 0;
+         for (int i = offset + 1; i < offset + length; i++) {
+            value = (value << 8) | (header[i] & 0xff);
+         }
+         return value;
+      }
+      String text = trimNul(new String(header, offset, length, StandardCharsets.US_ASCII)).trim();
+      try {
+         return text.isEmpty() ? 0 : Long.parseLong(text, 8);
+      } catch (NumberFormatException e) {
+         throw new IOException("Not a tar archive.", e);
+      }
+   }
+
+   private static String tarName(byte[] header) {
+
+      String name = trimNul(new String(header, 0, 100, StandardCharsets.UTF_8));
+      boolean ustar = new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar");
+      String prefix = ustar ? trimNul(new String(header, 345, 155, StandardCharsets.UTF_8)) : "";
+      return prefix.isEmpty() ? name : prefix + "/" + name;
+   }
+
+   /**
+    * Finds the path record in PAX extended header data; records have the form {@code "<length> <key>=<value>\n"}.
+    */
+   private static String paxPath(String data, String current) {
+      for (String record : data.split("\n")) {
+         int space = record.indexOf(' ');
+         if (space > 0 && record.startsWith("path=", space + 1)) {
+            return record.substring(space + 1 + "path=".length());
+         }
+      }
+      return current;
+   }
+
+   private static String trimNul(String value) {
+      int end = value.indexOf('\0');
+      return end >= 0 ? value.substring(0, end) : value;
+   }
+
+   private static String normalizeName(String name) {
+      return name.startsWith("./") ? name.substring(2) : name;
+   }
+
+   private static String configurationPath(ApiClient client, String tag, String action) {
+      return "/storage-replication-adapters/" + client.escapeString(tag) + "/actions/" + action;
+   }
+
+   private static Response execute(ApiClient client,
+                                   String method,
+                                   String path,
+                                   Map<String, String> headers,
+                                   Map<String, Object> form) {
+
+      Call call = client.buildCall(path,
+                                   method,
+                                   new ArrayList<>(),
+                                   new ArrayList<>(),
+                                   null,
+                                   headers,
+                                   form,
+                                   new String[] {"SessionHeader"},
+                                   null);
+      Response response;
+      try {
+         response = call.execute();
+      } catch (IOException e) {
+         throw new ApiException(e);
+      }
+      if (response.isSuccessful()) {
+         return response;
+      }
+      try {
+         response.body().close();
+      } catch (IOException e) {
+         // the status is reported below
+      }
+      throw new ApiException(response.code(), method + " " + path + ": HTTP " + response.code() + " "
+                                              + response.message());
+   }
+}
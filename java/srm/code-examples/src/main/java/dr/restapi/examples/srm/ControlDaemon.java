@@ -0,0 +1,532 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.ApiException;
+import dr.restapi.examples.apiclient.srm.api.AuthenticationApi;
+import dr.restapi.examples.apiclient.srm.api.RecoveryApi;
+import dr.restapi.examples.apiclient.srm.api.TasksApi;
+import dr.restapi.examples.apiclient.srm.model.*;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static dr.restapi.examples.srm.PrepareSetup.*;
+import static dr.restapi.examples.srm.Util.*;
+
+/**
+ * Long-running process which keeps its session, connections and caches warm and accepts recovery plan operations
+ * over a local HTTP endpoint, so that a scheduler pays neither a JVM start nor a login per operation.
+ * The daemon logs in once and creates the remote session of a pairing on its first operation. The session is read
+ * every "daemon.keep_alive_interval" ms, which also keeps the pooled connections open, and renewed when it expired.
+ * The pairings and the recovery plans of every pairing are cached, so a plan can be given by name.
+ * The endpoint listens on the loopback address only. Every request needs the header X-Daemon-Token with the random
+ * token written to "daemon.token_file" at start. Operations are accepted with 202 and run concurrently:
+ * POST /operations/test?pairing=remote VC&amp;plan=plan name or ID runs a test recovery,
+ * POST /operations/cleanup?pairing=remote VC&amp;plan=plan name or ID cleans it up,
+ * GET /operations/operation ID returns the state and the task of an operation,
+ * GET /status returns the session, the caches and the number of operations by state, and
+ * POST /shutdown stops the daemon.
+ */
+public class ControlDaemon implements AutoCloseable {
+
+   private static final Properties properties;
+   private static final int PORT;
+   private static final String TOKEN_FILE;
+   private static final int MAX_OPERATIONS;
+   private static final long KEEP_ALIVE_INTERVAL;
+   private static final long DURATION;
+   private static final String SYNC_DATA;
+   private static final String FORCED;
+
+   private static final String TOKEN_HEADER = "X-Daemon-Token";
+   private static final String PAGE_SIZE = "100";
+   private static final int UNAUTHORIZED = 401;
+   private static final long TASK_POLL_INTERVAL = 500;
+   private static final long OPERATION_RETENTION = TimeUnit.HOURS.toMillis(1);
+
+   static {
+      properties = loadProperties();
+      PORT = Integer.parseInt(properties.getProperty("daemon.port", "8088"));
+      TOKEN_FILE = properties.getProperty("daemon.token_file", "daemon.token");
+      MAX_OPERATIONS = Integer.parseInt(properties.getProperty("daemon.max_operations", "16"));
+      KEEP_ALIVE_INTERVAL = Long.parseLong(properties.getProperty("daemon.keep_alive_interval", "60000"));
+      DURATION = Long.parseLong(properties.getProperty("daemon.duration", "0"));
+      SYNC_DATA = properties.getProperty("plan.sync_data", "true");
+      FORCED = properties.getProperty("plan.forced", "false");
+   }
+
+   /**
+    * An operation accepted by the daemon, returned as JSON.
+    */
+   static final class Operation {
+      final String id;
+      final String type;
+      final String pairing;
+      final String plan;
+      final long submittedAt = System.currentTimeMillis();
+      volatile String state = "QUEUED";
+      volatile long completedAt;
+      volatile TaskDrResponseEntity task;
+      volatile String error;
+
+      Operation(String id, String type, String pairing, String plan) {
+         this.id = id;
+         this.type = type;
+         this.pairing = pairing;
+         this.plan = plan;
+      }
+   }
+
+   private final ApiClient client = initApiClient();
+   private final Gson gson = new Gson();
+   private final ExecutorService operationExecutor = Executors.newFixedThreadPool(MAX_OPERATIONS);
+   private final ScheduledExecutorService keepAliveExecutor = Executors.newSingleThreadScheduledExecutor();
+   private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+   private final AtomicLong operationIds = new AtomicLong();
+   private final Map<String, String> pairingIds = new ConcurrentHashMap<>();
+   private final Set<String> remoteSessions = ConcurrentHashMap.newKeySet();
+   private final Map<String, Map<String, String>> planIdsByName = new ConcurrentHashMap<>();
+   private final CountDownLatch shutdown = new CountDownLatch(1);
+   private HttpServer server;
+   private byte[] token;
+   private volatile long loggedInAt;
+
+   public static void main(String[] args) {
+      try (ControlDaemon obj = new ControlDaemon()) {
+         obj.start();
+         obj.awaitShutdown();
+      }
+   }
+
+   /**
+    * Private utility method for starting the daemon.
+    * The method executes the following tasks in sequence:
+    * 1. Logs in and caches the pairings.
+    * 2. Writes a new random token to the token file, readable only by the owner where supported.
+    * 3. Starts the endpoint on the loopback address.
+    * 4. Schedules the session keep-alive.
+    */
+   private void start() {
+
+      login();
+      refreshPairings();
+      token = writeToken(Paths.get(TOKEN_FILE));
+
+      try {
+         server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 0);
+      } catch (IOException e) {
+         throw new RuntimeException("Daemon endpoint cannot listen on port " + PORT + ".", e);
+      }
+      server.createContext("/", this::handle);
+      server.setExecutor(Executors.newCachedThreadPool());
+      server.start();
+      keepAliveExecutor.scheduleWithFixedDelay(this::keepAlive,
+                                               KEEP_ALIVE_INTERVAL,
+                                               KEEP_ALIVE_INTERVAL,
+                                               TimeUnit.MILLISECONDS);
+
+      System.out.printf("Daemon listens on %s, the token is in %s, %d pairings.%n",
+                        server.getAddress(),
+                        Paths.get(TOKEN_FILE).toAbsolutePath(),
+                        pairingIds.size());
+   }
+
+   /**
+    * Private utility method for waiting until POST /shutdown, or until "daemon.duration" ms if it is not 0.
+    */
+   private void awaitShutdown() {
+
+      try {
+         if (DURATION > 0) {
+            shutdown.await(DURATION, TimeUnit.MILLISECONDS);
+         } else {
+            shutdown.await();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   @Override
+   public void close() {
+
+      if (server != null) {
+         server.stop(0);
+         ((ExecutorService) server.getExecutor()).shutdownNow();
+      }
+      keepAliveExecutor.shutdownNow();
+      operationExecutor.shutdownNow();
+      if (loggedInAt != 0) {
+         new AuthenticationApi(client).logout();
+      }
+   }
+
+   private synchronized void login() {
+
+      client.addDefaultHeader("x-dr-session", runLogin(client));
+      remoteSessions.clear();
+      loggedInAt = System.currentTimeMillis();
+   }
+
+   /**
+    * Private utility method for logging in again, unless another operation did since the given login.
+    */
+   private synchronized void renew(long usedLogin) {
+
+      if (loggedInAt == usedLogin) {
+         System.out.println("Session is not valid anymore, logging in again.");
+         login();
+      }
+   }
+
+   private void keepAlive() {
+
+      long usedLogin = loggedInAt;
+      try {
+         new AuthenticationApi(client).getCurrentSession();
+      } catch (ApiException e) {
+         try {
+            renew(usedLogin);
+         } catch (RuntimeException loginFailure) {
+            System.out.println("Login failed, retrying at the next keep-alive. " + loginFailure.getMessage());
+         }
+      }
+   }
+
+   private void refreshPairings() {
+
+      for (Pairing pairing : runGetAllPairings(client).getList()) {
+         pairingIds.put(pairing.getRemoteVcServer().getName(), pairing.getPairingId().toString());
+      }
+   }
+
+   /**
+    * Private utility method for finding the pairing of a remote VC, reading the pairings again if it is not cached.
+    *
+    * @throws IllegalArgumentException If there is no such pairing.
+    */
+   private String getPairingId(String remoteVcName) {
+
+      if (!pairingIds.containsKey(remoteVcName)) {
+         refreshPairings();
+      }
+      String pairingId = pairingIds.get(remoteVcName);
+      if (pairingId == null) {
+         throw new IllegalArgumentException("No pairing with a remote VC name " + remoteVcName + " is found.");
+      }
+      return pairingId;
+   }
+
+   /**
+    * Private utility method for finding a recovery plan by name or ID, reading the plans again if it is not cached.
+    *
+    * @throws IllegalArgumentException If there is no such plan.
+    */
+   private String getPlanId(String pairingId, String plan) {
+
+      Map<String, String> plans = planIdsByName.computeIfAbsent(pairingId, id -> readPlans(pairingId));
+      if (!plans.containsKey(plan) && !plans.containsValue(plan)) {
+         plans = readPlans(pairingId);
+         planIdsByName.put(pairingId, plans);
+      }
+      if (plans.containsKey(plan)) {
+         return plans.get(plan);
+      }
+      if (plans.containsValue(plan)) {
+         return plan;
+      }
+      throw new IllegalArgumentException("No recovery plan " + plan + " is found.");
+   }
+
+   private Map<String, String> readPlans(String pairingId) {
+
+      ensureRemoteSession(pairingId);
+      RecoveryApi instance = new RecoveryApi(client);
+
+      Map<String, String> plans = new ConcurrentHashMap<>();
+      int offset = 0;
+      List<RecoveryPlanInfo> page;
+      do {
+         page = instance.getAllRecoveryPlans(pairingId, null, null, null, null,
+                                             PAGE_SIZE, String.valueOf(offset)).getList();
+         for (RecoveryPlanInfo plan : page) {
+            plans.put(plan.getName(), plan.getId());
+         }
+         offset += page.size();
+      } while (page.size() == Integer.parseInt(PAGE_SIZE));
+      return plans;
+   }
+
+   private void ensureRemoteSession(String pairingId) {
+
+      if (!remoteSessions.contains(pairingId)) {
+         runRemoteLogin(client, pairingId);
+         remoteSessions.add(pairingId);
+      }
+   }
+
+   /**
+    * Private utility method for accepting an operation and running it on the operation threads.
+    * The operation runs with the warm sessions; if the server does not accept the session anymore, the daemon logs
+    * in again and runs the operation once more.
+    *
+    * @param type         The operation type, used in the output.
+    * @param remoteVcName The remote VC name of the pairing.
+    * @param plan         The name or ID of the recovery plan.
+    * @param request      Sends the request of the operation for a pairing ID and plan ID and returns its task.
+    * @return The accepted operation.
+    */
+   private Operation submit(String type,
+                            String remoteVcName,
+                            String plan,
+                            Function<String[], TaskDrResponseEntity> request) {
+
+      long now = System.currentTimeMillis();
+      operations.values().removeIf(o -> o.completedAt != 0 && now - o.completedAt > OPERATION_RETENTION);
+
+      String pairingId = getPairingId(remoteVcName);
+      Operation operation = new Operation(String.valueOf(operationIds.incrementAndGet()), type, remoteVcName, plan);
+      operations.put(operation.id, operation);
+
+      operationExecutor.execute(() -> {
+         operation.state = "RUNNING";
+         try {
+            TaskDrResponseEntity task = withSession(pairingId,
+                                                    () -> request.apply(new String[] {pairingId,
+                                                                                      getPlanId(pairingId, plan)}));
+            operation.task = awaitTask(pairingId, task.getId());
+            operation.state = operation.task.getStatus() == Task.StatusEnum.SUCCESS ? "SUCCEEDED" : "FAILED";
+         } catch (RuntimeException e) {
+            operation.error = e instanceof ApiException ? ((ApiException) e).getResponseBody() : e.getMessage();
+            operation.state = "FAILED";
+         } finally {
+            operation.completedAt = System.currentTimeMillis();
+            System.out.printf("Operation %s %s of %s on %s is %s after %d ms.%n",
+                              operation.id,
+                              operation.type,
+                              operation.plan,
+                              operation.pairing,
+                              operation.state,
+                              operation.completedAt - operation.submittedAt);
+         }
+      });
+      return operation;
+   }
+
+   /**
+    * Private utility method for sending a request with the current session. A request rejected with 401 Unauthorized
+    * is sent once more after the session is renewed; only this request is repeated.
+    *
+    * @param pairingId The pairing ID whose remote session the request needs.
+    * @param request   Sends the request.
+    * @return The response of the request.
+    */
+   private <T> T withSession(String pairingId, Supplier<T> request) {
+
+      long usedLogin = loggedInAt;
+      try {
+         ensureRemoteSession(pairingId);
+         return request.get();
+      } catch (ApiException e) {
+         if (e.getCode() != UNAUTHORIZED) {
+            throw e;
+         }
+         renew(usedLogin);
+         ensureRemoteSession(pairingId);
+         return request.get();
+      }
+   }
+
+   /**
+    * Private utility method for polling a task until it ends. Every poll renews an expired session, so a long
+    * running task is not reported as failed when the session expires meanwhile.
+    *
+    * @throws IllegalStateException If the thread is interrupted.
+    */
+   private TaskDrResponseEntity awaitTask(String pairingId, String taskId) {
+
+      TasksApi instance = new TasksApi(client);
+      TaskDrResponseEntity info = withSession(pairingId, () -> instance.getTaskInfo(taskId));
+      while (info.getStatus() == Task.StatusEnum.RUNNING || info.getStatus() == Task.StatusEnum.QUEUED) {
+         try {
+            Thread.sleep(TASK_POLL_INTERVAL);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for task " + taskId + ".", e);
+         }
+         info = withSession(pairingId, () -> instance.getTaskInfo(taskId));
+      }
+      return info;
+   }
+
+   private TaskDrResponseEntity runTest(String pairingId, String planId, Map<String, String> params) {
+
+      TestPlanSpec spec = new TestPlanSpec();
+      spec.setSyncData(Boolean.valueOf(params.getOrDefault("sync_data", SYNC_DATA)));
+      return new RecoveryApi(client).runTestRecovery(spec, pairingId, planId);
+   }
+
+   private TaskDrResponseEntity runCleanup(String pairingId, String planId, Map<String, String> params) {
+
+      CleanupTestPlanSpec spec = new CleanupTestPlanSpec();
+      spec.forced(Boolean.valueOf(params.getOrDefault("forced", FORCED)));
+      return new RecoveryApi(client).runCleanupTestRecovery(spec, pairingId, planId);
+   }
+
+   private Map<String, Object> status() {
+
+      Map<String, Object> status = new LinkedHashMap<>();
+      status.put("sessionAgeMs", System.currentTimeMillis() - loggedInAt);
+      status.put("pairings", new TreeSet<>(pairingIds.keySet()));
+      status.put("remoteSessions", remoteSessions.size());
+      status.put("cachedPlans", planIdsByName.values().stream().mapToInt(Map::size).sum());
+      Map<String, Integer> counts = new TreeMap<>();
+      for (Operation operation : operations.values()) {
+         counts.merge(operation.state, 1, Integer::sum);
+      }
+      status.put("operations", counts);
+      return status;
+   }
+
+   /**
+    * Private utility method for handling a request to the endpoint.
+    */
+   private void handle(HttpExchange exchange) throws IOException {
+
+      try (InputStream body = exchange.getRequestBody()) {
+         body.readAllBytes();
+      }
+      try {
+         String presented = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+         if (presented == null || !MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.UTF_8))) {
+            respond(exchange, 401, Map.of("error", "Missing or wrong " + TOKEN_HEADER + "."));
+            return;
+         }
+         String method = exchange.getRequestMethod();
+         String path = exchange.getRequestURI().getPath();
+         Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+
+         if ("POST".equals(method) && "/operations/test".equals(path)) {
+            respondAccepted(exchange, submit("test", required(params, "pairing"), required(params, "plan"),
+                                             ids -> runTest(ids[0], ids[1], params)));
+         } else if ("POST".equals(method) && "/operations/cleanup".equals(path)) {
+            respondAccepted(exchange, submit("cleanup", required(params, "pairing"), required(params, "plan"),
+                                             ids -> runCleanup(ids[0], ids[1], params)));
+         } else if ("GET".equals(method) && path.startsWith("/operations/")) {
+            Operation operation = operations.get(path.substring("/operations/".length()));
+            if (operation == null) {
+               respond(exchange, 404, Map.of("error", "Unknown operation."));
+            } else {
+               respond(exchange, 200, operation);
+            }
+         } else if ("GET".equals(method) && "/status".equals(path)) {
+            respond(exchange, 200, status());
+         } else if ("POST".equals(method) && "/shutdown".equals(path)) {
+            respond(exchange, 202, Map.of("state", "stopping"));
+            shutdown.countDown();
+         } else {
+            respond(exchange, 404, Map.of("error", "Unknown endpoint " + method + " " + path + "."));
+         }
+      } catch (IllegalArgumentException e) {
+         respond(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
+      } catch (RuntimeException e) {
+         respond(exchange, 500, Map.of("error", String.valueOf(e.getMessage())));
+      }
+   }
+
+   private void respondAccepted(HttpExchange exchange, Operation operation) throws IOException {
+
+      exchange.getResponseHeaders().set("Location", "/operations/" + operation.id);
+      respond(exchange, 202, operation);
+   }
+
+   private void respond(HttpExchange exchange, int code, Object body) throws IOException {
+
+      byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(code, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+         out.write(bytes);
+      }
+   }
+
+   private static Map<String, String> parseQuery(String rawQuery) {
+
+      Map<String, String> params = new HashMap<>();
+      if (rawQuery == null) {
+         return params;
+      }
+      for (String param : rawQuery.split("&")) {
+         int separator = param.indexOf('=');
+         if (separator > 0) {
+            params.put(URLDecoder.decode(param.substring(0, separator), StandardCharsets.UTF_8),
+                       URLDecoder.decode(param.substring(separator + 1), StandardCharsets.UTF_8));
+         }
+      }
+      return params;
+   }
+
+   private static String required(Map<String, String> params, String name) {
+
+      String value = params.get(name);
+      if (value == null || value.isEmpty()) {
+         throw new IllegalArgumentException("Query parameter " + name + " is required.");
+      }
+      return value;
+   }
+
+   /**
+    * Private utility method for writing a new random token, readable only by the owner where supported.
+    * The file is created with these permissions, so no other user can open it before the token is written.
+    *
+    * @param tokenFile The token file.
+    * @return The token.
+    * @throws RuntimeException If the file cannot be written.
+    */
+   private static byte[] writeToken(Path tokenFile) {
+
+      byte[] random = new byte[32];
+      new SecureRandom().nextBytes(random);
+      StringBuilder token = new StringBuilder();
+      for (byte b : random) {
+         token.append(String.format("%02x", b));
+      }
+      byte[] tokenBytes = token.toString().getBytes(StandardCharsets.UTF_8);
+
+      try {
+         Files.deleteIfExists(tokenFile);
+         try {
+            Files.createFile(tokenFile,
+                             PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+         } catch (UnsupportedOperationException e) {
+            System.out.println("POSIX permissions are not supported, " + tokenFile + " keeps the default ones.");
+            Files.createFile(tokenFile);
+         }
+         Files.write(tokenFile, tokenBytes);
+      } catch (IOException e) {
+         throw new RuntimeException("Daemon token file " + tokenFile + " cannot be written.", e);
+      }
+      return tokenBytes;
+   }
+}
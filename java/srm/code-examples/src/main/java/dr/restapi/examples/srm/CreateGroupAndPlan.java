@@ -3,12 +3,15 @@
 package dr.restapi.examples.srm;
 
 import dr.restapi.examples.apiclient.ApiClient;
-import dr.restapi.examples.apiclient.api.ProtectionApi;
-import dr.restapi.examples.apiclient.api.RecoveryApi;
-import dr.restapi.examples.apiclient.model.*;
-import dr.restapi.examples.apiclient.model.ProtectionGroupCreateSpec.ReplicationTypeEnum;
+import dr.restapi.examples.apiclient.srm.api.ProtectionApi;
+import dr.restapi.examples.apiclient.srm.api.RecoveryApi;
+import dr.restapi.examples.apiclient.srm.model.*;
+import dr.restapi.examples.apiclient.srm.model.ProtectionGroupCreateSpec.ReplicationTypeEnum;
+import dr.restapi.examples.apiclient.srm.model.Task.StatusEnum;
 
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Supplier;
 
 import static dr.restapi.examples.srm.PrepareSetup.*;
 import static dr.restapi.examples.srm.Util.*;
@@ -17,6 +20,7 @@ public class CreateGroupAndPlan {
 
    private static final Properties properties;
    private static final String REMOTE_VC_NAME;
+   private static final String PAIRINGS;
    private static final String PROTECTED_VC_GUID;
    private static final String GROUP_NAME;
    private static final String GROUP_DESCRIPTION;
@@ -28,10 +32,16 @@ public class CreateGroupAndPlan {
    private static final String PLAN_LOCATION;
    private static final String PLAN_TARGET_NETWORK;
    private static final String PLAN_TEST_NETWORK;
+   private static final int WORKFLOW_PARALLELISM;
+   private static final String JOURNAL_FILE;
+   private static final int JOURNAL_REGION_SIZE;
+
+   private static final String PAGE_SIZE = "100";
 
    static {
       properties = loadProperties();
       REMOTE_VC_NAME = properties.getProperty("remote_vc_name");
+      PAIRINGS = properties.getProperty("pairings", "");
       PROTECTED_VC_GUID = properties.getProperty("protected_vc_guid");
       GROUP_NAME = properties.getProperty("group.name");
       GROUP_DESCRIPTION = properties.getProperty("group.description");
@@ -43,6 +53,9 @@ public class CreateGroupAndPlan {
       PLAN_LOCATION = properties.getProperty("plan.location");
       PLAN_TARGET_NETWORK = properties.getProperty("plan.target_network");
       PLAN_TEST_NETWORK = properties.getProperty("plan.test_network");
+      WORKFLOW_PARALLELISM = Integer.parseInt(properties.getProperty("workflow.parallelism", "4"));
+      JOURNAL_FILE = properties.getProperty("journal.file", "create-group-and-plan.journal");
+      JOURNAL_REGION_SIZE = Integer.parseInt(properties.getProperty("journal.region_size", "1048576"));
 
    }
 
@@ -53,17 +66,24 @@ public class CreateGroupAndPlan {
 
    /**
     * Private utility method for executing a workflow to perform specific tasks using the API client.
-    * The method performs the following tasks in sequence:
+    * The method executes the following tasks:
     * 1. Initializes the API client.
     * 2. Logs in and obtains a session ID for authentication.
     * 3. Sets the session ID as a default header for subsequent API calls.
     * 4. Retrieves a list of pairings.
-    * 5. Identifies the pairing ID for the remote VC with a specific name.
-    * 6. Logs in remotely using the identified pairing ID.
+    * 5. Selects the pairings by the names of their remote VCs, see the property "pairings".
+    * For every selected pairing, in parallel to the other pairings, the following steps of a workflow graph:
+    * 6. Logs in remotely using the pairing ID.
     * 7. Creates a protection group using the API client and pairing ID.
     * 8. Waits for the protection group creation task to complete.
     * 9. Creates a recovery plan using the API client, pairing ID, and protection group ID.
     * 10. Waits for the recovery plan creation task to complete.
+    * The steps of one pairing run in sequence, so every pairing uses at most one of the workflow threads, and a
+    * failure stops only the pairing it occurred in. With enough threads the workflow takes as long as the slowest
+    * pairing. Finally, the outcome of every pairing is reported.
+    * The creations are recorded in the operation journal "journal.file". When the workflow is run again after a
+    * crash, it waits for the tasks the interrupted run started and reuses the groups and plans it created, instead
+    * of creating them a second time. A creation which was issued but has no task recorded is looked up by name first.
     */
    private void runWorkflow() {
 
@@ -72,49 +92,190 @@ public class CreateGroupAndPlan {
 
       client.addDefaultHeader("x-dr-session", sessionId);
 
-      PairingDrResponseList pairingList = runGetAllPairings(client);
-      System.out.println(pairingList);
+      List<Pairing> pairings = selectPairings(runGetAllPairings(client).getList(), PAIRINGS, REMOTE_VC_NAME);
+
+      try (WorkflowGraph workflow = new WorkflowGraph(WORKFLOW_PARALLELISM);
+           OperationJournal journal = new OperationJournal(Paths.get(JOURNAL_FILE), JOURNAL_REGION_SIZE)) {
+         Map<String, WorkflowGraph.Step<?>[]> branches = new LinkedHashMap<>();
+         for (Pairing pairing : pairings) {
+            String remoteVcName = pairing.getRemoteVcServer().getName();
+            String pairingId = pairing.getPairingId().toString();
 
-      UUID pairingId = null;
-      for (Pairing pairing : pairingList.getList()) {
-         if (pairing.getRemoteVcServer().getName().equals(REMOTE_VC_NAME)) {
-            pairingId = pairing.getPairingId();
+            WorkflowGraph.Step<String> remoteLogin = workflow.step("remote login " + remoteVcName, () -> {
+               runRemoteLogin(client, pairingId);
+               return pairingId;
+            });
+            String groupName = property(remoteVcName, "group.name", GROUP_NAME);
+            String planName = property(remoteVcName, "plan.name", PLAN_NAME);
+            WorkflowGraph.Step<String> groupId = workflow.step("create group " + remoteVcName, () -> runJournaled(
+                  client,
+                  journal,
+                  "createGroup/" + pairingId + "/" + groupName,
+                  () -> runFindGroup(client, remoteLogin.get(), groupName),
+                  () -> runCreateGroup(client, remoteLogin.get(), remoteVcName)), remoteLogin);
+            WorkflowGraph.Step<String> plan = workflow.step("create plan " + remoteVcName, () -> runJournaled(
+                  client,
+                  journal,
+                  "createPlan/" + pairingId + "/" + planName,
+                  () -> runFindPlan(client, remoteLogin.get(), planName),
+                  () -> runCreatePlan(client, remoteLogin.get(), groupId.get(), remoteVcName)), remoteLogin, groupId);
+            branches.put(remoteVcName, new WorkflowGraph.Step<?>[] {remoteLogin, groupId, plan});
          }
+
+         try {
+            workflow.run();
+         } finally {
+            workflow.printReport();
+            branches.forEach(workflow::printOutcome);
+         }
+      }
+   }
+
+   /**
+    * Private utility method for running an operation whose task is recorded in the operation journal.
+    * If the journal shows that the operation succeeded, its result is returned without a request. If its task was
+    * started by an interrupted run, the method waits for that task. If it was issued by an interrupted run before its
+    * task was recorded, the request may have taken effect, so the object is looked up first and, if it exists, the
+    * operation is recorded as succeeded with its ID. Otherwise the operation is issued.
+    *
+    * @param client   The ApiClient instance used for making API calls.
+    * @param journal  The operation journal.
+    * @param key      The key of the operation in the journal, unique per pairing and object name.
+    * @param existing Looks up the object the operation creates and returns its ID, or null if it does not exist.
+    * @param request  Sends the request of the operation and returns its task.
+    * @return The result of the task, e.g. the ID of the created object.
+    * @throws IllegalStateException If the task does not succeed.
+    */
+   private String runJournaled(ApiClient client,
+                               OperationJournal journal,
+                               String key,
+                               Supplier<String> existing,
+                               Supplier<TaskDrResponseEntity> request) {
+
+      OperationJournal.Operation operation = journal.get(key);
+      if (operation != null && operation.isSucceeded()) {
+         System.out.println(key + " succeeded in an earlier run, result " + operation.getResult());
+         return operation.getResult();
       }
 
-      runRemoteLogin(client, pairingId.toString());
+      String taskId;
+      if (operation != null && operation.getState() == OperationJournal.State.STARTED) {
+         taskId = operation.getTaskId();
+         System.out.println(key + " was started by an interrupted run, waiting for task " + taskId);
+      } else {
+         if (operation != null && operation.getState() == OperationJournal.State.ISSUED) {
+            String existingId = existing.get();
+            if (existingId != null) {
+               System.out.println(key + " was issued by an interrupted run and took effect, result " + existingId);
+               journal.completed(key, null, StatusEnum.SUCCESS.toString(), existingId);
+               return existingId;
+            }
+            System.out.println(key + " was issued by an interrupted run without a task, issuing it again.");
+         }
+         journal.issued(key);
+         taskId = request.get().getId();
+         journal.started(key, taskId);
+      }
 
-      TaskDrResponseEntity groupTaskEntity = runCreateGroup(client, pairingId.toString());
-      groupTaskEntity = waitTaskEnd(client, groupTaskEntity.getId());
-      System.out.println(groupTaskEntity);
+      TaskDrResponseEntity task = waitTaskEnd(client, taskId);
+      System.out.println(task);
+      String result = task.getResult() != null ? task.getResult().toString() : null;
+      journal.completed(key, taskId, task.getStatus().toString(), result);
 
-      String groupId = groupTaskEntity.getResult().toString();
+      if (task.getStatus() != StatusEnum.SUCCESS) {
+         throw new IllegalStateException(key + " failed with status " + task.getStatus());
+      }
+      return result;
+   }
 
-      TaskDrResponseEntity planTaskEntity = runCreatePlan(client, pairingId.toString(), groupId);
-      planTaskEntity = waitTaskEnd(client, planTaskEntity.getId());
-      System.out.println(planTaskEntity);
+   /**
+    * Private utility method for reading a property which can be overridden for one pairing.
+    *
+    * @param remoteVcName The remote VC name of the pairing.
+    * @param key          The property key.
+    * @param defaultValue The value for all pairings.
+    * @return The value for the pairing.
+    */
+   private String property(String remoteVcName, String key, String defaultValue) {
+      return pairingProperty(properties, remoteVcName, key, defaultValue);
+   }
+
+   /**
+    * Private utility method for finding a protection group by name, page by page.
+    *
+    * @param client    The ApiClient instance used for making API calls.
+    * @param pairingId The pairing ID to search.
+    * @param name      The name of the protection group.
+    * @return The ID of the protection group, or null if there is none with this name.
+    */
+   private String runFindGroup(ApiClient client, String pairingId, String name) {
+
+      ProtectionApi instance = new ProtectionApi(client);
+
+      int offset = 0;
+      List<ProtectionGroupInfo> page;
+      do {
+         page = instance.getAllGroups(pairingId, null, null, null, null,
+                                      PAGE_SIZE, String.valueOf(offset)).getList();
+         for (ProtectionGroupInfo group : page) {
+            if (name.equals(group.getName())) {
+               return group.getId();
+            }
+         }
+         offset += page.size();
+      } while (page.size() == Integer.parseInt(PAGE_SIZE));
+      return null;
+   }
+
+   /**
+    * Private utility method for finding a recovery plan by name, page by page.
+    *
+    * @param client    The ApiClient instance used for making API calls.
+    * @param pairingId The pairing ID to search.
+    * @param name      The name of the recovery plan.
+    * @return The ID of the recovery plan, or null if there is none with this name.
+    */
+   private String runFindPlan(ApiClient client, String pairingId, String name) {
+
+      RecoveryApi instance = new RecoveryApi(client);
+
+      int offset = 0;
+      List<RecoveryPlanInfo> page;
+      do {
+         page = instance.getAllRecoveryPlans(pairingId, null, null, null, null,
+                                             PAGE_SIZE, String.valueOf(offset)).getList();
+         for (RecoveryPlanInfo plan : page) {
+            if (name.equals(plan.getName())) {
+               return plan.getId();
+            }
+         }
+         offset += page.size();
+      } while (page.size() == Integer.parseInt(PAGE_SIZE));
+      return null;
    }
 
    /**
     * Private utility method for creating a protection group with the specified parameters using the API client.
     * The method calls the ProtectionApi to create a new protection group based on the provided parameters.
     *
-    * @param client    The ApiClient instance used for making API calls.
-    * @param pairingId The pairing ID associated with the protection group.
+    * @param client       The ApiClient instance used for making API calls.
+    * @param pairingId    The pairing ID associated with the protection group.
+    * @param remoteVcName The remote VC name of the pairing, whose properties override the ones for all pairings.
     * @return A TaskDrResponseEntity object representing the asynchronous task response for creating the group.
     */
-   private TaskDrResponseEntity runCreateGroup(ApiClient client, String pairingId) {
+   private TaskDrResponseEntity runCreateGroup(ApiClient client, String pairingId, String remoteVcName) {
 
       ProtectionApi instance = new ProtectionApi(client);
 
       ProtectionGroupCreateSpec groupSpec = new ProtectionGroupCreateSpec();
-      groupSpec.setName(GROUP_NAME);
-      groupSpec.setDescription(GROUP_DESCRIPTION);
-      groupSpec.setLocation(GROUP_LOCATION);
-      groupSpec.setReplicationType(ReplicationTypeEnum.fromValue(REPLICATION_TYPE));
-      groupSpec.setProtectedVcGuid(UUID.fromString(PROTECTED_VC_GUID));
+      groupSpec.setName(property(remoteVcName, "group.name", GROUP_NAME));
+      groupSpec.setDescription(property(remoteVcName, "group.description", GROUP_DESCRIPTION));
+      groupSpec.setLocation(property(remoteVcName, "group.location", GROUP_LOCATION));
+      groupSpec.setReplicationType(
+            ReplicationTypeEnum.fromValue(property(remoteVcName, "replication_type", REPLICATION_TYPE)));
+      groupSpec.setProtectedVcGuid(UUID.fromString(property(remoteVcName, "protected_vc_guid", PROTECTED_VC_GUID)));
       HbrProtectionGroupSpec hbrSpec = new HbrProtectionGroupSpec();
-      hbrSpec.setVms(List.of(VM));
+      hbrSpec.setVms(List.of(property(remoteVcName, "vm", VM)));
       groupSpec.setHbrSpec(hbrSpec);
 
       return instance.createGroup(groupSpec, pairingId);
@@ -127,20 +288,24 @@ public class CreateGroupAndPlan {
     * @param client          The ApiClient instance used for making API calls.
     * @param pairingId       The pairing ID associated with the recovery plan.
     * @param protectionGroup The protection group to be included in the recovery plan.
+    * @param remoteVcName    The remote VC name of the pairing, whose properties override the ones for all pairings.
     * @return A TaskDrResponseEntity object representing the asynchronous task response for creating the plan.
     */
-   private TaskDrResponseEntity runCreatePlan(ApiClient client, String pairingId, String protectionGroup) {
+   private TaskDrResponseEntity runCreatePlan(ApiClient client,
+                                              String pairingId,
+                                              String protectionGroup,
+                                              String remoteVcName) {
 
       RecoveryApi instance = new RecoveryApi(client);
 
       RecoveryPlanCreateSpec planSpec = new RecoveryPlanCreateSpec();
-      planSpec.setName(PLAN_NAME);
-      planSpec.setDescription(PLAN_DESCRIPTION);
-      planSpec.setLocation(PLAN_LOCATION);
-      planSpec.setProtectedVcGuid(UUID.fromString(PROTECTED_VC_GUID));
+      planSpec.setName(property(remoteVcName, "plan.name", PLAN_NAME));
+      planSpec.setDescription(property(remoteVcName, "plan.description", PLAN_DESCRIPTION));
+      planSpec.setLocation(property(remoteVcName, "plan.location", PLAN_LOCATION));
+      planSpec.setProtectedVcGuid(UUID.fromString(property(remoteVcName, "protected_vc_guid", PROTECTED_VC_GUID)));
       TestNetworkMappingsSpec testNetworkMapping = new TestNetworkMappingsSpec();
-      testNetworkMapping.setTestNetwork(PLAN_TEST_NETWORK);
-      testNetworkMapping.setTargetNetwork(PLAN_TARGET_NETWORK);
+      testNetworkMapping.setTestNetwork(property(remoteVcName, "plan.test_network", PLAN_TEST_NETWORK));
+      testNetworkMapping.setTargetNetwork(property(remoteVcName, "plan.target_network", PLAN_TARGET_NETWORK));
       planSpec.setTestNetworkMappings(List.of(testNetworkMapping));
       planSpec.setProtectionGroups(List.of(protectionGroup));
 
@@ -0,0 +1,311 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.ApiException;
+import dr.restapi.examples.apiclient.srm.api.ProtectionApi;
+import dr.restapi.examples.apiclient.srm.model.*;
+import dr.restapi.examples.apiclient.srm.model.ProtectionGroupInfo.ReplicationTypeEnum;
+import dr.restapi.examples.apiclient.srm.model.Task.StatusEnum;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static dr.restapi.examples.srm.PrepareSetup.*;
+import static dr.restapi.examples.srm.Util.*;
+
+/**
+ * Reconciles the VM membership of vSphere Replication protection groups with a desired state file.
+ * <p>The desired state is a JSON object mapping protection group names to the IDs of the VMs they should contain,
+ * e.g. {@code {"pg-web": ["VirtualMachine:vm-29:36ad3891-a9d0-4389-98f3-51ad9d05c28e"]}}. Groups that are not listed
+ * are left untouched. The actual membership of all listed groups is fetched concurrently, the differences are
+ * computed with set operations and every group that differs is changed with a single reconfigure call carrying its
+ * complete desired VM list, followed by a configure-all call for newly added VMs. With {@code reconcile.dry_run}
+ * the changes are only printed.
+ */
+public class GroupReconciler {
+
+   private static final Properties properties;
+   private static final String REMOTE_VC_NAME;
+   private static final String DESIRED_STATE_FILE;
+   private static final boolean DRY_RUN;
+   private static final int PARALLELISM;
+
+   private static final String PAGE_SIZE = "100";
+
+   static {
+      properties = loadProperties();
+      REMOTE_VC_NAME = properties.getProperty("remote_vc_name");
+      DESIRED_STATE_FILE = properties.getProperty("reconcile.desired_state_file", "protection-groups.json");
+      DRY_RUN = Boolean.parseBoolean(properties.getProperty("reconcile.dry_run", "true"));
+      PARALLELISM = Integer.parseInt(properties.getProperty("reconcile.parallelism", "8"));
+   }
+
+   /**
+    * Difference between the desired and the actual membership of one protection group.
+    */
+   private static final class GroupDiff {
+      private final ProtectionGroupInfo group;
+      private final Set<String> desired;
+      private final Set<String> toAdd;
+      private final Set<String> toRemove;
+
+      private GroupDiff(ProtectionGroupInfo group, Set<String> desired, Set<String> actual) {
+         this.group = group;
+         this.desired = desired;
+         this.toAdd = new LinkedHashSet<>(desired);
+         this.toAdd.removeAll(actual);
+         this.toRemove = new LinkedHashSet<>(actual);
+         this.toRemove.removeAll(desired);
+      }
+
+      private boolean isEmpty() {
+         return toAdd.isEmpty() && toRemove.isEmpty();
+      }
+   }
+
+   public static void main(String[] args) {
+      GroupReconciler obj = new GroupReconciler();
+      obj.run();
+   }
+
+   /**
+    * Private utility method for reconciling the protection groups.
+    * The method executes the following tasks in sequence:
+    * 1. Loads the desired state file.
+    * 2. Initializes the API client, logs in, finds the pairing of the remote VC and logs in remotely.
+    * 3. Retrieves all protection groups and matches them by name with the desired state.
+    * 4. Fetches the VMs of all matched groups concurrently and computes the differences.
+    * 5. Prints the differences and, unless in dry-run mode, applies them concurrently.
+    */
+   private void run() {
+
+      Map<String, List<String>> desiredState = loadDesiredState();
+
+      ApiClient client = initApiClient();
+      String sessionId = runLogin(client);
+
+      client.addDefaultHeader("x-dr-session", sessionId);
+
+      UUID pairingId = null;
+      for (Pairing pairing : runGetAllPairings(client).getList()) {
+         if (pairing.getRemoteVcServer().getName().equals(REMOTE_VC_NAME)) {
+            pairingId = pairing.getPairingId();
+         }
+      }
+
+      runRemoteLogin(client, pairingId.toString());
+
+      Map<String, ProtectionGroupInfo> groups = new HashMap<>();
+      for (ProtectionGroupInfo group : runGetAllGroups(client, pairingId.toString())) {
+         groups.put(group.getName(), group);
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM);
+      try {
+         List<GroupDiff> diffs = computeDiffs(client, pairingId.toString(), desiredState, groups, executor);
+
+         for (GroupDiff diff : diffs) {
+            System.out.printf("%-40s add %s remove %s%n", diff.group.getName(), diff.toAdd, diff.toRemove);
+         }
+         if (DRY_RUN) {
+            System.out.println("Dry run: " + diffs.size() + " groups would be changed.");
+            return;
+         }
+
+         applyDiffs(client, pairingId.toString(), diffs, executor);
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Private utility method for fetching the actual membership of the desired groups and computing the differences.
+    *
+    * @return The differences of the groups that need a change.
+    */
+   private List<GroupDiff> computeDiffs(ApiClient client,
+                                        String pairingId,
+                                        Map<String, List<String>> desiredState,
+                                        Map<String, ProtectionGroupInfo> groups,
+                                        ExecutorService executor) {
+
+      Map<String, Future<GroupDiff>> futures = new LinkedHashMap<>();
+      for (Map.Entry<String, List<String>> desired : desiredState.entrySet()) {
+         ProtectionGroupInfo group = groups.get(desired.getKey());
+         if (group == null) {
+            System.out.println("Protection group " + desired.getKey() + " does not exist, skipped.");
+            continue;
+         }
+         if (group.getReplicationType() != ReplicationTypeEnum.HBR) {
+            System.out.println("Protection group " + desired.getKey() + " is not a vSphere Replication group, skipped.");
+            continue;
+         }
+         futures.put(group.getName(), executor.submit(() -> new GroupDiff(
+               group,
+               new LinkedHashSet<>(desired.getValue()),
+               runGetGroupVmIds(client, pairingId, group.getId()))));
+      }
+
+      List<GroupDiff> diffs = new ArrayList<>();
+      for (Map.Entry<String, Future<GroupDiff>> future : futures.entrySet()) {
+         GroupDiff diff = await(future.getKey(), future.getValue());
+         if (diff != null && !diff.isEmpty()) {
+            diffs.add(diff);
+         }
+      }
+      return diffs;
+   }
+
+   /**
+    * Private utility method for applying the differences of all groups concurrently.
+    */
+   private void applyDiffs(ApiClient client, String pairingId, List<GroupDiff> diffs, ExecutorService executor) {
+
+      Map<String, Future<String>> futures = new LinkedHashMap<>();
+      for (GroupDiff diff : diffs) {
+         futures.put(diff.group.getName(), executor.submit(() -> applyDiff(client, pairingId, diff)));
+      }
+      for (Map.Entry<String, Future<String>> future : futures.entrySet()) {
+         String result = await(future.getKey(), future.getValue());
+         if (result != null) {
+            System.out.println(future.getKey() + ": " + result);
+         }
+      }
+   }
+
+   /**
+    * Private utility method for applying the difference of one group.
+    * The group is reconfigured with its complete desired VM list in one call. Newly added VMs are then configured
+    * for protection. VMs that should have been removed but are still in the group afterwards are removed one by one.
+    * The group is read again at the end, so only the changes that took effect are reported, with the failed tasks.
+    *
+    * @return A short description of the outcome.
+    */
+   private String applyDiff(ApiClient client, String pairingId, GroupDiff diff) {
+
+      ProtectionApi instance = new ProtectionApi(client);
+      String groupId = diff.group.getId();
+
+      ProtectionGroupEditSpec spec = new ProtectionGroupEditSpec();
+      spec.setName(diff.group.getName());
+      spec.setDescription(diff.group.getDescription());
+      HbrProtectionGroupSpec hbrSpec = new HbrProtectionGroupSpec();
+      hbrSpec.setVms(new ArrayList<>(diff.desired));
+      spec.setHbrSpec(hbrSpec);
+
+      TaskDrResponseEntity task = waitTaskEnd(client, instance.reconfigureGroup(spec, pairingId, groupId).getId());
+      if (task.getStatus() != StatusEnum.SUCCESS) {
+         return "reconfigure failed: " + (task.getError() != null ? task.getError().getMessage() : task.getStatus());
+      }
+
+      int failedConfigures = 0;
+      if (!diff.toAdd.isEmpty()) {
+         for (Task configureTask : instance.configureAll(pairingId, groupId).getList()) {
+            if (waitTaskEnd(client, configureTask.getId()).getStatus() != StatusEnum.SUCCESS) {
+               failedConfigures++;
+            }
+         }
+      }
+
+      Set<String> leftovers = runGetGroupVmIds(client, pairingId, groupId);
+      leftovers.retainAll(diff.toRemove);
+      int failedRemoves = 0;
+      for (String vmId : leftovers) {
+         task = waitTaskEnd(client, instance.removeVmFromProtectionGroup(pairingId, groupId, vmId).getId());
+         if (task.getStatus() != StatusEnum.SUCCESS) {
+            failedRemoves++;
+         }
+      }
+
+      // only the changes visible in the group afterwards count as applied
+      Set<String> actual = runGetGroupVmIds(client, pairingId, groupId);
+      long added = diff.toAdd.stream().filter(actual::contains).count();
+      long removed = diff.toRemove.stream().filter(vmId -> !actual.contains(vmId)).count();
+      String outcome = "added " + added + " of " + diff.toAdd.size() + ", removed " + removed + " of "
+                       + diff.toRemove.size() + " VMs.";
+      if (failedConfigures > 0) {
+         outcome += " " + failedConfigures + " configure tasks failed.";
+      }
+      if (failedRemoves > 0) {
+         outcome += " " + failedRemoves + " remove tasks failed.";
+      }
+      return outcome;
+   }
+
+   /**
+    * Private utility method for retrieving all protection groups in a pairing, page by page.
+    */
+   private List<ProtectionGroupInfo> runGetAllGroups(ApiClient client, String pairingId) {
+
+      ProtectionApi instance = new ProtectionApi(client);
+
+      List<ProtectionGroupInfo> groups = new ArrayList<>();
+      List<ProtectionGroupInfo> page;
+      do {
+         page = instance.getAllGroups(pairingId, null, null, null, null,
+                                      PAGE_SIZE, String.valueOf(groups.size())).getList();
+         groups.addAll(page);
+      } while (page.size() == Integer.parseInt(PAGE_SIZE));
+      return groups;
+   }
+
+   /**
+    * Private utility method for retrieving the IDs of all VMs in a protection group, page by page.
+    */
+   private Set<String> runGetGroupVmIds(ApiClient client, String pairingId, String groupId) {
+
+      ProtectionApi instance = new ProtectionApi(client);
+
+      Set<String> vmIds = new HashSet<>();
+      int offset = 0;
+      List<ProtectionGroupVmInfo> page;
+      do {
+         page = instance.getGroupVms(pairingId, groupId, null, null, null, null,
+                                     PAGE_SIZE, String.valueOf(offset)).getList();
+         for (ProtectionGroupVmInfo vm : page) {
+            vmIds.add(vm.getId());
+         }
+         offset += page.size();
+      } while (page.size() == Integer.parseInt(PAGE_SIZE));
+      return vmIds;
+   }
+
+   /**
+    * Private utility method for loading the desired state file.
+    *
+    * @return The desired VM IDs keyed by protection group name.
+    * @throws RuntimeException If the file cannot be read.
+    */
+   private Map<String, List<String>> loadDesiredState() {
+
+      try (Reader reader = Files.newBufferedReader(Paths.get(DESIRED_STATE_FILE), StandardCharsets.UTF_8)) {
+         Map<String, List<String>> state =
+               new Gson().fromJson(reader, new TypeToken<LinkedHashMap<String, List<String>>>() {}.getType());
+         return state != null ? state : new LinkedHashMap<>();
+      } catch (IOException e) {
+         throw new RuntimeException("Desired state file " + DESIRED_STATE_FILE + " cannot be read.", e);
+      }
+   }
+
+   private static <T> T await(String groupName, Future<T> future) {
+      try {
+         return future.get();
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         String message = cause instanceof ApiException ? ((ApiException) cause).getResponseBody() : cause.getMessage();
+         System.out.println(groupName + ": failed. " + message);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      return null;
+   }
+}
@@ -0,0 +1,291 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.srm.api.RecoveryApi;
+import dr.restapi.examples.apiclient.srm.model.*;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+import static dr.restapi.examples.srm.PrepareSetup.*;
+import static dr.restapi.examples.srm.Util.*;
+
+/**
+ * Exports the recovery plan history of all pairings to gzip-compressed NDJSON files, one file per pairing.
+ * <p>History records are requested page by page and written as soon as a page arrives, so memory use is bounded by
+ * {@code history.page_size}. Every run appends a new gzip member to the file of the pairing, which standard tools
+ * read as one stream. The start time of the newest exported record is kept in {@code history.state_file} and the next
+ * run only asks for records from that point on; records inside {@code history.overlap_ms} before it are requested
+ * again, to pick up runs that were still in progress, and skipped by run key if they were already exported.
+ * <p>A run writes the new records of a pairing to a {@code .part} file first. The part is appended to the file of the
+ * pairing only after the state which covers it is saved, together with the size of the file before the append, so a
+ * failed or interrupted append is redone from that size by the next run and no record is exported twice.
+ */
+public class HistoryExporter {
+
+   private static final Properties properties;
+   private static final String OUTPUT_DIR;
+   private static final String STATE_FILE;
+   private static final int PAGE_SIZE;
+   private static final int PARALLELISM;
+   private static final long INITIAL_DAYS;
+   private static final long OVERLAP_MS;
+
+   private static final String LAST_START_SUFFIX = ".last_start_time_ms";
+   private static final String RECENT_RUN_KEYS_SUFFIX = ".recent_run_keys";
+   private static final String PENDING_APPEND_SUFFIX = ".pending_append_from";
+
+   static {
+      properties = loadProperties();
+      OUTPUT_DIR = properties.getProperty("history.output_dir", "history-export");
+      STATE_FILE = properties.getProperty("history.state_file", "history-export.state");
+      PAGE_SIZE = Integer.parseInt(properties.getProperty("history.page_size", "100"));
+      PARALLELISM = Integer.parseInt(properties.getProperty("history.parallelism", "8"));
+      INITIAL_DAYS = Long.parseLong(properties.getProperty("history.initial_days", "30"));
+      OVERLAP_MS = Long.parseLong(properties.getProperty("history.overlap_ms", "86400000"));
+   }
+
+   public static void main(String[] args) {
+      HistoryExporter obj = new HistoryExporter();
+      obj.run();
+   }
+
+   /**
+    * Private utility method for exporting the history of every pairing.
+    * The method executes the following tasks in sequence:
+    * 1. Initializes the API client, logs in and sets the session ID as a default header.
+    * 2. Retrieves all pairings and logs in remotely to each of them.
+    * 3. Loads the export state of the previous run and completes its pending appends.
+    * 4. Exports the new history records of all pairings in parallel, each to a part file.
+    * 5. Saves the export state, then appends the part files to the files of the pairings.
+    *
+    * @throws UncheckedIOException If the export state or an export file cannot be written.
+    */
+   private void run() {
+
+      ApiClient client = initApiClient();
+      String sessionId = runLogin(client);
+
+      client.addDefaultHeader("x-dr-session", sessionId);
+
+      List<String> pairingIds = new ArrayList<>();
+      for (Pairing pairing : runGetAllPairings(client).getList()) {
+         String pairingId = pairing.getPairingId().toString();
+         runRemoteLogin(client, pairingId);
+         pairingIds.add(pairingId);
+      }
+
+      Path stateFile = Paths.get(STATE_FILE);
+      Properties state = loadState(stateFile);
+      if (appendPendingParts(state)) {
+         saveState(stateFile, state);
+      }
+      long endDate = System.currentTimeMillis();
+
+      ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM);
+      try {
+         Map<String, Future<Integer>> exports = new LinkedHashMap<>();
+         for (String pairingId : pairingIds) {
+            exports.put(pairingId, executor.submit(() -> exportPairing(client, pairingId, state, endDate)));
+         }
+         for (Map.Entry<String, Future<Integer>> export : exports.entrySet()) {
+            try {
+               System.out.println("Pairing " + export.getKey() + ": " + export.getValue().get() + " records exported.");
+            } catch (ExecutionException e) {
+               System.out.println("Pairing " + export.getKey() + ": export failed. " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               return;
+            }
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+
+      saveState(stateFile, state);
+      appendPendingParts(state);
+      saveState(stateFile, state);
+   }
+
+   /**
+    * Private utility method for exporting the new history records of one pairing to its part file.
+    * The state entries of the pairing, including the pending append of the part file, are updated only after the part
+    * file has been written completely. The start time is not recorded until a record has been seen, so a pairing
+    * without history is asked again for the initial time frame.
+    *
+    * @param client    The ApiClient instance used for making API calls.
+    * @param pairingId The pairing ID to export the history of.
+    * @param state     The export state shared by all pairings.
+    * @param endDate   The end of the exported time frame, in milliseconds since the epoch.
+    * @return The number of exported records.
+    * @throws IOException If the part file cannot be written.
+    */
+   private int exportPairing(ApiClient client, String pairingId, Properties state, long endDate) throws IOException {
+
+      RecoveryApi instance = new RecoveryApi(client);
+      Gson gson = client.getJSON().getGson();
+
+      String lastStart = state.getProperty(pairingId + LAST_START_SUFFIX);
+      long startDate = lastStart != null
+                       ? Long.parseLong(lastStart) - OVERLAP_MS
+                       : endDate - TimeUnit.DAYS.toMillis(INITIAL_DAYS);
+      Set<String> exportedRunKeys = new HashSet<>(splitKeys(state.getProperty(pairingId + RECENT_RUN_KEYS_SUFFIX)));
+
+      long newestStart = lastStart != null ? Long.parseLong(lastStart) : 0L;
+      boolean recordSeen = false;
+      Map<String, Long> recentRunKeys = new HashMap<>();
+      int exported = 0;
+
+      Files.createDirectories(Paths.get(OUTPUT_DIR));
+      Path file = exportFile(pairingId);
+      Path part = partFile(file);
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+            new GZIPOutputStream(Files.newOutputStream(part)), StandardCharsets.UTF_8))) {
+
+         int offset = 0;
+         List<HistoryReport> page;
+         do {
+            TaskDrResponseEntity task = instance.getAllPlanHistoryRecords(pairingId, null, null, null, null,
+                                                                          String.valueOf(PAGE_SIZE),
+                                                                          String.valueOf(offset),
+                                                                          String.valueOf(startDate),
+                                                                          String.valueOf(endDate));
+            page = toHistoryReports(client, waitTaskEnd(client, task.getId()).getResult());
+            offset += page.size();
+
+            for (HistoryReport report : page) {
+               String runKey = String.valueOf(report.getRunKey());
+               long start = report.getStartTimeMs() != null ? report.getStartTimeMs() : 0L;
+               newestStart = Math.max(newestStart, start);
+               recordSeen = true;
+               if (start >= newestStart - OVERLAP_MS) {
+                  recentRunKeys.put(runKey, start);
+               }
+               if (exportedRunKeys.contains(runKey)) {
+                  continue;
+               }
+
+               JsonObject record = gson.toJsonTree(report).getAsJsonObject();
+               record.addProperty("pairing_id", pairingId);
+               writer.write(gson.toJson(record));
+               writer.write('\n');
+               exported++;
+            }
+         } while (page.size() == PAGE_SIZE);
+      }
+
+      long overlapStart = newestStart - OVERLAP_MS;
+      StringJoiner keys = new StringJoiner(",");
+      for (Map.Entry<String, Long> runKey : recentRunKeys.entrySet()) {
+         if (runKey.getValue() >= overlapStart) {
+            keys.add(runKey.getKey());
+         }
+      }
+      if (lastStart != null || recordSeen) {
+         state.setProperty(pairingId + LAST_START_SUFFIX, String.valueOf(newestStart));
+      }
+      state.setProperty(pairingId + RECENT_RUN_KEYS_SUFFIX, keys.toString());
+      if (exported > 0) {
+         long appendFrom = Files.exists(file) ? Files.size(file) : 0L;
+         state.setProperty(pairingId + PENDING_APPEND_SUFFIX, String.valueOf(appendFrom));
+      } else {
+         Files.delete(part);
+      }
+      return exported;
+   }
+
+   /**
+    * Private utility method for appending the part files of all pending appends to the files of their pairings.
+    * Each file is first cut back to its size before the append, so an append which was interrupted is redone once.
+    *
+    * @param state The export state, whose pending appends are removed once done.
+    * @return True if there was any pending append.
+    * @throws UncheckedIOException If a file cannot be appended to.
+    */
+   private boolean appendPendingParts(Properties state) {
+
+      boolean pending = false;
+      for (String key : state.stringPropertyNames()) {
+         if (!key.endsWith(PENDING_APPEND_SUFFIX)) {
+            continue;
+         }
+         pending = true;
+         Path file = exportFile(key.substring(0, key.length() - PENDING_APPEND_SUFFIX.length()));
+         Path part = partFile(file);
+         try {
+            if (Files.exists(part)) {
+               try (FileChannel target = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileChannel source = FileChannel.open(part, StandardOpenOption.READ)) {
+                  long position = Long.parseLong(state.getProperty(key));
+                  target.truncate(position);
+                  long size = source.size();
+                  for (long copied = 0; copied < size; ) {
+                     copied += target.transferFrom(source, position + copied, size - copied);
+                  }
+                  target.force(true);
+               }
+               Files.delete(part);
+            }
+         } catch (IOException e) {
+            throw new UncheckedIOException("Cannot append " + part + " to " + file + ".", e);
+         }
+         state.remove(key);
+      }
+      return pending;
+   }
+
+   private static Path exportFile(String pairingId) {
+      return Paths.get(OUTPUT_DIR, "history-" + pairingId + ".ndjson.gz");
+   }
+
+   private static Path partFile(Path file) {
+      return file.resolveSibling(file.getFileName() + ".part");
+   }
+
+   private Properties loadState(Path stateFile) {
+      Properties state = new Properties();
+      if (Files.exists(stateFile)) {
+         try (InputStream input = Files.newInputStream(stateFile)) {
+            state.load(input);
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+      return state;
+   }
+
+   /**
+    * Private utility method for saving the export state. The state is written to a temporary file which then replaces
+    * the state file, so the state file is never left half written.
+    *
+    * @throws UncheckedIOException If the state cannot be saved.
+    */
+   private void saveState(Path stateFile, Properties state) {
+
+      Path tempFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+      try {
+         try (OutputStream output = Files.newOutputStream(tempFile)) {
+            state.store(output, "Plan history export state");
+         }
+         Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+         throw new UncheckedIOException("Cannot save the export state to " + stateFile + ".", e);
+      }
+   }
+
+   private static List<String> splitKeys(String value) {
+      if (value == null || value.isEmpty()) {
+         return Collections.emptyList();
+      }
+      return Arrays.asList(value.split(","));
+   }
+}
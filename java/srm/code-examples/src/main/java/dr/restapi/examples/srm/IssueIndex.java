@@ -0,0 +1,390 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.srm.api.PairingApi;
+import dr.restapi.examples.apiclient.srm.api.ProtectionApi;
+import dr.restapi.examples.apiclient.srm.api.RecoveryApi;
+import dr.restapi.examples.apiclient.srm.model.*;
+import dr.restapi.examples.apiclient.srm.model.IssueInfo.StatusEnum;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static dr.restapi.examples.srm.PrepareSetup.*;
+import static dr.restapi.examples.srm.Util.*;
+
+/**
+ * Collects the issues of all pairings, SRM servers, protection groups and recovery plans into an in-memory index.
+ * <p>Every refresh lists the SRM servers, protection groups and recovery plans of all pairings concurrently and fans
+ * the issue requests of each source out as soon as its listing arrives, then compares the result of each source with
+ * the previous refresh; the index is rebuilt only when a source changed. A listing or source that cannot be read keeps
+ * the issues of the previous refresh and is reported by {@link #getFailures()}. Issues are deduplicated by pairing,
+ * type, entity and description, so an issue reported by several sources appears once. Queries read an immutable
+ * snapshot that is swapped atomically after a rebuild and never call the API.
+ */
+public class IssueIndex {
+
+   private static final Properties properties;
+   private static final int PARALLELISM;
+   private static final long REFRESH_INTERVAL;
+   private static final long WATCH_DURATION;
+
+   private static final int PAGE_SIZE = 100;
+
+   static {
+      properties = loadProperties();
+      PARALLELISM = Integer.parseInt(properties.getProperty("issues.parallelism", "8"));
+      REFRESH_INTERVAL = Long.parseLong(properties.getProperty("issues.refresh_interval", "60000"));
+      WATCH_DURATION = Long.parseLong(properties.getProperty("issues.watch_duration", "0"));
+   }
+
+   /**
+    * An issue together with the pairing it belongs to and the time it was first seen.
+    */
+   public static final class IndexedIssue {
+      private final String pairingId;
+      private final IssueInfo issue;
+      private final long firstSeen;
+
+      private IndexedIssue(String pairingId, IssueInfo issue, long firstSeen) {
+         this.pairingId = pairingId;
+         this.issue = issue;
+         this.firstSeen = firstSeen;
+      }
+
+      public String getPairingId() {
+         return pairingId;
+      }
+
+      public IssueInfo getIssue() {
+         return issue;
+      }
+
+      public long getFirstSeen() {
+         return firstSeen;
+      }
+
+      @Override
+      public String toString() {
+         return issue.getStatus() + " " + issue.getIssueType() + " " + issue.getEntityName() + ": "
+                + issue.getDescription();
+      }
+   }
+
+   /**
+    * Immutable lookup tables built from one set of issues.
+    */
+   private static final class Snapshot {
+      private final List<IndexedIssue> all;
+      private final Map<StatusEnum, List<IndexedIssue>> bySeverity = new EnumMap<>(StatusEnum.class);
+      private final Map<String, List<IndexedIssue>> byEntity = new HashMap<>();
+      private final Map<String, List<IndexedIssue>> byPairing = new HashMap<>();
+
+      private Snapshot(Collection<IndexedIssue> issues) {
+         this.all = Collections.unmodifiableList(new ArrayList<>(issues));
+         for (IndexedIssue issue : all) {
+            if (issue.issue.getStatus() != null) {
+               bySeverity.computeIfAbsent(issue.issue.getStatus(), key -> new ArrayList<>()).add(issue);
+            }
+            if (issue.issue.getEntity() != null) {
+               byEntity.computeIfAbsent(issue.issue.getEntity(), key -> new ArrayList<>()).add(issue);
+            }
+            byPairing.computeIfAbsent(issue.pairingId, key -> new ArrayList<>()).add(issue);
+         }
+         bySeverity.replaceAll((key, value) -> Collections.unmodifiableList(value));
+         byEntity.replaceAll((key, value) -> Collections.unmodifiableList(value));
+         byPairing.replaceAll((key, value) -> Collections.unmodifiableList(value));
+      }
+   }
+
+   private final PairingApi pairingApi;
+   private final ProtectionApi protectionApi;
+   private final RecoveryApi recoveryApi;
+   private final List<String> pairingIds;
+   private final ExecutorService executor;
+
+   private final Map<String, List<IssueInfo>> sourceIssues = new HashMap<>();
+   private final Map<String, Long> firstSeen = new HashMap<>();
+   private volatile Map<String, String> failures = Collections.emptyMap();
+   private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+   private ScheduledExecutorService scheduler;
+
+   /**
+    * Creates an empty index over the given pairings. Call {@link #refresh()} or {@link #start(long)} to fill it.
+    *
+    * @param client      The ApiClient instance used for making API calls; remote sessions must already exist.
+    * @param pairingIds  The IDs of the pairings to index.
+    * @param parallelism The maximum number of concurrent issue requests.
+    */
+   public IssueIndex(ApiClient client, List<String> pairingIds, int parallelism) {
+      this.pairingApi = new PairingApi(client);
+      this.protectionApi = new ProtectionApi(client);
+      this.recoveryApi = new RecoveryApi(client);
+      this.pairingIds = new ArrayList<>(pairingIds);
+      this.executor = Executors.newFixedThreadPool(parallelism);
+   }
+
+   public static void main(String[] args) throws InterruptedException {
+
+      ApiClient client = initApiClient();
+      String sessionId = runLogin(client);
+
+      client.addDefaultHeader("x-dr-session", sessionId);
+
+      List<String> pairingIds = new ArrayList<>();
+      for (Pairing pairing : runGetAllPairings(client).getList()) {
+         String pairingId = pairing.getPairingId().toString();
+         runRemoteLogin(client, pairingId);
+         pairingIds.add(pairingId);
+      }
+
+      IssueIndex index = new IssueIndex(client, pairingIds, PARALLELISM);
+      try {
+         index.refresh();
+         index.print();
+
+         if (WATCH_DURATION > 0) {
+            index.start(REFRESH_INTERVAL);
+            Thread.sleep(WATCH_DURATION);
+            index.print();
+         }
+      } finally {
+         index.close();
+      }
+   }
+
+   /**
+    * Refreshes the index now. Sources whose issues did not change since the previous refresh leave the index as is.
+    *
+    * @return True if the index was rebuilt.
+    */
+   public synchronized boolean refresh() {
+
+      Map<String, Future<List<IssueInfo>>> futures = new LinkedHashMap<>();
+      Map<String, Future<List<String>>> listings = new LinkedHashMap<>();
+      Map<String, Function<String, List<IssueInfo>>> issueReaders = new HashMap<>();
+      for (String pairingId : pairingIds) {
+         futures.put(pairingId + "/pairing", executor.submit(() -> fetchAll(
+               (limit, offset) -> pairingApi.getPairingIssues(pairingId, null, null, null, null, limit, offset)
+                                            .getList())));
+         submitListings(pairingId, listings, issueReaders);
+      }
+
+      Map<String, List<IssueInfo>> fetched = new HashMap<>();
+      Map<String, String> failed = new LinkedHashMap<>();
+      for (Map.Entry<String, Future<List<String>>> listing : listings.entrySet()) {
+         String prefix = listing.getKey();
+         try {
+            for (String id : listing.getValue().get()) {
+               futures.put(prefix + id, executor.submit(() -> issueReaders.get(prefix).apply(id)));
+            }
+         } catch (ExecutionException e) {
+            // keep the issues of the previous refresh for all sources of a listing that cannot be read right now
+            failed.put(prefix, e.getCause().getMessage());
+            for (Map.Entry<String, List<IssueInfo>> previous : sourceIssues.entrySet()) {
+               if (previous.getKey().startsWith(prefix)) {
+                  fetched.put(previous.getKey(), previous.getValue());
+               }
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+         }
+      }
+
+      for (Map.Entry<String, Future<List<IssueInfo>>> future : futures.entrySet()) {
+         try {
+            fetched.put(future.getKey(), future.getValue().get());
+         } catch (ExecutionException e) {
+            // keep the issues of the previous refresh for a source that cannot be read right now
+            failed.put(future.getKey(), e.getCause().getMessage());
+            List<IssueInfo> previous = sourceIssues.get(future.getKey());
+            if (previous != null) {
+               fetched.put(future.getKey(), previous);
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+         }
+      }
+      failed.forEach((source, message) -> System.out.println("Issues of " + source + " cannot be read. " + message));
+      failures = Collections.unmodifiableMap(failed);
+
+      if (fetched.equals(sourceIssues)) {
+         return false;
+      }
+      sourceIssues.clear();
+      sourceIssues.putAll(fetched);
+
+      long now = System.currentTimeMillis();
+      Map<String, IndexedIssue> issues = new LinkedHashMap<>();
+      for (Map.Entry<String, List<IssueInfo>> source : sourceIssues.entrySet()) {
+         String pairingId = source.getKey().substring(0, source.getKey().indexOf('/'));
+         for (IssueInfo issue : source.getValue()) {
+            String key = pairingId + '|' + issue.getIssueType() + '|' + issue.getEntity() + '|' + issue.getDescription();
+            if (!issues.containsKey(key)) {
+               issues.put(key, new IndexedIssue(pairingId, issue, firstSeen.getOrDefault(key, now)));
+            }
+         }
+      }
+      firstSeen.keySet().retainAll(issues.keySet());
+      for (Map.Entry<String, IndexedIssue> issue : issues.entrySet()) {
+         firstSeen.putIfAbsent(issue.getKey(), issue.getValue().firstSeen);
+      }
+
+      snapshot = new Snapshot(issues.values());
+      return true;
+   }
+
+   /**
+    * Refreshes the index in the background with a fixed delay between two refreshes.
+    *
+    * @param interval The delay between two refreshes, in milliseconds.
+    */
+   public synchronized void start(long interval) {
+      if (scheduler != null) {
+         return;
+      }
+      scheduler = Executors.newSingleThreadScheduledExecutor();
+      scheduler.scheduleWithFixedDelay(() -> {
+         try {
+            if (refresh()) {
+               System.out.println("Issue index rebuilt: " + size() + " issues.");
+            }
+         } catch (RuntimeException e) {
+            System.out.println("Issue index refresh failed. " + e.getMessage());
+         }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Stops the background refresh and releases the threads of the index.
+    */
+   public synchronized void close() {
+      if (scheduler != null) {
+         scheduler.shutdownNow();
+         scheduler = null;
+      }
+      executor.shutdownNow();
+   }
+
+   public List<IndexedIssue> getAll() {
+      return snapshot.all;
+   }
+
+   public List<IndexedIssue> getBySeverity(StatusEnum severity) {
+      return snapshot.bySeverity.getOrDefault(severity, Collections.emptyList());
+   }
+
+   public List<IndexedIssue> getByEntity(String entity) {
+      return snapshot.byEntity.getOrDefault(entity, Collections.emptyList());
+   }
+
+   public List<IndexedIssue> getByPairing(String pairingId) {
+      return snapshot.byPairing.getOrDefault(pairingId, Collections.emptyList());
+   }
+
+   public int size() {
+      return snapshot.all.size();
+   }
+
+   /**
+    * Returns the sources and listings which could not be read by the last refresh, with the reason.
+    * Their issues are those of the previous refresh.
+    *
+    * @return The failure messages by source, e.g. {@code <pairing ID>/group/<group ID>}, or by listing, e.g.
+    *         {@code <pairing ID>/group/}.
+    */
+   public Map<String, String> getFailures() {
+      return failures;
+   }
+
+   /**
+    * Private utility method for submitting the listings of the SRM servers, groups and plans of one pairing.
+    * The sources are listed on every refresh, so sources created since the previous refresh are picked up.
+    *
+    * @param pairingId    The pairing ID.
+    * @param listings     Receives the future IDs of the sources by key prefix, e.g. {@code <pairing ID>/group/}.
+    * @param issueReaders Receives the reader of the issues of a source by ID, by the same key prefix.
+    */
+   private void submitListings(String pairingId,
+                               Map<String, Future<List<String>>> listings,
+                               Map<String, Function<String, List<IssueInfo>>> issueReaders) {
+
+      String srms = pairingId + "/srm/";
+      listings.put(srms, executor.submit(() -> {
+         List<String> ids = new ArrayList<>();
+         for (SrmInfo srm : fetchAll((limit, offset) -> pairingApi.getSrms(pairingId, null, null, null, null,
+                                                                           limit, offset).getList())) {
+            ids.add(srm.getId().toString());
+         }
+         return ids;
+      }));
+      issueReaders.put(srms, srmId -> fetchAll(
+            (limit, offset) -> pairingApi.getSrmIssues(pairingId, srmId, null, null, null, null,
+                                                       limit, offset).getList()));
+
+      String groups = pairingId + "/group/";
+      listings.put(groups, executor.submit(() -> {
+         List<String> ids = new ArrayList<>();
+         for (ProtectionGroupInfo group : fetchAll((limit, offset) -> protectionApi.getAllGroups(pairingId, null,
+                                                                                                null, null, null,
+                                                                                                limit, offset)
+                                                                                  .getList())) {
+            ids.add(group.getId());
+         }
+         return ids;
+      }));
+      issueReaders.put(groups, groupId -> fetchAll(
+            (limit, offset) -> protectionApi.getGroupIssues(pairingId, groupId, null, null, null, null,
+                                                            limit, offset).getList()));
+
+      String plans = pairingId + "/plan/";
+      listings.put(plans, executor.submit(() -> {
+         List<String> ids = new ArrayList<>();
+         for (RecoveryPlanInfo plan : fetchAll((limit, offset) -> recoveryApi.getAllRecoveryPlans(pairingId, null,
+                                                                                                 null, null, null,
+                                                                                                 limit, offset)
+                                                                             .getList())) {
+            ids.add(plan.getId());
+         }
+         return ids;
+      }));
+      issueReaders.put(plans, planId -> fetchAll(
+            (limit, offset) -> recoveryApi.getRecoveryPlanIssues(pairingId, planId, null, null, null, null,
+                                                                 limit, offset).getList()));
+   }
+
+   private void print() {
+      System.out.println("Issues: " + size());
+      if (!failures.isEmpty()) {
+         System.out.println("Sources not read: " + failures.keySet());
+      }
+      for (StatusEnum severity : StatusEnum.values()) {
+         System.out.println("  " + severity + ": " + getBySeverity(severity).size());
+      }
+      for (String pairingId : pairingIds) {
+         System.out.println("Pairing " + pairingId + ": " + getByPairing(pairingId).size());
+         for (IndexedIssue issue : getByPairing(pairingId)) {
+            System.out.println("  " + issue);
+         }
+      }
+   }
+
+   private static <T> List<T> fetchAll(BiFunction<String, String, List<T>> page) {
+      List<T> items = new ArrayList<>();
+      List<T> next;
+      do {
+         next = page.apply(String.valueOf(PAGE_SIZE), String.valueOf(items.size()));
+         if (next == null) {
+            break;
+         }
+         items.addAll(next);
+      } while (next.size() == PAGE_SIZE);
+      return items;
+   }
+}
@@ -0,0 +1,311 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of the operations of a workflow, which survives a crash of the JVM.
+ * Every operation is recorded as issued before its request is sent, as started with the ID of its task, and as
+ * completed with the status and result of the task. A workflow run again after a crash waits for the started tasks
+ * instead of creating them again and reuses the results of the succeeded ones.
+ * A record is [length][CRC32][state][key][task ID][status][result]. Reading stops at the first record with a wrong
+ * checksum, which a crash tore while it was written. Every method returns when its record is on disk; records of
+ * concurrent callers are forced to disk together (group commit).
+ */
+public class OperationJournal implements AutoCloseable {
+
+   private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+   /**
+    * The state of an operation.
+    */
+   public enum State {
+      ISSUED, STARTED, COMPLETED
+   }
+
+   /**
+    * The last recorded state of an operation.
+    */
+   public static final class Operation {
+      private final String key;
+      private final State state;
+      private final String taskId;
+      private final String status;
+      private final String result;
+
+      private Operation(String key, State state, String taskId, String status, String result) {
+         this.key = key;
+         this.state = state;
+         this.taskId = taskId;
+         this.status = status;
+         this.result = result;
+      }
+
+      public String getKey() {
+         return key;
+      }
+
+      public State getState() {
+         return state;
+      }
+
+      public String getTaskId() {
+         return taskId;
+      }
+
+      public String getStatus() {
+         return status;
+      }
+
+      public String getResult() {
+         return result;
+      }
+
+      public boolean isSucceeded() {
+         return state == State.COMPLETED && "SUCCESS".equals(status);
+      }
+   }
+
+   private final FileChannel channel;
+   private final int regionSize;
+   private final Map<String, Operation> operations = new HashMap<>();
+   private final Object lock = new Object();
+   private MappedByteBuffer buffer;
+   private int position;
+   private long appendedSequence;
+   private long durableSequence;
+   private boolean forcing;
+
+   /**
+    * Opens the journal and reads the operations recorded so far.
+    *
+    * @param file       The journal file, created if it does not exist.
+    * @param regionSize The number of bytes by which the mapping of the file grows.
+    * @throws RuntimeException If the file cannot be opened.
+    */
+   public OperationJournal(Path file, int regionSize) {
+
+      this.regionSize = regionSize;
+      try {
+         channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+         buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, roundUp(Math.max(channel.size(), regionSize)));
+      } catch (IOException e) {
+         throw new RuntimeException("Operation journal " + file + " cannot be opened.", e);
+      }
+      replay();
+   }
+
+   /**
+    * Returns the last recorded state of an operation.
+    *
+    * @param key The key of the operation.
+    * @return The operation, or null if it was never recorded.
+    */
+   public Operation get(String key) {
+
+      synchronized (lock) {
+         return operations.get(key);
+      }
+   }
+
+   /**
+    * Records that the request of an operation is about to be sent.
+    *
+    * @param key The key of the operation.
+    */
+   public void issued(String key) {
+      awaitDurable(append(new Operation(key, State.ISSUED, null, null, null)));
+   }
+
+   /**
+    * Records the task returned by the request of an operation.
+    *
+    * @param key    The key of the operation.
+    * @param taskId The ID of the task.
+    */
+   public void started(String key, String taskId) {
+      awaitDurable(append(new Operation(key, State.STARTED, taskId, null, null)));
+   }
+
+   /**
+    * Records the end of the task of an operation.
+    *
+    * @param key    The key of the operation.
+    * @param taskId The ID of the task.
+    * @param status The final status of the task.
+    * @param result The result of the task, e.g. the ID of the created object.
+    */
+   public void completed(String key, String taskId, String status, String result) {
+      awaitDurable(append(new Operation(key, State.COMPLETED, taskId, status, result)));
+   }
+
+   @Override
+   public void close() {
+
+      synchronized (lock) {
+         buffer.force();
+      }
+      try {
+         channel.close();
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   private long append(Operation operation) {
+
+      byte[] payload = encode(operation);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+
+      synchronized (lock) {
+         if (position + HEADER_SIZE + payload.length > buffer.capacity()) {
+            grow(position + HEADER_SIZE + payload.length);
+         }
+         ByteBuffer view = buffer.duplicate();
+         view.position(position);
+         view.putInt(payload.length);
+         view.putInt((int) crc.getValue());
+         view.put(payload);
+         position = view.position();
+         operations.put(operation.getKey(), operation);
+         return ++appendedSequence;
+      }
+   }
+
+   /**
+    * Private utility method for waiting until a record is on disk.
+    * The first waiter forces everything appended so far. The waiters arriving meanwhile wait for it, and the next
+    * of them forces all their records at once.
+    */
+   private void awaitDurable(long sequence) {
+
+      long target;
+      MappedByteBuffer forced;
+      synchronized (lock) {
+         while (durableSequence < sequence && forcing) {
+            try {
+               lock.wait();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new RuntimeException("Interrupted while waiting for the operation journal.", e);
+            }
+         }
+         if (durableSequence >= sequence) {
+            return;
+         }
+         forcing = true;
+         target = appendedSequence;
+         forced = buffer;
+      }
+      try {
+         forced.force();
+      } finally {
+         synchronized (lock) {
+            forcing = false;
+            durableSequence = Math.max(durableSequence, target);
+            lock.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Private utility method for mapping a larger region of the file, called with the lock held.
+    * The old mapping is forced first, because a force of the new mapping does not cover it.
+    */
+   private void grow(int minimumSize) {
+
+      buffer.force();
+      durableSequence = appendedSequence;
+      try {
+         buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                              roundUp(Math.max(minimumSize, (long) buffer.capacity() + regionSize)));
+         channel.force(true);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      lock.notifyAll();
+   }
+
+   private void replay() {
+
+      ByteBuffer view = buffer.duplicate();
+      while (view.remaining() >= HEADER_SIZE) {
+         int start = view.position();
+         int length = view.getInt();
+         int checksum = view.getInt();
+         if (length == 0) {
+            view.position(start);
+            break;
+         }
+         byte[] payload = new byte[Math.max(0, Math.min(length, view.remaining()))];
+         view.get(payload);
+         CRC32 crc = new CRC32();
+         crc.update(payload);
+         if (length != payload.length || (int) crc.getValue() != checksum) {
+            System.out.printf("Operation journal has a torn record at offset %d, the records after it are ignored.%n",
+                              start);
+            view.position(start);
+            while (view.hasRemaining()) {
+               view.put((byte) 0);
+            }
+            view.position(start);
+            break;
+         }
+         Operation operation = decode(payload);
+         operations.put(operation.getKey(), operation);
+      }
+      position = view.position();
+   }
+
+   private long roundUp(long size) {
+      return (size + regionSize - 1) / regionSize * regionSize;
+   }
+
+   private static byte[] encode(Operation operation) {
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+         out.writeByte(operation.getState().ordinal());
+         out.writeUTF(operation.getKey());
+         out.writeUTF(operation.getTaskId() != null ? operation.getTaskId() : "");
+         out.writeUTF(operation.getStatus() != null ? operation.getStatus() : "");
+         out.writeUTF(operation.getResult() != null ? operation.getResult() : "");
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      return bytes.toByteArray();
+   }
+
+   private static Operation decode(byte[] payload) {
+
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+         State state = State.values()[in.readByte()];
+         String key = in.readUTF();
+         String taskId = in.readUTF();
+         String status = in.readUTF();
+         String result = in.readUTF();
+         return new Operation(key,
+                              state,
+                              taskId.isEmpty() ? null : taskId,
+                              status.isEmpty() ? null : status,
+                              result.isEmpty() ? null : result);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+}
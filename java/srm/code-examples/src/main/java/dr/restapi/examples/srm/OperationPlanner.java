@@ -0,0 +1,530 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.srm.api.ProtectionApi;
+import dr.restapi.examples.apiclient.srm.api.RecoveryApi;
+import dr.restapi.examples.apiclient.srm.api.VcentersApi;
+import dr.restapi.examples.apiclient.srm.model.*;
+import dr.restapi.examples.apiclient.srm.model.ProtectionGroupCreateSpec.ReplicationTypeEnum;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import static dr.restapi.examples.srm.PrepareSetup.*;
+import static dr.restapi.examples.srm.Util.*;
+
+/**
+ * Plans the creation of a protection group and a recovery plan in every selected pairing from a cached inventory,
+ * and executes the plan only when it is valid.
+ * <p>The inventory of the selected pairings (vCenter servers, replicated VMs, existing groups and plans, folders) is
+ * read once and saved to {@code planner.inventory_file}; it is read again only when it is older than
+ * {@code planner.max_inventory_age}. From it the ProtectionGroupCreateSpec and RecoveryPlanCreateSpec of every pairing
+ * are built with the same properties as {@link CreateGroupAndPlan}, validated without contacting the server, and the
+ * requests and the duration of the execution are estimated from the latencies recorded in the inventory file. With
+ * {@code planner.execute} a valid plan is executed with only the requests that change something: login, one remote
+ * login per pairing and the two create tasks. The latencies measured during the execution are saved for the next
+ * estimate.
+ */
+public class OperationPlanner {
+
+   private static final Properties properties;
+   private static final String REMOTE_VC_NAME;
+   private static final String PAIRINGS;
+   private static final String PROTECTED_VC_GUID;
+   private static final String GROUP_NAME;
+   private static final String GROUP_DESCRIPTION;
+   private static final String GROUP_LOCATION;
+   private static final String REPLICATION_TYPE;
+   private static final String VM;
+   private static final String PLAN_NAME;
+   private static final String PLAN_DESCRIPTION;
+   private static final String PLAN_LOCATION;
+   private static final String PLAN_TARGET_NETWORK;
+   private static final String PLAN_TEST_NETWORK;
+   private static final String INVENTORY_FILE;
+   private static final long MAX_INVENTORY_AGE;
+   private static final boolean EXECUTE;
+   private static final int WORKFLOW_PARALLELISM;
+
+   private static final String PAGE_SIZE = "100";
+   private static final long TASK_POLL_INTERVAL = 500;
+
+   private static final String LOGIN = "AuthenticationApi.login";
+   private static final String REMOTE_LOGIN = "PairingApi.createRemoteSession";
+   private static final String CREATE_GROUP = "ProtectionApi.createGroup";
+   private static final String CREATE_PLAN = "RecoveryApi.createPlan";
+   private static final String GET_TASK_INFO = "TasksApi.getTaskInfo";
+   private static final String GROUP_TASK = "Task.createGroup";
+   private static final String PLAN_TASK = "Task.createPlan";
+
+   static {
+      properties = loadProperties();
+      REMOTE_VC_NAME = properties.getProperty("remote_vc_name");
+      PAIRINGS = properties.getProperty("pairings", "");
+      PROTECTED_VC_GUID = properties.getProperty("protected_vc_guid");
+      GROUP_NAME = properties.getProperty("group.name");
+      GROUP_DESCRIPTION = properties.getProperty("group.description");
+      GROUP_LOCATION = properties.getProperty("group.location");
+      REPLICATION_TYPE = properties.getProperty("replication_type");
+      VM = properties.getProperty("vm");
+      PLAN_NAME = properties.getProperty("plan.name");
+      PLAN_DESCRIPTION = properties.getProperty("plan.description");
+      PLAN_LOCATION = properties.getProperty("plan.location");
+      PLAN_TARGET_NETWORK = properties.getProperty("plan.target_network");
+      PLAN_TEST_NETWORK = properties.getProperty("plan.test_network");
+      INVENTORY_FILE = properties.getProperty("planner.inventory_file", "srm-inventory.json");
+      MAX_INVENTORY_AGE = Long.parseLong(properties.getProperty("planner.max_inventory_age", "3600000"));
+      EXECUTE = Boolean.parseBoolean(properties.getProperty("planner.execute", "false"));
+      WORKFLOW_PARALLELISM = Integer.parseInt(properties.getProperty("workflow.parallelism", "4"));
+   }
+
+   /**
+    * Cached inventory of one pairing. Written as part of the inventory file.
+    */
+   static final class PairingInventory {
+      String pairingId;
+      String remoteVcName;
+      List<String> vcenterGuids = new ArrayList<>();
+      Map<String, String> replicatedVms = new HashMap<>();
+      Set<String> groupNames = new HashSet<>();
+      Set<String> planNames = new HashSet<>();
+      Set<String> groupFolders = new HashSet<>();
+      Set<String> planFolders = new HashSet<>();
+   }
+
+   /**
+    * Cached inventory of all selected pairings, with the average latency of every request and task by name.
+    */
+   static final class Inventory {
+      long capturedAt;
+      Map<String, PairingInventory> pairings = new LinkedHashMap<>();
+      Map<String, Long> latencies = new TreeMap<>();
+      Map<String, Integer> latencySamples = new TreeMap<>();
+   }
+
+   /**
+    * The specs of one pairing with their problems and estimate.
+    */
+   private static final class PairingPlan {
+      private final PairingInventory pairing;
+      private final ProtectionGroupCreateSpec groupSpec;
+      private final RecoveryPlanCreateSpec planSpec;
+      private final List<String> problems = new ArrayList<>();
+      private long estimatedMs;
+
+      private PairingPlan(PairingInventory pairing,
+                          ProtectionGroupCreateSpec groupSpec,
+                          RecoveryPlanCreateSpec planSpec) {
+         this.pairing = pairing;
+         this.groupSpec = groupSpec;
+         this.planSpec = planSpec;
+      }
+   }
+
+   private Inventory inventory;
+
+   public static void main(String[] args) {
+      OperationPlanner obj = new OperationPlanner();
+      obj.run();
+   }
+
+   /**
+    * Private utility method for planning and optionally executing the creation of groups and plans.
+    * The method executes the following tasks in sequence:
+    * 1. Loads the inventory file. If it is missing or too old, logs in and reads the inventory of the selected
+    * pairings, all pairings concurrently.
+    * 2. Builds the group and plan specs of every pairing from the inventory and validates them offline.
+    * 3. Prints the specs, the problems, the requests and the estimated duration.
+    * 4. If {@code planner.execute} is set and no pairing has a problem, executes the plan.
+    * 5. Saves the inventory file with the recorded latencies, unless reading the inventory failed.
+    */
+   private void run() {
+
+      Path inventoryFile = Paths.get(INVENTORY_FILE);
+      inventory = loadInventory(inventoryFile);
+      ApiClient client = null;
+      try {
+         if (inventory == null || System.currentTimeMillis() - inventory.capturedAt > MAX_INVENTORY_AGE) {
+            client = login();
+            captureInventory(client);
+         }
+
+         List<PairingPlan> plans = new ArrayList<>();
+         for (PairingInventory pairing : inventory.pairings.values()) {
+            plans.add(plan(pairing));
+         }
+         boolean valid = printPlans(plans);
+
+         if (!EXECUTE || !valid) {
+            System.out.println("The plan is not executed.");
+            return;
+         }
+         if (client == null) {
+            client = login();
+         }
+         execute(client, plans);
+      } finally {
+         if (inventory != null && inventory.capturedAt != 0) {
+            saveInventory(inventoryFile);
+         }
+      }
+   }
+
+   /**
+    * Private utility method for logging in. The latency is recorded once an inventory exists.
+    *
+    * @return The API client with the session ID as default header.
+    */
+   private ApiClient login() {
+
+      ApiClient client = initApiClient();
+      String sessionId = inventory != null ? timed(LOGIN, () -> runLogin(client)) : runLogin(client);
+
+      client.addDefaultHeader("x-dr-session", sessionId);
+      return client;
+   }
+
+   /**
+    * Private utility method for reading the inventory of the selected pairings, one workflow branch per pairing.
+    * The latencies of a previous inventory are kept. The inventory is timestamped only when every pairing is read,
+    * so a failed capture is neither saved nor reused.
+    *
+    * @param client The ApiClient instance used for making API calls.
+    */
+   private void captureInventory(ApiClient client) {
+
+      Inventory previous = inventory;
+      inventory = new Inventory();
+      if (previous != null) {
+         inventory.latencies.putAll(previous.latencies);
+         inventory.latencySamples.putAll(previous.latencySamples);
+      }
+      long startedAt = System.currentTimeMillis();
+
+      List<Pairing> pairings = selectPairings(runGetAllPairings(client).getList(), PAIRINGS, REMOTE_VC_NAME);
+      Map<String, WorkflowGraph.Step<PairingInventory>> captures = new LinkedHashMap<>();
+      try (WorkflowGraph workflow = new WorkflowGraph(WORKFLOW_PARALLELISM)) {
+         for (Pairing pairing : pairings) {
+            String remoteVcName = pairing.getRemoteVcServer().getName();
+            captures.put(remoteVcName,
+                         workflow.step("inventory " + remoteVcName, () -> captureInventory(client, pairing)));
+         }
+         workflow.run();
+      }
+      captures.forEach((remoteVcName, capture) -> inventory.pairings.put(remoteVcName, capture.get()));
+      inventory.capturedAt = startedAt;
+      System.out.println("Inventory of " + inventory.pairings.size() + " pairings is captured.");
+   }
+
+   /**
+    * Private utility method for reading the inventory of one pairing.
+    *
+    * @param client  The ApiClient instance used for making API calls.
+    * @param pairing The pairing.
+    * @return The inventory of the pairing.
+    */
+   private PairingInventory captureInventory(ApiClient client, Pairing pairing) {
+
+      String pairingId = pairing.getPairingId().toString();
+      String remoteVcName = pairing.getRemoteVcServer().getName();
+      timed(REMOTE_LOGIN, () -> {
+         runRemoteLogin(client, pairingId);
+         return null;
+      });
+
+      ProtectionApi protectionApi = new ProtectionApi(client);
+      RecoveryApi recoveryApi = new RecoveryApi(client);
+      VcentersApi vcentersApi = new VcentersApi(client);
+
+      PairingInventory pairingInventory = new PairingInventory();
+      pairingInventory.pairingId = pairingId;
+      pairingInventory.remoteVcName = remoteVcName;
+      for (ServerInfo vcenter : readAll("VcentersApi.getVcenters", offset ->
+            vcentersApi.getVcenters(pairingId, null, null, null, null, PAGE_SIZE, String.valueOf(offset)).getList())) {
+         pairingInventory.vcenterGuids.add(vcenter.getId().toString());
+      }
+      String protectedVcGuid = property(remoteVcName, "protected_vc_guid", PROTECTED_VC_GUID);
+      if (pairingInventory.vcenterGuids.contains(protectedVcGuid)) {
+         for (VmReplicationInfo vm : readAll("VcentersApi.getReplicatedVms", offset ->
+               vcentersApi.getReplicatedVms(pairingId, protectedVcGuid, null, null, null, null,
+                                            PAGE_SIZE, String.valueOf(offset)).getList())) {
+            pairingInventory.replicatedVms.put(vm.getId(), String.valueOf(vm.getReplicationStatus()));
+         }
+      }
+      for (ProtectionGroupInfo group : readAll("ProtectionApi.getAllGroups", offset ->
+            protectionApi.getAllGroups(pairingId, null, null, null, null, PAGE_SIZE, String.valueOf(offset))
+                         .getList())) {
+         pairingInventory.groupNames.add(group.getName());
+      }
+      for (RecoveryPlanInfo plan : readAll("RecoveryApi.getAllRecoveryPlans", offset ->
+            recoveryApi.getAllRecoveryPlans(pairingId, null, null, null, null, PAGE_SIZE, String.valueOf(offset))
+                       .getList())) {
+         pairingInventory.planNames.add(plan.getName());
+      }
+      for (ProtectionInventoryItem folder : readAll("ProtectionApi.getProtectionGroupFolders", offset ->
+            protectionApi.getProtectionGroupFolders(pairingId, null, null, null, null,
+                                                    PAGE_SIZE, String.valueOf(offset), null).getList())) {
+         pairingInventory.groupFolders.add(folder.getId());
+      }
+      for (RecoveryInventoryItem folder : readAll("RecoveryApi.getRecoveryPlanFolders", offset ->
+            recoveryApi.getRecoveryPlanFolders(pairingId, null, null, null, null,
+                                               PAGE_SIZE, String.valueOf(offset), null).getList())) {
+         pairingInventory.planFolders.add(folder.getId());
+      }
+      return pairingInventory;
+   }
+
+   /**
+    * Private utility method for building and validating the specs of one pairing and estimating their execution.
+    *
+    * @param pairing The cached inventory of the pairing.
+    * @return The plan of the pairing.
+    */
+   private PairingPlan plan(PairingInventory pairing) {
+
+      String remoteVcName = pairing.remoteVcName;
+      String protectedVcGuid = property(remoteVcName, "protected_vc_guid", PROTECTED_VC_GUID);
+      String vm = property(remoteVcName, "vm", VM);
+
+      ProtectionGroupCreateSpec groupSpec = new ProtectionGroupCreateSpec();
+      groupSpec.setName(property(remoteVcName, "group.name", GROUP_NAME));
+      groupSpec.setDescription(property(remoteVcName, "group.description", GROUP_DESCRIPTION));
+      groupSpec.setLocation(property(remoteVcName, "group.location", GROUP_LOCATION));
+      groupSpec.setReplicationType(
+            ReplicationTypeEnum.fromValue(property(remoteVcName, "replication_type", REPLICATION_TYPE)));
+      groupSpec.setProtectedVcGuid(UUID.fromString(protectedVcGuid));
+      HbrProtectionGroupSpec hbrSpec = new HbrProtectionGroupSpec();
+      hbrSpec.setVms(List.of(vm));
+      groupSpec.setHbrSpec(hbrSpec);
+
+      RecoveryPlanCreateSpec planSpec = new RecoveryPlanCreateSpec();
+      planSpec.setName(property(remoteVcName, "plan.name", PLAN_NAME));
+      planSpec.setDescription(property(remoteVcName, "plan.description", PLAN_DESCRIPTION));
+      planSpec.setLocation(property(remoteVcName, "plan.location", PLAN_LOCATION));
+      planSpec.setProtectedVcGuid(UUID.fromString(protectedVcGuid));
+      TestNetworkMappingsSpec testNetworkMapping = new TestNetworkMappingsSpec();
+      testNetworkMapping.setTestNetwork(property(remoteVcName, "plan.test_network", PLAN_TEST_NETWORK));
+      testNetworkMapping.setTargetNetwork(property(remoteVcName, "plan.target_network", PLAN_TARGET_NETWORK));
+      planSpec.setTestNetworkMappings(List.of(testNetworkMapping));
+
+      PairingPlan plan = new PairingPlan(pairing, groupSpec, planSpec);
+      if (!pairing.vcenterGuids.contains(protectedVcGuid)) {
+         plan.problems.add("vCenter " + protectedVcGuid + " is not part of the pairing.");
+      }
+      String replicationStatus = pairing.replicatedVms.get(vm);
+      if (replicationStatus == null) {
+         plan.problems.add("VM " + vm + " is not replicated from vCenter " + protectedVcGuid + ".");
+      } else if (!"OK".equals(replicationStatus)) {
+         plan.problems.add("Replication of VM " + vm + " is " + replicationStatus + ".");
+      }
+      if (pairing.groupNames.contains(groupSpec.getName())) {
+         plan.problems.add("Protection group " + groupSpec.getName() + " already exists.");
+      }
+      if (pairing.planNames.contains(planSpec.getName())) {
+         plan.problems.add("Recovery plan " + planSpec.getName() + " already exists.");
+      }
+      if (!pairing.groupFolders.contains(groupSpec.getLocation())) {
+         plan.problems.add("Protection group folder " + groupSpec.getLocation() + " does not exist.");
+      }
+      if (!pairing.planFolders.contains(planSpec.getLocation())) {
+         plan.problems.add("Recovery plan folder " + planSpec.getLocation() + " does not exist.");
+      }
+
+      plan.estimatedMs = latency(REMOTE_LOGIN) + latency(CREATE_GROUP) + latency(GROUP_TASK)
+                         + latency(CREATE_PLAN) + latency(PLAN_TASK);
+      return plan;
+   }
+
+   /**
+    * Private utility method for printing the plans, the requests of the execution and the estimated duration.
+    * The pairings are executed concurrently, so the slowest pairing determines the duration.
+    *
+    * @param plans The plans of all pairings.
+    * @return True if no pairing has a problem.
+    */
+   private boolean printPlans(List<PairingPlan> plans) {
+
+      boolean valid = !plans.isEmpty();
+      long slowestMs = 0;
+      for (PairingPlan plan : plans) {
+         System.out.printf("%-30s group %s, plan %s, VMs %s%n",
+                           plan.pairing.remoteVcName,
+                           plan.groupSpec.getName(),
+                           plan.planSpec.getName(),
+                           plan.groupSpec.getHbrSpec().getVms());
+         for (String problem : plan.problems) {
+            System.out.printf("%-30s problem: %s%n", plan.pairing.remoteVcName, problem);
+         }
+         valid &= plan.problems.isEmpty();
+         slowestMs = Math.max(slowestMs, plan.estimatedMs);
+      }
+
+      Map<String, Integer> requests = new LinkedHashMap<>();
+      requests.put(LOGIN, 1);
+      requests.put(REMOTE_LOGIN, plans.size());
+      requests.put(CREATE_GROUP, plans.size());
+      requests.put(CREATE_PLAN, plans.size());
+      requests.put(GET_TASK_INFO, plans.size() * (polls(GROUP_TASK) + polls(PLAN_TASK)));
+      requests.forEach((request, count) -> System.out.printf("%-40s %d requests%n", request, count));
+
+      System.out.printf("Estimated duration %d ms, %d requests.%n",
+                        latency(LOGIN) + slowestMs,
+                        requests.values().stream().mapToInt(Integer::intValue).sum());
+      Set<String> unknown = new TreeSet<>(List.of(LOGIN, REMOTE_LOGIN, CREATE_GROUP, GROUP_TASK, CREATE_PLAN, PLAN_TASK));
+      unknown.removeAll(inventory.latencies.keySet());
+      if (!unknown.isEmpty()) {
+         System.out.println("No latency is recorded for " + unknown + ", the estimate does not include them.");
+      }
+      return valid;
+   }
+
+   /**
+    * Private utility method for executing the plans, one workflow branch per pairing.
+    * The inventory already holds everything the specs need, so only the requests that create something are sent.
+    *
+    * @param client The ApiClient instance used for making API calls.
+    * @param plans  The valid plans of all pairings.
+    */
+   private void execute(ApiClient client, List<PairingPlan> plans) {
+
+      try (WorkflowGraph workflow = new WorkflowGraph(WORKFLOW_PARALLELISM)) {
+         Map<String, WorkflowGraph.Step<?>[]> branches = new LinkedHashMap<>();
+         for (PairingPlan plan : plans) {
+            String remoteVcName = plan.pairing.remoteVcName;
+            String pairingId = plan.pairing.pairingId;
+
+            WorkflowGraph.Step<Void> remoteLogin = workflow.step("remote login " + remoteVcName, () -> timed(
+                  REMOTE_LOGIN, () -> {
+                     runRemoteLogin(client, pairingId);
+                     return null;
+                  }));
+            WorkflowGraph.Step<String> groupId = workflow.step("create group " + remoteVcName, () -> {
+               TaskDrResponseEntity created = timed(
+                     CREATE_GROUP, () -> new ProtectionApi(client).createGroup(plan.groupSpec, pairingId));
+               TaskDrResponseEntity task = timed(GROUP_TASK, () -> waitTaskEnd(client, created.getId()));
+               System.out.println(task);
+               synchronized (inventory) {
+                  plan.pairing.groupNames.add(plan.groupSpec.getName());
+               }
+
+               return task.getResult().toString();
+            }, remoteLogin);
+            WorkflowGraph.Step<TaskDrResponseEntity> planTask = workflow.step("create plan " + remoteVcName, () -> {
+               plan.planSpec.setProtectionGroups(List.of(groupId.get()));
+               TaskDrResponseEntity created = timed(
+                     CREATE_PLAN, () -> new RecoveryApi(client).createPlan(plan.planSpec, pairingId));
+               TaskDrResponseEntity task = timed(PLAN_TASK, () -> waitTaskEnd(client, created.getId()));
+               System.out.println(task);
+               synchronized (inventory) {
+                  plan.pairing.planNames.add(plan.planSpec.getName());
+               }
+
+               return task;
+            }, groupId);
+            branches.put(remoteVcName, new WorkflowGraph.Step<?>[] {remoteLogin, groupId, planTask});
+         }
+
+         try {
+            workflow.run();
+         } finally {
+            workflow.printReport();
+            branches.forEach(workflow::printOutcome);
+         }
+      }
+   }
+
+   /**
+    * Private utility method for reading all pages of a list request.
+    *
+    * @param request The name of the request, used to record its latency.
+    * @param page    Reads the page at the given offset.
+    * @param <T>     The item type.
+    * @return All items.
+    */
+   private <T> List<T> readAll(String request, IntFunction<List<T>> page) {
+
+      List<T> items = new ArrayList<>();
+      do {
+         List<T> next = timed(request, () -> page.apply(items.size()));
+         items.addAll(next);
+         if (next.size() < Integer.parseInt(PAGE_SIZE)) {
+            return items;
+         }
+      } while (true);
+   }
+
+   /**
+    * Private utility method for sending a request and recording its duration in the average latency of its name.
+    */
+   private <T> T timed(String name, Supplier<T> request) {
+
+      long start = System.nanoTime();
+      T response = request.get();
+      long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      synchronized (inventory) {
+         int samples = inventory.latencySamples.getOrDefault(name, 0);
+         long average = inventory.latencies.getOrDefault(name, 0L);
+         inventory.latencies.put(name, (average * samples + latencyMs) / (samples + 1));
+         inventory.latencySamples.put(name, samples + 1);
+      }
+      return response;
+   }
+
+   private long latency(String name) {
+      return inventory.latencies.getOrDefault(name, 0L);
+   }
+
+   private int polls(String task) {
+      return (int) (latency(task) / TASK_POLL_INTERVAL) + 1;
+   }
+
+   private String property(String remoteVcName, String key, String defaultValue) {
+      return pairingProperty(properties, remoteVcName, key, defaultValue);
+   }
+
+   /**
+    * Private utility method for loading the inventory file.
+    *
+    * @return The inventory, or null if there is no inventory file yet.
+    * @throws RuntimeException If the file exists but cannot be read.
+    */
+   private Inventory loadInventory(Path file) {
+
+      if (!Files.exists(file)) {
+         return null;
+      }
+      try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+         return new Gson().fromJson(reader, Inventory.class);
+      } catch (IOException e) {
+         throw new RuntimeException("Inventory file " + file + " cannot be read.", e);
+      }
+   }
+
+   /**
+    * Private utility method for saving the inventory file. The file is replaced atomically.
+    */
+   private void saveInventory(Path file) {
+
+      Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+      try {
+         synchronized (inventory) {
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+               new Gson().toJson(inventory, writer);
+            }
+         }
+         Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+}
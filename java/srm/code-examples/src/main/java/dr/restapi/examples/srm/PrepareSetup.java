@@ -3,12 +3,11 @@
 package dr.restapi.examples.srm;
 
 import dr.restapi.examples.apiclient.ApiClient;
-import dr.restapi.examples.apiclient.Configuration;
-import dr.restapi.examples.apiclient.api.AuthenticationApi;
-import dr.restapi.examples.apiclient.api.PairingApi;
 import dr.restapi.examples.apiclient.auth.HttpBasicAuth;
-import dr.restapi.examples.apiclient.model.PairingDrResponseList;
-import dr.restapi.examples.apiclient.model.SessionIdData;
+import dr.restapi.examples.apiclient.srm.api.AuthenticationApi;
+import dr.restapi.examples.apiclient.srm.api.PairingApi;
+import dr.restapi.examples.apiclient.srm.model.PairingDrResponseList;
+import dr.restapi.examples.apiclient.srm.model.SessionIdData;
 
 import java.util.Base64;
 import java.util.List;
@@ -37,12 +36,13 @@ public class PrepareSetup {
    /**
     * Initializes and configures an instance of the ApiClient for making API calls.
     * The method sets the base path for the API client and disables SSL certificate verification.
+    * A new instance is created instead of the default one, which is shared with the clients of the other APIs.
     *
     * @return An initialized ApiClient instance.
     */
    public static ApiClient initApiClient() {
 
-      ApiClient client = Configuration.getDefaultApiClient();
+      ApiClient client = new ApiClient();
       client.setVerifyingSsl(false);
       client.setBasePath(PATH);
       return client;
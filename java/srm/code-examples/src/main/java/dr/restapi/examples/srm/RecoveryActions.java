@@ -3,36 +3,44 @@
 package dr.restapi.examples.srm;
 
 import dr.restapi.examples.apiclient.ApiClient;
-import dr.restapi.examples.apiclient.api.RecoveryApi;
-import dr.restapi.examples.apiclient.model.*;
+import dr.restapi.examples.apiclient.srm.api.RecoveryApi;
+import dr.restapi.examples.apiclient.srm.model.*;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.UUID;
 
 import static dr.restapi.examples.srm.PrepareSetup.*;
 import static dr.restapi.examples.srm.PrepareSetup.runRemoteLogin;
 import static dr.restapi.examples.srm.Util.loadProperties;
+import static dr.restapi.examples.srm.Util.pairingProperty;
+import static dr.restapi.examples.srm.Util.selectPairings;
 
 public class RecoveryActions {
 
    private static final Properties properties;
    private static final String REMOTE_VC_NAME;
+   private static final String PAIRINGS;
    private static final String RECOVERY_PLAN_ID;
    private static final String SYNC_DATA;
    private static final String FORCED;
    private static final String SKIP_PROTECTION_SITE_OPERATIONS;
    private static final String MIGRATE_ELIGIBLE_VMS;
    private static final String PLANNED_FAILOVER;
+   private static final int WORKFLOW_PARALLELISM;
 
    static {
       properties = loadProperties();
       REMOTE_VC_NAME = properties.getProperty("remote_vc_name");
+      PAIRINGS = properties.getProperty("pairings", "");
       RECOVERY_PLAN_ID = properties.getProperty("plan.id");
       SYNC_DATA = properties.getProperty("plan.sync_data");
       FORCED = properties.getProperty("plan.forced");
       SKIP_PROTECTION_SITE_OPERATIONS = properties.getProperty("plan.skip_protection_site_operations");
       MIGRATE_ELIGIBLE_VMS = properties.getProperty("plan.migrate_eligible_vms");
       PLANNED_FAILOVER = properties.getProperty("plan.planned_failover");
+      WORKFLOW_PARALLELISM = Integer.parseInt(properties.getProperty("workflow.parallelism", "4"));
    }
 
    public static void main(String[] args) {
@@ -42,20 +50,25 @@ public class RecoveryActions {
 
    /**
     * Private utility method for running a series of operations as part of a Disaster Recovery workflow.
-    * The method executes the following tasks in sequence:
+    * The method executes the following tasks:
     * 1. Initializes the API client.
     * 2. Logs in and obtains a session ID for authentication.
     * 3. Sets the session ID as a default header for subsequent API calls.
     * 4. Retrieves a list of pairings.
-    * 5. Identifies the pairing ID for the remote VC with a specific name.
-    * 6. Logs in remotely using the identified pairing ID.
-    * 7. Runs a test recovery plan using the API client and pairing ID.
+    * 5. Selects the pairings by the names of their remote VCs, see the property "pairings".
+    * For every selected pairing, in parallel to the other pairings, the following steps of a workflow graph:
+    * 6. Logs in remotely using the pairing ID.
+    * 7. Runs a test recovery plan using the API client and pairing ID. The plan ID can be given per pairing with the
+    * property "pairing.&lt;remote VC name&gt;.plan.id".
+    * A failure stops only the pairing it occurred in. Finally, the timing of the steps, the critical path and the
+    * outcome of every pairing are reported.
     *
-    * Note: Additional tasks (commented out) are provided for reference and can be uncommented to run specific operations:
-    * - runCancelRecoveryPlan(client, pairingId.toString()): Cancels a recovery plan for the identified pairing.
-    * - runCleanupRecoveryPlan(client, pairingId.toString()): Initiates a cleanup on a test recovery plan for the pairing.
-    * - runRecovery(client, pairingId.toString()): Initiates a full recovery on the pairing's recovery plan.
-    * - runReprotect(client, pairingId.toString()): Initiates a reprotect operation on a previously recovered VM.
+    * Note: Additional tasks (commented out) are provided for reference and can be added as steps to run specific
+    * operations:
+    * - runCancelRecoveryPlan(client, pairingId, planId): Cancels a recovery plan for the identified pairing.
+    * - runCleanupRecoveryPlan(client, pairingId, planId): Initiates a cleanup on a test recovery plan for the pairing.
+    * - runRecovery(client, pairingId, planId): Initiates a full recovery on the pairing's recovery plan.
+    * - runReprotect(client, pairingId, planId): Initiates a reprotect operation on a previously recovered VM.
     */
    private void run() {
 
@@ -64,25 +77,39 @@ public class RecoveryActions {
 
       client.addDefaultHeader("x-dr-session", sessionId);
 
-      PairingDrResponseList pairingList = runGetAllPairings(client);
-      System.out.println(pairingList);
+      List<Pairing> pairings = selectPairings(runGetAllPairings(client).getList(), PAIRINGS, REMOTE_VC_NAME);
+
+      try (WorkflowGraph workflow = new WorkflowGraph(WORKFLOW_PARALLELISM)) {
+         Map<String, WorkflowGraph.Step<?>[]> branches = new LinkedHashMap<>();
+         for (Pairing pairing : pairings) {
+            String remoteVcName = pairing.getRemoteVcServer().getName();
+            String pairingId = pairing.getPairingId().toString();
+            String planId = pairingProperty(properties, remoteVcName, "plan.id", RECOVERY_PLAN_ID);
+
+            WorkflowGraph.Step<String> remoteLogin = workflow.step("remote login " + remoteVcName, () -> {
+               runRemoteLogin(client, pairingId);
+               return pairingId;
+            });
+            WorkflowGraph.Step<Void> testRecovery = workflow.step("test recovery " + remoteVcName, () -> {
+               runTestRecoveryPlan(client, remoteLogin.get(), planId);
+               return null;
+            }, remoteLogin);
+
+            // Step 7: (Optional) Add steps for specific operations, with the steps they must follow as inputs, e.g.
+            // workflow.step("cleanup " + remoteVcName,
+            //               () -> { runCleanupRecoveryPlan(client, remoteLogin.get(), planId); return null; },
+            //               remoteLogin, testRecovery);
+            // Use runCancelRecoveryPlan, runRecovery and runReprotect in the same way, and add the steps to the branch.
+            branches.put(remoteVcName, new WorkflowGraph.Step<?>[] {remoteLogin, testRecovery});
+         }
 
-      UUID pairingId = null;
-      for (Pairing pairing : pairingList.getList()) {
-         if (pairing.getRemoteVcServer().getName().equals(REMOTE_VC_NAME)) {
-            pairingId = pairing.getPairingId();
+         try {
+            workflow.run();
+         } finally {
+            workflow.printReport();
+            branches.forEach(workflow::printOutcome);
          }
       }
-
-      runRemoteLogin(client, pairingId.toString());
-
-      runTestRecoveryPlan(client, pairingId.toString());
-
-      // Step 7: (Optional) Uncomment the following lines to run specific operations
-      // runCancelRecoveryPlan(client, pairingId.toString());
-      // runCleanupRecoveryPlan(client, pairingId.toString());
-      // runRecovery(client, pairingId.toString());
-      // runReprotect(client, pairingId.toString());
    }
 
    /**
@@ -91,15 +118,16 @@ public class RecoveryActions {
     *
     * @param client    The ApiClient instance used for making API calls.
     * @param pairingId The pairing ID associated with the remote VC for the test recovery.
+    * @param planId    The ID of the recovery plan.
     */
-   private void runTestRecoveryPlan(ApiClient client, String pairingId) {
+   private void runTestRecoveryPlan(ApiClient client, String pairingId, String planId) {
 
       RecoveryApi instance = new RecoveryApi(client);
 
       TestPlanSpec spec = new TestPlanSpec();
       spec.setSyncData(Boolean.valueOf(SYNC_DATA));
 
-      instance.runTestRecovery(spec, pairingId, RECOVERY_PLAN_ID);
+      instance.runTestRecovery(spec, pairingId, planId);
    }
 
    /**
@@ -108,15 +136,16 @@ public class RecoveryActions {
     *
     * @param client    The ApiClient instance used for making API calls.
     * @param pairingId The pairing ID associated with the remote VC for the cleanup operation.
+    * @param planId    The ID of the recovery plan.
     */
-   private void runCleanupRecoveryPlan(ApiClient client, String pairingId) {
+   private void runCleanupRecoveryPlan(ApiClient client, String pairingId, String planId) {
 
       RecoveryApi instance = new RecoveryApi(client);
 
       CleanupTestPlanSpec spec = new CleanupTestPlanSpec();
       spec.forced(Boolean.valueOf(FORCED));
 
-      instance.runCleanupTestRecovery(spec, pairingId, RECOVERY_PLAN_ID);
+      instance.runCleanupTestRecovery(spec, pairingId, planId);
    }
 
    /**
@@ -125,12 +154,13 @@ public class RecoveryActions {
     *
     * @param client    The ApiClient instance used for making API calls.
     * @param pairingId The pairing ID associated with the remote VC and the recovery plan.
+    * @param planId    The ID of the recovery plan.
     */
-   private void runCancelRecoveryPlan(ApiClient client, String pairingId) {
+   private void runCancelRecoveryPlan(ApiClient client, String pairingId, String planId) {
 
       RecoveryApi instance = new RecoveryApi(client);
 
-      instance.cancelRecoveryPlan(pairingId, RECOVERY_PLAN_ID);
+      instance.cancelRecoveryPlan(pairingId, planId);
    }
 
    /**
@@ -139,8 +169,9 @@ public class RecoveryActions {
     *
     * @param client    The ApiClient instance used for making API calls.
     * @param pairingId The pairing ID associated with the remote VC and the recovery plan.
+    * @param planId    The ID of the recovery plan.
     */
-   private void runRecovery(ApiClient client, String pairingId) {
+   private void runRecovery(ApiClient client, String pairingId, String planId) {
 
       RecoveryApi instance = new RecoveryApi(client);
 
@@ -150,7 +181,7 @@ public class RecoveryActions {
       spec.setMigrateEligibleVms(Boolean.valueOf(MIGRATE_ELIGIBLE_VMS));
       spec.setSkipProtectionSiteOperations(Boolean.valueOf(SKIP_PROTECTION_SITE_OPERATIONS));
 
-      instance.runRecovery(spec, pairingId, RECOVERY_PLAN_ID);
+      instance.runRecovery(spec, pairingId, planId);
    }
 
    /**
@@ -159,14 +190,15 @@ public class RecoveryActions {
     *
     * @param client    The ApiClient instance used for making API calls.
     * @param pairingId The pairing ID associated with the remote VC and the recovery plan.
+    * @param planId    The ID of the recovery plan.
     */
-   private void runReprotect(ApiClient client, String pairingId) {
+   private void runReprotect(ApiClient client, String pairingId, String planId) {
 
       RecoveryApi instance = new RecoveryApi(client);
 
       ReprotectPlanSpec spec = new ReprotectPlanSpec();
       spec.forced(Boolean.valueOf(FORCED));
 
-      instance.runReprotect(spec, pairingId, RECOVERY_PLAN_ID);
+      instance.runReprotect(spec, pairingId, planId);
    }
 }
\ No newline at end of file
@@ -0,0 +1,287 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.srm.api.RecoveryApi;
+import dr.restapi.examples.apiclient.srm.model.*;
+import dr.restapi.examples.apiclient.srm.model.RecoveryStep.StatusEnum;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static dr.restapi.examples.srm.PrepareSetup.*;
+import static dr.restapi.examples.srm.Util.*;
+
+/**
+ * Watches the recovery steps of a running recovery plan and emits only what changed between two polls.
+ * <p>Only steps that are currently running are expanded, so finished and not yet started subtrees are not downloaded
+ * again. The poll interval shrinks to {@code watch.min_poll_interval} whenever something changes or a prompt is
+ * pending and doubles up to {@code watch.max_poll_interval} while the plan is quiet.
+ */
+public class RecoveryStepWatcher {
+
+   private static final Properties properties;
+   private static final String REMOTE_VC_NAME;
+   private static final String RECOVERY_PLAN_ID;
+   private static final String VIEW_MODE;
+   private static final List<String> AUTO_DISMISS_PROMPTS;
+   private static final long MIN_POLL_INTERVAL;
+   private static final long MAX_POLL_INTERVAL;
+
+   static {
+      properties = loadProperties();
+      REMOTE_VC_NAME = properties.getProperty("remote_vc_name");
+      RECOVERY_PLAN_ID = properties.getProperty("plan.id");
+      VIEW_MODE = properties.getProperty("watch.view_mode", "recovery");
+      AUTO_DISMISS_PROMPTS = new ArrayList<>();
+      for (String prompt : properties.getProperty("watch.auto_dismiss_prompts", "").split(",")) {
+         if (!prompt.trim().isEmpty()) {
+            AUTO_DISMISS_PROMPTS.add(prompt.trim());
+         }
+      }
+      MIN_POLL_INTERVAL = Long.parseLong(properties.getProperty("watch.min_poll_interval", "500"));
+      MAX_POLL_INTERVAL = Long.parseLong(properties.getProperty("watch.max_poll_interval", "10000"));
+   }
+
+   /**
+    * A single change observed in the recovery steps or prompts of a plan.
+    */
+   public static final class RecoveryStepEvent {
+
+      /**
+       * Kind of change.
+       */
+      public enum Type {
+         STEP_STARTED, STEP_FINISHED, STATUS_CHANGED, PROMPT_RAISED, PROMPT_DISMISSED
+      }
+
+      private final Type type;
+      private final long timestamp;
+      private final RecoveryStep step;
+      private final StatusEnum previousStatus;
+      private final UserPrompt prompt;
+
+      private RecoveryStepEvent(Type type, RecoveryStep step, StatusEnum previousStatus, UserPrompt prompt) {
+         this.type = type;
+         this.timestamp = System.currentTimeMillis();
+         this.step = step;
+         this.previousStatus = previousStatus;
+         this.prompt = prompt;
+      }
+
+      public Type getType() {
+         return type;
+      }
+
+      public long getTimestamp() {
+         return timestamp;
+      }
+
+      public RecoveryStep getStep() {
+         return step;
+      }
+
+      public StatusEnum getPreviousStatus() {
+         return previousStatus;
+      }
+
+      public UserPrompt getPrompt() {
+         return prompt;
+      }
+
+      @Override
+      public String toString() {
+         if (prompt != null) {
+            return type + " [" + prompt.getId() + "] " + prompt.getPromptText();
+         }
+         return type + " [" + step.getStepNumber() + "] " + step.getTitle() + " "
+                + previousStatus + " -> " + step.getStatus();
+      }
+   }
+
+   private final RecoveryApi recoveryApi;
+   private final String pairingId;
+   private final String planId;
+   private final String viewMode;
+   private final List<String> autoDismissPrompts;
+
+   private final Map<Integer, StatusEnum> stepStatuses = new HashMap<>();
+   private final Set<String> seenPrompts = new HashSet<>();
+   private final Set<String> dismissedPrompts = new HashSet<>();
+   private final Set<Integer> expandedStepIds = new TreeSet<>();
+   private volatile boolean stopped;
+
+   /**
+    * Creates a watcher for the recovery steps of a plan.
+    *
+    * @param client             The ApiClient instance used for making API calls.
+    * @param pairingId          The pairing ID of the recovery plan.
+    * @param planId             The ID of the recovery plan to watch.
+    * @param viewMode           The recovery view mode: test, recovery, cleanup or reprotect.
+    * @param autoDismissPrompts Prompt texts (or parts of them) to dismiss automatically; may be empty.
+    */
+   public RecoveryStepWatcher(ApiClient client,
+                              String pairingId,
+                              String planId,
+                              String viewMode,
+                              List<String> autoDismissPrompts) {
+      this.recoveryApi = new RecoveryApi(client);
+      this.pairingId = pairingId;
+      this.planId = planId;
+      this.viewMode = viewMode;
+      this.autoDismissPrompts = new ArrayList<>(autoDismissPrompts);
+   }
+
+   public static void main(String[] args) {
+
+      ApiClient client = initApiClient();
+      String sessionId = runLogin(client);
+
+      client.addDefaultHeader("x-dr-session", sessionId);
+
+      UUID pairingId = null;
+      for (Pairing pairing : runGetAllPairings(client).getList()) {
+         if (pairing.getRemoteVcServer().getName().equals(REMOTE_VC_NAME)) {
+            pairingId = pairing.getPairingId();
+         }
+      }
+
+      runRemoteLogin(client, pairingId.toString());
+
+      RecoveryStepWatcher watcher =
+            new RecoveryStepWatcher(client, pairingId.toString(), RECOVERY_PLAN_ID, VIEW_MODE, AUTO_DISMISS_PROMPTS);
+      watcher.watch(System.out::println);
+   }
+
+   /**
+    * Polls the plan until it stops running or {@link #stop()} is called and passes every change to the listener.
+    * The method blocks the current thread; run it on a dedicated thread to watch several plans at once.
+    *
+    * @param listener The consumer receiving the events in the order they were observed.
+    */
+   public void watch(Consumer<RecoveryStepEvent> listener) {
+
+      long interval = MIN_POLL_INTERVAL;
+      while (!stopped) {
+         boolean changed = pollSteps(listener);
+         boolean promptPending = pollPrompts(listener);
+
+         if (!changed && !promptPending && !isAnyStepRunning() && !isPlanRunning()) {
+            return;
+         }
+
+         interval = changed || promptPending ? MIN_POLL_INTERVAL : Math.min(interval * 2, MAX_POLL_INTERVAL);
+         try {
+            Thread.sleep(interval);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+      }
+   }
+
+   /**
+    * Stops the watcher after the current poll.
+    */
+   public void stop() {
+      stopped = true;
+   }
+
+   /**
+    * Private utility method for fetching the steps and emitting the differences to the previous poll.
+    * Running steps with children are expanded in the next poll; finished steps are collapsed again.
+    *
+    * @param listener The consumer receiving the events.
+    * @return True if any step changed its status.
+    */
+   private boolean pollSteps(Consumer<RecoveryStepEvent> listener) {
+
+      String expanded = expandedStepIds.isEmpty() ? null : joinIds(expandedStepIds);
+      List<RecoveryStep> steps = recoveryApi.getRecoverySteps(pairingId, planId, viewMode, expanded).getList();
+
+      boolean changed = false;
+      for (RecoveryStep step : steps) {
+         StatusEnum status = step.getStatus();
+         StatusEnum previous = stepStatuses.put(step.getId(), status);
+         if (previous == null) {
+            previous = StatusEnum.INACTIVE;
+         }
+
+         if (status == StatusEnum.RUNNING && step.getChildCount() != null && step.getChildCount() > 0) {
+            expandedStepIds.add(step.getId());
+         } else {
+            expandedStepIds.remove(step.getId());
+         }
+
+         if (previous == status) {
+            continue;
+         }
+         changed = true;
+
+         RecoveryStepEvent.Type type;
+         if (status == StatusEnum.RUNNING) {
+            type = RecoveryStepEvent.Type.STEP_STARTED;
+         } else if (previous == StatusEnum.RUNNING || previous == StatusEnum.INACTIVE) {
+            type = RecoveryStepEvent.Type.STEP_FINISHED;
+         } else {
+            type = RecoveryStepEvent.Type.STATUS_CHANGED;
+         }
+         listener.accept(new RecoveryStepEvent(type, step, previous, null));
+      }
+      return changed;
+   }
+
+   /**
+    * Private utility method for fetching the user prompts, emitting the new ones and dismissing the known ones.
+    * A prompt is dismissed once; if it is still listed by a later poll, it is not dismissed again.
+    *
+    * @param listener The consumer receiving the events.
+    * @return True if a prompt is waiting for the user.
+    */
+   private boolean pollPrompts(Consumer<RecoveryStepEvent> listener) {
+
+      List<UserPrompt> prompts = recoveryApi.getRecoveryStepsUserPrompts(pairingId, planId).getList();
+      if (prompts == null) {
+         return false;
+      }
+
+      boolean pending = false;
+      for (UserPrompt prompt : prompts) {
+         if (seenPrompts.add(prompt.getId())) {
+            listener.accept(new RecoveryStepEvent(RecoveryStepEvent.Type.PROMPT_RAISED, null, null, prompt));
+         }
+
+         if (dismissedPrompts.contains(prompt.getId())) {
+            continue;
+         }
+         if (isKnownPrompt(prompt)) {
+            recoveryApi.dismissRecoveryStepsRecoveryPlanPrompt(pairingId, planId, prompt.getId());
+            dismissedPrompts.add(prompt.getId());
+            listener.accept(new RecoveryStepEvent(RecoveryStepEvent.Type.PROMPT_DISMISSED, null, null, prompt));
+         } else {
+            pending = true;
+         }
+      }
+      return pending;
+   }
+
+   private boolean isKnownPrompt(UserPrompt prompt) {
+      String text = prompt.getPromptText() != null ? prompt.getPromptText() : "";
+      for (String known : autoDismissPrompts) {
+         if (text.contains(known)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private boolean isAnyStepRunning() {
+      return stepStatuses.containsValue(StatusEnum.RUNNING);
+   }
+
+   private boolean isPlanRunning() {
+      Boolean running = recoveryApi.getRecoveryPlan(pairingId, planId).isIsRunning();
+      return running != null && running;
+   }
+}
@@ -0,0 +1,487 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.srm.api.RecoveryApi;
+import dr.restapi.examples.apiclient.srm.model.*;
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static dr.restapi.examples.srm.PrepareSetup.*;
+import static dr.restapi.examples.srm.Util.*;
+
+/**
+ * Measures the recovery time of a recovery plan run and tracks it over time.
+ * <p>After a test recovery or a recovery finishes, the complete recovery step tree is read with the start and finish
+ * time of every step. From it the analyzer derives the critical path, the wall time of every VM priority tier and
+ * the time spent per step category (sync, power-on, IP customization, ...). Each run is appended to
+ * {@code rto.history_file} and compared with the median of the previous runs of the same plan, so regressions
+ * above {@code rto.regression_threshold} are reported.
+ */
+public class RtoAnalyzer {
+
+   private static final Properties properties;
+   private static final String REMOTE_VC_NAME;
+   private static final String RECOVERY_PLAN_ID;
+   private static final String OPERATION;
+   private static final String SYNC_DATA;
+   private static final String PLANNED_FAILOVER;
+   private static final String MIGRATE_ELIGIBLE_VMS;
+   private static final String SKIP_PROTECTION_SITE_OPERATIONS;
+   private static final String HISTORY_FILE;
+   private static final double REGRESSION_THRESHOLD;
+
+   private static final Pattern PRIORITY_PATTERN = Pattern.compile("(?i)priority\\s*(\\d)");
+
+   static {
+      properties = loadProperties();
+      REMOTE_VC_NAME = properties.getProperty("remote_vc_name");
+      RECOVERY_PLAN_ID = properties.getProperty("plan.id");
+      OPERATION = properties.getProperty("rto.operation", "test");
+      SYNC_DATA = properties.getProperty("plan.sync_data");
+      PLANNED_FAILOVER = properties.getProperty("plan.planned_failover");
+      MIGRATE_ELIGIBLE_VMS = properties.getProperty("plan.migrate_eligible_vms");
+      SKIP_PROTECTION_SITE_OPERATIONS = properties.getProperty("plan.skip_protection_site_operations");
+      HISTORY_FILE = properties.getProperty("rto.history_file", "rto-history.ndjson");
+      REGRESSION_THRESHOLD = Double.parseDouble(properties.getProperty("rto.regression_threshold", "0.2"));
+   }
+
+   /**
+    * Coarse classification of recovery steps by what dominates their duration.
+    */
+   public enum StepCategory {
+      SYNC, SHUTDOWN, STORAGE, POWER_ON, IP_CUSTOMIZATION, OTHER;
+
+      static StepCategory of(String title) {
+         String lower = title == null ? "" : title.toLowerCase(Locale.ROOT);
+         if (lower.contains("synchroniz")) {
+            return SYNC;
+         }
+         if (lower.contains("shut down") || lower.contains("shutdown") || lower.contains("power off")) {
+            return SHUTDOWN;
+         }
+         if (lower.contains("ip") && lower.contains("custom")) {
+            return IP_CUSTOMIZATION;
+         }
+         if (lower.contains("power on") || lower.contains("power-on")) {
+            return POWER_ON;
+         }
+         if (lower.contains("storage") || lower.contains("datastore") || lower.contains("disk")) {
+            return STORAGE;
+         }
+         return OTHER;
+      }
+   }
+
+   /**
+    * Persisted timings of one plan run. Written as one JSON object per line.
+    */
+   public static final class RtoRun {
+      String planId;
+      String planName;
+      String operation;
+      Long runKey;
+      long startTimeMs;
+      long durationMs;
+      String resultState;
+      List<String> criticalPath = new ArrayList<>();
+      Map<String, Long> tierMs = new TreeMap<>();
+      Map<String, Long> categoryMs = new TreeMap<>();
+      Map<String, Long> stepMs = new LinkedHashMap<>();
+   }
+
+   /**
+    * A recovery step with its position in the step tree.
+    */
+   private static final class StepNode {
+      private final RecoveryStep step;
+      private final StepNode parent;
+      private final List<StepNode> children = new ArrayList<>();
+
+      private StepNode(RecoveryStep step, StepNode parent) {
+         this.step = step;
+         this.parent = parent;
+      }
+
+      private long start() {
+         return step.getStartTime() != null ? step.getStartTime() : 0L;
+      }
+
+      private long finish() {
+         return step.getFinishTime() != null ? step.getFinishTime() : 0L;
+      }
+
+      private long duration() {
+         return start() > 0 && finish() >= start() ? finish() - start() : 0L;
+      }
+
+      private String label() {
+         return step.getStepNumber() + " " + step.getTitle();
+      }
+   }
+
+   public static void main(String[] args) {
+      RtoAnalyzer obj = new RtoAnalyzer();
+      obj.run();
+   }
+
+   /**
+    * Private utility method for measuring a plan run.
+    * The method executes the following tasks in sequence:
+    * 1. Initializes the API client, logs in, finds the pairing of the remote VC and logs in remotely.
+    * 2. Runs a test recovery or a recovery, depending on {@code rto.operation}, and waits for its task.
+    * 3. Reads the fully expanded recovery step tree and the latest history record of the plan.
+    * 4. Computes the critical path, per-tier and per-category durations.
+    * 5. Compares the run with the previous runs and appends it to the history file.
+    */
+   private void run() {
+
+      ApiClient client = initApiClient();
+      String sessionId = runLogin(client);
+
+      client.addDefaultHeader("x-dr-session", sessionId);
+
+      UUID pairingId = null;
+      for (Pairing pairing : runGetAllPairings(client).getList()) {
+         if (pairing.getRemoteVcServer().getName().equals(REMOTE_VC_NAME)) {
+            pairingId = pairing.getPairingId();
+         }
+      }
+
+      runRemoteLogin(client, pairingId.toString());
+
+      TaskDrResponseEntity task = runPlan(client, pairingId.toString());
+      waitTaskEnd(client, task.getId());
+
+      RtoRun current = measure(client, pairingId.toString(), RECOVERY_PLAN_ID, OPERATION);
+
+      Path historyFile = Paths.get(HISTORY_FILE);
+      List<RtoRun> previous = readRuns(historyFile, current.planId, current.operation);
+      printReport(current, previous);
+      appendRun(historyFile, current);
+   }
+
+   /**
+    * Collects the timings of the last run of a plan in the given view mode.
+    * The plan must still show the steps of the run, i.e. a test must not be cleaned up yet.
+    *
+    * @param client    The ApiClient instance used for making API calls.
+    * @param pairingId The pairing ID of the plan.
+    * @param planId    The ID of the recovery plan.
+    * @param viewMode  The recovery view mode of the run: test or recovery.
+    * @return The measured run.
+    */
+   public RtoRun measure(ApiClient client, String pairingId, String planId, String viewMode) {
+
+      RecoveryApi instance = new RecoveryApi(client);
+
+      List<StepNode> roots = buildTree(runGetExpandedRecoverySteps(instance, pairingId, planId, viewMode));
+
+      RtoRun run = new RtoRun();
+      run.planId = planId;
+      run.operation = viewMode;
+
+      HistoryReport report = runGetLatestHistoryReport(client, instance, pairingId, planId);
+      if (report != null) {
+         run.planName = report.getPlanName();
+         run.runKey = report.getRunKey();
+         run.startTimeMs = report.getStartTimeMs() != null ? report.getStartTimeMs() : 0L;
+         run.durationMs = report.getDurationMs() != null ? report.getDurationMs() : 0L;
+         run.resultState = report.getResultState() != null ? report.getResultState().toString() : null;
+      }
+
+      long first = Long.MAX_VALUE;
+      long last = 0L;
+      Map<String, long[]> tierSpans = new TreeMap<>();
+      for (StepNode root : roots) {
+         if (root.start() > 0) {
+            first = Math.min(first, root.start());
+         }
+         last = Math.max(last, root.finish());
+         collectTimings(root, null, run, tierSpans);
+      }
+      for (Map.Entry<String, long[]> span : tierSpans.entrySet()) {
+         run.tierMs.put(span.getKey(), span.getValue()[1] - span.getValue()[0]);
+      }
+      if (run.durationMs == 0L && first < last) {
+         run.startTimeMs = first;
+         run.durationMs = last - first;
+      }
+
+      for (StepNode node : criticalPath(roots)) {
+         run.criticalPath.add(node.label() + " (" + node.duration() + " ms)");
+      }
+      return run;
+   }
+
+   /**
+    * Private utility method for starting the configured operation on the plan.
+    *
+    * @param client    The ApiClient instance used for making API calls.
+    * @param pairingId The pairing ID associated with the remote VC and the recovery plan.
+    * @return The task of the started operation.
+    */
+   private TaskDrResponseEntity runPlan(ApiClient client, String pairingId) {
+
+      RecoveryApi instance = new RecoveryApi(client);
+
+      if ("recovery".equals(OPERATION)) {
+         RecoverPlanSpec spec = new RecoverPlanSpec();
+         spec.setSyncData(Boolean.valueOf(SYNC_DATA));
+         spec.setPlannedFailover(Boolean.valueOf(PLANNED_FAILOVER));
+         spec.setMigrateEligibleVms(Boolean.valueOf(MIGRATE_ELIGIBLE_VMS));
+         spec.setSkipProtectionSiteOperations(Boolean.valueOf(SKIP_PROTECTION_SITE_OPERATIONS));
+
+         return instance.runRecovery(spec, pairingId, RECOVERY_PLAN_ID);
+      }
+
+      TestPlanSpec spec = new TestPlanSpec();
+      spec.setSyncData(Boolean.valueOf(SYNC_DATA));
+
+      return instance.runTestRecovery(spec, pairingId, RECOVERY_PLAN_ID);
+   }
+
+   /**
+    * Private utility method for reading the complete step tree.
+    * Steps with children are expanded level by level until no collapsed step is left.
+    *
+    * @return The steps in depth-first order.
+    */
+   private List<RecoveryStep> runGetExpandedRecoverySteps(RecoveryApi instance,
+                                                          String pairingId,
+                                                          String planId,
+                                                          String viewMode) {
+
+      Set<Integer> expanded = new TreeSet<>();
+      while (true) {
+         String expandedIds = expanded.isEmpty() ? null : joinIds(expanded);
+         List<RecoveryStep> steps = instance.getRecoverySteps(pairingId, planId, viewMode, expandedIds).getList();
+
+         boolean grown = false;
+         for (RecoveryStep step : steps) {
+            if (step.getChildCount() != null && step.getChildCount() > 0) {
+               grown |= expanded.add(step.getId());
+            }
+         }
+         if (!grown) {
+            return steps;
+         }
+      }
+   }
+
+   /**
+    * Private utility method for retrieving the most recent history record of the plan.
+    *
+    * @return The latest history report, or null if the plan has no history.
+    */
+   private HistoryReport runGetLatestHistoryReport(ApiClient client,
+                                                   RecoveryApi instance,
+                                                   String pairingId,
+                                                   String planId) {
+
+      TaskDrResponseEntity task = instance.getPlanHistoryRecords(pairingId, planId, null, null, null, null,
+                                                                 null, null, null, null);
+      task = waitTaskEnd(client, task.getId());
+
+      HistoryReport latest = null;
+      for (HistoryReport report : toHistoryReports(client, task.getResult())) {
+         if (report.getRunKey() != null && report.getStartTimeMs() != null
+             && (latest == null || report.getStartTimeMs() > latest.getStartTimeMs())) {
+            latest = report;
+         }
+      }
+      if (latest == null) {
+         return null;
+      }
+      return instance.getPlanHistoryRecord(pairingId, planId, String.valueOf(latest.getRunKey()));
+   }
+
+   /**
+    * Private utility method for rebuilding the step tree from the depth-first list returned by the API.
+    */
+   private List<StepNode> buildTree(List<RecoveryStep> steps) {
+
+      List<StepNode> roots = new ArrayList<>();
+      Deque<StepNode> path = new ArrayDeque<>();
+      for (RecoveryStep step : steps) {
+         int depth = step.getDepth() != null ? step.getDepth() : 0;
+         while (path.size() > depth) {
+            path.pop();
+         }
+         StepNode node = new StepNode(step, path.peek());
+         if (node.parent == null) {
+            roots.add(node);
+         } else {
+            node.parent.children.add(node);
+         }
+         path.push(node);
+      }
+      return roots;
+   }
+
+   /**
+    * Private utility method for accumulating step, category and priority tier timings.
+    * Categories are summed over leaf steps only, so nested steps are not counted twice.
+    * A tier spans from the first start to the last finish of all steps that mention it.
+    */
+   private void collectTimings(StepNode node, String tier, RtoRun run, Map<String, long[]> tierSpans) {
+
+      Matcher matcher = PRIORITY_PATTERN.matcher(node.step.getTitle() != null ? node.step.getTitle() : "");
+      if (matcher.find()) {
+         tier = "P" + matcher.group(1);
+      }
+
+      run.stepMs.merge(node.step.getTitle(), node.duration(), Long::sum);
+      if (node.children.isEmpty()) {
+         run.categoryMs.merge(StepCategory.of(node.step.getTitle()).name(), node.duration(), Long::sum);
+      }
+      if (tier != null && node.start() > 0) {
+         long[] span = tierSpans.computeIfAbsent(tier, key -> new long[] {Long.MAX_VALUE, 0L});
+         span[0] = Math.min(span[0], node.start());
+         span[1] = Math.max(span[1], node.finish());
+      }
+
+      for (StepNode child : node.children) {
+         collectTimings(child, tier, run, tierSpans);
+      }
+   }
+
+   /**
+    * Private utility method for finding the critical path through the step tree.
+    * Top-level steps run one after another; inside a step the child that finished last gated its parent,
+    * so the path follows that child down to a leaf.
+    *
+    * @return The leaf steps on the critical path in execution order.
+    */
+   private List<StepNode> criticalPath(List<StepNode> roots) {
+
+      List<StepNode> path = new ArrayList<>();
+      for (StepNode root : roots) {
+         StepNode node = root;
+         while (!node.children.isEmpty()) {
+            StepNode latest = node.children.get(0);
+            for (StepNode child : node.children) {
+               if (child.finish() > latest.finish()) {
+                  latest = child;
+               }
+            }
+            node = latest;
+         }
+         if (node.duration() > 0) {
+            path.add(node);
+         }
+      }
+      return path;
+   }
+
+   /**
+    * Private utility method for printing the run and the regressions against the median of the previous runs.
+    */
+   private void printReport(RtoRun current, List<RtoRun> previous) {
+
+      System.out.printf("Plan %s (%s) %s run took %d ms, result %s.%n",
+                        current.planName, current.planId, current.operation, current.durationMs, current.resultState);
+
+      System.out.println("Critical path:");
+      for (String step : current.criticalPath) {
+         System.out.println("  " + step);
+      }
+
+      System.out.println("Priority tiers:");
+      for (Map.Entry<String, Long> tier : current.tierMs.entrySet()) {
+         System.out.printf("  %-4s %10d ms%n", tier.getKey(), tier.getValue());
+      }
+
+      System.out.println("Step categories:");
+      for (Map.Entry<String, Long> category : current.categoryMs.entrySet()) {
+         System.out.printf("  %-18s %10d ms%n", category.getKey(), category.getValue());
+      }
+
+      if (previous.isEmpty()) {
+         System.out.println("No previous runs to compare with.");
+         return;
+      }
+
+      List<Long> totals = new ArrayList<>();
+      for (RtoRun run : previous) {
+         totals.add(run.durationMs);
+      }
+      reportRegression("total", current.durationMs, median(totals));
+
+      for (Map.Entry<String, Long> step : current.stepMs.entrySet()) {
+         List<Long> history = new ArrayList<>();
+         for (RtoRun run : previous) {
+            Long value = run.stepMs.get(step.getKey());
+            if (value != null) {
+               history.add(value);
+            }
+         }
+         if (!history.isEmpty()) {
+            reportRegression(step.getKey(), step.getValue(), median(history));
+         }
+      }
+   }
+
+   private void reportRegression(String name, long currentMs, long baselineMs) {
+      if (baselineMs > 0 && currentMs > baselineMs * (1 + REGRESSION_THRESHOLD)) {
+         System.out.printf("REGRESSION %-50s %10d ms, median of previous runs %10d ms%n", name, currentMs, baselineMs);
+      }
+   }
+
+   /**
+    * Private utility method for reading the previous runs of the same plan and operation from the history file.
+    */
+   private List<RtoRun> readRuns(Path file, String planId, String operation) {
+
+      List<RtoRun> runs = new ArrayList<>();
+      if (!Files.exists(file)) {
+         return runs;
+      }
+
+      Gson gson = new Gson();
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+               continue;
+            }
+            RtoRun run = gson.fromJson(line, RtoRun.class);
+            if (planId.equals(run.planId) && operation.equals(run.operation)) {
+               runs.add(run);
+            }
+         }
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+      return runs;
+   }
+
+   /**
+    * Private utility method for appending a run to the history file, one JSON object per line.
+    */
+   private void appendRun(Path file, RtoRun run) {
+
+      try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                                                           StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+         writer.write(new Gson().toJson(run));
+         writer.newLine();
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   private static long median(List<Long> values) {
+      List<Long> sorted = new ArrayList<>(values);
+      Collections.sort(sorted);
+      return sorted.get(sorted.size() / 2);
+   }
+}
@@ -0,0 +1,415 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.srm.api.RecoveryApi;
+import dr.restapi.examples.apiclient.srm.model.*;
+import dr.restapi.examples.apiclient.srm.model.Task.StatusEnum;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static dr.restapi.examples.srm.PrepareSetup.*;
+import static dr.restapi.examples.srm.Util.*;
+
+/**
+ * Runs a test recovery drill across many recovery plans concurrently.
+ * <p>Every plan goes through test, wait, validate and cleanup. A plan is tested only after all plans it depends on
+ * are validated, and it is cleaned up only after all plans depending on it are done, so dependencies stay recovered
+ * while their dependents are tested. At most {@code drill.max_parallel_per_pairing} operations run at the same time
+ * against a single pairing.
+ */
+public class TestRecoveryOrchestrator {
+
+   private static final Properties properties;
+   private static final List<String> DRILL_PLANS;
+   private static final String DRILL_DEPENDENCIES;
+   private static final int MAX_PARALLEL_PER_PAIRING;
+   private static final boolean CLEANUP;
+   private static final String SYNC_DATA;
+   private static final String FORCED;
+
+   private static final String PAGE_SIZE = "100";
+
+   static {
+      properties = loadProperties();
+      DRILL_PLANS = splitList(properties.getProperty("drill.plans"));
+      DRILL_DEPENDENCIES = properties.getProperty("drill.dependencies");
+      MAX_PARALLEL_PER_PAIRING = Integer.parseInt(properties.getProperty("drill.max_parallel_per_pairing", "4"));
+      CLEANUP = Boolean.parseBoolean(properties.getProperty("drill.cleanup", "true"));
+      SYNC_DATA = properties.getProperty("plan.sync_data");
+      FORCED = properties.getProperty("plan.forced");
+   }
+
+   /**
+    * Outcome of a single plan in the drill.
+    */
+   public enum DrillStatus {
+      PENDING, TEST_FAILED, VALIDATION_FAILED, SKIPPED, TESTED, CLEANUP_FAILED, COMPLETED
+   }
+
+   /**
+    * A recovery plan taking part in the drill together with its progress.
+    */
+   private static final class DrillPlan {
+      private final String name;
+      private final String pairingId;
+      private final String planId;
+      private final Set<DrillPlan> dependencies = new LinkedHashSet<>();
+      private final Set<DrillPlan> dependents = new LinkedHashSet<>();
+      private final CompletableFuture<Boolean> tested = new CompletableFuture<>();
+      private final CompletableFuture<Void> cleanedUp = new CompletableFuture<>();
+      private volatile DrillStatus status = DrillStatus.PENDING;
+      private volatile String message = "";
+      private volatile boolean testStarted;
+      private volatile long testMs;
+      private volatile long cleanupMs;
+
+      private DrillPlan(String name, String pairingId, String planId) {
+         this.name = name;
+         this.pairingId = pairingId;
+         this.planId = planId;
+      }
+   }
+
+   public static void main(String[] args) {
+      TestRecoveryOrchestrator obj = new TestRecoveryOrchestrator();
+      obj.run();
+   }
+
+   /**
+    * Private utility method for running the drill.
+    * The method executes the following tasks in sequence:
+    * 1. Initializes the API client, logs in and sets the session ID as a default header.
+    * 2. Retrieves all pairings, logs in remotely to each of them and resolves the plans listed in {@code drill.plans}.
+    * 3. Builds the dependency graph from {@code drill.dependencies} and rejects cycles.
+    * 4. Runs test, validation and cleanup for all plans concurrently, honouring dependencies and per-pairing limits.
+    * 5. Prints a report with the outcome and timings of every plan.
+    */
+   private void run() {
+
+      ApiClient client = initApiClient();
+      String sessionId = runLogin(client);
+
+      client.addDefaultHeader("x-dr-session", sessionId);
+
+      Map<String, DrillPlan> plans = resolvePlans(client, runGetAllPairings(client));
+      linkDependencies(plans);
+      checkNoCycles(plans.values());
+
+      Set<String> pairingIds = new LinkedHashSet<>();
+      for (DrillPlan plan : plans.values()) {
+         pairingIds.add(plan.pairingId);
+      }
+      Map<String, Semaphore> pairingPermits = new HashMap<>();
+      for (String pairingId : pairingIds) {
+         pairingPermits.put(pairingId, new Semaphore(MAX_PARALLEL_PER_PAIRING, true));
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_PER_PAIRING * pairingIds.size());
+      long start = System.currentTimeMillis();
+      try {
+         List<CompletableFuture<Void>> drills = new ArrayList<>();
+         for (DrillPlan plan : plans.values()) {
+            drills.add(scheduleDrill(client, plan, pairingPermits.get(plan.pairingId), executor));
+         }
+         CompletableFuture.allOf(drills.toArray(new CompletableFuture<?>[0])).join();
+      } finally {
+         executor.shutdownNow();
+      }
+
+      printReport(plans.values(), System.currentTimeMillis() - start);
+   }
+
+   /**
+    * Private utility method for scheduling the test and cleanup stages of a single plan.
+    * The test stage starts once all dependencies are tested successfully; when any of them fails the plan is skipped.
+    * The cleanup stage starts once the plan has finished its test stage and all of its dependents have finished their
+    * cleanup stage, so plans are cleaned up in reverse dependency order. Every plan whose test recovery was started is
+    * cleaned up, also when the test failed.
+    *
+    * @param client   The ApiClient instance used for making API calls.
+    * @param plan     The plan to schedule.
+    * @param permits  The semaphore limiting concurrent operations in the pairing of the plan.
+    * @param executor The executor running the stages.
+    * @return A future completed when the plan has gone through all of its stages.
+    */
+   private CompletableFuture<Void> scheduleDrill(ApiClient client,
+                                                 DrillPlan plan,
+                                                 Semaphore permits,
+                                                 ExecutorService executor) {
+
+      CompletableFuture<?>[] dependencies = plan.dependencies.stream()
+                                                             .map(dependency -> dependency.tested)
+                                                             .toArray(CompletableFuture[]::new);
+
+      CompletableFuture.allOf(dependencies)
+            .thenApplyAsync(ignored -> {
+               for (DrillPlan dependency : plan.dependencies) {
+                  if (!dependency.tested.join()) {
+                     plan.status = DrillStatus.SKIPPED;
+                     plan.message = "Dependency " + dependency.name + " did not pass the test.";
+                     return false;
+                  }
+               }
+               return withPermit(permits, () -> runTestStage(client, plan));
+            }, executor)
+            .whenComplete((passed, error) -> plan.tested.complete(error == null && passed));
+
+      CompletableFuture<?>[] cleanedUpDependents = plan.dependents.stream()
+                                                                  .map(dependent -> dependent.cleanedUp)
+                                                                  .toArray(CompletableFuture[]::new);
+
+      CompletableFuture.allOf(cleanedUpDependents)
+            .thenCombine(plan.tested, (ignored, passed) -> passed)
+            .thenAcceptAsync(passed -> {
+               if (CLEANUP && plan.testStarted) {
+                  withPermit(permits, () -> runCleanupStage(client, plan));
+               }
+            }, executor)
+            .whenComplete((ignored, error) -> plan.cleanedUp.complete(null));
+
+      return plan.cleanedUp;
+   }
+
+   /**
+    * Private utility method for running a test recovery, waiting for its task and validating the plan state.
+    *
+    * @param client The ApiClient instance used for making API calls.
+    * @param plan   The plan to test.
+    * @return True if the test completed and the plan reached the TEST_COMPLETE state.
+    */
+   private boolean runTestStage(ApiClient client, DrillPlan plan) {
+
+      RecoveryApi instance = new RecoveryApi(client);
+      long start = System.currentTimeMillis();
+      try {
+         TestPlanSpec spec = new TestPlanSpec();
+         spec.setSyncData(Boolean.valueOf(SYNC_DATA));
+
+         TaskDrResponseEntity task = instance.runTestRecovery(spec, plan.pairingId, plan.planId);
+         plan.testStarted = true;
+         task = waitTaskEnd(client, task.getId());
+         plan.testMs = System.currentTimeMillis() - start;
+
+         if (task.getStatus() != StatusEnum.SUCCESS) {
+            plan.status = DrillStatus.TEST_FAILED;
+            plan.message = taskErrorMessage(task);
+            return false;
+         }
+
+         RecoveryPlanInfo info = instance.getRecoveryPlan(plan.pairingId, plan.planId);
+         if (info.getStatus() != RecoveryPlanInfo.StatusEnum.TEST_COMPLETE) {
+            plan.status = DrillStatus.VALIDATION_FAILED;
+            plan.message = "Plan state after test is " + info.getStatus() + ".";
+            return false;
+         }
+
+         plan.status = DrillStatus.TESTED;
+         return true;
+      } catch (RuntimeException e) {
+         plan.testMs = System.currentTimeMillis() - start;
+         plan.status = DrillStatus.TEST_FAILED;
+         plan.message = e.getMessage();
+         return false;
+      }
+   }
+
+   /**
+    * Private utility method for running a cleanup of a tested plan and waiting for its task.
+    * Plans that failed their test or validation are cleaned up as well, so the drill does not leave test VMs behind.
+    * The cleanup of a plan whose test did not succeed is forced, since its test recovery may have stopped midway.
+    *
+    * @param client The ApiClient instance used for making API calls.
+    * @param plan   The plan to clean up.
+    */
+   private void runCleanupStage(ApiClient client, DrillPlan plan) {
+
+      RecoveryApi instance = new RecoveryApi(client);
+      long start = System.currentTimeMillis();
+      try {
+         CleanupTestPlanSpec spec = new CleanupTestPlanSpec();
+         spec.forced(Boolean.valueOf(FORCED) || plan.status == DrillStatus.TEST_FAILED);
+
+         TaskDrResponseEntity task = instance.runCleanupTestRecovery(spec, plan.pairingId, plan.planId);
+         task = waitTaskEnd(client, task.getId());
+         plan.cleanupMs = System.currentTimeMillis() - start;
+
+         if (task.getStatus() != StatusEnum.SUCCESS) {
+            plan.status = DrillStatus.CLEANUP_FAILED;
+            plan.message = taskErrorMessage(task);
+         } else if (plan.status == DrillStatus.TESTED) {
+            plan.status = DrillStatus.COMPLETED;
+         }
+      } catch (RuntimeException e) {
+         plan.cleanupMs = System.currentTimeMillis() - start;
+         plan.status = DrillStatus.CLEANUP_FAILED;
+         plan.message = e.getMessage();
+      }
+   }
+
+   /**
+    * Private utility method for resolving the names in {@code drill.plans} to plans in the known pairings.
+    *
+    * @param client      The ApiClient instance used for making API calls.
+    * @param pairingList The list of pairings to search.
+    * @return The drill plans keyed by plan name, in the configured order.
+    * @throws IllegalArgumentException If a plan cannot be found or its name is ambiguous.
+    */
+   private Map<String, DrillPlan> resolvePlans(ApiClient client, PairingDrResponseList pairingList) {
+
+      Map<String, List<DrillPlan>> candidates = new HashMap<>();
+      for (Pairing pairing : pairingList.getList()) {
+         String pairingId = pairing.getPairingId().toString();
+         runRemoteLogin(client, pairingId);
+         for (RecoveryPlanInfo info : runGetAllRecoveryPlans(client, pairingId)) {
+            if (DRILL_PLANS.contains(info.getName())) {
+               candidates.computeIfAbsent(info.getName(), name -> new ArrayList<>())
+                         .add(new DrillPlan(info.getName(), pairingId, info.getId()));
+            }
+         }
+      }
+
+      Map<String, DrillPlan> plans = new LinkedHashMap<>();
+      for (String name : DRILL_PLANS) {
+         List<DrillPlan> found = candidates.getOrDefault(name, Collections.emptyList());
+         if (found.size() != 1) {
+            throw new IllegalArgumentException("Recovery plan " + name + " is found " + found.size() + " times.");
+         }
+         plans.put(name, found.get(0));
+      }
+      return plans;
+   }
+
+   /**
+    * Private utility method for retrieving all recovery plans in a pairing, page by page.
+    *
+    * @param client    The ApiClient instance used for making API calls.
+    * @param pairingId The pairing ID to list the plans of.
+    * @return All recovery plans in the pairing.
+    */
+   private List<RecoveryPlanInfo> runGetAllRecoveryPlans(ApiClient client, String pairingId) {
+
+      RecoveryApi instance = new RecoveryApi(client);
+
+      List<RecoveryPlanInfo> plans = new ArrayList<>();
+      List<RecoveryPlanInfo> page;
+      do {
+         page = instance.getAllRecoveryPlans(pairingId, null, null, null, null,
+                                             PAGE_SIZE, String.valueOf(plans.size())).getList();
+         plans.addAll(page);
+      } while (page.size() == Integer.parseInt(PAGE_SIZE));
+      return plans;
+   }
+
+   /**
+    * Private utility method for parsing {@code drill.dependencies} and linking the plans.
+    * The expected format is a comma-separated list of {@code plan:dependency} entries,
+    * e.g. {@code rp-app:rp-db,rp-web:rp-app}.
+    *
+    * @param plans The drill plans keyed by plan name.
+    * @throws IllegalArgumentException If an entry is malformed or refers to a plan outside the drill.
+    */
+   private void linkDependencies(Map<String, DrillPlan> plans) {
+
+      for (String entry : splitList(DRILL_DEPENDENCIES)) {
+         String[] parts = entry.split(":");
+         if (parts.length != 2 || !plans.containsKey(parts[0].trim()) || !plans.containsKey(parts[1].trim())) {
+            throw new IllegalArgumentException(entry + " is not a valid dependency between drill plans.");
+         }
+         DrillPlan plan = plans.get(parts[0].trim());
+         DrillPlan dependency = plans.get(parts[1].trim());
+         plan.dependencies.add(dependency);
+         dependency.dependents.add(plan);
+      }
+   }
+
+   /**
+    * Private utility method for verifying the dependency graph is acyclic using Kahn's algorithm.
+    *
+    * @param plans The drill plans.
+    * @throws IllegalArgumentException If the dependencies contain a cycle.
+    */
+   private void checkNoCycles(Collection<DrillPlan> plans) {
+
+      Map<DrillPlan, Integer> inDegree = new HashMap<>();
+      Deque<DrillPlan> ready = new ArrayDeque<>();
+      for (DrillPlan plan : plans) {
+         inDegree.put(plan, plan.dependencies.size());
+         if (plan.dependencies.isEmpty()) {
+            ready.add(plan);
+         }
+      }
+
+      int visited = 0;
+      while (!ready.isEmpty()) {
+         DrillPlan plan = ready.poll();
+         visited++;
+         for (DrillPlan dependent : plan.dependents) {
+            if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+               ready.add(dependent);
+            }
+         }
+      }
+
+      if (visited != plans.size()) {
+         throw new IllegalArgumentException("Drill plan dependencies contain a cycle.");
+      }
+   }
+
+   /**
+    * Private utility method for printing the outcome and timings of every plan.
+    *
+    * @param plans  The drill plans.
+    * @param wallMs The wall time of the whole drill in milliseconds.
+    */
+   private void printReport(Collection<DrillPlan> plans, long wallMs) {
+
+      for (DrillPlan plan : plans) {
+         System.out.printf("%-40s %-18s test %7d ms  cleanup %7d ms  %s%n",
+                           plan.name, plan.status, plan.testMs, plan.cleanupMs, plan.message);
+      }
+      System.out.printf("Drill of %d plans finished in %d ms.%n", plans.size(), wallMs);
+   }
+
+   private static <T> T withPermit(Semaphore permits, Callable<T> action) {
+      try {
+         permits.acquire();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new CompletionException(e);
+      }
+      try {
+         return action.call();
+      } catch (Exception e) {
+         throw new CompletionException(e);
+      } finally {
+         permits.release();
+      }
+   }
+
+   private static void withPermit(Semaphore permits, Runnable action) {
+      withPermit(permits, () -> {
+         action.run();
+         return null;
+      });
+   }
+
+   private static String taskErrorMessage(TaskDrResponseEntity task) {
+      return task.getError() != null ? task.getError().getMessage() : "Task ended with status " + task.getStatus() + ".";
+   }
+
+   private static List<String> splitList(String value) {
+      List<String> items = new ArrayList<>();
+      if (value == null) {
+         return items;
+      }
+      for (String item : value.split(",")) {
+         if (!item.trim().isEmpty()) {
+            items.add(item.trim());
+         }
+      }
+      return items;
+   }
+}
@@ -3,13 +3,24 @@
 package dr.restapi.examples.srm;
 
 import dr.restapi.examples.apiclient.ApiClient;
-import dr.restapi.examples.apiclient.api.TasksApi;
-import dr.restapi.examples.apiclient.model.Task.StatusEnum;
-import dr.restapi.examples.apiclient.model.TaskDrResponseEntity;
+import dr.restapi.examples.apiclient.srm.api.TasksApi;
+import dr.restapi.examples.apiclient.srm.model.HistoryReport;
+import dr.restapi.examples.apiclient.srm.model.Pairing;
+import dr.restapi.examples.apiclient.srm.model.Task.StatusEnum;
+import dr.restapi.examples.apiclient.srm.model.TaskDrResponseEntity;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.StringJoiner;
 
 /**
  * Utility class containing helper methods.
@@ -68,6 +79,52 @@ public class Util {
       return prop;
    }
 
+   /**
+    * Selects the pairings a workflow runs on.
+    * The filter is a comma-separated list of remote VC names, or "*" for all pairings. An empty filter selects the
+    * pairing with the default remote VC name, as a single-pairing workflow does.
+    *
+    * @param pairings            All pairings.
+    * @param filter              The filter, e.g. the {@code pairings} property.
+    * @param defaultRemoteVcName The remote VC name used with an empty filter, e.g. the {@code remote_vc_name} property.
+    * @return The selected pairings, in the order of the list of all pairings.
+    * @throws IllegalStateException If no pairing is selected.
+    */
+   public static List<Pairing> selectPairings(List<Pairing> pairings, String filter, String defaultRemoteVcName) {
+
+      String names = filter == null || filter.isBlank() ? defaultRemoteVcName : filter;
+      Set<String> remoteVcNames = new HashSet<>();
+      for (String name : names.split(",")) {
+         remoteVcNames.add(name.trim());
+      }
+
+      List<Pairing> selected = new ArrayList<>();
+      for (Pairing pairing : pairings) {
+         if (remoteVcNames.contains("*") || remoteVcNames.contains(pairing.getRemoteVcServer().getName())) {
+            selected.add(pairing);
+         }
+      }
+      if (selected.isEmpty()) {
+         throw new IllegalStateException("No pairing with a remote VC in " + names + " is found.");
+      }
+      return selected;
+   }
+
+   /**
+    * Returns a property for one pairing.
+    * A property {@code pairing.<remote VC name>.<key>} overrides the value used for all pairings, so that values
+    * which differ between sites, like the protected VC GUID or a folder, can be given per pairing.
+    *
+    * @param properties   The properties.
+    * @param remoteVcName The remote VC name of the pairing.
+    * @param key          The property key.
+    * @param defaultValue The value used for all pairings.
+    * @return The value for the pairing.
+    */
+   public static String pairingProperty(Properties properties, String remoteVcName, String key, String defaultValue) {
+      return properties.getProperty("pairing." + remoteVcName + "." + key, defaultValue);
+   }
+
    /**
     * Converts a string representation of a ManagedObjectReference (MoRef) to its individual parts.
     * The MoRef string is expected to be in the format "type:value:serverGuid".
@@ -85,4 +142,48 @@ public class Util {
 
       return taskParts;
    }
+
+   /**
+    * Joins recovery step IDs into the comma-separated form expected by the {@code expanded_step_ids} query parameter.
+    *
+    * @param ids The IDs of the recovery steps to expand.
+    * @return The comma-separated list of IDs.
+    */
+   public static String joinIds(Collection<Integer> ids) {
+
+      StringJoiner joiner = new StringJoiner(",");
+      for (Integer id : ids) {
+         joiner.add(String.valueOf(id));
+      }
+      return joiner.toString();
+   }
+
+   /**
+    * Converts the result of a plan history task to history reports.
+    * The history operations return a task whose result is deserialized as a generic JSON structure;
+    * it is mapped back to the generated model with the JSON settings of the API client.
+    *
+    * @param client     The ApiClient instance whose JSON settings are used.
+    * @param taskResult The result of a completed history task.
+    * @return A list of history reports, empty if the task has no result.
+    */
+   public static List<HistoryReport> toHistoryReports(ApiClient client, Object taskResult) {
+
+      if (taskResult == null) {
+         return new ArrayList<>();
+      }
+
+      Gson gson = client.getJSON().getGson();
+      JsonElement json = gson.toJsonTree(taskResult);
+      if (json.isJsonObject() && json.getAsJsonObject().has("list")) {
+         json = json.getAsJsonObject().get("list");
+      }
+      if (json.isJsonArray()) {
+         return new ArrayList<>(Arrays.asList(gson.fromJson(json, HistoryReport[].class)));
+      }
+
+      List<HistoryReport> reports = new ArrayList<>();
+      reports.add(gson.fromJson(json, HistoryReport.class));
+      return reports;
+   }
 }
\ No newline at end of file
@@ -0,0 +1,245 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.srm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a workflow as a graph of steps.
+ * Every step declares the steps whose results it uses, and it is started as soon as all of them have completed, so
+ * that independent steps run concurrently. A step is added after its inputs, therefore the graph has no cycles.
+ * After the run, the timing of every step and the critical path, the chain of steps which determined the duration of
+ * the workflow, can be reported.
+ */
+public class WorkflowGraph implements AutoCloseable {
+
+   /**
+    * A step of the workflow.
+    *
+    * @param <T> The result type of the step.
+    */
+   public static final class Step<T> {
+      private final String name;
+      private final Supplier<T> action;
+      private final List<Step<?>> inputs;
+      private CompletableFuture<T> future;
+      private long startNanos;
+      private long endNanos;
+
+      private Step(String name, Supplier<T> action, List<Step<?>> inputs) {
+         this.name = name;
+         this.action = action;
+         this.inputs = inputs;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      /**
+       * Returns the result of the step.
+       * A step may only use the results of the steps it declared as inputs, which have completed when it starts.
+       *
+       * @return The result of the step.
+       * @throws IllegalStateException If the step has not completed yet.
+       */
+      public T get() {
+
+         if (future == null || !future.isDone()) {
+            throw new IllegalStateException("Step " + name + " has not completed. Declare it as an input.");
+         }
+         return future.join();
+      }
+
+      /**
+       * Returns whether the step has run. A step does not run if one of its inputs failed.
+       *
+       * @return True if the step has run, successfully or not.
+       */
+      public boolean hasRun() {
+         return endNanos != 0;
+      }
+
+      /**
+       * Returns the failure of the step.
+       *
+       * @return The exception thrown by the step, or null if it succeeded or did not run.
+       */
+      public RuntimeException getFailure() {
+
+         if (!hasRun() || !future.isCompletedExceptionally()) {
+            return null;
+         }
+         try {
+            future.join();
+            return null;
+         } catch (CompletionException e) {
+            return e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+         }
+      }
+   }
+
+   private final ExecutorService executor;
+   private final List<Step<?>> steps = new ArrayList<>();
+   private long startNanos;
+   private long endNanos;
+
+   /**
+    * Creates an empty workflow.
+    *
+    * @param parallelism The maximum number of steps running at the same time.
+    */
+   public WorkflowGraph(int parallelism) {
+      this.executor = Executors.newFixedThreadPool(parallelism);
+   }
+
+   /**
+    * Adds a step to the workflow. Steps without a result return null.
+    *
+    * @param name   The name of the step, used in the report.
+    * @param action The action of the step. It may call {@link Step#get()} on its inputs.
+    * @param inputs The steps which must complete before this step starts.
+    * @param <T>    The result type of the step.
+    * @return The step, to be used as input of other steps.
+    */
+   public <T> Step<T> step(String name, Supplier<T> action, Step<?>... inputs) {
+
+      for (Step<?> input : inputs) {
+         if (!steps.contains(input)) {
+            throw new IllegalArgumentException("Input " + input.name + " of step " + name + " is not in the workflow.");
+         }
+      }
+      Step<T> step = new Step<>(name, action, List.of(inputs));
+      steps.add(step);
+      return step;
+   }
+
+   /**
+    * Runs all steps and waits for them.
+    * When a step fails, the steps which depend on it are not run, and the independent ones are completed.
+    *
+    * @throws RuntimeException The failure of the first failed step, in the order the steps were added.
+    */
+   public void run() {
+
+      startNanos = System.nanoTime();
+      for (Step<?> step : steps) {
+         schedule(step);
+      }
+      RuntimeException failure = null;
+      for (Step<?> step : steps) {
+         try {
+            step.future.join();
+         } catch (CompletionException e) {
+            if (failure == null) {
+               failure = step.getFailure();
+            }
+         }
+      }
+      endNanos = System.nanoTime();
+      if (failure != null) {
+         throw failure;
+      }
+   }
+
+   /**
+    * Returns the critical path: starting from the step which completed last, each step is preceded by the input it
+    * waited for, the one which completed last.
+    *
+    * @return The steps of the critical path, in the order they ran.
+    */
+   public List<Step<?>> getCriticalPath() {
+
+      List<Step<?>> path = new ArrayList<>();
+      Step<?> step = steps.stream()
+                          .filter(Step::hasRun)
+                          .max(Comparator.comparingLong(s -> s.endNanos))
+                          .orElse(null);
+      while (step != null) {
+         path.add(step);
+         step = step.inputs.stream().max(Comparator.comparingLong(s -> s.endNanos)).orElse(null);
+      }
+      Collections.reverse(path);
+      return path;
+   }
+
+   /**
+    * Prints when every step started and how long it ran, and the critical path.
+    */
+   public void printReport() {
+
+      for (Step<?> step : steps) {
+         if (step.hasRun()) {
+            System.out.printf("%-30s start %6d ms, duration %6d ms%n",
+                              step.name,
+                              toMillis(step.startNanos - startNanos),
+                              toMillis(step.endNanos - step.startNanos));
+         } else {
+            System.out.printf("%-30s not run%n", step.name);
+         }
+      }
+      List<Step<?>> criticalPath = getCriticalPath();
+      long serialNanos = steps.stream().filter(Step::hasRun).mapToLong(s -> s.endNanos - s.startNanos).sum();
+      System.out.printf("Workflow took %d ms, %d ms when run in sequence.%n",
+                        toMillis(endNanos - startNanos),
+                        toMillis(serialNanos));
+      System.out.println("Critical path: "
+                         + criticalPath.stream().map(Step::getName).collect(Collectors.joining(" -> ")));
+   }
+
+   /**
+    * Prints the outcome of a branch of the workflow, e.g. the steps run for one pairing.
+    *
+    * @param branch      The name of the branch.
+    * @param branchSteps The steps of the branch, in the order they depend on each other.
+    */
+   public void printOutcome(String branch, Step<?>... branchSteps) {
+
+      for (Step<?> step : branchSteps) {
+         RuntimeException failure = step.getFailure();
+         if (failure != null) {
+            System.out.printf("%-30s FAILED at %s: %s%n", branch, step.name, failure.getMessage());
+            return;
+         }
+         if (!step.hasRun()) {
+            System.out.printf("%-30s FAILED, %s not run%n", branch, step.name);
+            return;
+         }
+      }
+      long endNanos = Arrays.stream(branchSteps).mapToLong(s -> s.endNanos).max().orElse(startNanos);
+      System.out.printf("%-30s OK after %d ms%n", branch, toMillis(endNanos - startNanos));
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+   }
+
+   private <T> void schedule(Step<T> step) {
+
+      CompletableFuture<?>[] inputs = step.inputs.stream().map(input -> input.future).toArray(CompletableFuture[]::new);
+      step.future = CompletableFuture.allOf(inputs).thenApplyAsync(ignored -> {
+         step.startNanos = System.nanoTime();
+         try {
+            return step.action.get();
+         } finally {
+            step.endNanos = System.nanoTime();
+         }
+      }, executor);
+   }
+
+   private static long toMillis(long nanos) {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+   }
+}
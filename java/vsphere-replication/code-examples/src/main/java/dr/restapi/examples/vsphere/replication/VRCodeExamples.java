@@ -2,14 +2,39 @@
 /* SPDX-License-Identifier: BSD-2-Clause */
 package dr.restapi.examples.vsphere.replication;
 
+import com.google.gson.Gson;
 import dr.restapi.examples.apiclient.ApiClient;
-import dr.restapi.examples.apiclient.model.*;
-import dr.restapi.examples.apiclient.model.ConfigureReplicationVmDisk.DestinationDiskFormatEnum;
+import dr.restapi.examples.apiclient.vr.model.*;
 import dr.restapi.examples.vsphere.replication.config.Config;
 import dr.restapi.examples.vsphere.replication.libraries.*;
+import dr.restapi.examples.vsphere.replication.libraries.async.AsyncAuthenticationLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.async.AsyncCalls;
+import dr.restapi.examples.vsphere.replication.libraries.async.AsyncPairingLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.async.AsyncReplicationLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.async.AsyncServerLibrary;
+import dr.restapi.examples.vsphere.replication.tools.BulkReplicationExecutor;
+import dr.restapi.examples.vsphere.replication.tools.DatastoreBrowser;
+import dr.restapi.examples.vsphere.replication.tools.FanOutExecutor;
+import dr.restapi.examples.vsphere.replication.tools.InventorySnapshot;
+import dr.restapi.examples.vsphere.replication.tools.IssueIndex;
+import dr.restapi.examples.vsphere.replication.tools.OperationJournal;
+import dr.restapi.examples.vsphere.replication.tools.PairingFanOut;
+import dr.restapi.examples.vsphere.replication.tools.ReplicationPlacement;
+import dr.restapi.examples.vsphere.replication.tools.ReplicationPlanner;
+import dr.restapi.examples.vsphere.replication.tools.RpoScanner;
+import dr.restapi.examples.vsphere.replication.tools.SeedDiscovery;
+import dr.restapi.examples.vsphere.replication.tools.SyncScheduler;
+import dr.restapi.examples.vsphere.replication.tools.WorkflowGraph;
 import dr.restapi.examples.vsphere.replication.util.ClientUtils;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import static dr.restapi.examples.vsphere.replication.util.ClientUtils.*;
 
@@ -20,6 +45,14 @@ public class VRCodeExamples {
       VRCodeExamples codeExamples = new VRCodeExamples(apiClient);
       codeExamples.runAuthenticationScenario();
       codeExamples.runConfigureReplicationScenario();
+      codeExamples.runIssueIndexScenario();
+      codeExamples.runRpoScanScenario();
+      codeExamples.runSyncScenario();
+      codeExamples.runBulkOperationScenario();
+      codeExamples.runDatastoreBrowseScenario();
+      codeExamples.runAsyncScenario();
+      codeExamples.runPairingFanOutScenario();
+      codeExamples.runOfflinePlanScenario();
    }
 
    private final ApiClient apiClient;
@@ -75,15 +108,312 @@ public class VRCodeExamples {
     *    <li>For each VM, get disks</li>
     *    <li>Optionally, for each VM, check capabilities if replication is supported and what are the supported replication settings</li>
     *    <li>Get storage policies at the target vCenter Server. Choose a storage policy. If default storage policy will be used, then set {@code destinationStoragePolicyId} in the resulting ConfigureReplicationSpec to {@code null}.</li>
-    *    <li>Get available datastores at the target vCenter Server. Choose a target datastore</li>
+    *    <li>Get available datastores at the target vCenter Server. Choose a target datastore, or with
+    *    {@link Constants.Config#REPLICATION_BALANCED_PLACEMENT} spread the VMs over all replication servers and all
+    *    datastores compliant with the target storage policy</li>
     *    <li>Optionally check the selected target datastore’s compliance against the selected target storage policy</li>
-    *    <li>Optionally search for seeds at the target vCenter Server for the chosen target datastore</li>
+    *    <li>Optionally search for seeds at the target vCenter Server for the chosen target datastores, see {@link Constants.Config#REPLICATION_SEED_DISCOVERY}</li>
     *    <li>Construct ConfigureReplicationSpec and create a replication</li>
     * </ol>
+    * The steps run as a {@link WorkflowGraph}: once the pairing is known, the VMs, the replication servers, the storage
+    * policies and the datastores are retrieved concurrently. The capabilities of the VMs and the replication tasks are
+    * handled per VM and per task by a {@link FanOutExecutor}, on virtual threads with
+    * {@link Constants.Config#FAN_OUT_MODE} virtual. The timing of the steps and the critical path are printed.
+    * <p>The replications are recorded in the {@link OperationJournal} {@link Constants.Config#JOURNAL_FILE}. When the
+    * scenario is run again after a crash, it waits for the tasks of the interrupted run and does not configure the
+    * VMs which are replicated or being replicated again.
     */
    private void runConfigureReplicationScenario() {
       toSystemOut("=== Run Configure Replication Scenario...");
 
+      SessionIdData sessionIdData = null;
+      try {
+         sessionIdData =
+               this.authenticationLibrary.callLogin(Config.get().getPropertyNotEmpty(Constants.Config.SSO_USERNAME),
+                                                    Config.get().getPropertyNotEmpty(Constants.Config.SSO_PASSWORD));
+         this.apiClient.addDefaultHeader(Constants.SESSION_HEADER, sessionIdData.getSessionId());
+
+         try (WorkflowGraph workflow =
+                    new WorkflowGraph(Config.get().getPositiveInt(Constants.Config.WORKFLOW_PARALLELISM));
+              FanOutExecutor fanOut =
+                    new FanOutExecutor(FanOutExecutor.Mode.parse(
+                          Config.get().getPropertyNotEmpty(Constants.Config.FAN_OUT_MODE)),
+                                       Config.get().getPositiveInt(Constants.Config.FAN_OUT_MAX_CONCURRENT));
+              OperationJournal journal =
+                    new OperationJournal(Paths.get(Config.get().getPropertyNotEmpty(Constants.Config.JOURNAL_FILE)),
+                                         Config.get().getPositiveInt(Constants.Config.JOURNAL_REGION_SIZE))) {
+            long retryInMs = Config.get().getPositiveInt(Constants.Config.TASK_COMPLETION_RETRY_INTERVAL);
+            WorkflowGraph.Step<Pairing> pairing = workflow.step("choose pairing", () -> {
+               Pairing chosenPairing = ClientUtils.choosePairing(this.pairingLibrary.callGetAllPairings());
+               this.pairingLibrary.callRemoteLogin(
+                     chosenPairing.getPairingId().toString(),
+                     Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
+                     Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD));
+               return chosenPairing;
+            });
+
+            workflow.step("resume tasks", () -> {
+               List<CompletableFuture<TaskDrResponseEntity>> completions = new ArrayList<>();
+               for (OperationJournal.Operation operation : journal.find(journalKeyPrefix(pairing.get()))) {
+                  if (operation.isInFlight()) {
+                     toSystemOut("Re-attaching to task [{0}] of [{1}].", operation.getTaskId(), operation.getKey());
+                     completions.add(fanOut.submit(() -> awaitJournaledTask(
+                           journal, fanOut, operation.getKey(), operation.getTaskId(), retryInMs)));
+                  } else if (operation.getState() == OperationJournal.State.ISSUED) {
+                     toSystemOut("[{0}] was issued by an interrupted run without a task, it is issued again.",
+                                 operation.getKey());
+                  }
+               }
+               return FanOutExecutor.joinAll(completions);
+            }, pairing);
+
+            WorkflowGraph.Step<List<VirtualMachine>> vmsToReplication = workflow.step("choose VMs", () -> {
+               boolean suitableForReplication = true;
+               List<VirtualMachine> vms =
+                     this.replicationLibrary.callGetLocalVms(pairing.get().getPairingId().toString(),
+                                                             pairing.get().getLocalVcServer().getId(),
+                                                             suitableForReplication);
+               Set<String> journaledVmNames = new HashSet<>();
+               for (OperationJournal.Operation operation : journal.find(journalKeyPrefix(pairing.get()))) {
+                  if (operation.isInFlight() || operation.isSucceeded()) {
+                     journaledVmNames.add(journaledVmName(pairing.get(), operation.getKey()));
+                  }
+               }
+               return chooseReplicationVms(vms, journaledVmNames);
+            }, pairing);
+
+            WorkflowGraph.Step<Map<String, VmCapabilitiesDrResponseEntity>> vmCapabilities =
+                  workflow.step("get VM capabilities", () -> {
+                     String pairingId = pairing.get().getPairingId().toString();
+                     UUID localVcId = pairing.get().getLocalVcServer().getId();
+                     Map<String, CompletableFuture<VmCapabilitiesDrResponseEntity>> futures = new LinkedHashMap<>();
+                     for (VirtualMachine vm : vmsToReplication.get()) {
+                        futures.put(vm.getId(), fanOut.submit(() -> fanOut.call(
+                              () -> this.replicationLibrary.callGetVmCapability(pairingId, localVcId, vm.getId()))));
+                     }
+                     List<VmCapabilitiesDrResponseEntity> capabilities =
+                           FanOutExecutor.joinAll(new ArrayList<>(futures.values()));
+
+                     Map<String, VmCapabilitiesDrResponseEntity> capabilitiesByVmId = new HashMap<>();
+                     Iterator<VmCapabilitiesDrResponseEntity> capability = capabilities.iterator();
+                     for (String vmId : futures.keySet()) {
+                        capabilitiesByVmId.put(vmId, capability.next());
+                     }
+                     return capabilitiesByVmId;
+                  }, pairing, vmsToReplication);
+
+            WorkflowGraph.Step<List<ReplicationServerInfo>> vrsInfos = workflow.step("get replication servers", () -> {
+               String pairingId = pairing.get().getPairingId().toString();
+               VrmsInfo vrmsInfo = ClientUtils.chooseVrms(this.pairingLibrary.callGetAllVrmsDetails(pairingId));
+               return this.pairingLibrary.callGetAllVrsDetails(pairingId, vrmsInfo.getId().toString());
+            }, pairing);
+
+            WorkflowGraph.Step<StoragePolicy> targetVcStoragePolicy = workflow.step("choose storage policy", () -> {
+               List<StoragePolicy> vcStoragePolicies =
+                     this.replicationLibrary.callGetVcStoragePolicies(pairing.get().getPairingId().toString(),
+                                                                      pairing.get().getRemoteVcServer().getId());
+               return ClientUtils.chooseReplicationTargetStoragePolicy(vcStoragePolicies);
+            }, pairing);
+
+            WorkflowGraph.Step<List<Datastore>> datastores = workflow.step("get datastores", () ->
+                  this.replicationLibrary.callGetVrCapableTargetDatastores(pairing.get().getPairingId().toString(),
+                                                                           pairing.get().getRemoteVcServer().getId()),
+                  pairing);
+
+            WorkflowGraph.Step<List<ConfigureReplicationSpec>> specs = workflow.step("create specs", () -> {
+               if (Config.get().getBoolean(Constants.Config.REPLICATION_BALANCED_PLACEMENT)) {
+                  return createBalancedVmsReplicationSpecs(pairing.get(),
+                                                           vmsToReplication.get(),
+                                                           vmCapabilities.get(),
+                                                           datastores.get(),
+                                                           targetVcStoragePolicy.get(),
+                                                           vrsInfos.get());
+               }
+               ReplicationServerInfo targetVrs = vrsInfos.get().get(0);
+               Datastore targetVcDatastore = ClientUtils.chooseReplicationTargetDatastore(datastores.get());
+
+               return ReplicationPlanner.createVmsReplicationSpecs(pairing.get(),
+                                                                   vmsToReplication.get(),
+                                                                   vmCapabilities.get(),
+                                                                   targetVcDatastore,
+                                                                   targetVcStoragePolicy.get(),
+                                                                   targetVrs);
+            }, pairing, vmsToReplication, vmCapabilities, vrsInfos, targetVcStoragePolicy, datastores);
+
+            WorkflowGraph.Step<List<ConfigureReplicationSpec>> finalSpecs = specs;
+            if (Config.get().getBoolean(Constants.Config.REPLICATION_SEED_DISCOVERY)) {
+               finalSpecs = workflow.step("discover seeds", () -> {
+                  Map<String, String> vmNames = new HashMap<>();
+                  for (VirtualMachine vm : vmsToReplication.get()) {
+                     vmNames.put(vm.getId(), vm.getName());
+                  }
+                  int batchSize = Config.get().getPositiveInt(Constants.Config.SEED_DISCOVERY_BATCH_SIZE);
+                  int parallelism = Config.get().getPositiveInt(Constants.Config.SEED_DISCOVERY_PARALLELISM);
+                  try (SeedDiscovery seedDiscovery = new SeedDiscovery(this.apiClient, batchSize, parallelism)) {
+                     int seededDisks = seedDiscovery.applySeeds(pairing.get().getPairingId().toString(),
+                                                                pairing.get().getRemoteVcServer().getId(),
+                                                                specs.get(),
+                                                                vmNames);
+                     toSystemOut("[{0}] disks use seeds.", seededDisks);
+                  }
+                  return specs.get();
+               }, pairing, vmsToReplication, specs);
+            }
+
+            WorkflowGraph.Step<List<ConfigureReplicationSpec>> replicationSpecs = finalSpecs;
+            workflow.step("configure replication", () -> {
+               if (replicationSpecs.get().isEmpty()) {
+                  toSystemOut("All VMs are replicated or being replicated by an earlier run.");
+                  return Collections.emptyList();
+               }
+               Map<String, String> vmNames = new HashMap<>();
+               for (VirtualMachine vm : vmsToReplication.get()) {
+                  vmNames.put(vm.getId(), vm.getName());
+               }
+               // VM names are not unique in a vCenter, so the operations are keyed by VM ID. A task is matched by
+               // its entity name only if no other VM of the specs has the same name.
+               Map<String, String> keysByVmId = new LinkedHashMap<>();
+               Map<String, String> keysByVmName = new HashMap<>();
+               Set<String> duplicateVmNames = new HashSet<>();
+               for (ConfigureReplicationSpec spec : replicationSpecs.get()) {
+                  String vmName = vmNames.get(spec.getVmId());
+                  String key = journalKey(pairing.get(), spec.getVmId(), vmName);
+                  keysByVmId.put(spec.getVmId(), key);
+                  if (keysByVmName.put(vmName, key) != null) {
+                     duplicateVmNames.add(vmName);
+                  }
+               }
+               keysByVmName.keySet().removeAll(duplicateVmNames);
+
+               journal.issued(new LinkedHashSet<>(keysByVmId.values()));
+               List<Task> replicationTasks =
+                     this.replicationLibrary.callConfigureReplication(pairing.get().getPairingId().toString(),
+                                                                      replicationSpecs.get());
+               // The tasks are matched to the VMs by their entity, the order of the tasks is not specified.
+               Map<String, String> taskIdsByKey = new LinkedHashMap<>();
+               for (Task task : replicationTasks) {
+                  String key = keysByVmId.get(task.getEntity());
+                  if (key == null || taskIdsByKey.containsKey(key)) {
+                     key = keysByVmName.get(task.getEntityName());
+                  }
+                  if (key == null || taskIdsByKey.containsKey(key)) {
+                     toSystemOut("Task with ID [{0}] on entity [{1}] does not match a VM, it is not journaled.",
+                                 task.getId(),
+                                 task.getEntityName());
+                  } else {
+                     taskIdsByKey.put(key, task.getId());
+                  }
+               }
+               Set<String> unmatchedKeys = new LinkedHashSet<>(keysByVmId.values());
+               unmatchedKeys.removeAll(taskIdsByKey.keySet());
+               if (!unmatchedKeys.isEmpty()) {
+                  toSystemOut("Operations [{0}] have no matching task and stay issued.", unmatchedKeys);
+               }
+               journal.started(taskIdsByKey);
+
+               List<CompletableFuture<TaskDrResponseEntity>> completions = new ArrayList<>();
+               taskIdsByKey.forEach((key, taskId) -> completions.add(fanOut.submit(
+                     () -> awaitJournaledTask(journal, fanOut, key, taskId, retryInMs))));
+               for (TaskDrResponseEntity taskInfo : FanOutExecutor.joinAll(completions)) {
+                  toSystemOut("Task ID is [{0}], status is [{1}], entity name is [{2}].",
+                              taskInfo.getId(),
+                              taskInfo.getStatus(),
+                              taskInfo.getEntityName());
+               }
+               return replicationTasks;
+            }, pairing, vmsToReplication, replicationSpecs);
+
+            try {
+               workflow.run();
+            } finally {
+               workflow.printReport();
+            }
+         }
+      } finally {
+         if (sessionIdData != null) {
+            this.authenticationLibrary.callLogout();
+         }
+
+         toSystemOutEmptyLine();
+      }
+   }
+
+   /**
+    * Prerequisites:
+    * <ul>
+    *    <li>Existing site pairs. The remote credentials {@link Constants.Config#REMOTE_SSO_USERNAME} are valid for all of them.</li>
+    * </ul>
+    * <p>Steps:
+    * <ol>
+    *    <li>Authenticate to the API endpoint</li>
+    *    <li>Get VR pairings and create a remote session to each of them</li>
+    *    <li>Collect the pairing and replication issues of all pairings concurrently into an issue index</li>
+    *    <li>Query the index by severity and by pairing</li>
+    *    <li>Optionally keep refreshing the index in the background for {@link Constants.Config#ISSUES_WATCH_DURATION}</li>
+    * </ol>
+    */
+   private void runIssueIndexScenario() {
+      toSystemOut("=== Run Issue Index Scenario...");
+
+      SessionIdData sessionIdData = null;
+      try {
+         sessionIdData =
+               this.authenticationLibrary.callLogin(Config.get().getPropertyNotEmpty(Constants.Config.SSO_USERNAME),
+                                                    Config.get().getPropertyNotEmpty(Constants.Config.SSO_PASSWORD));
+         this.apiClient.addDefaultHeader(Constants.SESSION_HEADER, sessionIdData.getSessionId());
+
+         List<String> pairingIds = new ArrayList<>();
+         for (Pairing pairing : this.pairingLibrary.callGetAllPairings()) {
+            String pairingId = pairing.getPairingId().toString();
+            this.pairingLibrary.callRemoteLogin(pairingId,
+                                                Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
+                                                Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD));
+            pairingIds.add(pairingId);
+         }
+
+         try (IssueIndex issueIndex =
+                    new IssueIndex(this.apiClient,
+                                   pairingIds,
+                                   Config.get().getPositiveInt(Constants.Config.ISSUES_PARALLELISM))) {
+            issueIndex.refresh();
+            printIssueIndex(issueIndex, pairingIds);
+
+            long watchDurationInMs = Config.get().getLong(Constants.Config.ISSUES_WATCH_DURATION);
+            if (watchDurationInMs > 0) {
+               issueIndex.start(Config.get().getLong(Constants.Config.ISSUES_REFRESH_INTERVAL));
+               try {
+                  Thread.sleep(watchDurationInMs);
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+               printIssueIndex(issueIndex, pairingIds);
+            }
+         }
+      } finally {
+         if (sessionIdData != null) {
+            this.authenticationLibrary.callLogout();
+         }
+
+         toSystemOutEmptyLine();
+      }
+   }
+
+   /**
+    * Prerequisites:
+    * <ul>
+    *    <li>Existing site pair with a remote VC.</li>
+    * </ul>
+    * <p>Steps:
+    * <ol>
+    *    <li>Authenticate to the API endpoint</li>
+    *    <li>Get VR pairings and create a remote session</li>
+    *    <li>Scan all replications of the pairing with extended info and print their status and RPO</li>
+    *    <li>Sweep {@link Constants.Config#RPO_SCAN_SWEEPS} times and print only what changed</li>
+    * </ol>
+    */
+   private void runRpoScanScenario() {
+      toSystemOut("=== Run RPO Scan Scenario...");
+
       SessionIdData sessionIdData = null;
       try {
          sessionIdData =
@@ -99,37 +429,350 @@ public class VRCodeExamples {
                                              Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
                                              Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD));
 
-         boolean suitableForReplication = true;
-         List<VirtualMachine> vms =
-               this.replicationLibrary.callGetLocalVms(pairingId, pairing.getLocalVcServer().getId(), suitableForReplication);
-         List<VirtualMachine> vmsToReplication = chooseReplicationVms(vms);
+         try (RpoScanner rpoScanner =
+                    new RpoScanner(this.apiClient,
+                                   pairingId,
+                                   Config.get().getPositiveInt(Constants.Config.RPO_SCAN_PAGE_SIZE),
+                                   Config.get().getPositiveInt(Constants.Config.RPO_SCAN_PARALLELISM),
+                                   Config.get().getPositiveInt(Constants.Config.RPO_SCAN_FULL_SCAN_EVERY))) {
+            long count = rpoScanner.fullScan(change -> toSystemOut("{0}", change));
+            toSystemOut("Scanned [{0}] replications, [{1}] violate their RPO.", count, rpoScanner.getViolationCount());
+
+            int sweeps = Config.get().getPositiveOrZeroInt(Constants.Config.RPO_SCAN_SWEEPS);
+            for (int sweep = 0; sweep < sweeps; sweep++) {
+               try {
+                  Thread.sleep(Config.get().getLong(Constants.Config.RPO_SCAN_INTERVAL));
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  break;
+               }
+               rpoScanner.sweep(change -> toSystemOut("{0}", change));
+               toSystemOut("[{0}] replications violate their RPO.", rpoScanner.getViolationCount());
+            }
+         }
+      } finally {
+         if (sessionIdData != null) {
+            this.authenticationLibrary.callLogout();
+         }
+
+         toSystemOutEmptyLine();
+      }
+   }
+
+   /**
+    * Prerequisites:
+    * <ul>
+    *    <li>Existing site pair with a remote VC.</li>
+    *    <li>Existing replications of the VMs listed in configuration property {@link Constants.Config#REPLICATION_VMS},
+    *    or any replications with {@link Constants.Config#SYNC_ALL_REPLICATIONS}.</li>
+    * </ul>
+    * <p>Steps:
+    * <ol>
+    *    <li>Authenticate to the API endpoint</li>
+    *    <li>Get VR pairings and create a remote session</li>
+    *    <li>Get the replications with extended info and choose the ones to sync</li>
+    *    <li>Sync them, closest to an RPO violation first, with limited concurrency per replication server and datastore</li>
+    * </ol>
+    */
+   private void runSyncScenario() {
+      toSystemOut("=== Run Sync Scenario...");
+
+      SessionIdData sessionIdData = null;
+      try {
+         sessionIdData =
+               this.authenticationLibrary.callLogin(Config.get().getPropertyNotEmpty(Constants.Config.SSO_USERNAME),
+                                                    Config.get().getPropertyNotEmpty(Constants.Config.SSO_PASSWORD));
+         this.apiClient.addDefaultHeader(Constants.SESSION_HEADER, sessionIdData.getSessionId());
+
+         List<Pairing> pairings = this.pairingLibrary.callGetAllPairings();
+         Pairing pairing = ClientUtils.choosePairing(pairings);
+         String pairingId = pairing.getPairingId().toString();
+
+         this.pairingLibrary.callRemoteLogin(pairingId,
+                                             Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
+                                             Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD));
+
+         List<ReplicationInfo> replications = getAllReplications(pairingId);
+         if (!Config.get().getBoolean(Constants.Config.SYNC_ALL_REPLICATIONS)) {
+            List<String> vmNames =
+                  Arrays.asList(Config.get().getPropertyNotEmpty(Constants.Config.REPLICATION_VMS).split(","));
+            replications.removeIf(replication -> !vmNames.contains(replication.getName()));
+         }
+
+         try (SyncScheduler syncScheduler =
+                    new SyncScheduler(this.apiClient,
+                                      pairingId,
+                                      Config.get().getPositiveInt(Constants.Config.SYNC_MAX_PER_SERVER),
+                                      Config.get().getPositiveInt(Constants.Config.SYNC_MAX_PER_DATASTORE),
+                                      Config.get().getPositiveInt(Constants.Config.SYNC_MAX_CONCURRENT))) {
+            SyncScheduler.Report report = syncScheduler.syncAll(replications);
+
+            report.getResults().forEach((name, result) -> toSystemOut("Replication [{0}]: {1}", name, result));
+            toSystemOut("Synced [{0}] replications in [{1}] seconds, estimated [{2}] seconds.",
+                        report.getResults().size(),
+                        report.getDurationInMs() / 1000,
+                        report.getEstimatedDurationInMs() / 1000);
+         }
+      } finally {
+         if (sessionIdData != null) {
+            this.authenticationLibrary.callLogout();
+         }
+
+         toSystemOutEmptyLine();
+      }
+   }
+
+   /**
+    * Prerequisites:
+    * <ul>
+    *    <li>Existing site pair with a remote VC.</li>
+    *    <li>Existing replications matching {@link Constants.Config#BULK_FILTER}.</li>
+    * </ul>
+    * <p>Steps:
+    * <ol>
+    *    <li>Authenticate to the API endpoint</li>
+    *    <li>Get VR pairings and create a remote session</li>
+    *    <li>Get the replications and choose the ones matching the filter which are not yet in the target state</li>
+    *    <li>Within the time window, pause, resume or reconfigure them with limited concurrency and rate</li>
+    *    <li>Report the outcome per replication and the throughput</li>
+    * </ol>
+    */
+   private void runBulkOperationScenario() {
+      toSystemOut("=== Run Bulk Operation Scenario...");
+
+      SessionIdData sessionIdData = null;
+      try {
+         sessionIdData =
+               this.authenticationLibrary.callLogin(Config.get().getPropertyNotEmpty(Constants.Config.SSO_USERNAME),
+                                                    Config.get().getPropertyNotEmpty(Constants.Config.SSO_PASSWORD));
+         this.apiClient.addDefaultHeader(Constants.SESSION_HEADER, sessionIdData.getSessionId());
+
+         List<Pairing> pairings = this.pairingLibrary.callGetAllPairings();
+         Pairing pairing = ClientUtils.choosePairing(pairings);
+         String pairingId = pairing.getPairingId().toString();
+
+         this.pairingLibrary.callRemoteLogin(pairingId,
+                                             Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
+                                             Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD));
+
+         BulkReplicationExecutor.Operation operation =
+               BulkReplicationExecutor.Operation.valueOf(
+                     Config.get().getPropertyNotEmpty(Constants.Config.BULK_OPERATION).toUpperCase(Locale.ROOT));
+         long rpo = Config.get().getLong(Constants.Config.BULK_RECONFIGURE_RPO);
+
+         try (BulkReplicationExecutor executor =
+                    new BulkReplicationExecutor(this.apiClient,
+                                                pairingId,
+                                                Config.get().getPositiveInt(Constants.Config.BULK_MAX_CONCURRENT),
+                                                Config.get().getPositiveInt(Constants.Config.BULK_MAX_PER_SECOND),
+                                                Config.get().getPropertyNotEmpty(Constants.Config.BULK_WINDOW))) {
+            BulkReplicationExecutor.Report report =
+                  executor.execute(getAllReplications(pairingId),
+                                   BulkReplicationExecutor.parseFilter(
+                                         Config.get().getPropertyNotEmpty(Constants.Config.BULK_FILTER)),
+                                   operation,
+                                   replication -> createReconfigureSpec(replication, rpo),
+                                   Config.get().getBoolean(Constants.Config.BULK_DRY_RUN));
 
-         List<VrmsInfo> vrmsInfos = this.pairingLibrary.callGetAllVrmsDetails(pairingId);
-         VrmsInfo vrmsInfo = ClientUtils.chooseVrms(vrmsInfos);
-         List<ReplicationServerInfo> vrsInfos =
-               this.pairingLibrary.callGetAllVrsDetails(pairingId, vrmsInfo.getId().toString());
-         ReplicationServerInfo targetVrs = vrsInfos.get(0);
+            report.getOutcomes().forEach((name, outcome) -> toSystemOut("Replication [{0}]: {1} {2}",
+                                                                         name,
+                                                                         outcome,
+                                                                         report.getMessages().getOrDefault(name, "")));
+            toSystemOut("Succeeded [{0}], failed [{1}], skipped [{2}], deferred [{3}], [{4}] operations per second.",
+                        report.count(BulkReplicationExecutor.Outcome.SUCCEEDED),
+                        report.count(BulkReplicationExecutor.Outcome.FAILED),
+                        report.count(BulkReplicationExecutor.Outcome.SKIPPED),
+                        report.count(BulkReplicationExecutor.Outcome.DEFERRED),
+                        report.getThroughput());
+         }
+      } finally {
+         if (sessionIdData != null) {
+            this.authenticationLibrary.callLogout();
+         }
+
+         toSystemOutEmptyLine();
+      }
+   }
+
+   /**
+    * Prerequisites:
+    * <ul>
+    *    <li>Existing site pair with a remote VC.</li>
+    * </ul>
+    * <p>Steps:
+    * <ol>
+    *    <li>Authenticate to the API endpoint</li>
+    *    <li>Get VR pairings and create a remote session</li>
+    *    <li>Get available datastores at the target vCenter Server</li>
+    *    <li>Crawl all of them concurrently down to {@link Constants.Config#BROWSE_MAX_DEPTH} folder levels</li>
+    *    <li>For each VM listed in {@link Constants.Config#REPLICATION_VMS}, look up folders named after it and the disks
+    *    in them, which are candidate destination paths and seeds, without further requests</li>
+    * </ol>
+    */
+   private void runDatastoreBrowseScenario() {
+      toSystemOut("=== Run Datastore Browse Scenario...");
 
-         List<StoragePolicy> vcStoragePolicies =
-               this.replicationLibrary.callGetVcStoragePolicies(pairingId, pairing.getRemoteVcServer().getId());
-         StoragePolicy targetVcStoragePolicy = ClientUtils.chooseReplicationTargetStoragePolicy(vcStoragePolicies);
+      SessionIdData sessionIdData = null;
+      try {
+         sessionIdData =
+               this.authenticationLibrary.callLogin(Config.get().getPropertyNotEmpty(Constants.Config.SSO_USERNAME),
+                                                    Config.get().getPropertyNotEmpty(Constants.Config.SSO_PASSWORD));
+         this.apiClient.addDefaultHeader(Constants.SESSION_HEADER, sessionIdData.getSessionId());
+
+         List<Pairing> pairings = this.pairingLibrary.callGetAllPairings();
+         Pairing pairing = ClientUtils.choosePairing(pairings);
+         String pairingId = pairing.getPairingId().toString();
+
+         this.pairingLibrary.callRemoteLogin(pairingId,
+                                             Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
+                                             Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD));
 
          List<Datastore> datastores =
                this.replicationLibrary.callGetVrCapableTargetDatastores(pairingId,
                                                                         pairing.getRemoteVcServer().getId());
-         Datastore targetVcDatastore = ClientUtils.chooseReplicationTargetDatastore(datastores);
 
-         List<ConfigureReplicationSpec> specs =
-               createVmsReplicationSpecs(pairing,
-                                         vmsToReplication,
-                                         targetVcDatastore,
-                                         targetVcStoragePolicy,
-                                         targetVrs);
+         try (DatastoreBrowser browser =
+                    new DatastoreBrowser(this.apiClient,
+                                         pairingId,
+                                         pairing.getRemoteVcServer().getId(),
+                                         Config.get().getLong(Constants.Config.BROWSE_CACHE_TTL),
+                                         Config.get().getPositiveInt(Constants.Config.BROWSE_PARALLELISM))) {
+            List<String> datastoreIds = new ArrayList<>();
+            for (Datastore datastore : datastores) {
+               datastoreIds.add(datastore.getId());
+            }
+            browser.crawl(datastoreIds, Config.get().getPositiveOrZeroInt(Constants.Config.BROWSE_MAX_DEPTH));
 
-         List<Task> replicationTasks = this.replicationLibrary.callConfigureReplication(pairingId, specs);
+            String[] vmNames = Config.get().getPropertyNotEmpty(Constants.Config.REPLICATION_VMS).split(",");
+            for (String vmName : vmNames) {
+               for (Datastore datastore : datastores) {
+                  if (!browser.getFolders(datastore.getId(), "").contains(vmName)) {
+                     continue;
+                  }
+                  for (DatastoreBrowserResult file : browser.getFiles(datastore.getId(), vmName)) {
+                     if (file.getFileType() == DatastoreBrowserResult.FileTypeEnum.VM_DISK) {
+                        toSystemOut("VM [{0}]: datastore [{1}] has disk [{2}] of [{3}] bytes.",
+                                    vmName,
+                                    datastore.getName(),
+                                    file.getName(),
+                                    file.getSize());
+                     }
+                  }
+               }
+            }
+         }
+      } finally {
+         if (sessionIdData != null) {
+            this.authenticationLibrary.callLogout();
+         }
+
+         toSystemOutEmptyLine();
+      }
+   }
 
-         for (Task replicationTask : replicationTasks) {
-            this.tasksLibrary.waitForTaskCompletion(replicationTask.getId());
+   /**
+    * Prerequisites:
+    * <ul>
+    *    <li>Existing site pair with a remote VC.</li>
+    * </ul>
+    * <p>Steps:
+    * <ol>
+    *    <li>Authenticate to the API endpoint</li>
+    *    <li>Get the current session, the registered replication servers and the VR pairings concurrently</li>
+    *    <li>As soon as the pairings arrive, create a remote session, then get the paired VRMS and the number of
+    *    replications concurrently</li>
+    *    <li>Print the results when all requests completed</li>
+    * </ol>
+    * The requests are composed with the async libraries, so no thread waits for a single response.
+    */
+   private void runAsyncScenario() {
+      toSystemOut("=== Run Async Scenario...");
+
+      AsyncCalls.configureDispatcher(this.apiClient,
+                                     null,
+                                     Config.get().getPositiveInt(Constants.Config.ASYNC_MAX_REQUESTS),
+                                     Config.get().getPositiveInt(Constants.Config.ASYNC_MAX_REQUESTS_PER_HOST));
+      AsyncAuthenticationLibrary asyncAuthenticationLibrary = new AsyncAuthenticationLibrary(this.apiClient);
+      AsyncPairingLibrary asyncPairingLibrary = new AsyncPairingLibrary(this.apiClient);
+      AsyncReplicationLibrary asyncReplicationLibrary = new AsyncReplicationLibrary(this.apiClient);
+      AsyncServerLibrary asyncServerLibrary = new AsyncServerLibrary(this.apiClient);
+
+      SessionIdData sessionIdData = null;
+      try {
+         sessionIdData = AsyncCalls.await(asyncAuthenticationLibrary.callLogin(
+               Config.get().getPropertyNotEmpty(Constants.Config.SSO_USERNAME),
+               Config.get().getPropertyNotEmpty(Constants.Config.SSO_PASSWORD)));
+         this.apiClient.addDefaultHeader(Constants.SESSION_HEADER, sessionIdData.getSessionId());
+
+         CompletableFuture<SessionInfo> sessionInfo = asyncAuthenticationLibrary.callGetCurrentSession();
+         CompletableFuture<List<ReplicationServerInfo>> replicationServers = asyncServerLibrary.callGetAllVrServers();
+         String remoteUsername = Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME);
+         String remotePassword = Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD);
+         CompletableFuture<String> pairingId =
+               asyncPairingLibrary.callGetAllPairings()
+                                  .thenApply(pairings -> ClientUtils.choosePairing(pairings).getPairingId().toString())
+                                  .thenCompose(id -> asyncPairingLibrary
+                                        .callRemoteLogin(id, remoteUsername, remotePassword)
+                                        .thenApply(ignored -> id));
+         CompletableFuture<List<VrmsInfo>> vrmsInfos =
+               pairingId.thenCompose(asyncPairingLibrary::callGetAllVrmsDetails);
+         CompletableFuture<Long> replicationsCount =
+               pairingId.thenCompose(asyncReplicationLibrary::callGetReplicationsCount);
+
+         AsyncCalls.await(CompletableFuture.allOf(sessionInfo, replicationServers, vrmsInfos, replicationsCount));
+
+         toSystemOut("User [{0}] sees [{1}] replication servers, [{2}] paired VRMS and [{3}] replications.",
+                     sessionInfo.join().getUsername(),
+                     replicationServers.join().size(),
+                     vrmsInfos.join().size(),
+                     replicationsCount.join());
+      } finally {
+         if (sessionIdData != null) {
+            AsyncCalls.await(asyncAuthenticationLibrary.callLogout());
+         }
+
+         toSystemOutEmptyLine();
+      }
+   }
+
+   /**
+    * Prerequisites:
+    * <ul>
+    *    <li>Existing site pairs with the remote VCs listed in {@link Constants.Config#PAIRING_FILTER}.</li>
+    * </ul>
+    * <p>Steps:
+    * <ol>
+    *    <li>Authenticate to the API endpoint</li>
+    *    <li>Get VR pairings and choose the ones matching {@link Constants.Config#PAIRING_FILTER}</li>
+    *    <li>For every pairing in parallel, create a remote session, then get the number of replications, the
+    *    replication issues and the paired VRMS with their replication servers concurrently</li>
+    *    <li>Print one report for all pairings</li>
+    * </ol>
+    * Every pairing has its own limit {@link Constants.Config#PAIRING_MAX_CONCURRENT} of concurrent requests.
+    */
+   private void runPairingFanOutScenario() {
+      toSystemOut("=== Run Pairing Fan-Out Scenario...");
+
+      SessionIdData sessionIdData = null;
+      try {
+         sessionIdData =
+               this.authenticationLibrary.callLogin(Config.get().getPropertyNotEmpty(Constants.Config.SSO_USERNAME),
+                                                    Config.get().getPropertyNotEmpty(Constants.Config.SSO_PASSWORD));
+         this.apiClient.addDefaultHeader(Constants.SESSION_HEADER, sessionIdData.getSessionId());
+
+         List<Pairing> pairings = ClientUtils.choosePairings(this.pairingLibrary.callGetAllPairings());
+
+         try (PairingFanOut pairingFanOut =
+                    new PairingFanOut(this.apiClient,
+                                      Config.get().getPositiveInt(Constants.Config.PAIRING_PARALLELISM),
+                                      FanOutExecutor.Mode.parse(
+                                            Config.get().getPropertyNotEmpty(Constants.Config.FAN_OUT_MODE)),
+                                      Config.get().getPositiveInt(Constants.Config.PAIRING_MAX_CONCURRENT),
+                                      Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
+                                      Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD))) {
+            long start = System.nanoTime();
+            List<PairingFanOut.Result<String>> results = pairingFanOut.run(pairings, this::summarizePairing);
+            PairingFanOut.printReport(results, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
          }
       } finally {
          if (sessionIdData != null) {
@@ -140,67 +783,255 @@ public class VRCodeExamples {
       }
    }
 
-   private List<ConfigureReplicationSpec> createVmsReplicationSpecs(Pairing pairing,
-                                                                    List<VirtualMachine> vmsToReplication,
-                                                                    Datastore targetDatastore,
-                                                                    StoragePolicy targetStoragePolicy,
-                                                                    ReplicationServerInfo targetVRServer) {
-      List<ConfigureReplicationSpec> replicationSpecs = new ArrayList<>();
+   /**
+    * Prerequisites:
+    * <ul>
+    *    <li>Existing site pair with a remote VC.</li>
+    *    <li>VMs listed in configuration property {@link Constants.Config#REPLICATION_VMS}, which are not replicated
+    *    yet.</li>
+    * </ul>
+    * <p>Steps:
+    * <ol>
+    *    <li>Load the inventory snapshot {@link Constants.Config#PLANNER_SNAPSHOT_FILE}. When it does not exist or is
+    *    older than {@link Constants.Config#PLANNER_SNAPSHOT_MAX_AGE}, authenticate, create a remote session and
+    *    capture a new one</li>
+    *    <li>Build the ConfigureReplicationSpecs from the snapshot, validate them and estimate the requests and the
+    *    duration of the execution, without contacting the servers</li>
+    *    <li>With {@link Constants.Config#PLANNER_EXECUTE} and a valid plan, authenticate, create a remote session,
+    *    configure the replications with one request and wait for the tasks</li>
+    *    <li>Save the snapshot with the latencies measured in this run</li>
+    * </ol>
+    */
+   private void runOfflinePlanScenario() {
+      toSystemOut("=== Run Offline Plan Scenario...");
+
+      Path snapshotFile = Paths.get(Config.get().getPropertyNotEmpty(Constants.Config.PLANNER_SNAPSHOT_FILE));
+      long maxSnapshotAgeInMs = Config.get().getLong(Constants.Config.PLANNER_SNAPSHOT_MAX_AGE);
+      Gson gson = this.apiClient.getJSON().getGson();
+
+      InventorySnapshot snapshot = Files.exists(snapshotFile) ? InventorySnapshot.load(snapshotFile, gson) : null;
+      SessionIdData sessionIdData = null;
+      try (FanOutExecutor fanOut =
+                 new FanOutExecutor(FanOutExecutor.Mode.parse(
+                       Config.get().getPropertyNotEmpty(Constants.Config.FAN_OUT_MODE)),
+                                    Config.get().getPositiveInt(Constants.Config.FAN_OUT_MAX_CONCURRENT))) {
+         if (snapshot == null || System.currentTimeMillis() - snapshot.getCapturedAt() > maxSnapshotAgeInMs) {
+            sessionIdData = login(snapshot);
+            Pairing pairing = ClientUtils.choosePairing(this.pairingLibrary.callGetAllPairings());
+            this.pairingLibrary.callRemoteLogin(pairing.getPairingId().toString(),
+                                                Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
+                                                Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD));
+            InventorySnapshot capturedSnapshot = InventorySnapshot.capture(this.apiClient, pairing, fanOut);
+            if (snapshot != null) {
+               capturedSnapshot.keepLatencies(snapshot);
+            }
+            snapshot = capturedSnapshot;
+         }
+
+         ReplicationPlanner planner =
+               new ReplicationPlanner(snapshot,
+                                      Config.get().getPositiveOrZeroInt(Constants.Config.REPLICATION_FREE_SPACE_RESERVE_PERCENT),
+                                      Config.get().getPositiveInt(Constants.Config.TASK_COMPLETION_RETRY_INTERVAL));
+         ReplicationPlanner.Plan plan =
+               planner.plan(Arrays.asList(Config.get().getPropertyNotEmpty(Constants.Config.REPLICATION_VMS).split(",")),
+                            Config.get().getPropertyNotEmpty(Constants.Config.REPLICATION_TARGET_STORAGE_POLICY),
+                            Config.get().getPropertyNotEmpty(Constants.Config.REPLICATION_TARGET_DATASTORE),
+                            Config.get().getBoolean(Constants.Config.REPLICATION_BALANCED_PLACEMENT),
+                            maxSnapshotAgeInMs);
+         plan.print();
+
+         if (!Config.get().getBoolean(Constants.Config.PLANNER_EXECUTE) || !plan.isValid()) {
+            toSystemOut("The plan is not executed.");
+            return;
+         }
+         if (sessionIdData == null) {
+            sessionIdData = login(snapshot);
+         }
+         List<TaskDrResponseEntity> taskInfos =
+               planner.execute(this.apiClient,
+                               fanOut,
+                               plan,
+                               Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
+                               Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD));
+         for (TaskDrResponseEntity taskInfo : taskInfos) {
+            toSystemOut("Task ID is [{0}], status is [{1}], entity name is [{2}].",
+                        taskInfo.getId(),
+                        taskInfo.getStatus(),
+                        taskInfo.getEntityName());
+         }
+      } finally {
+         if (sessionIdData != null && snapshot != null) {
+            snapshot.timed("AuthenticationApi.logout", () -> {
+               this.authenticationLibrary.callLogout();
+               return null;
+            });
+         } else if (sessionIdData != null) {
+            this.authenticationLibrary.callLogout();
+         }
+         if (snapshot != null) {
+            snapshot.save(snapshotFile, gson);
+         }
+
+         toSystemOutEmptyLine();
+      }
+   }
+
+   private SessionIdData login(InventorySnapshot snapshot) {
+      Supplier<SessionIdData> login = () ->
+            this.authenticationLibrary.callLogin(Config.get().getPropertyNotEmpty(Constants.Config.SSO_USERNAME),
+                                                 Config.get().getPropertyNotEmpty(Constants.Config.SSO_PASSWORD));
+      SessionIdData sessionIdData = snapshot != null ? snapshot.timed("AuthenticationApi.login", login) : login.get();
+      this.apiClient.addDefaultHeader(Constants.SESSION_HEADER, sessionIdData.getSessionId());
+
+      return sessionIdData;
+   }
 
+   /**
+    * Key prefix of the configure replication operations of a pairing in the {@link OperationJournal}.
+    */
+   private static String journalKeyPrefix(Pairing pairing) {
+      return "configureReplication/" + pairing.getPairingId() + "/";
+   }
+
+   /**
+    * Key of the configure replication operation of a VM in the {@link OperationJournal}. The key is unique by the VM
+    * ID; it ends with the VM name, so a later run can skip the configured VM without the VM being listed.
+    */
+   private static String journalKey(Pairing pairing, String vmId, String vmName) {
+      return journalKeyPrefix(pairing) + vmId + "/" + vmName;
+   }
+
+   private static String journaledVmName(Pairing pairing, String key) {
+      String vmIdAndName = key.substring(journalKeyPrefix(pairing).length());
+      return vmIdAndName.substring(vmIdAndName.indexOf('/') + 1);
+   }
+
+   private TaskDrResponseEntity awaitJournaledTask(OperationJournal journal,
+                                                   FanOutExecutor fanOut,
+                                                   String key,
+                                                   String taskId,
+                                                   long retryInMs) {
+      TaskDrResponseEntity taskInfo =
+            fanOut.poll(() -> this.tasksLibrary.callGetTaskInfo(taskId), TasksLibrary::isCompleted, retryInMs);
+      journal.completed(key, taskInfo.getStatus().toString());
+
+      return taskInfo;
+   }
+
+   private String summarizePairing(Pairing pairing, FanOutExecutor fanOut) {
       String pairingId = pairing.getPairingId().toString();
+      int issuesPageSize = 100;
 
-      for (VirtualMachine vmToReplication : vmsToReplication) {
-         // VM capabilities can be used to verify if a VM supports a given setting,
-         // but it's not always correct to use those as default values.
-         // There are different considerations for each of those.
-         VmCapabilitiesDrResponseEntity vmCapabilities =
-               this.replicationLibrary.callGetVmCapability(pairingId,
-                                                           pairing.getLocalVcServer().getId(),
-                                                           vmToReplication.getId());
-
-         ConfigureReplicationSpec spec = new ConfigureReplicationSpec();
-         spec.setAutoReplicateNewDisks(vmCapabilities.isAutoReplicateNewDisksSupported());
-         spec.setRpo(vmCapabilities.getMinRpoMins() + 10L);
-         spec.lwdEncryptionEnabled(vmCapabilities.isLwdEncryptionSupported());
-         spec.setMpitDays(0);
-         spec.setMpitEnabled(false); // can be also vmCapabilities.isMpitSupported()
-         spec.setMpitInstances(0);
-         spec.networkCompressionEnabled(vmCapabilities.isNetworkCompressionSupported());
-         spec.setQuiesceEnabled(vmCapabilities.isQuiescingSupported());
-         spec.setVmDataSetsReplicationEnabled(false);
-         spec.setTargetReplicationServerId(targetVRServer.getId());
-         spec.setVmId(vmToReplication.getId());
-         spec.setTargetVcId(pairing.getRemoteVcServer().getId().toString());
-
-         List<ConfigureReplicationVmDisk> diskSpecs =
-               createVmDiskSpecs(vmToReplication, targetDatastore, targetStoragePolicy);
-         spec.setDisks(diskSpecs);
-
-         replicationSpecs.add(spec);
+      CompletableFuture<Long> replicationsCount =
+            fanOut.submit(() -> fanOut.call(() -> this.replicationLibrary.callGetReplicationsCount(pairingId)));
+      CompletableFuture<Integer> replicationIssuesCount =
+            fanOut.submit(() -> fanOut.call(() -> this.replicationLibrary.callGetReplicationsIssues(pairingId,
+                                                                                                  issuesPageSize,
+                                                                                                  0)).size());
+      List<VrmsInfo> vrmsInfos = fanOut.call(() -> this.pairingLibrary.callGetAllVrmsDetails(pairingId));
+      List<CompletableFuture<Integer>> vrsCounts = new ArrayList<>(vrmsInfos.size());
+      for (VrmsInfo vrmsInfo : vrmsInfos) {
+         vrsCounts.add(fanOut.submit(() -> fanOut.call(
+               () -> this.pairingLibrary.callGetAllVrsDetails(pairingId, vrmsInfo.getId().toString()).size())));
       }
 
-      return replicationSpecs;
+      return MessageFormat.format("{0} replications, {1} replication issues, {2} VRMS, {3} replication servers",
+                                  replicationsCount.join(),
+                                  replicationIssuesCount.join(),
+                                  vrmsInfos.size(),
+                                  FanOutExecutor.joinAll(vrsCounts).stream().mapToInt(Integer::intValue).sum());
+   }
+
+   private ReconfigureReplicationSpec createReconfigureSpec(ReplicationInfo replication, long rpo) {
+      ReconfigureReplicationSpec spec = new ReconfigureReplicationSpec();
+      spec.setRpo(rpo);
+      spec.setQuiesceEnabled(replication.isQuiescingEnabled());
+      spec.setNetworkCompressionEnabled(replication.isNetworkCompressionEnabled());
+      spec.setLwdEncryptionEnabled(replication.isEncryptionEnabled());
+      spec.setAutoReplicateNewDisks(replication.isAutoReplicateNewDisksEnabled());
+      spec.setMpitEnabled(replication.isMpitEnabled());
+      spec.setMpitInstances(replication.getMpitInstances());
+      spec.setMpitDays(replication.getMpitDays());
+      spec.setVmDataSetsReplicationEnabled(replication.isVmDataSetsReplicationEnabled());
+
+      return spec;
+   }
+
+   private List<ReplicationInfo> getAllReplications(String pairingId) {
+      int pageSize = 100;
+      List<ReplicationInfo> replications = new ArrayList<>();
+      List<ReplicationInfo> page;
+      do {
+         page = this.replicationLibrary.callGetAllReplications(pairingId,
+                                                               null,
+                                                               null,
+                                                               pageSize,
+                                                               replications.size(),
+                                                               true);
+         replications.addAll(page);
+      } while (page.size() == pageSize);
+
+      return replications;
+   }
+
+   private void printIssueIndex(IssueIndex issueIndex, List<String> pairingIds) {
+      toSystemOut("Issue index contains [{0}] issues.", issueIndex.size());
+      if (!issueIndex.getFailures().isEmpty()) {
+         toSystemOut("Sources not read: [{0}].", issueIndex.getFailures().keySet());
+      }
+      for (IssueInfo.StatusEnum severity : IssueInfo.StatusEnum.values()) {
+         toSystemOut("Severity [{0}]: [{1}] issues.", severity, issueIndex.getBySeverity(severity).size());
+      }
+      for (String pairingId : pairingIds) {
+         for (IssueIndex.IndexedIssue issue : issueIndex.getByPairing(pairingId)) {
+            toSystemOut("Pairing [{0}]: {1}", pairingId, issue);
+         }
+      }
    }
 
-   private List<ConfigureReplicationVmDisk> createVmDiskSpecs(VirtualMachine vm,
-                                                              Datastore targetDatastore,
-                                                              StoragePolicy targetStoragePolicy) {
+   private List<ConfigureReplicationSpec> createBalancedVmsReplicationSpecs(Pairing pairing,
+                                                                            List<VirtualMachine> vmsToReplication,
+                                                                            Map<String, VmCapabilitiesDrResponseEntity> vmCapabilities,
+                                                                            List<Datastore> datastores,
+                                                                            StoragePolicy targetStoragePolicy,
+                                                                            List<ReplicationServerInfo> vrsInfos) {
+      List<StoragePolicyComplianceCheckData> compliance = null;
+      if (targetStoragePolicy.getStoragePolicyId() != null) {
+         List<String> datastoreIds = new ArrayList<>();
+         for (Datastore datastore : datastores) {
+            datastoreIds.add(datastore.getId());
+         }
+         compliance =
+               this.replicationLibrary.callCheckStoragePolicyCompliance(pairing.getPairingId().toString(),
+                                                                        pairing.getRemoteVcServer().getId(),
+                                                                        targetStoragePolicy.getStoragePolicyId(),
+                                                                        datastoreIds);
+      }
 
-      List<ConfigureReplicationVmDisk> diskSpecs = new ArrayList<>();
+      ReplicationPlacement placement =
+            new ReplicationPlacement(vrsInfos,
+                                     datastores,
+                                     compliance,
+                                     Config.get().getPositiveOrZeroInt(Constants.Config.REPLICATION_FREE_SPACE_RESERVE_PERCENT));
+      Map<String, ReplicationPlacement.Target> targets = placement.place(vmsToReplication);
 
-      for (VmDisk vmDisk : vm.getDisks()) {
-         ConfigureReplicationVmDisk diskSpec = new ConfigureReplicationVmDisk();
-         diskSpec.setDestinationDatastoreId(targetDatastore.getId());
-         diskSpec.setDestinationDiskFormat(DestinationDiskFormatEnum.SAME_AS_SOURCE);
-         diskSpec.setEnabledForReplication(true);
-         diskSpec.setUseSeeds(false);
-         diskSpec.destinationPath(null);
-         diskSpec.setDestinationStoragePolicyId(targetStoragePolicy.getStoragePolicyId());
-         diskSpec.setVmDisk(vmDisk);
+      List<ConfigureReplicationSpec> replicationSpecs = new ArrayList<>();
+      for (VirtualMachine vmToReplication : vmsToReplication) {
+         ReplicationPlacement.Target target = targets.get(vmToReplication.getId());
+         toSystemOut("VM [{0}] is placed on replication server [{1}] and datastore [{2}].",
+                     vmToReplication.getName(),
+                     target.getReplicationServer().getName(),
+                     target.getDatastore().getName());
 
-         diskSpecs.add(diskSpec);
+         replicationSpecs.addAll(
+               ReplicationPlanner.createVmsReplicationSpecs(pairing,
+                                                            Collections.singletonList(vmToReplication),
+                                                            vmCapabilities,
+                                                            target.getDatastore(),
+                                                            targetStoragePolicy,
+                                                            target.getReplicationServer()));
       }
 
-      return diskSpecs;
+      return replicationSpecs;
    }
 }
@@ -4,10 +4,10 @@ package dr.restapi.examples.vsphere.replication.libraries;
 
 import dr.restapi.examples.apiclient.ApiClient;
 import dr.restapi.examples.apiclient.ApiException;
-import dr.restapi.examples.apiclient.api.AuthenticationApi;
 import dr.restapi.examples.apiclient.auth.HttpBasicAuth;
-import dr.restapi.examples.apiclient.model.SessionIdData;
-import dr.restapi.examples.apiclient.model.SessionInfo;
+import dr.restapi.examples.apiclient.vr.api.AuthenticationApi;
+import dr.restapi.examples.apiclient.vr.model.SessionIdData;
+import dr.restapi.examples.apiclient.vr.model.SessionInfo;
 import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
 
 import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
@@ -19,7 +19,56 @@ public final class Constants {
       public static final String REPLICATION_VMS = "replication-vms";
       public static final String REPLICATION_TARGET_STORAGE_POLICY = "replication-target-storage-policy";
       public static final String REPLICATION_TARGET_DATASTORE = "replication-target-datastore";
+      public static final String REPLICATION_BALANCED_PLACEMENT = "replication-balanced-placement";
+      public static final String REPLICATION_FREE_SPACE_RESERVE_PERCENT = "replication-free-space-reserve-percent";
+      public static final String REPLICATION_SEED_DISCOVERY = "replication-seed-discovery";
+      public static final String SEED_DISCOVERY_BATCH_SIZE = "seed-discovery-batch-size";
+      public static final String SEED_DISCOVERY_PARALLELISM = "seed-discovery-parallelism";
       public static final String TASK_COMPLETION_RETRY_INTERVAL = "task-completion-retry-interval";
+      public static final String ISSUES_PARALLELISM = "issues-parallelism";
+      public static final String ISSUES_REFRESH_INTERVAL = "issues-refresh-interval";
+      public static final String ISSUES_WATCH_DURATION = "issues-watch-duration";
+      public static final String RPO_SCAN_PAGE_SIZE = "rpo-scan-page-size";
+      public static final String RPO_SCAN_PARALLELISM = "rpo-scan-parallelism";
+      public static final String RPO_SCAN_FULL_SCAN_EVERY = "rpo-scan-full-scan-every";
+      public static final String RPO_SCAN_SWEEPS = "rpo-scan-sweeps";
+      public static final String RPO_SCAN_INTERVAL = "rpo-scan-interval";
+      public static final String SYNC_ALL_REPLICATIONS = "sync-all-replications";
+      public static final String SYNC_MAX_PER_SERVER = "sync-max-per-server";
+      public static final String SYNC_MAX_PER_DATASTORE = "sync-max-per-datastore";
+      public static final String SYNC_MAX_CONCURRENT = "sync-max-concurrent";
+      public static final String BULK_OPERATION = "bulk-operation";
+      public static final String BULK_FILTER = "bulk-filter";
+      public static final String BULK_RECONFIGURE_RPO = "bulk-reconfigure-rpo";
+      public static final String BULK_WINDOW = "bulk-window";
+      public static final String BULK_MAX_CONCURRENT = "bulk-max-concurrent";
+      public static final String BULK_MAX_PER_SECOND = "bulk-max-per-second";
+      public static final String BULK_DRY_RUN = "bulk-dry-run";
+      public static final String BROWSE_MAX_DEPTH = "browse-max-depth";
+      public static final String BROWSE_CACHE_TTL = "browse-cache-ttl";
+      public static final String BROWSE_PARALLELISM = "browse-parallelism";
+      public static final String ASYNC_MAX_REQUESTS = "async-max-requests";
+      public static final String ASYNC_MAX_REQUESTS_PER_HOST = "async-max-requests-per-host";
+      public static final String WORKFLOW_PARALLELISM = "workflow-parallelism";
+      public static final String FAN_OUT_MODE = "fan-out-mode";
+      public static final String FAN_OUT_MAX_CONCURRENT = "fan-out-max-concurrent";
+      public static final String FAN_OUT_BENCHMARK_OPERATIONS = "fan-out-benchmark-operations";
+      public static final String FAN_OUT_BENCHMARK_LATENCY = "fan-out-benchmark-latency";
+      public static final String FAN_OUT_BENCHMARK_POLLS = "fan-out-benchmark-polls";
+      public static final String FAN_OUT_BENCHMARK_POLL_INTERVAL = "fan-out-benchmark-poll-interval";
+      public static final String PAIRING_FILTER = "pairing-filter";
+      public static final String PAIRING_PARALLELISM = "pairing-parallelism";
+      public static final String PAIRING_MAX_CONCURRENT = "pairing-max-concurrent";
+      public static final String PLANNER_SNAPSHOT_FILE = "planner-snapshot-file";
+      public static final String PLANNER_SNAPSHOT_MAX_AGE = "planner-snapshot-max-age";
+      public static final String PLANNER_EXECUTE = "planner-execute";
+      public static final String JOURNAL_FILE = "journal-file";
+      public static final String JOURNAL_REGION_SIZE = "journal-region-size";
+      public static final String DAEMON_PORT = "daemon-port";
+      public static final String DAEMON_TOKEN_FILE = "daemon-token-file";
+      public static final String DAEMON_MAX_OPERATIONS = "daemon-max-operations";
+      public static final String DAEMON_KEEP_ALIVE_INTERVAL = "daemon-keep-alive-interval";
+      public static final String DAEMON_DURATION = "daemon-duration";
 
       private Config() {
       }
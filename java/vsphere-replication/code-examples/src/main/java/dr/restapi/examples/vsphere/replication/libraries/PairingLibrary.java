@@ -4,9 +4,9 @@ package dr.restapi.examples.vsphere.replication.libraries;
 
 import dr.restapi.examples.apiclient.ApiClient;
 import dr.restapi.examples.apiclient.ApiException;
-import dr.restapi.examples.apiclient.api.PairingApi;
 import dr.restapi.examples.apiclient.auth.HttpBasicAuth;
-import dr.restapi.examples.apiclient.model.*;
+import dr.restapi.examples.apiclient.vr.api.PairingApi;
+import dr.restapi.examples.apiclient.vr.model.*;
 import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
 
 import java.util.List;
@@ -43,6 +43,34 @@ public class PairingLibrary {
       return pairings;
    }
 
+   /**
+    * Get one page of the issues of a pairing.
+    * @param pairingId ID of the pairing between this vSphere Replication Management Server and the remote one
+    * @param limit maximum number of issues in the page
+    * @param offset number of issues to skip
+    * @return list of issues
+    * @throws ExamplesExecutionException when get the issues of a pairing failed
+    */
+   public List<IssueInfo> callGetVrPairingIssues(String pairingId, int limit, int offset) {
+      List<IssueInfo> issues;
+      try {
+         issues = this.pairingApi.getVrPairingIssues(pairingId,
+                                                     null,
+                                                     null,
+                                                     null,
+                                                     null,
+                                                     String.valueOf(limit),
+                                                     String.valueOf(offset))
+                                 .getList();
+
+         toSystemOut("Get the issues of pairing [{0}] completed.", pairingId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'PairingApi.getVrPairingIssues' failed.");
+      }
+
+      return issues;
+   }
+
    /**
     * Get information about the vSphere Replication Management Servers (VRMS) that are paired.
     * @param pairingId ID of the pairing between this vSphere Replication Management Server and the remote one
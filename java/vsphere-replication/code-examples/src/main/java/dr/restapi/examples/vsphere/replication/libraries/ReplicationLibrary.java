@@ -4,8 +4,8 @@ package dr.restapi.examples.vsphere.replication.libraries;
 
 import dr.restapi.examples.apiclient.ApiClient;
 import dr.restapi.examples.apiclient.ApiException;
-import dr.restapi.examples.apiclient.api.ReplicationApi;
-import dr.restapi.examples.apiclient.model.*;
+import dr.restapi.examples.apiclient.vr.api.ReplicationApi;
+import dr.restapi.examples.apiclient.vr.model.*;
 import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
 
 import java.util.List;
@@ -54,6 +54,246 @@ public class ReplicationLibrary {
       return vms;
    }
 
+   /**
+    * Get one page of the replications in a pairing.
+    * @param pairingId pairing ID
+    * @param filterProperty name of the field to filter by, or null
+    * @param filter filter values, or null
+    * @param limit maximum number of replications in the page
+    * @param offset number of replications to skip
+    * @param extendedInfo whether to request extended information, like the current RPO violation
+    * @return list of replications
+    * @throws ExamplesExecutionException when get the replications failed
+    */
+   public List<ReplicationInfo> callGetAllReplications(String pairingId,
+                                                       String filterProperty,
+                                                       List<String> filter,
+                                                       int limit,
+                                                       int offset,
+                                                       boolean extendedInfo) {
+      return callGetAllReplications(pairingId, filterProperty, filter, null, limit, offset, extendedInfo);
+   }
+
+   /**
+    * Get one page of the replications in a pairing in a stable order, so that pages requested concurrently neither
+    * overlap nor skip replications.
+    * @param pairingId pairing ID
+    * @param filterProperty name of the field to filter by, or null
+    * @param filter filter values, or null
+    * @param sortBy name of the field to sort by in ascending order, or null
+    * @param limit maximum number of replications in the page
+    * @param offset number of replications to skip
+    * @param extendedInfo whether to request extended information, like the current RPO violation
+    * @return list of replications
+    * @throws ExamplesExecutionException when get the replications failed
+    */
+   public List<ReplicationInfo> callGetAllReplications(String pairingId,
+                                                       String filterProperty,
+                                                       List<String> filter,
+                                                       String sortBy,
+                                                       int limit,
+                                                       int offset,
+                                                       boolean extendedInfo) {
+      List<ReplicationInfo> replications;
+      try {
+         replications = this.replicationApi.getAllReplications(pairingId,
+                                                               filterProperty,
+                                                               filter,
+                                                               sortBy,
+                                                               null,
+                                                               String.valueOf(limit),
+                                                               String.valueOf(offset),
+                                                               null,
+                                                               extendedInfo)
+                                           .getList();
+
+         toSystemOut("Get replications of pairing [{0}] from offset [{1}] completed.", pairingId, offset);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.getAllReplications' failed.");
+      }
+
+      return replications;
+   }
+
+   /**
+    * Get the number of replications in a pairing.
+    * @param pairingId pairing ID
+    * @return number of replications
+    * @throws ExamplesExecutionException when get the number of replications failed
+    */
+   public long callGetReplicationsCount(String pairingId) {
+      long count;
+      try {
+         count = this.replicationApi.getReplicationsCount(pairingId).getCount();
+
+         toSystemOut("Get the number of replications of pairing [{0}] completed.", pairingId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.getReplicationsCount' failed.");
+      }
+
+      return count;
+   }
+
+   /**
+    * Get information about a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return replication
+    * @throws ExamplesExecutionException when get the replication failed
+    */
+   public ReplicationInfo callGetReplicationInfo(String pairingId, String replicationId) {
+      ReplicationInfo replication;
+      try {
+         replication = this.replicationApi.getReplicationInfo(pairingId, replicationId);
+
+         toSystemOut("Get replication [{0}] completed.", replicationId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.getReplicationInfo' failed.");
+      }
+
+      return replication;
+   }
+
+   /**
+    * Get the replicated disks of a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return list of replicated disks
+    * @throws ExamplesExecutionException when get the replicated disks failed
+    */
+   public List<ReplicatedVmDisk> callGetReplicatedVmDisks(String pairingId, String replicationId) {
+      List<ReplicatedVmDisk> disks;
+      try {
+         disks = this.replicationApi.getReplicatedVmDisks(pairingId,
+                                                          replicationId,
+                                                          null,
+                                                          null,
+                                                          null,
+                                                          null,
+                                                          null,
+                                                          null)
+                                    .getList();
+
+         toSystemOut("Get the replicated disks of replication [{0}] completed.", replicationId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.getReplicatedVmDisks' failed.");
+      }
+
+      return disks;
+   }
+
+   /**
+    * Start a sync of a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return sync task
+    * @throws ExamplesExecutionException when sync replication failed
+    */
+   public TaskDrResponseEntity callSyncReplication(String pairingId, String replicationId) {
+      TaskDrResponseEntity task;
+      try {
+         task = this.replicationApi.syncReplication(pairingId, replicationId);
+
+         toSystemOut("Sync of replication [{0}] started.", replicationId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.syncReplication' failed.");
+      }
+
+      return task;
+   }
+
+   /**
+    * Pause a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return pause task
+    * @throws ExamplesExecutionException when pause replication failed
+    */
+   public TaskDrResponseEntity callPauseReplication(String pairingId, String replicationId) {
+      TaskDrResponseEntity task;
+      try {
+         task = this.replicationApi.pauseReplication(pairingId, replicationId);
+
+         toSystemOut("Pause of replication [{0}] started.", replicationId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.pauseReplication' failed.");
+      }
+
+      return task;
+   }
+
+   /**
+    * Resume a paused replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return resume task
+    * @throws ExamplesExecutionException when resume replication failed
+    */
+   public TaskDrResponseEntity callResumeReplication(String pairingId, String replicationId) {
+      TaskDrResponseEntity task;
+      try {
+         task = this.replicationApi.resumeReplication(pairingId, replicationId);
+
+         toSystemOut("Resume of replication [{0}] started.", replicationId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.resumeReplication' failed.");
+      }
+
+      return task;
+   }
+
+   /**
+    * Reconfigure a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @param spec reconfigure replication spec
+    * @return reconfigure task
+    * @throws ExamplesExecutionException when reconfigure replication failed
+    */
+   public TaskDrResponseEntity callReconfigureReplication(String pairingId,
+                                                          String replicationId,
+                                                          ReconfigureReplicationSpec spec) {
+      TaskDrResponseEntity task;
+      try {
+         task = this.replicationApi.reconfigureReplication(pairingId, replicationId, spec);
+
+         toSystemOut("Reconfigure of replication [{0}] started.", replicationId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.reconfigureReplication' failed.");
+      }
+
+      return task;
+   }
+
+   /**
+    * Get one page of the issues of all replications in a pairing.
+    * @param pairingId pairing ID
+    * @param limit maximum number of issues in the page
+    * @param offset number of issues to skip
+    * @return list of issues
+    * @throws ExamplesExecutionException when get the replication issues failed
+    */
+   public List<IssueInfo> callGetReplicationsIssues(String pairingId, int limit, int offset) {
+      List<IssueInfo> issues;
+      try {
+         issues = this.replicationApi.getReplicationsIssues(pairingId,
+                                                            null,
+                                                            null,
+                                                            null,
+                                                            null,
+                                                            String.valueOf(limit),
+                                                            String.valueOf(offset),
+                                                            null)
+                                     .getList();
+
+         toSystemOut("Get the replication issues of pairing [{0}] completed.", pairingId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.getReplicationsIssues' failed.");
+      }
+
+      return issues;
+   }
+
    /**
     * Get vSphere Replication capability information about a given VM.
     * @param pairingId pairing ID
@@ -140,6 +380,99 @@ public class ReplicationLibrary {
       return datastores;
    }
 
+   /**
+    * Browse one page of the files of a datastore.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @param datastoreId datastore ID
+    * @param request datastore browser request
+    * @param limit maximum number of files in the page
+    * @param offset number of files to skip
+    * @return list of files and folders
+    * @throws ExamplesExecutionException when browse the datastore failed
+    */
+   public List<DatastoreBrowserResult> callBrowseDatastore(String pairingId,
+                                                           UUID vcenterId,
+                                                           String datastoreId,
+                                                           DatastoreBrowserRequest request,
+                                                           int limit,
+                                                           int offset) {
+      List<DatastoreBrowserResult> results;
+      try {
+         results = this.replicationApi.browseDatastore(pairingId,
+                                                       vcenterId,
+                                                       datastoreId,
+                                                       request,
+                                                       null,
+                                                       null,
+                                                       null,
+                                                       null,
+                                                       String.valueOf(limit),
+                                                       String.valueOf(offset))
+                                      .getList();
+
+         toSystemOut("Browse path [{0}] of datastore [{1}] completed.", request.getBrowsePath(), datastoreId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.browseDatastore' failed.");
+      }
+
+      return results;
+   }
+
+   /**
+    * Check datastores for compliance against a storage policy.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @param storagePolicyId storage policy ID
+    * @param datastoreIds IDs of the datastores to check
+    * @return compliance of each datastore
+    * @throws ExamplesExecutionException when check the storage policy compliance failed
+    */
+   public List<StoragePolicyComplianceCheckData> callCheckStoragePolicyCompliance(String pairingId,
+                                                                                 UUID vcenterId,
+                                                                                 String storagePolicyId,
+                                                                                 List<String> datastoreIds) {
+      List<StoragePolicyComplianceCheckData> compliance;
+      try {
+         compliance = this.replicationApi.checkStoragePolicyCompliance(datastoreIds,
+                                                                       pairingId,
+                                                                       vcenterId,
+                                                                       storagePolicyId)
+                                         .getList();
+
+         toSystemOut("Check storage policy compliance of [{0}] datastores completed.", datastoreIds.size());
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.checkStoragePolicyCompliance' failed.");
+      }
+
+      return compliance;
+   }
+
+   /**
+    * Retrieve information about possible seeds for a set of disks on a datastore.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @param datastoreId datastore ID
+    * @param specs find seed specs, one per disk
+    * @return seeds found for each disk
+    * @throws ExamplesExecutionException when find seeds failed
+    */
+   public List<VmDiskSeedInformation> callGetSeedsForDisks(String pairingId,
+                                                           UUID vcenterId,
+                                                           String datastoreId,
+                                                           List<VmDiskFindSeedSpec> specs) {
+      List<VmDiskSeedInformation> seeds;
+      try {
+         seeds = this.replicationApi.getSeedsForDisks(specs, pairingId, vcenterId, datastoreId).getList();
+
+         toSystemOut("Find seeds for [{0}] disks on datastore [{1}] completed.", specs.size(), datastoreId);
+      } catch (ApiException ex) {
+         throw new ExamplesExecutionException(ex, "Request 'ReplicationApi.getSeedsForDisks' failed.");
+      }
+
+      return seeds;
+   }
+
    /**
     * Configure replication for a VM from a source site to a target vCenter Server site.
     * @param pairingId pairing ID
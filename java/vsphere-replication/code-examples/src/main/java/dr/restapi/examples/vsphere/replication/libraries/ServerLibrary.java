@@ -4,8 +4,8 @@ package dr.restapi.examples.vsphere.replication.libraries;
 
 import dr.restapi.examples.apiclient.ApiClient;
 import dr.restapi.examples.apiclient.ApiException;
-import dr.restapi.examples.apiclient.api.ServerApi;
-import dr.restapi.examples.apiclient.model.ReplicationServerInfo;
+import dr.restapi.examples.apiclient.vr.api.ServerApi;
+import dr.restapi.examples.apiclient.vr.model.ReplicationServerInfo;
 import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
 
 import java.util.List;
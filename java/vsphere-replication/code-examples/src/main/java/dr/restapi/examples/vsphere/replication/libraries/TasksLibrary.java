@@ -4,9 +4,10 @@ package dr.restapi.examples.vsphere.replication.libraries;
 
 import dr.restapi.examples.apiclient.ApiClient;
 import dr.restapi.examples.apiclient.ApiException;
-import dr.restapi.examples.apiclient.api.TasksApi;
-import dr.restapi.examples.apiclient.model.Task.StatusEnum;
-import dr.restapi.examples.apiclient.model.TaskDrResponseEntity;
+import dr.restapi.examples.apiclient.vr.api.TasksApi;
+import dr.restapi.examples.apiclient.vr.model.Task;
+import dr.restapi.examples.apiclient.vr.model.Task.StatusEnum;
+import dr.restapi.examples.apiclient.vr.model.TaskDrResponseEntity;
 import dr.restapi.examples.vsphere.replication.config.Config;
 import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
 
@@ -47,6 +48,15 @@ public class TasksLibrary {
       return taskDrResponseEntity;
    }
 
+   /**
+    * Whether a task has completed, successfully or not.
+    * @param task task
+    * @return true when the task is neither queued nor running
+    */
+   public static boolean isCompleted(Task task) {
+      return !TASK_NOT_COMPLETED_STATUSES.contains(task.getStatus());
+   }
+
    /**
     * Synchronous wait for the completion of a task with the specified {@code taskId}.
     * @param taskId task ID
@@ -57,7 +67,7 @@ public class TasksLibrary {
 
       TaskDrResponseEntity taskInfo = callGetTaskInfo(taskId);
 
-      while (TASK_NOT_COMPLETED_STATUSES.contains(taskInfo.getStatus())) {
+      while (!isCompleted(taskInfo)) {
          try {
             Thread.sleep(retryInMs);
          } catch (InterruptedException e) {
@@ -0,0 +1,88 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.libraries.async;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.auth.HttpBasicAuth;
+import dr.restapi.examples.apiclient.vr.api.AuthenticationApi;
+import dr.restapi.examples.apiclient.vr.model.SessionIdData;
+import dr.restapi.examples.apiclient.vr.model.SessionInfo;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.AuthenticationLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.Constants;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Asynchronous counterpart of {@link AuthenticationLibrary}.
+ */
+public class AsyncAuthenticationLibrary {
+   private final AuthenticationApi authenticationApi;
+   private final Executor executor;
+
+   /**
+    * Constructor. The futures are completed on the common fork join pool.
+    * @param apiClient api client
+    */
+   public AsyncAuthenticationLibrary(ApiClient apiClient) {
+      this(apiClient, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Constructor.
+    * @param apiClient api client
+    * @param executor executor which completes the futures and runs their dependent stages
+    */
+   public AsyncAuthenticationLibrary(ApiClient apiClient, Executor executor) {
+      this.authenticationApi = new AuthenticationApi(apiClient);
+      this.executor = executor;
+   }
+
+   /**
+    * Logs in and returns the session ID. In the subsequent requests, include the {@code x-dr-session} header with the
+    * returned session ID value.
+    * @param username username
+    * @param password password
+    * @return future of the session ID data, failed with {@link ExamplesExecutionException} when login failed
+    */
+   public CompletableFuture<SessionIdData> callLogin(String username, String password) {
+      HttpBasicAuth basicAuth =
+            (HttpBasicAuth) this.authenticationApi.getApiClient().getAuthentication(Constants.BASIC_AUTH);
+      basicAuth.setUsername(username);
+      basicAuth.setPassword(password);
+
+      return AsyncCalls.call("AuthenticationApi.login", this.executor, this.authenticationApi::loginAsync)
+                       .thenApply(sessionIdData -> {
+                          toSystemOut("New session with ID [{0}] is created.", sessionIdData.getSessionId());
+                          return sessionIdData;
+                       });
+   }
+
+   /**
+    * Returns information about the current session, if any.
+    * @return future of the session info, failed with {@link ExamplesExecutionException} when there is no
+    * authenticated session or other issue
+    */
+   public CompletableFuture<SessionInfo> callGetCurrentSession() {
+      return AsyncCalls.call("AuthenticationApi.getCurrentSession",
+                             this.executor,
+                             this.authenticationApi::getCurrentSessionAsync)
+                       .thenApply(sessionInfo -> {
+                          toSystemOut("Current session username is [{0}].", sessionInfo.getUsername());
+                          return sessionInfo;
+                       });
+   }
+
+   /**
+    * Logs out if the session is authenticated.
+    * @return future completed when logged out, failed with {@link ExamplesExecutionException} when logout failed
+    */
+   public CompletableFuture<Void> callLogout() {
+      return AsyncCalls.<Void>call("AuthenticationApi.logout", this.executor, this.authenticationApi::logoutAsync)
+                       .thenRun(() -> toSystemOut("Session logout is successful."));
+   }
+}
@@ -0,0 +1,144 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.libraries.async;
+
+import com.squareup.okhttp.Dispatcher;
+import dr.restapi.examples.apiclient.ApiCallback;
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.ApiException;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Adapts the {@code *Async} callback methods of the generated API classes to {@link CompletableFuture}s.
+ * <p>The requests are executed by the OkHttp dispatcher of the {@link ApiClient}, which limits the number of requests
+ * in flight, and the futures are completed on the executor of the async library. Dependent stages therefore never run
+ * on, or block, the threads which wait for the responses.
+ */
+public final class AsyncCalls {
+   /**
+    * Starts an asynchronous request of a generated API class.
+    * @param <T> response type
+    */
+   @FunctionalInterface
+   interface Request<T> {
+      void start(ApiCallback<T> callback);
+   }
+
+   private AsyncCalls() {
+   }
+
+   /**
+    * Configure how many requests of the {@code apiClient} are executed at the same time.
+    * The OkHttp default of 5 requests per host is too low when all requests go to one vSphere Replication
+    * Management Server.
+    * @param apiClient api client
+    * @param executorService executor service of the dispatcher, or null for the OkHttp default
+    * @param maxRequests maximum number of requests in flight
+    * @param maxRequestsPerHost maximum number of requests in flight to one host
+    */
+   public static void configureDispatcher(ApiClient apiClient,
+                                          ExecutorService executorService,
+                                          int maxRequests,
+                                          int maxRequestsPerHost) {
+      Dispatcher dispatcher = executorService != null ? new Dispatcher(executorService) : new Dispatcher();
+      dispatcher.setMaxRequests(maxRequests);
+      dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+      apiClient.getHttpClient().setDispatcher(dispatcher);
+   }
+
+   /**
+    * Wait for the result of an asynchronous call.
+    * @param future future returned by an async library
+    * @param <T> result type
+    * @return result
+    * @throws ExamplesExecutionException when the call failed
+    */
+   public static <T> T await(CompletableFuture<T> future) {
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new ExamplesExecutionException("Interrupted while waiting for a request.");
+      } catch (ExecutionException e) {
+         throw unwrap(e.getCause());
+      }
+   }
+
+   /**
+    * Return the {@link RuntimeException} which failed a stage, without the {@link CompletionException} wrapper.
+    * @param failure failure of a stage
+    * @return the exception thrown by the request or the stage
+    */
+   public static RuntimeException unwrap(Throwable failure) {
+      Throwable cause = failure instanceof CompletionException && failure.getCause() != null ?
+                        failure.getCause() :
+                        failure;
+
+      return cause instanceof RuntimeException ?
+             (RuntimeException) cause :
+             new ExamplesExecutionException(String.valueOf(cause.getMessage()));
+   }
+
+   /**
+    * Start a request and return its future. A failed request completes the future with an
+    * {@link ExamplesExecutionException}, like the synchronous libraries throw it.
+    * @param requestName name of the request in the error message, e.g. {@code TasksApi.getTaskInfo}
+    * @param executor executor which completes the future
+    * @param request request to start
+    * @param <T> response type
+    * @return future of the response
+    */
+   static <T> CompletableFuture<T> call(String requestName, Executor executor, Request<T> request) {
+      CompletableFuture<T> future = new CompletableFuture<>();
+      try {
+         request.start(new ApiCallback<T>() {
+            @Override
+            public void onFailure(ApiException e, int statusCode, Map<String, List<String>> responseHeaders) {
+               complete(executor, () -> future.completeExceptionally(failure(requestName, e)));
+            }
+
+            @Override
+            public void onSuccess(T result, int statusCode, Map<String, List<String>> responseHeaders) {
+               complete(executor, () -> future.complete(result));
+            }
+
+            @Override
+            public void onUploadProgress(long bytesWritten, long contentLength, boolean done) {
+            }
+
+            @Override
+            public void onDownloadProgress(long bytesRead, long contentLength, boolean done) {
+            }
+         });
+      } catch (ApiException ex) {
+         future.completeExceptionally(failure(requestName, ex));
+      }
+
+      return future;
+   }
+
+   private static ExamplesExecutionException failure(String requestName, ApiException ex) {
+      return new ExamplesExecutionException(ex, "Request '" + requestName + "' failed.");
+   }
+
+   /**
+    * Complete on the executor, or on the current thread when the executor is already shut down, so that no future
+    * is left incomplete.
+    */
+   private static void complete(Executor executor, Runnable completion) {
+      try {
+         executor.execute(completion);
+      } catch (RejectedExecutionException e) {
+         completion.run();
+      }
+   }
+}
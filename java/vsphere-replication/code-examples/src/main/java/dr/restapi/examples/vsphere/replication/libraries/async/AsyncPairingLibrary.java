@@ -0,0 +1,154 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.libraries.async;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.auth.HttpBasicAuth;
+import dr.restapi.examples.apiclient.vr.api.PairingApi;
+import dr.restapi.examples.apiclient.vr.model.*;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.Constants;
+import dr.restapi.examples.vsphere.replication.libraries.PairingLibrary;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Asynchronous counterpart of {@link PairingLibrary}.
+ */
+public class AsyncPairingLibrary {
+   private final PairingApi pairingApi;
+   private final Executor executor;
+
+   /**
+    * Constructor. The futures are completed on the common fork join pool.
+    * @param apiClient api client
+    */
+   public AsyncPairingLibrary(ApiClient apiClient) {
+      this(apiClient, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Constructor.
+    * @param apiClient api client
+    * @param executor executor which completes the futures and runs their dependent stages
+    */
+   public AsyncPairingLibrary(ApiClient apiClient, Executor executor) {
+      this.pairingApi = new PairingApi(apiClient);
+      this.executor = executor;
+   }
+
+   /**
+    * Get a list of all existing pairings.
+    * @return future of the list of pairings, failed with {@link ExamplesExecutionException} when get a list of all
+    * existing pairings failed
+    */
+   public CompletableFuture<List<Pairing>> callGetAllPairings() {
+      return AsyncCalls.<PairingDrResponseList>call(
+                             "PairingApi.getVrPairings",
+                             this.executor,
+                             callback -> this.pairingApi.getVrPairingsAsync(null,
+                                                                            null,
+                                                                            null,
+                                                                            null,
+                                                                            null,
+                                                                            null,
+                                                                            callback))
+                       .thenApply(pairings -> {
+                          toSystemOut("Get a list of all existing pairings completed.");
+                          return pairings.getList();
+                       });
+   }
+
+   /**
+    * Get one page of the issues of a pairing.
+    * @param pairingId ID of the pairing between this vSphere Replication Management Server and the remote one
+    * @param limit maximum number of issues in the page
+    * @param offset number of issues to skip
+    * @return future of the list of issues, failed with {@link ExamplesExecutionException} when get the issues of a
+    * pairing failed
+    */
+   public CompletableFuture<List<IssueInfo>> callGetVrPairingIssues(String pairingId, int limit, int offset) {
+      return AsyncCalls.<IssueInfoDrResponseList>call(
+                             "PairingApi.getVrPairingIssues",
+                             this.executor,
+                             callback -> this.pairingApi.getVrPairingIssuesAsync(pairingId,
+                                                                                 null,
+                                                                                 null,
+                                                                                 null,
+                                                                                 null,
+                                                                                 String.valueOf(limit),
+                                                                                 String.valueOf(offset),
+                                                                                 callback))
+                       .thenApply(issues -> {
+                          toSystemOut("Get the issues of pairing [{0}] completed.", pairingId);
+                          return issues.getList();
+                       });
+   }
+
+   /**
+    * Get information about the vSphere Replication Management Servers (VRMS) that are paired.
+    * @param pairingId ID of the pairing between this vSphere Replication Management Server and the remote one
+    * @return future of the list of vSphere Replication Management Servers, failed with
+    * {@link ExamplesExecutionException} when get a list of vSphere Replication Management Servers failed
+    */
+   public CompletableFuture<List<VrmsInfo>> callGetAllVrmsDetails(String pairingId) {
+      return AsyncCalls.<VrmsInfoDrResponseList>call(
+                             "PairingApi.getAllVrDetailsInPairing",
+                             this.executor,
+                             callback -> this.pairingApi.getAllVrDetailsInPairingAsync(pairingId, callback))
+                       .thenApply(vrmsInfos -> {
+                          toSystemOut("Get a list of all paired vSphere Replication Management Servers completed.");
+                          return vrmsInfos.getList();
+                       });
+   }
+
+   /**
+    * Get a list of all registered vSphere Replication Servers (VRS)
+    * for given vSphere Replication Management Server (VRMS) with ID {@code vrmsId} in the specified {@code pairing}.
+    * @param pairingId ID of the pairing between this vSphere Replication Management Server and the remote one
+    * @param vrmsId ID of the VRMS
+    * @return future of the list of vSphere Replication Servers, failed with {@link ExamplesExecutionException} when
+    * get a list of all registered vSphere Replication Servers failed
+    */
+   public CompletableFuture<List<ReplicationServerInfo>> callGetAllVrsDetails(String pairingId, String vrmsId) {
+      return AsyncCalls.<ReplicationServerInfoDrResponseList>call(
+                             "PairingApi.getAllVrServersInPairing",
+                             this.executor,
+                             callback -> this.pairingApi.getAllVrServersInPairingAsync(pairingId,
+                                                                                       vrmsId,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       callback))
+                       .thenApply(replicationServerInfos -> {
+                          toSystemOut("Get a list of all registered vSphere Replication Servers completed.");
+                          return replicationServerInfos.getList();
+                       });
+   }
+
+   /**
+    * Create a remote session to the remote vSphere Replication Management Server (VRMS).
+    * @param pairingId ID of the pairing between this vSphere Replication Management Server and the remote one
+    * @return future completed when the remote session is created, failed with {@link ExamplesExecutionException}
+    * when remote login failed
+    */
+   public CompletableFuture<Void> callRemoteLogin(String pairingId, String username, String password) {
+      HttpBasicAuth basicAuth =
+            (HttpBasicAuth) this.pairingApi.getApiClient().getAuthentication(Constants.REMOTE_LOGIN_BASIC_AUTH);
+      basicAuth.setUsername(username);
+      basicAuth.setPassword(password);
+
+      return AsyncCalls.<Void>call("PairingApi.createRemoteSession",
+                                   this.executor,
+                                   callback -> this.pairingApi.createRemoteSessionAsync(pairingId, callback))
+                       .thenRun(() -> toSystemOut("Remote session successfully created."));
+   }
+}
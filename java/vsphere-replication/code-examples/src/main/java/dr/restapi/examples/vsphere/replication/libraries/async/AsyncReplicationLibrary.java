@@ -0,0 +1,463 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.libraries.async;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.api.ReplicationApi;
+import dr.restapi.examples.apiclient.vr.model.*;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.ReplicationLibrary;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Asynchronous counterpart of {@link ReplicationLibrary}.
+ * The futures of failed requests are completed with an {@link ExamplesExecutionException}.
+ */
+public class AsyncReplicationLibrary {
+   private final ReplicationApi replicationApi;
+   private final Executor executor;
+
+   /**
+    * Constructor. The futures are completed on the common fork join pool.
+    * @param apiClient api client
+    */
+   public AsyncReplicationLibrary(ApiClient apiClient) {
+      this(apiClient, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Constructor.
+    * @param apiClient api client
+    * @param executor executor which completes the futures and runs their dependent stages
+    */
+   public AsyncReplicationLibrary(ApiClient apiClient, Executor executor) {
+      this.replicationApi = new ReplicationApi(apiClient);
+      this.executor = executor;
+   }
+
+   /**
+    * Get a list of all VMs on the VC.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @param suitableForReplication whether VM is suitable for a replication
+    * @return future of the list of VMs
+    */
+   public CompletableFuture<List<VirtualMachine>> callGetLocalVms(String pairingId,
+                                                                  UUID vcenterId,
+                                                                  boolean suitableForReplication) {
+      return AsyncCalls.<VirtualMachineDrResponseList>call(
+                             "ReplicationApi.getLocalVms",
+                             this.executor,
+                             callback -> this.replicationApi.getLocalVmsAsync(pairingId,
+                                                                              vcenterId,
+                                                                              null,
+                                                                              null,
+                                                                              null,
+                                                                              null,
+                                                                              null,
+                                                                              null,
+                                                                              suitableForReplication,
+                                                                              callback))
+                       .thenApply(vms -> {
+                          toSystemOut("Get a list of all VMs on a VC completed.");
+                          return vms.getList();
+                       });
+   }
+
+   /**
+    * Get one page of the replications in a pairing.
+    * @param pairingId pairing ID
+    * @param filterProperty name of the field to filter by, or null
+    * @param filter filter values, or null
+    * @param limit maximum number of replications in the page
+    * @param offset number of replications to skip
+    * @param extendedInfo whether to request extended information, like the current RPO violation
+    * @return future of the list of replications
+    */
+   public CompletableFuture<List<ReplicationInfo>> callGetAllReplications(String pairingId,
+                                                                          String filterProperty,
+                                                                          List<String> filter,
+                                                                          int limit,
+                                                                          int offset,
+                                                                          boolean extendedInfo) {
+      return AsyncCalls.<ReplicationInfoDrResponseList>call(
+                             "ReplicationApi.getAllReplications",
+                             this.executor,
+                             callback -> this.replicationApi.getAllReplicationsAsync(pairingId,
+                                                                                     filterProperty,
+                                                                                     filter,
+                                                                                     null,
+                                                                                     null,
+                                                                                     String.valueOf(limit),
+                                                                                     String.valueOf(offset),
+                                                                                     null,
+                                                                                     extendedInfo,
+                                                                                     callback))
+                       .thenApply(replications -> {
+                          toSystemOut("Get replications of pairing [{0}] from offset [{1}] completed.",
+                                      pairingId,
+                                      offset);
+                          return replications.getList();
+                       });
+   }
+
+   /**
+    * Get the number of replications in a pairing.
+    * @param pairingId pairing ID
+    * @return future of the number of replications
+    */
+   public CompletableFuture<Long> callGetReplicationsCount(String pairingId) {
+      return AsyncCalls.<CountDataDrResponseEntity>call(
+                             "ReplicationApi.getReplicationsCount",
+                             this.executor,
+                             callback -> this.replicationApi.getReplicationsCountAsync(pairingId, callback))
+                       .thenApply(count -> {
+                          toSystemOut("Get the number of replications of pairing [{0}] completed.", pairingId);
+                          return count.getCount();
+                       });
+   }
+
+   /**
+    * Get information about a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return future of the replication
+    */
+   public CompletableFuture<ReplicationInfo> callGetReplicationInfo(String pairingId, String replicationId) {
+      return AsyncCalls.<ReplicationInfoDrResponseEntity>call(
+                             "ReplicationApi.getReplicationInfo",
+                             this.executor,
+                             callback -> this.replicationApi.getReplicationInfoAsync(pairingId,
+                                                                                     replicationId,
+                                                                                     callback))
+                       .thenApply(replication -> {
+                          toSystemOut("Get replication [{0}] completed.", replicationId);
+                          return replication;
+                       });
+   }
+
+   /**
+    * Get the replicated disks of a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return future of the list of replicated disks
+    */
+   public CompletableFuture<List<ReplicatedVmDisk>> callGetReplicatedVmDisks(String pairingId, String replicationId) {
+      return AsyncCalls.<ReplicatedVmDiskDrResponseList>call(
+                             "ReplicationApi.getReplicatedVmDisks",
+                             this.executor,
+                             callback -> this.replicationApi.getReplicatedVmDisksAsync(pairingId,
+                                                                                       replicationId,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       callback))
+                       .thenApply(disks -> {
+                          toSystemOut("Get the replicated disks of replication [{0}] completed.", replicationId);
+                          return disks.getList();
+                       });
+   }
+
+   /**
+    * Start a sync of a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return future of the sync task
+    */
+   public CompletableFuture<TaskDrResponseEntity> callSyncReplication(String pairingId, String replicationId) {
+      return AsyncCalls.<TaskDrResponseEntity>call(
+                             "ReplicationApi.syncReplication",
+                             this.executor,
+                             callback -> this.replicationApi.syncReplicationAsync(pairingId, replicationId, callback))
+                       .thenApply(task -> {
+                          toSystemOut("Sync of replication [{0}] started.", replicationId);
+                          return task;
+                       });
+   }
+
+   /**
+    * Pause a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return future of the pause task
+    */
+   public CompletableFuture<TaskDrResponseEntity> callPauseReplication(String pairingId, String replicationId) {
+      return AsyncCalls.<TaskDrResponseEntity>call(
+                             "ReplicationApi.pauseReplication",
+                             this.executor,
+                             callback -> this.replicationApi.pauseReplicationAsync(pairingId, replicationId, callback))
+                       .thenApply(task -> {
+                          toSystemOut("Pause of replication [{0}] started.", replicationId);
+                          return task;
+                       });
+   }
+
+   /**
+    * Resume a paused replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @return future of the resume task
+    */
+   public CompletableFuture<TaskDrResponseEntity> callResumeReplication(String pairingId, String replicationId) {
+      return AsyncCalls.<TaskDrResponseEntity>call(
+                             "ReplicationApi.resumeReplication",
+                             this.executor,
+                             callback -> this.replicationApi.resumeReplicationAsync(pairingId, replicationId, callback))
+                       .thenApply(task -> {
+                          toSystemOut("Resume of replication [{0}] started.", replicationId);
+                          return task;
+                       });
+   }
+
+   /**
+    * Reconfigure a replication.
+    * @param pairingId pairing ID
+    * @param replicationId replication ID
+    * @param spec reconfigure replication spec
+    * @return future of the reconfigure task
+    */
+   public CompletableFuture<TaskDrResponseEntity> callReconfigureReplication(String pairingId,
+                                                                             String replicationId,
+                                                                             ReconfigureReplicationSpec spec) {
+      return AsyncCalls.<TaskDrResponseEntity>call(
+                             "ReplicationApi.reconfigureReplication",
+                             this.executor,
+                             callback -> this.replicationApi.reconfigureReplicationAsync(pairingId,
+                                                                                         replicationId,
+                                                                                         spec,
+                                                                                         callback))
+                       .thenApply(task -> {
+                          toSystemOut("Reconfigure of replication [{0}] started.", replicationId);
+                          return task;
+                       });
+   }
+
+   /**
+    * Get one page of the issues of all replications in a pairing.
+    * @param pairingId pairing ID
+    * @param limit maximum number of issues in the page
+    * @param offset number of issues to skip
+    * @return future of the list of issues
+    */
+   public CompletableFuture<List<IssueInfo>> callGetReplicationsIssues(String pairingId, int limit, int offset) {
+      return AsyncCalls.<IssueInfoDrResponseList>call(
+                             "ReplicationApi.getReplicationsIssues",
+                             this.executor,
+                             callback -> this.replicationApi.getReplicationsIssuesAsync(pairingId,
+                                                                                        null,
+                                                                                        null,
+                                                                                        null,
+                                                                                        null,
+                                                                                        String.valueOf(limit),
+                                                                                        String.valueOf(offset),
+                                                                                        null,
+                                                                                        callback))
+                       .thenApply(issues -> {
+                          toSystemOut("Get the replication issues of pairing [{0}] completed.", pairingId);
+                          return issues.getList();
+                       });
+   }
+
+   /**
+    * Get vSphere Replication capability information about a given VM.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @param vmId VM ID
+    * @return future of the VM capabilities
+    */
+   public CompletableFuture<VmCapabilitiesDrResponseEntity> callGetVmCapability(String pairingId,
+                                                                                UUID vcenterId,
+                                                                                String vmId) {
+      return AsyncCalls.<VmCapabilitiesDrResponseEntity>call(
+                             "ReplicationApi.getVmCapability",
+                             this.executor,
+                             callback -> this.replicationApi.getVmCapabilityAsync(pairingId,
+                                                                                  vcenterId,
+                                                                                  vmId,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  callback))
+                       .thenApply(vmCapabilities -> {
+                          toSystemOut("Get vSphere Replication capability information about a given VM with Id [{0}] "
+                                      + "completed.",
+                                      vmId);
+                          return vmCapabilities;
+                       });
+   }
+
+   /**
+    * Get VC storage policies.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @return future of the storage policies
+    */
+   public CompletableFuture<List<StoragePolicy>> callGetVcStoragePolicies(String pairingId, UUID vcenterId) {
+      return AsyncCalls.<StoragePolicyDrResponseList>call(
+                             "ReplicationApi.getVcStoragePolicies",
+                             this.executor,
+                             callback -> this.replicationApi.getVcStoragePoliciesAsync(pairingId,
+                                                                                       vcenterId,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       null,
+                                                                                       callback))
+                       .thenApply(storagePolicies -> {
+                          toSystemOut("Get VC storage policies completed.");
+                          return storagePolicies.getList();
+                       });
+   }
+
+   /**
+    * Get VR supported datastores.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @return future of the list of datastores
+    */
+   public CompletableFuture<List<Datastore>> callGetVrCapableTargetDatastores(String pairingId, UUID vcenterId) {
+      return AsyncCalls.<DatastoreDrResponseList>call(
+                             "ReplicationApi.getVrCapableTargetDatastores",
+                             this.executor,
+                             callback -> this.replicationApi.getVrCapableTargetDatastoresAsync(pairingId,
+                                                                                               vcenterId,
+                                                                                               null,
+                                                                                               null,
+                                                                                               null,
+                                                                                               null,
+                                                                                               null,
+                                                                                               null,
+                                                                                               callback))
+                       .thenApply(datastores -> {
+                          toSystemOut("Get VR supported datastores completed.");
+                          return datastores.getList();
+                       });
+   }
+
+   /**
+    * Browse one page of the files of a datastore.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @param datastoreId datastore ID
+    * @param request datastore browser request
+    * @param limit maximum number of files in the page
+    * @param offset number of files to skip
+    * @return future of the list of files and folders
+    */
+   public CompletableFuture<List<DatastoreBrowserResult>> callBrowseDatastore(String pairingId,
+                                                                              UUID vcenterId,
+                                                                              String datastoreId,
+                                                                              DatastoreBrowserRequest request,
+                                                                              int limit,
+                                                                              int offset) {
+      return AsyncCalls.<DatastoreBrowserResultDrResponseList>call(
+                             "ReplicationApi.browseDatastore",
+                             this.executor,
+                             callback -> this.replicationApi.browseDatastoreAsync(pairingId,
+                                                                                  vcenterId,
+                                                                                  datastoreId,
+                                                                                  request,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  String.valueOf(limit),
+                                                                                  String.valueOf(offset),
+                                                                                  callback))
+                       .thenApply(results -> {
+                          toSystemOut("Browse path [{0}] of datastore [{1}] completed.",
+                                      request.getBrowsePath(),
+                                      datastoreId);
+                          return results.getList();
+                       });
+   }
+
+   /**
+    * Check datastores for compliance against a storage policy.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @param storagePolicyId storage policy ID
+    * @param datastoreIds IDs of the datastores to check
+    * @return future of the compliance of each datastore
+    */
+   public CompletableFuture<List<StoragePolicyComplianceCheckData>> callCheckStoragePolicyCompliance(
+         String pairingId,
+         UUID vcenterId,
+         String storagePolicyId,
+         List<String> datastoreIds) {
+      return AsyncCalls.<StoragePolicyComplianceCheckDataDrResponseList>call(
+                             "ReplicationApi.checkStoragePolicyCompliance",
+                             this.executor,
+                             callback -> this.replicationApi.checkStoragePolicyComplianceAsync(datastoreIds,
+                                                                                               pairingId,
+                                                                                               vcenterId,
+                                                                                               storagePolicyId,
+                                                                                               callback))
+                       .thenApply(compliance -> {
+                          toSystemOut("Check storage policy compliance of [{0}] datastores completed.",
+                                      datastoreIds.size());
+                          return compliance.getList();
+                       });
+   }
+
+   /**
+    * Retrieve information about possible seeds for a set of disks on a datastore.
+    * @param pairingId pairing ID
+    * @param vcenterId VC ID
+    * @param datastoreId datastore ID
+    * @param specs find seed specs, one per disk
+    * @return future of the seeds found for each disk
+    */
+   public CompletableFuture<List<VmDiskSeedInformation>> callGetSeedsForDisks(String pairingId,
+                                                                              UUID vcenterId,
+                                                                              String datastoreId,
+                                                                              List<VmDiskFindSeedSpec> specs) {
+      return AsyncCalls.<VmDiskSeedInformationDrResponseList>call(
+                             "ReplicationApi.getSeedsForDisks",
+                             this.executor,
+                             callback -> this.replicationApi.getSeedsForDisksAsync(specs,
+                                                                                   pairingId,
+                                                                                   vcenterId,
+                                                                                   datastoreId,
+                                                                                   callback))
+                       .thenApply(seeds -> {
+                          toSystemOut("Find seeds for [{0}] disks on datastore [{1}] completed.",
+                                      specs.size(),
+                                      datastoreId);
+                          return seeds.getList();
+                       });
+   }
+
+   /**
+    * Configure replication for a VM from a source site to a target vCenter Server site.
+    * @param pairingId pairing ID
+    * @param specs configure replication specs
+    * @return future of the list of tasks
+    */
+   public CompletableFuture<List<Task>> callConfigureReplication(String pairingId,
+                                                                 List<ConfigureReplicationSpec> specs) {
+      return AsyncCalls.<TaskDrResponseList>call(
+                             "ReplicationApi.configureReplication",
+                             this.executor,
+                             callback -> this.replicationApi.configureReplicationAsync(pairingId, specs, callback))
+                       .thenApply(tasks -> {
+                          toSystemOut("Configure replication completed.");
+                          return tasks.getList();
+                       });
+   }
+}
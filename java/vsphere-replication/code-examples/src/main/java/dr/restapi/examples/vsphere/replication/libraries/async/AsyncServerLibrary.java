@@ -0,0 +1,65 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.libraries.async;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.api.ServerApi;
+import dr.restapi.examples.apiclient.vr.model.ReplicationServerInfo;
+import dr.restapi.examples.apiclient.vr.model.ReplicationServerInfoDrResponseList;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.ServerLibrary;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Asynchronous counterpart of {@link ServerLibrary}.
+ */
+public class AsyncServerLibrary {
+   private final ServerApi serverApi;
+   private final Executor executor;
+
+   /**
+    * Constructor. The futures are completed on the common fork join pool.
+    * @param apiClient api client
+    */
+   public AsyncServerLibrary(ApiClient apiClient) {
+      this(apiClient, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Constructor.
+    * @param apiClient api client
+    * @param executor executor which completes the futures and runs their dependent stages
+    */
+   public AsyncServerLibrary(ApiClient apiClient, Executor executor) {
+      this.serverApi = new ServerApi(apiClient);
+      this.executor = executor;
+   }
+
+   /**
+    * Get all registered vSphere Replication Servers (VRS).
+    * @return future of all registered vSphere Replication Servers, failed with {@link ExamplesExecutionException}
+    * when get all registered vSphere Replication Servers failed
+    */
+   public CompletableFuture<List<ReplicationServerInfo>> callGetAllVrServers() {
+      return AsyncCalls.<ReplicationServerInfoDrResponseList>call(
+                             "ServerApi.getAllVrServers",
+                             this.executor,
+                             callback -> this.serverApi.getAllVrServersAsync(null,
+                                                                             null,
+                                                                             null,
+                                                                             null,
+                                                                             null,
+                                                                             null,
+                                                                             callback))
+                       .thenApply(vrs -> {
+                          toSystemOut("Get all registered vSphere Replication Servers completed.");
+                          return vrs.getList();
+                       });
+   }
+}
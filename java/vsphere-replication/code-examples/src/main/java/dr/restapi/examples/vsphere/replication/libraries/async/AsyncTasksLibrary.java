@@ -0,0 +1,102 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.libraries.async;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.api.TasksApi;
+import dr.restapi.examples.apiclient.vr.model.Task.StatusEnum;
+import dr.restapi.examples.apiclient.vr.model.TaskDrResponseEntity;
+import dr.restapi.examples.vsphere.replication.config.Config;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.Constants;
+import dr.restapi.examples.vsphere.replication.libraries.TasksLibrary;
+
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Asynchronous counterpart of {@link TasksLibrary}.
+ */
+public class AsyncTasksLibrary {
+   private static final EnumSet<StatusEnum> TASK_NOT_COMPLETED_STATUSES =
+         EnumSet.of(StatusEnum.QUEUED, StatusEnum.RUNNING);
+
+   private final TasksApi tasksApi;
+   private final Executor executor;
+
+   /**
+    * Constructor. The futures are completed on the common fork join pool.
+    * @param apiClient api client
+    */
+   public AsyncTasksLibrary(ApiClient apiClient) {
+      this(apiClient, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Constructor.
+    * @param apiClient api client
+    * @param executor executor which completes the futures and runs their dependent stages
+    */
+   public AsyncTasksLibrary(ApiClient apiClient, Executor executor) {
+      this.tasksApi = new TasksApi(apiClient);
+      this.executor = executor;
+   }
+
+   /**
+    * Retrieve task information.
+    * @param taskId ID of a task
+    * @return future of the task entity, failed with {@link ExamplesExecutionException} when retrieve task information
+    * failed
+    */
+   public CompletableFuture<TaskDrResponseEntity> callGetTaskInfo(String taskId) {
+      return AsyncCalls.<TaskDrResponseEntity>call("TasksApi.getTaskInfo",
+                                                   this.executor,
+                                                   callback -> this.tasksApi.getTaskInfoAsync(taskId, callback))
+                       .thenApply(taskDrResponseEntity -> {
+                          toSystemOut("Info for task successfully obtained.", taskId);
+                          return taskDrResponseEntity;
+                       });
+   }
+
+   /**
+    * Asynchronous wait for the completion of a task with the specified {@code taskId}.
+    * No thread is blocked between two polls.
+    * @param taskId task ID
+    * @return future of the completed task entity
+    */
+   public CompletableFuture<TaskDrResponseEntity> waitForTaskCompletion(String taskId) {
+      int retryInMs = Config.get().getPositiveInt(Constants.Config.TASK_COMPLETION_RETRY_INTERVAL);
+
+      return pollUntilCompleted(taskId, CompletableFuture.delayedExecutor(retryInMs, TimeUnit.MILLISECONDS, executor))
+            .thenApply(taskInfo -> {
+               toSystemOut("Task ID is [{0}]," +
+                           " status is [{1}]," +
+                           " description is [{2}]," +
+                           " entity is [{3}]," +
+                           " entity name is [{4}].",
+                           taskInfo.getId(),
+                           taskInfo.getStatus().toString(),
+                           taskInfo.getDescription(),
+                           taskInfo.getEntity(),
+                           taskInfo.getEntityName());
+
+               return taskInfo;
+            });
+   }
+
+   private CompletableFuture<TaskDrResponseEntity> pollUntilCompleted(String taskId, Executor retryExecutor) {
+      return callGetTaskInfo(taskId).thenCompose(taskInfo -> {
+         if (!TASK_NOT_COMPLETED_STATUSES.contains(taskInfo.getStatus())) {
+            return CompletableFuture.completedFuture(taskInfo);
+         }
+
+         return CompletableFuture.supplyAsync(() -> taskId, retryExecutor)
+                                 .thenCompose(id -> pollUntilCompleted(id, retryExecutor));
+      });
+   }
+}
@@ -0,0 +1,370 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.model.*;
+import dr.restapi.examples.vsphere.replication.exceptions.ConfigNotValidException;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.ReplicationLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.TasksLibrary;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Pauses, resumes or reconfigures all replications matching a filter expression.
+ * <p>The filter is a conjunction of conditions like {@code status=OK && name~^web- && rpo>=15}. The operators are
+ * {@code = != < <= > >=} and {@code ~} for a regular expression; the fields are listed in {@link #FIELDS}.
+ * <p>Replications already in the target state are skipped, so a run which was interrupted or ran out of its time
+ * window can simply be repeated. Operations run with bounded concurrency and at most {@code maxPerSecond} new
+ * operations per second. No operation starts outside of the time window; the ones left are reported as deferred.
+ */
+public class BulkReplicationExecutor implements AutoCloseable {
+   private static final Pattern CONDITION = Pattern.compile("\\s*(\\w+)\\s*(!=|<=|>=|=|<|>|~)\\s*(.*?)\\s*");
+
+   /**
+    * Fields of {@link ReplicationInfo} usable in filter expressions.
+    */
+   public static final Map<String, Function<ReplicationInfo, Object>> FIELDS = new LinkedHashMap<>();
+
+   static {
+      FIELDS.put("id", ReplicationInfo::getId);
+      FIELDS.put("name", ReplicationInfo::getName);
+      FIELDS.put("vmId", ReplicationInfo::getVmId);
+      FIELDS.put("status", replication -> replication.getStatus() != null ? replication.getStatus().getStatus() : null);
+      FIELDS.put("rpoViolation",
+                 replication -> replication.getStatus() != null ? replication.getStatus().isRpoViolation() : null);
+      FIELDS.put("rpo", ReplicationInfo::getRpo);
+      FIELDS.put("replicationServerName", ReplicationInfo::getReplicationServerName);
+      FIELDS.put("targetSiteName", ReplicationInfo::getTargetSiteName);
+      FIELDS.put("configurationState", ReplicationInfo::getConfigurationState);
+      FIELDS.put("recoveryState", ReplicationInfo::getRecoveryState);
+      FIELDS.put("mpitEnabled", ReplicationInfo::isMpitEnabled);
+      FIELDS.put("quiescingEnabled", ReplicationInfo::isQuiescingEnabled);
+      FIELDS.put("networkCompressionEnabled", ReplicationInfo::isNetworkCompressionEnabled);
+   }
+
+   /**
+    * Bulk operation.
+    */
+   public enum Operation {
+      PAUSE, RESUME, RECONFIGURE
+   }
+
+   /**
+    * Outcome of the operation on one replication.
+    */
+   public enum Outcome {
+      SUCCEEDED, FAILED, SKIPPED, DEFERRED
+   }
+
+   /**
+    * Result of a bulk run.
+    */
+   public static final class Report {
+      private final Map<String, Outcome> outcomes = new ConcurrentHashMap<>();
+      private final Map<String, String> messages = new ConcurrentHashMap<>();
+      private long durationInMs;
+
+      /**
+       * Outcome by replication name.
+       * @return outcomes
+       */
+      public Map<String, Outcome> getOutcomes() {
+         return outcomes;
+      }
+
+      /**
+       * Task status or error message by replication name, for the replications which were not skipped.
+       * @return messages
+       */
+      public Map<String, String> getMessages() {
+         return messages;
+      }
+
+      public long count(Outcome outcome) {
+         return outcomes.values().stream().filter(outcome::equals).count();
+      }
+
+      public long getDurationInMs() {
+         return durationInMs;
+      }
+
+      /**
+       * Completed operations per second.
+       * @return throughput
+       */
+      public double getThroughput() {
+         long completed = count(Outcome.SUCCEEDED) + count(Outcome.FAILED);
+         return durationInMs > 0 ? completed * 1000.0 / durationInMs : 0.0;
+      }
+   }
+
+   private final ReplicationLibrary replicationLibrary;
+   private final TasksLibrary tasksLibrary;
+   private final String pairingId;
+   private final int maxConcurrent;
+   private final int maxPerSecond;
+   private final LocalTime windowStart;
+   private final LocalTime windowEnd;
+   private final ExecutorService executor;
+
+   /**
+    * Constructor.
+    * @param apiClient api client with a remote session to the pairing
+    * @param pairingId pairing ID
+    * @param maxConcurrent maximum number of concurrent operations
+    * @param maxPerSecond maximum number of operations started per second
+    * @param window time window like {@code 22:00-04:00}, local time; {@code 00:00-24:00} for any time
+    * @throws ConfigNotValidException when the window is not valid
+    */
+   public BulkReplicationExecutor(ApiClient apiClient,
+                                  String pairingId,
+                                  int maxConcurrent,
+                                  int maxPerSecond,
+                                  String window) {
+      this.replicationLibrary = new ReplicationLibrary(apiClient);
+      this.tasksLibrary = new TasksLibrary(apiClient);
+      this.pairingId = pairingId;
+      this.maxConcurrent = maxConcurrent;
+      this.maxPerSecond = maxPerSecond;
+
+      String[] bounds = window.split("-");
+      if (bounds.length != 2) {
+         throw new ConfigNotValidException("Time window [{0}] is not valid.", window);
+      }
+      this.windowStart = parseTime(bounds[0]);
+      this.windowEnd = parseTime(bounds[1]);
+      this.executor = Executors.newFixedThreadPool(maxConcurrent);
+   }
+
+   /**
+    * Parse a filter expression.
+    * @param expression conditions joined by {@code &&}; {@code *} or an empty string match all replications
+    * @return predicate
+    * @throws ConfigNotValidException when the expression is not valid
+    */
+   public static Predicate<ReplicationInfo> parseFilter(String expression) {
+      Predicate<ReplicationInfo> filter = replication -> true;
+      if (expression == null || expression.trim().isEmpty() || expression.trim().equals("*")) {
+         return filter;
+      }
+
+      for (String condition : expression.split("&&")) {
+         Matcher matcher = CONDITION.matcher(condition);
+         if (!matcher.matches() || !FIELDS.containsKey(matcher.group(1))) {
+            throw new ConfigNotValidException("Filter condition [{0}] is not valid. Known fields are {1}.",
+                                              condition.trim(),
+                                              FIELDS.keySet());
+         }
+         Function<ReplicationInfo, Object> field = FIELDS.get(matcher.group(1));
+         String operator = matcher.group(2);
+         String value = matcher.group(3);
+         Pattern pattern = operator.equals("~") ? Pattern.compile(value) : null;
+         Long number = value.matches("-?\\d+") ? Long.valueOf(value) : null;
+
+         filter = filter.and(replication -> {
+            Object actual = field.apply(replication);
+            if (actual == null) {
+               return operator.equals("!=");
+            }
+            switch (operator) {
+               case "=":
+                  return actual.toString().equalsIgnoreCase(value);
+               case "!=":
+                  return !actual.toString().equalsIgnoreCase(value);
+               case "~":
+                  return pattern.matcher(actual.toString()).find();
+               default:
+                  int comparison = actual instanceof Number && number != null ?
+                                   Long.compare(((Number) actual).longValue(), number) :
+                                   actual.toString().compareTo(value);
+                  return operator.equals("<") ? comparison < 0 :
+                         operator.equals("<=") ? comparison <= 0 :
+                         operator.equals(">") ? comparison > 0 :
+                         comparison >= 0;
+            }
+         });
+      }
+
+      return filter;
+   }
+
+   /**
+    * Run the operation on all matching replications and wait for their tasks.
+    * @param replications candidate replications
+    * @param filter filter selecting the replications to operate on
+    * @param operation operation
+    * @param reconfigureSpec spec for {@link Operation#RECONFIGURE} built from the current replication, or null
+    * @param dryRun only report which replications would be changed
+    * @return report of the run
+    */
+   public Report execute(List<ReplicationInfo> replications,
+                         Predicate<ReplicationInfo> filter,
+                         Operation operation,
+                         Function<ReplicationInfo, ReconfigureReplicationSpec> reconfigureSpec,
+                         boolean dryRun) {
+      Report report = new Report();
+      long start = System.currentTimeMillis();
+
+      List<ReplicationInfo> pending = new ArrayList<>();
+      for (ReplicationInfo replication : replications) {
+         if (!filter.test(replication)) {
+            continue;
+         }
+         if (isApplied(replication, operation, reconfigureSpec)) {
+            report.outcomes.put(replication.getName(), Outcome.SKIPPED);
+         } else {
+            pending.add(replication);
+         }
+      }
+      if (dryRun) {
+         pending.forEach(replication -> report.outcomes.put(replication.getName(), Outcome.DEFERRED));
+         return report;
+      }
+
+      waitForWindow();
+
+      Semaphore slots = new Semaphore(this.maxConcurrent);
+      long intervalInMs = 1000L / this.maxPerSecond;
+      long nextStart = System.currentTimeMillis();
+      List<Future<?>> futures = new ArrayList<>();
+      for (ReplicationInfo replication : pending) {
+         try {
+            slots.acquire();
+            long delay = nextStart - System.currentTimeMillis();
+            if (delay > 0) {
+               Thread.sleep(delay);
+            }
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            break;
+         }
+         if (!isInWindow(LocalTime.now())) {
+            slots.release();
+            break;
+         }
+         nextStart = System.currentTimeMillis() + intervalInMs;
+
+         futures.add(this.executor.submit(() -> {
+            try {
+               run(replication, operation, reconfigureSpec, report);
+            } finally {
+               slots.release();
+            }
+         }));
+      }
+      for (Future<?> future : futures) {
+         try {
+            future.get();
+         } catch (ExecutionException ex) {
+            // the outcome is already recorded in the report
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            break;
+         }
+      }
+      for (ReplicationInfo replication : pending) {
+         report.outcomes.putIfAbsent(replication.getName(), Outcome.DEFERRED);
+      }
+
+      report.durationInMs = System.currentTimeMillis() - start;
+      return report;
+   }
+
+   @Override
+   public void close() {
+      this.executor.shutdownNow();
+   }
+
+   private void run(ReplicationInfo replication,
+                    Operation operation,
+                    Function<ReplicationInfo, ReconfigureReplicationSpec> reconfigureSpec,
+                    Report report) {
+      try {
+         TaskDrResponseEntity task;
+         switch (operation) {
+            case PAUSE:
+               task = this.replicationLibrary.callPauseReplication(this.pairingId, replication.getId());
+               break;
+            case RESUME:
+               task = this.replicationLibrary.callResumeReplication(this.pairingId, replication.getId());
+               break;
+            default:
+               task = this.replicationLibrary.callReconfigureReplication(this.pairingId,
+                                                                         replication.getId(),
+                                                                         reconfigureSpec.apply(replication));
+         }
+         Task.StatusEnum status = this.tasksLibrary.waitForTaskCompletion(task.getId()).getStatus();
+
+         report.outcomes.put(replication.getName(),
+                             status == Task.StatusEnum.SUCCESS ? Outcome.SUCCEEDED : Outcome.FAILED);
+         report.messages.put(replication.getName(), String.valueOf(status));
+      } catch (ExamplesExecutionException ex) {
+         report.outcomes.put(replication.getName(), Outcome.FAILED);
+         report.messages.put(replication.getName(), String.valueOf(ex.getMessage()));
+      }
+   }
+
+   private static boolean isApplied(ReplicationInfo replication,
+                                    Operation operation,
+                                    Function<ReplicationInfo, ReconfigureReplicationSpec> reconfigureSpec) {
+      CompoundReplicationStatus.StatusEnum status =
+            replication.getStatus() != null ? replication.getStatus().getStatus() : null;
+      switch (operation) {
+         case PAUSE:
+            return status == CompoundReplicationStatus.StatusEnum.PAUSED;
+         case RESUME:
+            return status != CompoundReplicationStatus.StatusEnum.PAUSED;
+         default:
+            ReconfigureReplicationSpec spec = reconfigureSpec.apply(replication);
+            return Objects.equals(spec.getRpo(), replication.getRpo()) &&
+                   Objects.equals(spec.isQuiesceEnabled(), replication.isQuiescingEnabled()) &&
+                   Objects.equals(spec.isNetworkCompressionEnabled(), replication.isNetworkCompressionEnabled()) &&
+                   Objects.equals(spec.isMpitEnabled(), replication.isMpitEnabled()) &&
+                   Objects.equals(spec.getMpitInstances(), replication.getMpitInstances()) &&
+                   Objects.equals(spec.getMpitDays(), replication.getMpitDays());
+      }
+   }
+
+   private void waitForWindow() {
+      while (!isInWindow(LocalTime.now())) {
+         toSystemOut("Waiting for the time window [{0}-{1}].", this.windowStart, this.windowEnd);
+         try {
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+      }
+   }
+
+   private boolean isInWindow(LocalTime time) {
+      if (this.windowStart.equals(this.windowEnd)) {
+         return true;
+      }
+      if (this.windowStart.isBefore(this.windowEnd)) {
+         return !time.isBefore(this.windowStart) && time.isBefore(this.windowEnd);
+      }
+      // window over midnight
+      return !time.isBefore(this.windowStart) || time.isBefore(this.windowEnd);
+   }
+
+   private static LocalTime parseTime(String time) {
+      String trimmed = time.trim();
+      try {
+         return trimmed.equals("24:00") ? LocalTime.MIDNIGHT : LocalTime.parse(trimmed);
+      } catch (DateTimeParseException ex) {
+         throw new ConfigNotValidException(ex, "Time [{0}] of the time window is not valid.", trimmed);
+      }
+   }
+}
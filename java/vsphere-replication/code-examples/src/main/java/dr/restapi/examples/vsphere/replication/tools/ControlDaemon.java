@@ -0,0 +1,532 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.ApiException;
+import dr.restapi.examples.apiclient.vr.model.*;
+import dr.restapi.examples.vsphere.replication.config.Config;
+import dr.restapi.examples.vsphere.replication.exceptions.EnvironmentPrerequisiteException;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.*;
+import dr.restapi.examples.vsphere.replication.util.ClientUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Long-running process which keeps its sessions, connections and inventory warm and accepts operations over a local
+ * HTTP endpoint, so that a scheduler does not pay for a JVM start, a login and a remote login per operation.
+ * <p>The daemon logs in once, creates the remote session of a pairing on its first operation and keeps the local
+ * session alive with {@code getCurrentSession} every {@link Constants.Config#DAEMON_KEEP_ALIVE_INTERVAL} ms, which also
+ * keeps the pooled connections open. An expired session is renewed by logging in again. The pairings and one
+ * {@link InventorySnapshot} per pairing are cached; the snapshot is captured again when it is older than
+ * {@link Constants.Config#PLANNER_SNAPSHOT_MAX_AGE} or a replication was configured since.
+ * <p>The endpoint listens on the loopback address only. Every request needs the header {@value #TOKEN_HEADER} with the
+ * random token the daemon writes to {@link Constants.Config#DAEMON_TOKEN_FILE} at start. Operations are accepted
+ * with {@code 202} and the operation ID, run concurrently, at most {@link Constants.Config#DAEMON_MAX_OPERATIONS} at a
+ * time, and their requests share the cap of one {@link FanOutExecutor}:
+ * <ul>
+ *    <li>{@code POST /operations/configure-replication?pairing=<remote VC>&vms=<names>&storage-policy=<name>
+ *    &datastore=<name>} replicates VMs with the {@link ReplicationPlanner}; {@code balanced=true} instead of
+ *    {@code datastore} uses {@link ReplicationPlacement}</li>
+ *    <li>{@code POST /operations/sync?pairing=<remote VC>&replication=<replication ID>} syncs a replication</li>
+ *    <li>{@code GET /operations/<operation ID>} returns the state and the result of an operation</li>
+ *    <li>{@code GET /status} returns the sessions, the caches and the number of operations by state</li>
+ *    <li>{@code POST /shutdown} stops the daemon</li>
+ * </ul>
+ */
+public class ControlDaemon implements AutoCloseable {
+   public static final String TOKEN_HEADER = "X-Daemon-Token";
+   private static final long OPERATION_RETENTION_IN_MS = TimeUnit.HOURS.toMillis(1);
+   private static final int UNAUTHORIZED = 401;
+
+   /**
+    * State of an operation.
+    */
+   public enum State {
+      QUEUED, RUNNING, SUCCEEDED, FAILED
+   }
+
+   /**
+    * An operation accepted by the daemon, returned as JSON by {@code GET /operations/<operation ID>}.
+    */
+   public static final class Operation {
+      private final String id;
+      private final String type;
+      private final String pairing;
+      private final long submittedAt;
+      private volatile State state = State.QUEUED;
+      private volatile long startedAt;
+      private volatile long completedAt;
+      private volatile Object result;
+      private volatile String error;
+
+      private Operation(String id, String type, String pairing) {
+         this.id = id;
+         this.type = type;
+         this.pairing = pairing;
+         this.submittedAt = System.currentTimeMillis();
+      }
+
+      public String getId() {
+         return id;
+      }
+
+      public State getState() {
+         return state;
+      }
+   }
+
+   /**
+    * Work of an operation, which sends its requests with the warm sessions.
+    */
+   private interface Work {
+      Object run(Pairing pairing);
+   }
+
+   private final ApiClient apiClient;
+   private final Gson gson;
+   private final AuthenticationLibrary authenticationLibrary;
+   private final PairingLibrary pairingLibrary;
+   private final ReplicationLibrary replicationLibrary;
+   private final TasksLibrary tasksLibrary;
+   private final FanOutExecutor fanOut;
+   private final ExecutorService operationExecutor;
+   private final ScheduledExecutorService keepAliveExecutor = Executors.newSingleThreadScheduledExecutor();
+   private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+   private final AtomicLong operationIds = new AtomicLong();
+   private final Map<String, Pairing> pairingsByRemoteVcName = new ConcurrentHashMap<>();
+   private final Set<String> remoteSessionPairingIds = ConcurrentHashMap.newKeySet();
+   private final Map<String, InventorySnapshot> snapshotsByPairingId = new ConcurrentHashMap<>();
+   private final Map<String, Object> snapshotLocksByPairingId = new ConcurrentHashMap<>();
+   private final Set<String> staleSnapshotPairingIds = ConcurrentHashMap.newKeySet();
+   private final CountDownLatch shutdown = new CountDownLatch(1);
+   private HttpServer server;
+   private byte[] token;
+   private volatile long loggedInAt;
+
+   public static void main(String[] args) {
+      ApiClient apiClient = ClientUtils.createApiClient();
+
+      try (ControlDaemon daemon = new ControlDaemon(apiClient)) {
+         daemon.start();
+         daemon.awaitShutdown(Config.get().getLong(Constants.Config.DAEMON_DURATION));
+      }
+   }
+
+   /**
+    * Constructor.
+    * @param apiClient api client, not logged in yet
+    */
+   public ControlDaemon(ApiClient apiClient) {
+      this.apiClient = apiClient;
+      this.gson = apiClient.getJSON().getGson();
+      this.authenticationLibrary = new AuthenticationLibrary(apiClient);
+      this.pairingLibrary = new PairingLibrary(apiClient);
+      this.replicationLibrary = new ReplicationLibrary(apiClient);
+      this.tasksLibrary = new TasksLibrary(apiClient);
+      this.fanOut = new FanOutExecutor(FanOutExecutor.Mode.parse(
+            Config.get().getPropertyNotEmpty(Constants.Config.FAN_OUT_MODE)),
+                                       Config.get().getPositiveInt(Constants.Config.FAN_OUT_MAX_CONCURRENT));
+      this.operationExecutor =
+            Executors.newFixedThreadPool(Config.get().getPositiveInt(Constants.Config.DAEMON_MAX_OPERATIONS));
+   }
+
+   /**
+    * Log in, read the pairings, write the token file and start the endpoint and the session keep-alive.
+    * @throws EnvironmentPrerequisiteException when the token file can not be written or the port is in use
+    */
+   public void start() {
+      login();
+      refreshPairings();
+
+      Path tokenFile = Paths.get(Config.get().getPropertyNotEmpty(Constants.Config.DAEMON_TOKEN_FILE));
+      this.token = writeToken(tokenFile);
+
+      int port = Config.get().getPositiveInt(Constants.Config.DAEMON_PORT);
+      try {
+         this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      } catch (IOException ex) {
+         throw new EnvironmentPrerequisiteException(ex, "Daemon endpoint can not listen on port [{0}].", port);
+      }
+      this.server.createContext("/", this::handle);
+      this.server.setExecutor(Executors.newCachedThreadPool());
+      this.server.start();
+
+      long keepAliveInMs = Config.get().getPositiveInt(Constants.Config.DAEMON_KEEP_ALIVE_INTERVAL);
+      this.keepAliveExecutor.scheduleWithFixedDelay(this::keepAlive,
+                                                    keepAliveInMs,
+                                                    keepAliveInMs,
+                                                    TimeUnit.MILLISECONDS);
+
+      toSystemOut("Daemon listens on [{0}], the token is in [{1}], [{2}] pairings.",
+                  this.server.getAddress(),
+                  tokenFile.toAbsolutePath(),
+                  this.pairingsByRemoteVcName.size());
+   }
+
+   /**
+    * Wait until {@code POST /shutdown} or until {@code durationInMs} elapsed.
+    * @param durationInMs maximum time to run; 0 for no limit
+    */
+   public void awaitShutdown(long durationInMs) {
+      try {
+         if (durationInMs > 0) {
+            this.shutdown.await(durationInMs, TimeUnit.MILLISECONDS);
+         } else {
+            this.shutdown.await();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   @Override
+   public void close() {
+      if (this.server != null) {
+         this.server.stop(0);
+         ((ExecutorService) this.server.getExecutor()).shutdownNow();
+      }
+      this.keepAliveExecutor.shutdownNow();
+      this.operationExecutor.shutdownNow();
+      this.fanOut.close();
+      if (this.loggedInAt != 0) {
+         this.authenticationLibrary.callLogout();
+      }
+   }
+
+   private synchronized void login() {
+      SessionIdData sessionIdData =
+            this.authenticationLibrary.callLogin(Config.get().getPropertyNotEmpty(Constants.Config.SSO_USERNAME),
+                                                 Config.get().getPropertyNotEmpty(Constants.Config.SSO_PASSWORD));
+      this.apiClient.addDefaultHeader(Constants.SESSION_HEADER, sessionIdData.getSessionId());
+      this.remoteSessionPairingIds.clear();
+      this.loggedInAt = System.currentTimeMillis();
+   }
+
+   private void keepAlive() {
+      try {
+         this.authenticationLibrary.callGetCurrentSession();
+      } catch (ExamplesExecutionException ex) {
+         toSystemOut("Session is not valid anymore, logging in again. {0}", ex.getMessage());
+         try {
+            login();
+         } catch (RuntimeException loginEx) {
+            toSystemOut("Login failed, retrying at the next keep-alive. {0}", loginEx.getMessage());
+         }
+      }
+   }
+
+   private void refreshPairings() {
+      for (Pairing pairing : this.pairingLibrary.callGetAllPairings()) {
+         this.pairingsByRemoteVcName.put(pairing.getRemoteVcServer().getName(), pairing);
+      }
+   }
+
+   private Pairing getPairing(String remoteVcName) {
+      if (!this.pairingsByRemoteVcName.containsKey(remoteVcName)) {
+         refreshPairings();
+      }
+      Pairing pairing = this.pairingsByRemoteVcName.get(remoteVcName);
+      if (pairing == null) {
+         throw new IllegalArgumentException("No pairing with a remote VC name " + remoteVcName + " is found.");
+      }
+
+      return pairing;
+   }
+
+   private void ensureRemoteSession(Pairing pairing) {
+      String pairingId = pairing.getPairingId().toString();
+      if (this.remoteSessionPairingIds.contains(pairingId)) {
+         return;
+      }
+      this.fanOut.call(() -> {
+         this.pairingLibrary.callRemoteLogin(pairingId,
+                                             Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_USERNAME),
+                                             Config.get().getPropertyNotEmpty(Constants.Config.REMOTE_SSO_PASSWORD));
+         return null;
+      });
+      this.remoteSessionPairingIds.add(pairingId);
+   }
+
+   private InventorySnapshot getSnapshot(Pairing pairing) {
+      String pairingId = pairing.getPairingId().toString();
+      long maxAgeInMs = Config.get().getLong(Constants.Config.PLANNER_SNAPSHOT_MAX_AGE);
+
+      // One capture per pairing at a time, outside of the lock of the map.
+      synchronized (this.snapshotLocksByPairingId.computeIfAbsent(pairingId, id -> new Object())) {
+         InventorySnapshot snapshot = this.snapshotsByPairingId.get(pairingId);
+         boolean stale = this.staleSnapshotPairingIds.remove(pairingId);
+         if (snapshot != null && !stale && System.currentTimeMillis() - snapshot.getCapturedAt() <= maxAgeInMs) {
+            return snapshot;
+         }
+         InventorySnapshot captured =
+               withSession(pairing, () -> InventorySnapshot.capture(this.apiClient, pairing, this.fanOut));
+         if (snapshot != null) {
+            captured.keepLatencies(snapshot);
+         }
+         this.snapshotsByPairingId.put(pairingId, captured);
+
+         return captured;
+      }
+   }
+
+   private List<TaskDrResponseEntity> configureReplication(Pairing pairing, Map<String, String> params) {
+      List<String> vmNames = Arrays.asList(required(params, "vms").split(","));
+      String storagePolicy = required(params, "storage-policy");
+      boolean balanced = Boolean.parseBoolean(params.get("balanced"));
+      String datastore = balanced ? params.get("datastore") : required(params, "datastore");
+
+      InventorySnapshot snapshot = getSnapshot(pairing);
+      int freeSpaceReservePercent =
+            Config.get().getPositiveOrZeroInt(Constants.Config.REPLICATION_FREE_SPACE_RESERVE_PERCENT);
+      ReplicationPlanner planner =
+            new ReplicationPlanner(snapshot,
+                                   freeSpaceReservePercent,
+                                   Config.get().getPositiveInt(Constants.Config.TASK_COMPLETION_RETRY_INTERVAL));
+      ReplicationPlanner.Plan plan = planner.plan(vmNames,
+                                                  storagePolicy,
+                                                  datastore,
+                                                  balanced,
+                                                  Config.get().getLong(Constants.Config.PLANNER_SNAPSHOT_MAX_AGE));
+      if (!plan.isValid()) {
+         throw new IllegalArgumentException("The plan is not valid: " + plan.getProblems());
+      }
+      try {
+         return planner.execute(this.apiClient, this.fanOut, plan, new ReplicationPlanner.RequestSender() {
+            @Override
+            public <T> T send(Supplier<T> request) {
+               return withSession(pairing, request);
+            }
+         });
+      } finally {
+         this.staleSnapshotPairingIds.add(pairing.getPairingId().toString());
+      }
+   }
+
+   private TaskDrResponseEntity sync(Pairing pairing, Map<String, String> params) {
+      String replicationId = required(params, "replication");
+      String pairingId = pairing.getPairingId().toString();
+      TaskDrResponseEntity task = withSession(pairing, () -> this.fanOut.call(
+            () -> this.replicationLibrary.callSyncReplication(pairingId, replicationId)));
+
+      return this.fanOut.poll(() -> withSession(pairing, () -> this.tasksLibrary.callGetTaskInfo(task.getId())),
+                              TasksLibrary::isCompleted,
+                              Config.get().getPositiveInt(Constants.Config.TASK_COMPLETION_RETRY_INTERVAL));
+   }
+
+   private Operation submit(String type, String remoteVcName, Work work) {
+      pruneOperations();
+      Pairing pairing = getPairing(remoteVcName);
+      Operation operation = new Operation(String.valueOf(this.operationIds.incrementAndGet()), type, remoteVcName);
+      this.operations.put(operation.id, operation);
+
+      this.operationExecutor.execute(() -> {
+         operation.startedAt = System.currentTimeMillis();
+         operation.state = State.RUNNING;
+         try {
+            operation.result = work.run(pairing);
+            operation.state = State.SUCCEEDED;
+         } catch (RuntimeException ex) {
+            operation.error = ex.getMessage();
+            operation.state = State.FAILED;
+         } finally {
+            operation.completedAt = System.currentTimeMillis();
+            toSystemOut("Operation [{0}] [{1}] on [{2}] is [{3}] after [{4}] ms.",
+                        operation.id,
+                        operation.type,
+                        operation.pairing,
+                        operation.state,
+                        operation.completedAt - operation.submittedAt);
+         }
+      });
+
+      return operation;
+   }
+
+   /**
+    * Send one request with the warm sessions. When the server does not accept the session anymore, log in again and
+    * send only this request once more; the server did not run a request it rejected with 401.
+    */
+   private <T> T withSession(Pairing pairing, Supplier<T> request) {
+      long usedLogin = this.loggedInAt;
+      try {
+         ensureRemoteSession(pairing);
+         return request.get();
+      } catch (ExamplesExecutionException ex) {
+         if (!(ex.getCause() instanceof ApiException) || ((ApiException) ex.getCause()).getCode() != UNAUTHORIZED) {
+            throw ex;
+         }
+         renew(usedLogin);
+         ensureRemoteSession(pairing);
+         return request.get();
+      }
+   }
+
+   /**
+    * Log in again, unless another operation renewed the session since {@code usedLogin}.
+    */
+   private synchronized void renew(long usedLogin) {
+      if (this.loggedInAt == usedLogin) {
+         toSystemOut("Session is not valid anymore, logging in again.");
+         login();
+      }
+   }
+
+   private void pruneOperations() {
+      long now = System.currentTimeMillis();
+      this.operations.values().removeIf(operation -> operation.completedAt != 0
+                                                     && now - operation.completedAt > OPERATION_RETENTION_IN_MS);
+   }
+
+   private Map<String, Object> status() {
+      Map<String, Object> status = new LinkedHashMap<>();
+      status.put("sessionAgeInMs", System.currentTimeMillis() - this.loggedInAt);
+      status.put("pairings", new TreeSet<>(this.pairingsByRemoteVcName.keySet()));
+      status.put("remoteSessions", this.remoteSessionPairingIds.size());
+      Map<String, Long> snapshotAges = new TreeMap<>();
+      this.snapshotsByPairingId.forEach((pairingId, snapshot) -> snapshotAges.put(
+            snapshot.getPairing().getRemoteVcServer().getName(),
+            System.currentTimeMillis() - snapshot.getCapturedAt()));
+      status.put("snapshotAgesInMs", snapshotAges);
+      Map<State, Integer> operationCounts = new EnumMap<>(State.class);
+      for (Operation operation : this.operations.values()) {
+         operationCounts.merge(operation.state, 1, Integer::sum);
+      }
+      status.put("operations", operationCounts);
+
+      return status;
+   }
+
+   private void handle(HttpExchange exchange) throws IOException {
+      try (InputStream body = exchange.getRequestBody()) {
+         body.readAllBytes();
+      }
+      try {
+         String presentedToken = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+         if (presentedToken == null
+             || !MessageDigest.isEqual(this.token, presentedToken.getBytes(StandardCharsets.UTF_8))) {
+            respond(exchange, 401, Collections.singletonMap("error", "Missing or wrong " + TOKEN_HEADER + "."));
+            return;
+         }
+         String method = exchange.getRequestMethod();
+         String path = exchange.getRequestURI().getPath();
+         Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+
+         if ("POST".equals(method) && "/operations/configure-replication".equals(path)) {
+            respondAccepted(exchange, submit("configure-replication",
+                                             required(params, "pairing"),
+                                             pairing -> configureReplication(pairing, params)));
+         } else if ("POST".equals(method) && "/operations/sync".equals(path)) {
+            respondAccepted(exchange, submit("sync", required(params, "pairing"), pairing -> sync(pairing, params)));
+         } else if ("GET".equals(method) && path.startsWith("/operations/")) {
+            Operation operation = this.operations.get(path.substring("/operations/".length()));
+            if (operation == null) {
+               respond(exchange, 404, Collections.singletonMap("error", "Unknown operation."));
+            } else {
+               respond(exchange, 200, operation);
+            }
+         } else if ("GET".equals(method) && "/status".equals(path)) {
+            respond(exchange, 200, status());
+         } else if ("POST".equals(method) && "/shutdown".equals(path)) {
+            respond(exchange, 202, Collections.singletonMap("state", "stopping"));
+            this.shutdown.countDown();
+         } else {
+            respond(exchange, 404, Collections.singletonMap("error", "Unknown endpoint " + method + " " + path + "."));
+         }
+      } catch (IllegalArgumentException ex) {
+         respond(exchange, 400, Collections.singletonMap("error", ex.getMessage()));
+      } catch (RuntimeException ex) {
+         respond(exchange, 500, Collections.singletonMap("error", ex.getMessage()));
+      }
+   }
+
+   private void respondAccepted(HttpExchange exchange, Operation operation) throws IOException {
+      exchange.getResponseHeaders().set("Location", "/operations/" + operation.id);
+      respond(exchange, 202, operation);
+   }
+
+   private void respond(HttpExchange exchange, int code, Object body) throws IOException {
+      byte[] bytes = this.gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(code, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+         out.write(bytes);
+      }
+   }
+
+   private static Map<String, String> parseQuery(String rawQuery) {
+      Map<String, String> params = new HashMap<>();
+      if (rawQuery == null) {
+         return params;
+      }
+      for (String param : rawQuery.split("&")) {
+         int separator = param.indexOf('=');
+         if (separator > 0) {
+            params.put(URLDecoder.decode(param.substring(0, separator), StandardCharsets.UTF_8),
+                       URLDecoder.decode(param.substring(separator + 1), StandardCharsets.UTF_8));
+         }
+      }
+
+      return params;
+   }
+
+   private static String required(Map<String, String> params, String name) {
+      String value = params.get(name);
+      if (value == null || value.isEmpty()) {
+         throw new IllegalArgumentException("Query parameter " + name + " is required.");
+      }
+
+      return value;
+   }
+
+   /**
+    * Write a new random token, readable only by the owner where the file system supports it.
+    */
+   private static byte[] writeToken(Path tokenFile) {
+      byte[] random = new byte[32];
+      new SecureRandom().nextBytes(random);
+      StringBuilder token = new StringBuilder();
+      for (byte b : random) {
+         token.append(String.format("%02x", b));
+      }
+      byte[] tokenBytes = token.toString().getBytes(StandardCharsets.UTF_8);
+
+      try {
+         Files.deleteIfExists(tokenFile);
+         try {
+            Files.createFile(tokenFile,
+                             PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+         } catch (UnsupportedOperationException ex) {
+            toSystemOut("File system does not support POSIX permissions, [{0}] keeps the default ones.", tokenFile);
+            Files.createFile(tokenFile);
+         }
+         Files.write(tokenFile, tokenBytes);
+      } catch (IOException ex) {
+         throw new EnvironmentPrerequisiteException(ex, "Daemon token file [{0}] can not be written.", tokenFile);
+      }
+
+      return tokenBytes;
+   }
+}
@@ -0,0 +1,238 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.model.DatastoreBrowserRequest.QueryTypeEnum;
+import dr.restapi.examples.apiclient.vr.model.DatastoreBrowserRequest;
+import dr.restapi.examples.apiclient.vr.model.DatastoreBrowserResult.FileTypeEnum;
+import dr.restapi.examples.apiclient.vr.model.DatastoreBrowserResult;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.ReplicationLibrary;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+/**
+ * Crawls datastores at a vCenter Server and caches their folders and files in a path trie.
+ * <p>Every folder is browsed with one request, without sub-folders; the sub-folders of all folders on one level
+ * are browsed concurrently, and several datastores are crawled at the same time. A folder is browsed again when its
+ * cached content is older than the time to live, either when it is looked up or on the next crawl, so lookups of
+ * fresh paths never call the API.
+ */
+public class DatastoreBrowser implements AutoCloseable {
+   private static final int PAGE_SIZE = 500;
+
+   /**
+    * A folder in the trie.
+    */
+   private static final class Node {
+      private final String path;
+      private final Map<String, Node> folders = new ConcurrentHashMap<>();
+      private volatile List<DatastoreBrowserResult> files = Collections.emptyList();
+      private volatile long loadedAt;
+
+      private Node(String path) {
+         this.path = path;
+      }
+   }
+
+   private final ReplicationLibrary replicationLibrary;
+   private final String pairingId;
+   private final UUID vcenterId;
+   private final long ttlInMs;
+   private final ExecutorService executor;
+   private final Map<String, Node> roots = new ConcurrentHashMap<>();
+
+   /**
+    * Constructor.
+    * @param apiClient api client with a remote session to the pairing
+    * @param pairingId pairing ID
+    * @param vcenterId ID of the VC the datastores belong to
+    * @param ttlInMs time to live of the content of a folder in milliseconds
+    * @param parallelism maximum number of concurrent browse requests
+    */
+   public DatastoreBrowser(ApiClient apiClient, String pairingId, UUID vcenterId, long ttlInMs, int parallelism) {
+      this.replicationLibrary = new ReplicationLibrary(apiClient);
+      this.pairingId = pairingId;
+      this.vcenterId = vcenterId;
+      this.ttlInMs = ttlInMs;
+      this.executor = Executors.newFixedThreadPool(parallelism);
+   }
+
+   /**
+    * Crawl the datastores down to {@code maxDepth} folder levels below their root. Fresh folders are not browsed again.
+    * @param datastoreIds datastore IDs
+    * @param maxDepth number of folder levels to browse; 0 browses the root folder only
+    */
+   public void crawl(Collection<String> datastoreIds, int maxDepth) {
+      List<CompletableFuture<Void>> crawls = new ArrayList<>();
+      for (String datastoreId : datastoreIds) {
+         crawls.add(crawl(datastoreId, root(datastoreId), maxDepth));
+      }
+
+      try {
+         CompletableFuture.allOf(crawls.toArray(new CompletableFuture<?>[0])).get();
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof ExamplesExecutionException) {
+            throw (ExamplesExecutionException) ex.getCause();
+         }
+         throw new ExamplesExecutionException("Datastore crawl failed. {0}", ex.getCause().getMessage());
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new ExamplesExecutionException("Datastore crawl interrupted.");
+      }
+   }
+
+   /**
+    * Names of the sub-folders of a folder. The folder is browsed if it is not cached or its content has expired.
+    * @param datastoreId datastore ID
+    * @param path folder path relative to the datastore root, with {@code /} as separator; empty for the root
+    * @return sub-folder names, or an empty set if there is no such folder
+    */
+   public Set<String> getFolders(String datastoreId, String path) {
+      Node node = find(datastoreId, path);
+      return node != null ? new TreeSet<>(node.folders.keySet()) : Collections.emptySet();
+   }
+
+   /**
+    * Files of a folder, without sub-folders. The folder is browsed if it is not cached or its content has expired.
+    * @param datastoreId datastore ID
+    * @param path folder path relative to the datastore root; empty for the root
+    * @return files, or an empty list if there is no such folder
+    */
+   public List<DatastoreBrowserResult> getFiles(String datastoreId, String path) {
+      Node node = find(datastoreId, path);
+      return node != null ? node.files : Collections.emptyList();
+   }
+
+   /**
+    * Whether a folder exists, e.g. a destination folder named after a VM.
+    * @param datastoreId datastore ID
+    * @param path folder path relative to the datastore root
+    * @return true if the folder exists
+    */
+   public boolean exists(String datastoreId, String path) {
+      return find(datastoreId, path) != null;
+   }
+
+   /**
+    * Search the cached part of a datastore only, without any request.
+    * @param datastoreId datastore ID
+    * @param filter filter for files
+    * @return matching files by folder path
+    */
+   public Map<String, List<DatastoreBrowserResult>> search(String datastoreId,
+                                                           Predicate<DatastoreBrowserResult> filter) {
+      Map<String, List<DatastoreBrowserResult>> found = new TreeMap<>();
+      Deque<Node> stack = new ArrayDeque<>();
+      Node root = this.roots.get(datastoreId);
+      if (root != null) {
+         stack.push(root);
+      }
+      while (!stack.isEmpty()) {
+         Node node = stack.pop();
+         for (DatastoreBrowserResult file : node.files) {
+            if (filter.test(file)) {
+               found.computeIfAbsent(node.path, key -> new ArrayList<>()).add(file);
+            }
+         }
+         node.folders.values().forEach(stack::push);
+      }
+
+      return found;
+   }
+
+   @Override
+   public void close() {
+      this.executor.shutdownNow();
+   }
+
+   private CompletableFuture<Void> crawl(String datastoreId, Node node, int depth) {
+      CompletableFuture<Void> loaded = isFresh(node) ?
+                                       CompletableFuture.completedFuture(null) :
+                                       CompletableFuture.runAsync(() -> load(datastoreId, node), this.executor);
+      if (depth <= 0) {
+         return loaded;
+      }
+
+      return loaded.thenCompose(ignored -> {
+         List<CompletableFuture<Void>> children = new ArrayList<>();
+         for (Node folder : node.folders.values()) {
+            children.add(crawl(datastoreId, folder, depth - 1));
+         }
+         return CompletableFuture.allOf(children.toArray(new CompletableFuture<?>[0]));
+      });
+   }
+
+   private Node find(String datastoreId, String path) {
+      Node node = root(datastoreId);
+      if (!isFresh(node)) {
+         load(datastoreId, node);
+      }
+      for (String name : path.split("/")) {
+         if (name.isEmpty()) {
+            continue;
+         }
+         node = node.folders.get(name);
+         if (node == null) {
+            return null;
+         }
+         if (!isFresh(node)) {
+            load(datastoreId, node);
+         }
+      }
+
+      return node;
+   }
+
+   /**
+    * Browse one folder and replace its cached content. Cached sub-folders which still exist are kept with their
+    * content, so a refresh of a folder does not drop the fresh part of the trie below it.
+    */
+   private void load(String datastoreId, Node node) {
+      DatastoreBrowserRequest request = new DatastoreBrowserRequest();
+      request.setQueryType(QueryTypeEnum.ALL_FILES);
+      request.setBrowsePath(node.path);
+      request.setSubFolders(false);
+
+      List<DatastoreBrowserResult> files = new ArrayList<>();
+      Set<String> folders = new HashSet<>();
+      int offset = 0;
+      List<DatastoreBrowserResult> page;
+      do {
+         page = this.replicationLibrary.callBrowseDatastore(this.pairingId,
+                                                            this.vcenterId,
+                                                            datastoreId,
+                                                            request,
+                                                            PAGE_SIZE,
+                                                            offset);
+         for (DatastoreBrowserResult result : page) {
+            if (result.getFileType() == FileTypeEnum.FOLDER) {
+               folders.add(result.getName());
+               node.folders.computeIfAbsent(result.getName(), name -> new Node(childPath(node.path, name)));
+            } else {
+               files.add(result);
+            }
+         }
+         offset += page.size();
+      } while (page.size() == PAGE_SIZE);
+
+      node.folders.keySet().retainAll(folders);
+      node.files = Collections.unmodifiableList(files);
+      node.loadedAt = System.currentTimeMillis();
+   }
+
+   private Node root(String datastoreId) {
+      return this.roots.computeIfAbsent(datastoreId, key -> new Node(""));
+   }
+
+   private boolean isFresh(Node node) {
+      return node.loadedAt > 0 && System.currentTimeMillis() - node.loadedAt < this.ttlInMs;
+   }
+
+   private static String childPath(String parent, String name) {
+      return parent.isEmpty() ? name : parent + "/" + name;
+   }
+}
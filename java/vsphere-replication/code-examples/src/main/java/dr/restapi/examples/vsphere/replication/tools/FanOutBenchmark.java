@@ -0,0 +1,101 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.vsphere.replication.config.Config;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.Constants;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Compares the modes of {@link FanOutExecutor} for a large number of concurrent operations.
+ * <p>Every operation simulates waiting for a task: it polls {@link Constants.Config#FAN_OUT_BENCHMARK_POLLS} times,
+ * each request takes {@link Constants.Config#FAN_OUT_BENCHMARK_LATENCY} ms and the polls are
+ * {@link Constants.Config#FAN_OUT_BENCHMARK_POLL_INTERVAL} ms apart. The requests are simulated, so that the benchmark
+ * does not put thousands of operations on a real server; the same cap
+ * {@link Constants.Config#FAN_OUT_MAX_CONCURRENT} applies to both modes. Run it with the {@code java21} profile on a
+ * Java 21 runtime to measure virtual threads.
+ */
+public class FanOutBenchmark {
+   public static void main(String[] args) {
+      int operations = Config.get().getPositiveInt(Constants.Config.FAN_OUT_BENCHMARK_OPERATIONS);
+      int maxConcurrentRequests = Config.get().getPositiveInt(Constants.Config.FAN_OUT_MAX_CONCURRENT);
+      int latencyInMs = Config.get().getPositiveOrZeroInt(Constants.Config.FAN_OUT_BENCHMARK_LATENCY);
+      int polls = Config.get().getPositiveInt(Constants.Config.FAN_OUT_BENCHMARK_POLLS);
+      int pollIntervalInMs = Config.get().getPositiveOrZeroInt(Constants.Config.FAN_OUT_BENCHMARK_POLL_INTERVAL);
+
+      toSystemOut("[{0}] operations of [{1}] polls, [{2}] ms per request, [{3}] ms between polls, "
+                  + "at most [{4}] concurrent requests.",
+                  operations,
+                  polls,
+                  latencyInMs,
+                  pollIntervalInMs,
+                  maxConcurrentRequests);
+
+      for (FanOutExecutor.Mode mode : FanOutExecutor.Mode.values()) {
+         run(mode, operations, maxConcurrentRequests, latencyInMs, polls, pollIntervalInMs);
+      }
+   }
+
+   private static void run(FanOutExecutor.Mode mode,
+                           int operations,
+                           int maxConcurrentRequests,
+                           int latencyInMs,
+                           int polls,
+                           int pollIntervalInMs) {
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      threads.resetPeakThreadCount();
+      AtomicInteger requestsInFlight = new AtomicInteger();
+      AtomicInteger maxRequestsInFlight = new AtomicInteger();
+
+      long start = System.nanoTime();
+      try (FanOutExecutor fanOut = new FanOutExecutor(mode, maxConcurrentRequests)) {
+         if (fanOut.getMode() != mode) {
+            toSystemOut("Mode [{0}] is not available, skipped.", mode);
+            return;
+         }
+
+         List<CompletableFuture<Integer>> futures = new ArrayList<>(operations);
+         for (int i = 0; i < operations; i++) {
+            AtomicInteger pollCount = new AtomicInteger();
+            futures.add(fanOut.submit(() -> fanOut.poll(() -> {
+               maxRequestsInFlight.accumulateAndGet(requestsInFlight.incrementAndGet(), Math::max);
+               try {
+                  sleep(latencyInMs);
+                  return pollCount.incrementAndGet();
+               } finally {
+                  requestsInFlight.decrementAndGet();
+               }
+            }, count -> count >= polls, pollIntervalInMs)));
+         }
+         FanOutExecutor.joinAll(futures);
+      }
+      long elapsedInMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      toSystemOut("Mode [{0}]: [{1}] ms, [{2}] operations per second, at most [{3}] concurrent requests, "
+                  + "peak of [{4}] platform threads.",
+                  mode,
+                  elapsedInMs,
+                  operations * 1000L / Math.max(elapsedInMs, 1),
+                  maxRequestsInFlight.get(),
+                  threads.getPeakThreadCount());
+   }
+
+   private static void sleep(long millis) {
+      try {
+         Thread.sleep(millis);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new ExamplesExecutionException("Interrupted while simulating a request.");
+      }
+   }
+}
@@ -0,0 +1,169 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Runs many blocking operations, like one operation per VM or per task, with a cap on the number of requests which
+ * are sent to the server at the same time.
+ * <p>The operations are submitted with {@link #submit(Supplier)} and wrap every request in {@link #call(Supplier)},
+ * which waits for a permit of a semaphore. The time an operation spends between its requests, e.g. between two task
+ * polls, does not hold a permit.
+ * <p>In {@link Mode#PLATFORM} mode the operations run on a fixed pool of platform threads, one per permit, so that
+ * only that many operations make progress at the same time. In {@link Mode#VIRTUAL} mode every operation runs on its
+ * own virtual thread, so that thousands of operations can wait cheaply and only the requests are capped. Virtual
+ * threads need a Java 21 runtime, see the {@code java21} profile of the parent pom; on older runtimes the virtual mode
+ * falls back to platform threads.
+ */
+public class FanOutExecutor implements AutoCloseable {
+   /**
+    * Kind of threads which run the operations.
+    */
+   public enum Mode {
+      PLATFORM, VIRTUAL;
+
+      /**
+       * Parse a mode from the configuration, e.g. {@code virtual}.
+       * @param value mode name, case insensitive
+       * @return mode
+       */
+      public static Mode parse(String value) {
+         return valueOf(value.trim().toUpperCase(Locale.ROOT));
+      }
+   }
+
+   private final Mode mode;
+   private final ExecutorService executor;
+   private final Semaphore permits;
+
+   /**
+    * Constructor.
+    * @param mode requested mode; {@link Mode#VIRTUAL} falls back to {@link Mode#PLATFORM} before Java 21
+    * @param maxConcurrentRequests maximum number of requests sent to the server at the same time
+    */
+   public FanOutExecutor(Mode mode, int maxConcurrentRequests) {
+      ExecutorService virtualThreadExecutor = mode == Mode.VIRTUAL ? newVirtualThreadPerTaskExecutor() : null;
+      if (mode == Mode.VIRTUAL && virtualThreadExecutor == null) {
+         toSystemOut("Virtual threads need Java 21, the runtime is [{0}]. Platform threads are used.",
+                     System.getProperty("java.version"));
+      }
+
+      this.mode = virtualThreadExecutor != null ? Mode.VIRTUAL : Mode.PLATFORM;
+      this.executor = virtualThreadExecutor != null ?
+                      virtualThreadExecutor :
+                      Executors.newFixedThreadPool(maxConcurrentRequests);
+      this.permits = new Semaphore(maxConcurrentRequests);
+   }
+
+   /**
+    * Return the mode in use, which is {@link Mode#PLATFORM} when virtual threads are not available.
+    * @return mode
+    */
+   public Mode getMode() {
+      return mode;
+   }
+
+   /**
+    * Start an operation.
+    * @param operation operation, which sends its requests with {@link #call(Supplier)}
+    * @param <T> result type
+    * @return future of the result
+    */
+   public <T> CompletableFuture<T> submit(Supplier<T> operation) {
+      return CompletableFuture.supplyAsync(operation, executor);
+   }
+
+   /**
+    * Send one request, waiting for a permit first.
+    * @param request request
+    * @param <T> response type
+    * @return response
+    * @throws ExamplesExecutionException when interrupted while waiting for a permit
+    */
+   public <T> T call(Supplier<T> request) {
+      try {
+         permits.acquire();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new ExamplesExecutionException("Interrupted while waiting to send a request.");
+      }
+      try {
+         return request.get();
+      } finally {
+         permits.release();
+      }
+   }
+
+   /**
+    * Send a request repeatedly until its response is final, e.g. poll a task until it completed.
+    * No permit is held between two requests.
+    * @param request request
+    * @param done whether a response is final
+    * @param intervalInMs delay between two requests
+    * @param <T> response type
+    * @return final response
+    * @throws ExamplesExecutionException when interrupted
+    */
+   public <T> T poll(Supplier<T> request, Predicate<T> done, long intervalInMs) {
+      T response = call(request);
+      while (!done.test(response)) {
+         try {
+            Thread.sleep(intervalInMs);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExamplesExecutionException("Interrupted while polling.");
+         }
+         response = call(request);
+      }
+
+      return response;
+   }
+
+   /**
+    * Wait for all futures and return their results in the same order.
+    * @param futures futures of {@link #submit(Supplier)}
+    * @param <T> result type
+    * @return results
+    * @throws RuntimeException failure of the first failed operation
+    */
+   public static <T> List<T> joinAll(List<CompletableFuture<T>> futures) {
+      List<T> results = new ArrayList<>(futures.size());
+      for (CompletableFuture<T> future : futures) {
+         try {
+            results.add(future.join());
+         } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+         }
+      }
+
+      return results;
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+   }
+
+   /**
+    * Create {@code Executors.newVirtualThreadPerTaskExecutor()} by reflection, so that this class also compiles and
+    * runs for Java 11.
+    * @return executor, or null when the runtime has no virtual threads
+    */
+   private static ExecutorService newVirtualThreadPerTaskExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+         return null;
+      }
+   }
+}
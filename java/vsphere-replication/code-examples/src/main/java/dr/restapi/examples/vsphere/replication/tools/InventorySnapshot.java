@@ -0,0 +1,250 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import com.google.gson.Gson;
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.model.*;
+import dr.restapi.examples.vsphere.replication.exceptions.EnvironmentPrerequisiteException;
+import dr.restapi.examples.vsphere.replication.libraries.PairingLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.ReplicationLibrary;
+import dr.restapi.examples.vsphere.replication.util.ClientUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Local copy of the inventory of one pairing which is needed to plan new replications, together with the latencies
+ * of the requests which read it.
+ * <p>The snapshot is captured once with {@link #capture(ApiClient, Pairing, FanOutExecutor)} and saved as JSON, so
+ * that {@link ReplicationPlanner} can build and validate replication specs without contacting the servers. Every
+ * request made with {@link #timed(String, Supplier)} updates the average latency of its request name, e.g.
+ * {@code ReplicationApi.configureReplication}; the planner uses these latencies to estimate the duration of a plan.
+ */
+public class InventorySnapshot {
+   private long capturedAt;
+   private Pairing pairing;
+   private List<VirtualMachine> vms = new ArrayList<>();
+   private Map<String, VmCapabilitiesDrResponseEntity> vmCapabilities = new HashMap<>();
+   private List<ReplicationServerInfo> replicationServers = new ArrayList<>();
+   private List<StoragePolicy> storagePolicies = new ArrayList<>();
+   private List<Datastore> datastores = new ArrayList<>();
+   private Map<String, List<StoragePolicyComplianceCheckData>> complianceByStoragePolicyId = new HashMap<>();
+   private Map<String, Long> latencies = new TreeMap<>();
+   private Map<String, Integer> latencySamples = new TreeMap<>();
+
+   /**
+    * Read the inventory of a pairing which is relevant for new replications: the local VMs suitable for replication
+    * and their capabilities, the replication servers, storage policies and VR capable datastores of the remote VC and
+    * the compliance of these datastores with every storage policy.
+    * @param apiClient api client with a remote session to the pairing
+    * @param pairing pairing
+    * @param fanOut executor for the per-VM and per-storage-policy requests
+    * @return snapshot
+    */
+   public static InventorySnapshot capture(ApiClient apiClient, Pairing pairing, FanOutExecutor fanOut) {
+      PairingLibrary pairingLibrary = new PairingLibrary(apiClient);
+      ReplicationLibrary replicationLibrary = new ReplicationLibrary(apiClient);
+      String pairingId = pairing.getPairingId().toString();
+      UUID localVcId = pairing.getLocalVcServer().getId();
+      UUID remoteVcId = pairing.getRemoteVcServer().getId();
+
+      InventorySnapshot snapshot = new InventorySnapshot();
+      snapshot.capturedAt = System.currentTimeMillis();
+      snapshot.pairing = pairing;
+
+      CompletableFuture<List<VirtualMachine>> vms = fanOut.submit(() -> snapshot.timed(
+            "ReplicationApi.getLocalVms",
+            () -> fanOut.call(() -> replicationLibrary.callGetLocalVms(pairingId, localVcId, true))));
+      CompletableFuture<List<ReplicationServerInfo>> replicationServers = fanOut.submit(() -> {
+         VrmsInfo vrmsInfo = ClientUtils.chooseVrms(snapshot.timed(
+               "PairingApi.getAllVrDetailsInPairing",
+               () -> fanOut.call(() -> pairingLibrary.callGetAllVrmsDetails(pairingId))));
+         return snapshot.timed("PairingApi.getAllVrServersInPairing", () -> fanOut.call(
+               () -> pairingLibrary.callGetAllVrsDetails(pairingId, vrmsInfo.getId().toString())));
+      });
+      CompletableFuture<List<StoragePolicy>> storagePolicies = fanOut.submit(() -> snapshot.timed(
+            "ReplicationApi.getVcStoragePolicies",
+            () -> fanOut.call(() -> replicationLibrary.callGetVcStoragePolicies(pairingId, remoteVcId))));
+      CompletableFuture<List<Datastore>> datastores = fanOut.submit(() -> snapshot.timed(
+            "ReplicationApi.getVrCapableTargetDatastores",
+            () -> fanOut.call(() -> replicationLibrary.callGetVrCapableTargetDatastores(pairingId, remoteVcId))));
+
+      snapshot.vms = join(vms);
+      Map<String, CompletableFuture<VmCapabilitiesDrResponseEntity>> vmCapabilities = new LinkedHashMap<>();
+      for (VirtualMachine vm : snapshot.vms) {
+         vmCapabilities.put(vm.getId(), fanOut.submit(() -> snapshot.timed(
+               "ReplicationApi.getVmCapability",
+               () -> fanOut.call(() -> replicationLibrary.callGetVmCapability(pairingId, localVcId, vm.getId())))));
+      }
+
+      snapshot.datastores = join(datastores);
+      snapshot.storagePolicies = join(storagePolicies);
+      List<String> datastoreIds = new ArrayList<>();
+      for (Datastore datastore : snapshot.datastores) {
+         datastoreIds.add(datastore.getId());
+      }
+      Map<String, CompletableFuture<List<StoragePolicyComplianceCheckData>>> compliance = new LinkedHashMap<>();
+      for (StoragePolicy storagePolicy : snapshot.storagePolicies) {
+         if (storagePolicy.getStoragePolicyId() != null && !datastoreIds.isEmpty()) {
+            compliance.put(storagePolicy.getStoragePolicyId(), fanOut.submit(() -> snapshot.timed(
+                  "ReplicationApi.checkStoragePolicyCompliance",
+                  () -> fanOut.call(() -> replicationLibrary.callCheckStoragePolicyCompliance(
+                        pairingId,
+                        remoteVcId,
+                        storagePolicy.getStoragePolicyId(),
+                        datastoreIds)))));
+         }
+      }
+
+      snapshot.replicationServers = join(replicationServers);
+      vmCapabilities.forEach((vmId, future) -> snapshot.vmCapabilities.put(vmId, join(future)));
+      compliance.forEach((storagePolicyId, future) ->
+                               snapshot.complianceByStoragePolicyId.put(storagePolicyId, join(future)));
+      toSystemOut("Inventory snapshot of [{0}] VMs, [{1}] replication servers, [{2}] storage policies and [{3}] "
+                  + "datastores is captured.",
+                  snapshot.vms.size(),
+                  snapshot.replicationServers.size(),
+                  snapshot.storagePolicies.size(),
+                  snapshot.datastores.size());
+
+      return snapshot;
+   }
+
+   /**
+    * Load a snapshot saved with {@link #save(Path, Gson)}.
+    * @param file snapshot file
+    * @param gson gson of the api client, which handles the types of the model
+    * @return snapshot
+    * @throws EnvironmentPrerequisiteException when the file can not be read
+    */
+   public static InventorySnapshot load(Path file, Gson gson) {
+      try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+         return gson.fromJson(reader, InventorySnapshot.class);
+      } catch (IOException ex) {
+         throw new EnvironmentPrerequisiteException(ex, "Inventory snapshot [{0}] can not be read.", file);
+      }
+   }
+
+   /**
+    * Save the snapshot. The file is replaced atomically, so that a failed save keeps the previous snapshot.
+    * @param file snapshot file
+    * @param gson gson of the api client, which handles the types of the model
+    * @throws EnvironmentPrerequisiteException when the file can not be written
+    */
+   public synchronized void save(Path file, Gson gson) {
+      Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+      try {
+         try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            gson.toJson(this, writer);
+         }
+         Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException ex) {
+         throw new EnvironmentPrerequisiteException(ex, "Inventory snapshot [{0}] can not be written.", file);
+      }
+   }
+
+   /**
+    * Send a request and record its duration as a sample of the latency of {@code requestName}.
+    * @param requestName name of the request, e.g. {@code TasksApi.getTaskInfo}
+    * @param request request
+    * @param <T> response type
+    * @return response
+    */
+   public <T> T timed(String requestName, Supplier<T> request) {
+      long start = System.nanoTime();
+      T response = request.get();
+      recordLatency(requestName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+      return response;
+   }
+
+   /**
+    * Add a sample to the average latency of {@code name}.
+    * @param name name of a request, or of something else which takes time, like a task
+    * @param latencyInMs sample
+    */
+   public synchronized void recordLatency(String name, long latencyInMs) {
+      int samples = this.latencySamples.getOrDefault(name, 0);
+      long average = this.latencies.getOrDefault(name, 0L);
+      this.latencies.put(name, (average * samples + latencyInMs) / (samples + 1));
+      this.latencySamples.put(name, samples + 1);
+   }
+
+   /**
+    * Add the latencies recorded in an older snapshot of the same pairing, e.g. the latency of the configure
+    * replication tasks, which a capture does not measure.
+    * @param previous older snapshot
+    */
+   public synchronized void keepLatencies(InventorySnapshot previous) {
+      for (Map.Entry<String, Long> latency : previous.latencies.entrySet()) {
+         int previousSamples = previous.latencySamples.getOrDefault(latency.getKey(), 1);
+         int samples = this.latencySamples.getOrDefault(latency.getKey(), 0);
+         long average = this.latencies.getOrDefault(latency.getKey(), 0L);
+         this.latencies.put(latency.getKey(),
+                            (average * samples + latency.getValue() * previousSamples) / (samples + previousSamples));
+         this.latencySamples.put(latency.getKey(), samples + previousSamples);
+      }
+   }
+
+   /**
+    * Return the average latency of {@code name}.
+    * @param name name of a request, or of something else which takes time, like a task
+    * @return average latency in milliseconds, or null when nothing was recorded
+    */
+   public synchronized Long getLatency(String name) {
+      return this.latencies.get(name);
+   }
+
+   public long getCapturedAt() {
+      return capturedAt;
+   }
+
+   public Pairing getPairing() {
+      return pairing;
+   }
+
+   public List<VirtualMachine> getVms() {
+      return vms;
+   }
+
+   public Map<String, VmCapabilitiesDrResponseEntity> getVmCapabilities() {
+      return vmCapabilities;
+   }
+
+   public List<ReplicationServerInfo> getReplicationServers() {
+      return replicationServers;
+   }
+
+   public List<StoragePolicy> getStoragePolicies() {
+      return storagePolicies;
+   }
+
+   public List<Datastore> getDatastores() {
+      return datastores;
+   }
+
+   /**
+    * Return the compliance of the datastores with a storage policy.
+    * @param storagePolicyId ID of the storage policy
+    * @return compliance of every datastore, or null when the storage policy is the default one or unknown
+    */
+   public List<StoragePolicyComplianceCheckData> getCompliance(String storagePolicyId) {
+      return storagePolicyId != null ? complianceByStoragePolicyId.get(storagePolicyId) : null;
+   }
+
+   private static <T> T join(CompletableFuture<T> future) {
+      return FanOutExecutor.joinAll(Collections.singletonList(future)).get(0);
+   }
+}
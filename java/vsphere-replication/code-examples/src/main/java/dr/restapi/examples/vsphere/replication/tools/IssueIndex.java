@@ -0,0 +1,238 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.model.IssueInfo.StatusEnum;
+import dr.restapi.examples.apiclient.vr.model.IssueInfo;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.PairingLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.ReplicationLibrary;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * In-memory index of the pairing and replication issues of several pairings.
+ * <p>Every refresh requests the issues of all pairings concurrently and compares them with the previous refresh;
+ * the index is rebuilt only when something changed. Issues are deduplicated by pairing, type, entity and
+ * description. A source that cannot be read keeps the issues of the previous refresh and is reported by
+ * {@link #getFailures()}. Queries read an immutable snapshot and never call the API.
+ */
+public class IssueIndex implements AutoCloseable {
+   private static final int PAGE_SIZE = 100;
+
+   /**
+    * An issue together with the pairing it belongs to and the time it was first seen.
+    */
+   public static final class IndexedIssue {
+      private final String pairingId;
+      private final IssueInfo issue;
+      private final long firstSeen;
+
+      private IndexedIssue(String pairingId, IssueInfo issue, long firstSeen) {
+         this.pairingId = pairingId;
+         this.issue = issue;
+         this.firstSeen = firstSeen;
+      }
+
+      public String getPairingId() {
+         return pairingId;
+      }
+
+      public IssueInfo getIssue() {
+         return issue;
+      }
+
+      public long getFirstSeen() {
+         return firstSeen;
+      }
+
+      @Override
+      public String toString() {
+         return issue.getStatus() + " " + issue.getIssueType() + " " + issue.getEntityName() + ": " +
+                issue.getDescription();
+      }
+   }
+
+   private static final class Snapshot {
+      private final List<IndexedIssue> all;
+      private final Map<StatusEnum, List<IndexedIssue>> bySeverity = new EnumMap<>(StatusEnum.class);
+      private final Map<String, List<IndexedIssue>> byEntity = new HashMap<>();
+      private final Map<String, List<IndexedIssue>> byPairing = new HashMap<>();
+
+      private Snapshot(Collection<IndexedIssue> issues) {
+         this.all = Collections.unmodifiableList(new ArrayList<>(issues));
+         for (IndexedIssue issue : all) {
+            if (issue.issue.getStatus() != null) {
+               bySeverity.computeIfAbsent(issue.issue.getStatus(), key -> new ArrayList<>()).add(issue);
+            }
+            if (issue.issue.getEntity() != null) {
+               byEntity.computeIfAbsent(issue.issue.getEntity(), key -> new ArrayList<>()).add(issue);
+            }
+            byPairing.computeIfAbsent(issue.pairingId, key -> new ArrayList<>()).add(issue);
+         }
+         bySeverity.replaceAll((key, value) -> Collections.unmodifiableList(value));
+         byEntity.replaceAll((key, value) -> Collections.unmodifiableList(value));
+         byPairing.replaceAll((key, value) -> Collections.unmodifiableList(value));
+      }
+   }
+
+   private final PairingLibrary pairingLibrary;
+   private final ReplicationLibrary replicationLibrary;
+   private final List<String> pairingIds;
+   private final ExecutorService executor;
+
+   private final Map<String, List<IssueInfo>> sourceIssues = new HashMap<>();
+   private final Map<String, Long> firstSeen = new HashMap<>();
+   private volatile Map<String, String> failures = Collections.emptyMap();
+   private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+   private ScheduledExecutorService scheduler;
+
+   /**
+    * Constructor. The index is empty until {@link #refresh()} or {@link #start(long)} is called.
+    * @param apiClient api client with remote sessions to all pairings
+    * @param pairingIds IDs of the pairings to index
+    * @param parallelism maximum number of concurrent issue requests
+    */
+   public IssueIndex(ApiClient apiClient, List<String> pairingIds, int parallelism) {
+      this.pairingLibrary = new PairingLibrary(apiClient);
+      this.replicationLibrary = new ReplicationLibrary(apiClient);
+      this.pairingIds = new ArrayList<>(pairingIds);
+      this.executor = Executors.newFixedThreadPool(parallelism);
+   }
+
+   /**
+    * Refresh the index now. Sources whose issues did not change leave the index as is.
+    * @return true if the index was rebuilt
+    */
+   public synchronized boolean refresh() {
+      Map<String, Future<List<IssueInfo>>> futures = new LinkedHashMap<>();
+      for (String pairingId : this.pairingIds) {
+         futures.put(pairingId + "/pairing",
+                     this.executor.submit(() -> fetchAll((limit, offset) ->
+                           this.pairingLibrary.callGetVrPairingIssues(pairingId, limit, offset))));
+         futures.put(pairingId + "/replications",
+                     this.executor.submit(() -> fetchAll((limit, offset) ->
+                           this.replicationLibrary.callGetReplicationsIssues(pairingId, limit, offset))));
+      }
+
+      Map<String, List<IssueInfo>> fetched = new HashMap<>();
+      Map<String, String> failed = new LinkedHashMap<>();
+      for (Map.Entry<String, Future<List<IssueInfo>>> future : futures.entrySet()) {
+         try {
+            fetched.put(future.getKey(), future.getValue().get());
+         } catch (ExecutionException ex) {
+            // keep the issues of the previous refresh for a source that cannot be read right now
+            toSystemOut("Issues of [{0}] can not be read. {1}", future.getKey(), ex.getCause().getMessage());
+            failed.put(future.getKey(), ex.getCause().getMessage());
+            List<IssueInfo> previous = this.sourceIssues.get(future.getKey());
+            if (previous != null) {
+               fetched.put(future.getKey(), previous);
+            }
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+         }
+      }
+      this.failures = Collections.unmodifiableMap(failed);
+
+      if (fetched.equals(this.sourceIssues)) {
+         return false;
+      }
+      this.sourceIssues.clear();
+      this.sourceIssues.putAll(fetched);
+
+      long now = System.currentTimeMillis();
+      Map<String, IndexedIssue> issues = new LinkedHashMap<>();
+      for (Map.Entry<String, List<IssueInfo>> source : this.sourceIssues.entrySet()) {
+         String pairingId = source.getKey().substring(0, source.getKey().indexOf('/'));
+         for (IssueInfo issue : source.getValue()) {
+            String key = pairingId + '|' + issue.getIssueType() + '|' + issue.getEntity() + '|' + issue.getDescription();
+            issues.putIfAbsent(key, new IndexedIssue(pairingId, issue, this.firstSeen.getOrDefault(key, now)));
+         }
+      }
+      this.firstSeen.keySet().retainAll(issues.keySet());
+      issues.forEach((key, issue) -> this.firstSeen.putIfAbsent(key, issue.firstSeen));
+
+      this.snapshot = new Snapshot(issues.values());
+      return true;
+   }
+
+   /**
+    * Refresh the index in the background with a fixed delay between two refreshes.
+    * @param intervalInMs delay between two refreshes in milliseconds
+    */
+   public synchronized void start(long intervalInMs) {
+      if (this.scheduler != null) {
+         return;
+      }
+      this.scheduler = Executors.newSingleThreadScheduledExecutor();
+      this.scheduler.scheduleWithFixedDelay(() -> {
+         try {
+            if (refresh()) {
+               toSystemOut("Issue index rebuilt with [{0}] issues.", size());
+            }
+         } catch (ExamplesExecutionException ex) {
+            toSystemOut("Issue index refresh failed. {0}", ex.getMessage());
+         }
+      }, intervalInMs, intervalInMs, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Stop the background refresh and release the threads of the index.
+    */
+   @Override
+   public synchronized void close() {
+      if (this.scheduler != null) {
+         this.scheduler.shutdownNow();
+         this.scheduler = null;
+      }
+      this.executor.shutdownNow();
+   }
+
+   public List<IndexedIssue> getAll() {
+      return this.snapshot.all;
+   }
+
+   public List<IndexedIssue> getBySeverity(StatusEnum severity) {
+      return this.snapshot.bySeverity.getOrDefault(severity, Collections.emptyList());
+   }
+
+   public List<IndexedIssue> getByEntity(String entity) {
+      return this.snapshot.byEntity.getOrDefault(entity, Collections.emptyList());
+   }
+
+   public List<IndexedIssue> getByPairing(String pairingId) {
+      return this.snapshot.byPairing.getOrDefault(pairingId, Collections.emptyList());
+   }
+
+   public int size() {
+      return this.snapshot.all.size();
+   }
+
+   /**
+    * Return the sources which could not be read by the last refresh; their issues are those of the previous refresh.
+    * @return failure message by source, e.g. {@code <pairing ID>/replications}
+    */
+   public Map<String, String> getFailures() {
+      return this.failures;
+   }
+
+   private static List<IssueInfo> fetchAll(BiFunction<Integer, Integer, List<IssueInfo>> page) {
+      List<IssueInfo> issues = new ArrayList<>();
+      List<IssueInfo> next;
+      do {
+         next = page.apply(PAGE_SIZE, issues.size());
+         if (next == null) {
+            break;
+         }
+         issues.addAll(next);
+      } while (next.size() == PAGE_SIZE);
+
+      return issues;
+   }
+}
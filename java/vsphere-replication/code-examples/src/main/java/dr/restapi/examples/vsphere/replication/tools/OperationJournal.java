@@ -0,0 +1,361 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.vsphere.replication.exceptions.EnvironmentPrerequisiteException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Append-only journal of the operations of a workflow, which survives a crash of the JVM.
+ * <p>Every operation has a key chosen by the workflow, e.g. {@code configureReplication/<pairing ID>/<VM ID>}, and
+ * goes through three records: {@link State#ISSUED} before its request is sent, {@link State#STARTED} with the ID of
+ * the task the request returned, and {@link State#COMPLETED} with the final status of the task. A workflow which is run
+ * again reads the journal, waits for the tasks of the started operations with {@code getTaskInfo} instead of issuing
+ * them again, and skips the succeeded ones. An operation which is only issued crashed between its request and the
+ * record of the task; whether the server received the request is unknown.
+ * <p>The file is memory-mapped in regions of {@code regionSizeInBytes}. A record is
+ * {@code [length][CRC32][type][key][task ID][status]}; a record with a wrong checksum ends the journal, so that a
+ * record torn by a crash is ignored and overwritten. Every method returns when its records are on disk. Records appended while the
+ * file is being forced are forced together by the next caller (group commit), so concurrent tasks completing at the
+ * same time share one {@link MappedByteBuffer#force()}.
+ */
+public class OperationJournal implements AutoCloseable {
+   private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+   /**
+    * State of an operation.
+    */
+   public enum State {
+      ISSUED, STARTED, COMPLETED
+   }
+
+   /**
+    * Last known state of an operation.
+    */
+   public static final class Operation {
+      private final String key;
+      private final State state;
+      private final String taskId;
+      private final String status;
+
+      private Operation(String key, State state, String taskId, String status) {
+         this.key = key;
+         this.state = state;
+         this.taskId = taskId;
+         this.status = status;
+      }
+
+      public String getKey() {
+         return key;
+      }
+
+      public State getState() {
+         return state;
+      }
+
+      /**
+       * Return the ID of the task of the operation.
+       * @return task ID, or null when the operation is only issued
+       */
+      public String getTaskId() {
+         return taskId;
+      }
+
+      /**
+       * Return the final status of the task.
+       * @return status, or null when the operation is not completed
+       */
+      public String getStatus() {
+         return status;
+      }
+
+      /**
+       * Whether the operation has a task which has not been seen completing, and can be waited for again.
+       * @return true when the operation is started
+       */
+      public boolean isInFlight() {
+         return state == State.STARTED;
+      }
+
+      public boolean isSucceeded() {
+         return state == State.COMPLETED && "SUCCESS".equals(status);
+      }
+   }
+
+   private final FileChannel channel;
+   private final int regionSizeInBytes;
+   private final Map<String, Operation> operations = new LinkedHashMap<>();
+   private final Object lock = new Object();
+   private MappedByteBuffer buffer;
+   private int position;
+   private long appendedSequence;
+   private long durableSequence;
+   private boolean forcing;
+   private int forces;
+
+   /**
+    * Open the journal and read the operations recorded so far.
+    * @param file journal file, created when missing
+    * @param regionSizeInBytes size by which the mapping of the file grows
+    * @throws EnvironmentPrerequisiteException when the file can not be opened
+    */
+   public OperationJournal(Path file, int regionSizeInBytes) {
+      this.regionSizeInBytes = regionSizeInBytes;
+      try {
+         this.channel = FileChannel.open(file,
+                                         StandardOpenOption.CREATE,
+                                         StandardOpenOption.READ,
+                                         StandardOpenOption.WRITE);
+         long size = Math.max(this.channel.size(), regionSizeInBytes);
+         this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, roundUp(size));
+      } catch (IOException ex) {
+         throw new EnvironmentPrerequisiteException(ex, "Operation journal [{0}] can not be opened.", file);
+      }
+      replay();
+
+      toSystemOut("Operation journal [{0}] has [{1}] operations, [{2}] of them in flight.",
+                  file,
+                  this.operations.size(),
+                  this.operations.values().stream().filter(Operation::isInFlight).count());
+   }
+
+   /**
+    * Return the last known state of an operation.
+    * @param key key of the operation
+    * @return operation, or null when the journal has no record of it
+    */
+   public Operation get(String key) {
+      synchronized (this.lock) {
+         return this.operations.get(key);
+      }
+   }
+
+   /**
+    * Return the last known state of the operations whose key starts with {@code keyPrefix}.
+    * @param keyPrefix key prefix, e.g. {@code configureReplication/<pairing ID>/}
+    * @return operations in the order they were first recorded
+    */
+   public List<Operation> find(String keyPrefix) {
+      List<Operation> found = new ArrayList<>();
+      synchronized (this.lock) {
+         for (Operation operation : this.operations.values()) {
+            if (operation.getKey().startsWith(keyPrefix)) {
+               found.add(operation);
+            }
+         }
+      }
+
+      return found;
+   }
+
+   /**
+    * Record operations whose requests are about to be sent. One request may issue many operations.
+    * @param keys keys of the operations
+    */
+   public void issued(Collection<String> keys) {
+      long sequence = 0;
+      for (String key : keys) {
+         sequence = append(new Operation(key, State.ISSUED, null, null));
+      }
+      awaitDurable(sequence);
+   }
+
+   /**
+    * Record the tasks returned by a request.
+    * @param taskIdsByKey task ID by operation key
+    */
+   public void started(Map<String, String> taskIdsByKey) {
+      long sequence = 0;
+      for (Map.Entry<String, String> taskId : taskIdsByKey.entrySet()) {
+         sequence = append(new Operation(taskId.getKey(), State.STARTED, taskId.getValue(), null));
+      }
+      awaitDurable(sequence);
+   }
+
+   /**
+    * Record the completion of the task of an operation.
+    * @param key key of the operation
+    * @param status final status of the task
+    */
+   public void completed(String key, String status) {
+      Operation started = get(key);
+      awaitDurable(append(new Operation(key,
+                                        State.COMPLETED,
+                                        started != null ? started.getTaskId() : null,
+                                        status)));
+   }
+
+   /**
+    * Return how many times the file has been forced to disk, which is less than the number of records when commits
+    * were grouped.
+    * @return number of forces
+    */
+   public int getForces() {
+      synchronized (this.lock) {
+         return this.forces;
+      }
+   }
+
+   @Override
+   public void close() {
+      synchronized (this.lock) {
+         this.buffer.force();
+      }
+      try {
+         this.channel.close();
+      } catch (IOException ex) {
+         throw new UncheckedIOException(ex);
+      }
+   }
+
+   private long append(Operation operation) {
+      byte[] payload = encode(operation);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+
+      synchronized (this.lock) {
+         if (this.position + HEADER_SIZE + payload.length > this.buffer.capacity()) {
+            grow(this.position + HEADER_SIZE + payload.length);
+         }
+         ByteBuffer view = this.buffer.duplicate();
+         view.position(this.position);
+         view.putInt(payload.length);
+         view.putInt((int) crc.getValue());
+         view.put(payload);
+         this.position = view.position();
+         this.operations.put(operation.getKey(), operation);
+
+         return ++this.appendedSequence;
+      }
+   }
+
+   /**
+    * Wait until the record with {@code sequence} is on disk. The first waiter forces everything appended so far;
+    * the waiters which arrive while it forces are served by one force of the next waiter.
+    */
+   private void awaitDurable(long sequence) {
+      long target;
+      MappedByteBuffer forcedBuffer;
+      synchronized (this.lock) {
+         while (this.durableSequence < sequence && this.forcing) {
+            try {
+               this.lock.wait();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new IllegalStateException("Interrupted while waiting for the operation journal.", e);
+            }
+         }
+         if (this.durableSequence >= sequence) {
+            return;
+         }
+         this.forcing = true;
+         target = this.appendedSequence;
+         forcedBuffer = this.buffer;
+      }
+
+      try {
+         forcedBuffer.force();
+      } finally {
+         synchronized (this.lock) {
+            this.forcing = false;
+            this.forces++;
+            this.durableSequence = Math.max(this.durableSequence, target);
+            this.lock.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Map a larger region of the file. Called with the lock held; the records of the old mapping are forced first,
+    * since a later force of the new mapping does not cover them.
+    */
+   private void grow(int minimumSize) {
+      this.buffer.force();
+      this.forces++;
+      this.durableSequence = this.appendedSequence;
+      try {
+         long size = Math.max(minimumSize, (long) this.buffer.capacity() + this.regionSizeInBytes);
+         this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, roundUp(size));
+         this.channel.force(true);
+      } catch (IOException ex) {
+         throw new UncheckedIOException(ex);
+      }
+      this.lock.notifyAll();
+   }
+
+   private void replay() {
+      ByteBuffer view = this.buffer.duplicate();
+      while (view.remaining() >= HEADER_SIZE) {
+         int start = view.position();
+         int length = view.getInt();
+         int checksum = view.getInt();
+         if (length == 0) {
+            view.position(start);
+            break;
+         }
+         byte[] payload = new byte[Math.max(0, Math.min(length, view.remaining()))];
+         view.get(payload);
+         CRC32 crc = new CRC32();
+         crc.update(payload);
+         if (length != payload.length || (int) crc.getValue() != checksum) {
+            toSystemOut("Operation journal has a torn record at offset [{0}], the records after it are ignored.",
+                        start);
+            view.position(start);
+            while (view.hasRemaining()) {
+               view.put((byte) 0);
+            }
+            view.position(start);
+            break;
+         }
+         Operation operation = decode(payload);
+         this.operations.put(operation.getKey(), operation);
+      }
+      this.position = view.position();
+   }
+
+   private long roundUp(long size) {
+      return (size + this.regionSizeInBytes - 1) / this.regionSizeInBytes * this.regionSizeInBytes;
+   }
+
+   private static byte[] encode(Operation operation) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+         out.writeByte(operation.getState().ordinal());
+         out.writeUTF(operation.getKey());
+         out.writeUTF(operation.getTaskId() != null ? operation.getTaskId() : "");
+         out.writeUTF(operation.getStatus() != null ? operation.getStatus() : "");
+      } catch (IOException ex) {
+         throw new UncheckedIOException(ex);
+      }
+
+      return bytes.toByteArray();
+   }
+
+   private static Operation decode(byte[] payload) {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+         State state = State.values()[in.readByte()];
+         String key = in.readUTF();
+         String taskId = in.readUTF();
+         String status = in.readUTF();
+
+         return new Operation(key, state, taskId.isEmpty() ? null : taskId, status.isEmpty() ? null : status);
+      } catch (IOException ex) {
+         throw new UncheckedIOException(ex);
+      }
+   }
+}
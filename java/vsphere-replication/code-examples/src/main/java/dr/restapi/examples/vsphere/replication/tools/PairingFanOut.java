@@ -0,0 +1,180 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.model.Pairing;
+import dr.restapi.examples.vsphere.replication.libraries.PairingLibrary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Runs the same work for many pairings in parallel, instead of for the single pairing of
+ * {@link dr.restapi.examples.vsphere.replication.libraries.Constants.Config#REMOTE_VC_NAME}.
+ * <p>Every pairing creates its own remote session and gets its own {@link FanOutExecutor}, so that the requests of
+ * one pairing are capped independently of the other pairings and a slow remote site does not take the permits of a
+ * fast one. A failure of one pairing is reported in its {@link Result} and does not stop the others, so that the run
+ * takes as long as the slowest pairing. The local session is shared by all pairings.
+ */
+public class PairingFanOut implements AutoCloseable {
+   /**
+    * Outcome of the work for one pairing.
+    * @param <T> result type
+    */
+   public static final class Result<T> {
+      private final Pairing pairing;
+      private final T value;
+      private final RuntimeException failure;
+      private final long durationInMs;
+
+      private Result(Pairing pairing, T value, RuntimeException failure, long durationInMs) {
+         this.pairing = pairing;
+         this.value = value;
+         this.failure = failure;
+         this.durationInMs = durationInMs;
+      }
+
+      public Pairing getPairing() {
+         return pairing;
+      }
+
+      /**
+       * Return the result of the work.
+       * @return result, or null when the work failed
+       */
+      public T getValue() {
+         return value;
+      }
+
+      /**
+       * Return the failure of the remote login or of the work.
+       * @return failure, or null when the work succeeded
+       */
+      public RuntimeException getFailure() {
+         return failure;
+      }
+
+      public long getDurationInMs() {
+         return durationInMs;
+      }
+
+      public boolean isSucceeded() {
+         return failure == null;
+      }
+   }
+
+   private final PairingLibrary pairingLibrary;
+   private final ExecutorService executor;
+   private final FanOutExecutor.Mode mode;
+   private final int maxConcurrentRequestsPerPairing;
+   private final String remoteUsername;
+   private final String remotePassword;
+
+   /**
+    * Constructor.
+    * @param apiClient api client with a local session
+    * @param maxConcurrentPairings maximum number of pairings processed at the same time
+    * @param mode mode of the executor of every pairing
+    * @param maxConcurrentRequestsPerPairing maximum number of concurrent requests for one pairing
+    * @param remoteUsername username for the remote sessions
+    * @param remotePassword password for the remote sessions
+    */
+   public PairingFanOut(ApiClient apiClient,
+                        int maxConcurrentPairings,
+                        FanOutExecutor.Mode mode,
+                        int maxConcurrentRequestsPerPairing,
+                        String remoteUsername,
+                        String remotePassword) {
+      this.pairingLibrary = new PairingLibrary(apiClient);
+      this.executor = Executors.newFixedThreadPool(maxConcurrentPairings);
+      this.mode = mode;
+      this.maxConcurrentRequestsPerPairing = maxConcurrentRequestsPerPairing;
+      this.remoteUsername = remoteUsername;
+      this.remotePassword = remotePassword;
+   }
+
+   /**
+    * Create a remote session to every pairing and run {@code work} for it, all pairings in parallel.
+    * @param pairings pairings
+    * @param work work for one pairing; sends its requests with {@link FanOutExecutor#call(java.util.function.Supplier)}
+    * of the given executor, which is closed when the work returns
+    * @param <T> result type
+    * @return results in the order of {@code pairings}
+    */
+   public <T> List<Result<T>> run(List<Pairing> pairings, BiFunction<Pairing, FanOutExecutor, T> work) {
+      List<CompletableFuture<Result<T>>> futures = new ArrayList<>(pairings.size());
+      for (Pairing pairing : pairings) {
+         futures.add(CompletableFuture.supplyAsync(() -> runPairing(pairing, work), this.executor));
+      }
+
+      return FanOutExecutor.joinAll(futures);
+   }
+
+   /**
+    * Print the outcome of every pairing, the wall time and the time the pairings would have taken one after another.
+    * @param results results of {@link #run(List, BiFunction)}
+    * @param wallTimeInMs duration of {@link #run(List, BiFunction)}
+    */
+   public static void printReport(List<? extends Result<?>> results, long wallTimeInMs) {
+      long slowestInMs = 0;
+      long sumInMs = 0;
+      int failed = 0;
+      for (Result<?> result : results) {
+         if (result.isSucceeded()) {
+            toSystemOut("Pairing with [{0}]: [{1}] in [{2}] ms.",
+                        result.getPairing().getRemoteVcServer().getName(),
+                        result.getValue(),
+                        result.getDurationInMs());
+         } else {
+            failed++;
+            toSystemOut("Pairing with [{0}] failed after [{1}] ms: {2}",
+                        result.getPairing().getRemoteVcServer().getName(),
+                        result.getDurationInMs(),
+                        result.getFailure().getMessage());
+         }
+         slowestInMs = Math.max(slowestInMs, result.getDurationInMs());
+         sumInMs += result.getDurationInMs();
+      }
+      toSystemOut("[{0}] pairings, [{1}] failed, in [{2}] ms. The slowest pairing took [{3}] ms, "
+                  + "all pairings in sequence [{4}] ms.",
+                  results.size(),
+                  failed,
+                  wallTimeInMs,
+                  slowestInMs,
+                  sumInMs);
+   }
+
+   @Override
+   public void close() {
+      this.executor.shutdownNow();
+   }
+
+   private <T> Result<T> runPairing(Pairing pairing, BiFunction<Pairing, FanOutExecutor, T> work) {
+      long start = System.nanoTime();
+      try (FanOutExecutor fanOut = new FanOutExecutor(this.mode, this.maxConcurrentRequestsPerPairing)) {
+         fanOut.call(() -> {
+            this.pairingLibrary.callRemoteLogin(pairing.getPairingId().toString(),
+                                                this.remoteUsername,
+                                                this.remotePassword);
+            return null;
+         });
+         T value = work.apply(pairing, fanOut);
+
+         return new Result<>(pairing, value, null, elapsedInMs(start));
+      } catch (RuntimeException e) {
+         return new Result<>(pairing, null, e, elapsedInMs(start));
+      }
+   }
+
+   private static long elapsedInMs(long startNanos) {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+   }
+}
@@ -0,0 +1,176 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.apiclient.vr.model.*;
+import dr.restapi.examples.vsphere.replication.exceptions.EnvironmentPrerequisiteException;
+
+import java.util.*;
+
+/**
+ * Spreads the targets of new replications over all usable vSphere Replication Servers (VRS) and datastores.
+ * <p>Servers are assigned to VMs one by one, always to the server with the fewest replications, counting the
+ * replications it already has. Datastores are assigned with a worst-fit decreasing bin packing: the largest VMs are
+ * placed first, each one on the datastore with the most free space left, so the replicas end up spread over all
+ * datastores instead of filling them one after another. All disks of a VM go to the same datastore.
+ * <p>Only connected, not decommissioned servers without a fault and only accessible datastores outside of
+ * maintenance mode, which are compliant with the target storage policy, are used.
+ */
+public class ReplicationPlacement {
+   private static final String MAINTENANCE_MODE_NORMAL = "normal";
+   private static final long BYTES_PER_KB = 1024L;
+
+   /**
+    * The target server and datastore chosen for one VM.
+    */
+   public static final class Target {
+      private final ReplicationServerInfo replicationServer;
+      private final Datastore datastore;
+
+      Target(ReplicationServerInfo replicationServer, Datastore datastore) {
+         this.replicationServer = replicationServer;
+         this.datastore = datastore;
+      }
+
+      public ReplicationServerInfo getReplicationServer() {
+         return replicationServer;
+      }
+
+      public Datastore getDatastore() {
+         return datastore;
+      }
+   }
+
+   private static final class ServerLoad {
+      private final ReplicationServerInfo server;
+      private int replications;
+
+      private ServerLoad(ReplicationServerInfo server) {
+         this.server = server;
+         this.replications = server.getReplicationCount() != null ? server.getReplicationCount() : 0;
+      }
+   }
+
+   private static final class DatastoreSpace {
+      private final Datastore datastore;
+      private long available;
+
+      private DatastoreSpace(Datastore datastore, long reservedBytes) {
+         this.datastore = datastore;
+         this.available = (datastore.getFreeSpace() != null ? datastore.getFreeSpace() : 0L) - reservedBytes;
+      }
+   }
+
+   private final PriorityQueue<ServerLoad> servers =
+         new PriorityQueue<>(Comparator.comparingInt((ServerLoad load) -> load.replications)
+                                       .thenComparing(load -> load.server.getName(),
+                                                      Comparator.nullsLast(Comparator.naturalOrder())));
+   private final PriorityQueue<DatastoreSpace> datastores =
+         new PriorityQueue<>(Comparator.comparingLong((DatastoreSpace space) -> space.available).reversed());
+
+   /**
+    * Constructor.
+    * @param replicationServers all replication servers at the target site
+    * @param candidateDatastores all VR capable datastores at the target site
+    * @param compliance result of the compliance check of the candidate datastores against the target storage policy,
+    *                   or null when the default storage policy is used
+    * @param freeSpaceReservePercent percentage of the capacity of each datastore which must stay free
+    * @throws EnvironmentPrerequisiteException when no server or no datastore can be used
+    */
+   public ReplicationPlacement(List<ReplicationServerInfo> replicationServers,
+                               List<Datastore> candidateDatastores,
+                               List<StoragePolicyComplianceCheckData> compliance,
+                               int freeSpaceReservePercent) {
+      for (ReplicationServerInfo server : replicationServers) {
+         if (Boolean.TRUE.equals(server.isConnected()) &&
+             !Boolean.TRUE.equals(server.isDecommissioned()) &&
+             server.getFault() == null) {
+            this.servers.add(new ServerLoad(server));
+         }
+      }
+      if (this.servers.isEmpty()) {
+         throw new EnvironmentPrerequisiteException("No connected vSphere Replication Server is found.");
+      }
+
+      Set<String> compliantDatastoreIds = null;
+      if (compliance != null) {
+         compliantDatastoreIds = new HashSet<>();
+         for (StoragePolicyComplianceCheckData check : compliance) {
+            if (Boolean.TRUE.equals(check.isCompliant())) {
+               compliantDatastoreIds.add(check.getDatastore());
+            }
+         }
+      }
+
+      for (Datastore datastore : candidateDatastores) {
+         boolean usable = !Boolean.FALSE.equals(datastore.isAccessible()) &&
+                          (datastore.getMaintenanceMode() == null ||
+                           MAINTENANCE_MODE_NORMAL.equalsIgnoreCase(datastore.getMaintenanceMode())) &&
+                          (compliantDatastoreIds == null || compliantDatastoreIds.contains(datastore.getId()));
+         if (usable) {
+            long capacity = datastore.getCapacity() != null ? datastore.getCapacity() : 0L;
+            this.datastores.add(new DatastoreSpace(datastore, capacity / 100 * freeSpaceReservePercent));
+         }
+      }
+      if (this.datastores.isEmpty()) {
+         throw new EnvironmentPrerequisiteException(
+               "No accessible datastore compliant with the target storage policy is found.");
+      }
+   }
+
+   /**
+    * Choose a target server and datastore for each VM.
+    * @param vms VMs to replicate, with their disks
+    * @return targets by VM ID, in the order of {@code vms}
+    * @throws EnvironmentPrerequisiteException when a VM does not fit on any datastore
+    */
+   public Map<String, Target> place(List<VirtualMachine> vms) {
+      List<VirtualMachine> bySize = new ArrayList<>(vms);
+      bySize.sort(Comparator.comparingLong(ReplicationPlacement::sizeInBytes).reversed());
+
+      Map<String, Target> placed = new HashMap<>();
+      for (VirtualMachine vm : bySize) {
+         long size = sizeInBytes(vm);
+
+         DatastoreSpace datastore = this.datastores.peek();
+         if (datastore.available < size) {
+            throw new EnvironmentPrerequisiteException(
+                  "VM with name [{0}] does not fit on any target datastore. Required [{1}] bytes.",
+                  vm.getName(),
+                  size);
+         }
+         this.datastores.poll();
+         datastore.available -= size;
+         this.datastores.add(datastore);
+
+         ServerLoad server = this.servers.poll();
+         server.replications++;
+         this.servers.add(server);
+
+         placed.put(vm.getId(), new Target(server.server, datastore.datastore));
+      }
+
+      Map<String, Target> targets = new LinkedHashMap<>();
+      for (VirtualMachine vm : vms) {
+         targets.put(vm.getId(), placed.get(vm.getId()));
+      }
+
+      return targets;
+   }
+
+   /**
+    * Return the total capacity of the disks of a VM. The disk capacity is in KB, the datastore space is in bytes.
+    * @param vm VM with its disks
+    * @return capacity in bytes
+    */
+   static long sizeInBytes(VirtualMachine vm) {
+      long size = 0;
+      if (vm.getDisks() != null) {
+         for (VmDisk disk : vm.getDisks()) {
+            size += disk.getCapacity() != null ? disk.getCapacity() * BYTES_PER_KB : 0L;
+         }
+      }
+
+      return size;
+   }
+}
@@ -0,0 +1,525 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.model.*;
+import dr.restapi.examples.apiclient.vr.model.ConfigureReplicationVmDisk.DestinationDiskFormatEnum;
+import dr.restapi.examples.vsphere.replication.exceptions.EnvironmentPrerequisiteException;
+import dr.restapi.examples.vsphere.replication.libraries.PairingLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.ReplicationLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.TasksLibrary;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Plans new replications from an {@link InventorySnapshot}, without contacting the servers, and executes a plan with
+ * as few requests as possible.
+ * <p>{@link #plan(List, String, String, boolean, long)} builds the configure replication specs the same way as a live
+ * run, validates them against the snapshot (VM capabilities, storage policy compliance, free space of the target
+ * datastores, state of the replication servers) and estimates the requests and the duration of the execution from
+ * the latencies recorded in the snapshot. {@link #execute(ApiClient, FanOutExecutor, Plan, String, String)} then
+ * needs only the remote login, one configure replication request and the task polls, since the inventory is already
+ * known; it records the latencies it measures, so that the next estimate is closer.
+ */
+public class ReplicationPlanner {
+   /**
+    * Name of the recorded latency of a configure replication task, from its start to its completion.
+    */
+   public static final String CONFIGURE_REPLICATION_TASK = "Task.configureReplication";
+
+   private static final String LOGIN = "AuthenticationApi.login";
+   private static final String REMOTE_LOGIN = "PairingApi.createRemoteSession";
+   private static final String CONFIGURE_REPLICATION = "ReplicationApi.configureReplication";
+   private static final String GET_TASK_INFO = "TasksApi.getTaskInfo";
+   private static final String LOGOUT = "AuthenticationApi.logout";
+
+   /**
+    * Sends one request of the execution, e.g. to retry it with a renewed session.
+    */
+   public interface RequestSender {
+      <T> T send(Supplier<T> request);
+   }
+
+   /**
+    * Replication specs with the result of their offline validation and the estimate of their execution.
+    */
+   public static final class Plan {
+      private final List<ConfigureReplicationSpec> specs = new ArrayList<>();
+      private final List<String> problems = new ArrayList<>();
+      private final Map<String, Integer> requestCounts = new LinkedHashMap<>();
+      private final Set<String> unknownLatencies = new TreeSet<>();
+      private long estimatedDurationInMs;
+
+      public List<ConfigureReplicationSpec> getSpecs() {
+         return specs;
+      }
+
+      public List<String> getProblems() {
+         return problems;
+      }
+
+      /**
+       * Whether the plan can be executed.
+       * @return true when there are specs and the validation found no problem
+       */
+      public boolean isValid() {
+         return problems.isEmpty() && !specs.isEmpty();
+      }
+
+      /**
+       * Return the number of requests of the execution by request name.
+       * @return request counts
+       */
+      public Map<String, Integer> getRequestCounts() {
+         return requestCounts;
+      }
+
+      /**
+       * Return the estimated duration of the execution. Requests without a recorded latency are not included,
+       * see {@link #getUnknownLatencies()}.
+       * @return estimated duration in milliseconds
+       */
+      public long getEstimatedDurationInMs() {
+         return estimatedDurationInMs;
+      }
+
+      public Set<String> getUnknownLatencies() {
+         return unknownLatencies;
+      }
+
+      /**
+       * Print the specs, the problems and the estimate.
+       */
+      public void print() {
+         for (ConfigureReplicationSpec spec : specs) {
+            toSystemOut("VM [{0}]: [{1}] disks, RPO [{2}] minutes, replication server [{3}], datastore [{4}].",
+                        spec.getVmId(),
+                        spec.getDisks().size(),
+                        spec.getRpo(),
+                        spec.getTargetReplicationServerId(),
+                        spec.getDisks().isEmpty() ? null : spec.getDisks().get(0).getDestinationDatastoreId());
+         }
+         for (String problem : problems) {
+            toSystemOut("Problem: {0}", problem);
+         }
+         int requests = 0;
+         for (Map.Entry<String, Integer> requestCount : requestCounts.entrySet()) {
+            toSystemOut("Request [{0}]: [{1}] times.", requestCount.getKey(), requestCount.getValue());
+            requests += requestCount.getValue();
+         }
+         toSystemOut("[{0}] specs, [{1}] problems, [{2}] requests, estimated duration [{3}] ms.",
+                     specs.size(),
+                     problems.size(),
+                     requests,
+                     estimatedDurationInMs);
+         if (!unknownLatencies.isEmpty()) {
+            toSystemOut("No latency is recorded for {0}, the estimate does not include them.", unknownLatencies);
+         }
+      }
+   }
+
+   private final InventorySnapshot snapshot;
+   private final int freeSpaceReservePercent;
+   private final long taskPollIntervalInMs;
+
+   /**
+    * Constructor.
+    * @param snapshot inventory snapshot of the pairing
+    * @param freeSpaceReservePercent percentage of the capacity of each datastore which must stay free
+    * @param taskPollIntervalInMs delay between two polls of a task
+    */
+   public ReplicationPlanner(InventorySnapshot snapshot, int freeSpaceReservePercent, long taskPollIntervalInMs) {
+      this.snapshot = snapshot;
+      this.freeSpaceReservePercent = freeSpaceReservePercent;
+      this.taskPollIntervalInMs = taskPollIntervalInMs;
+   }
+
+   /**
+    * Build, validate and estimate the replication specs of VMs, using only the snapshot.
+    * @param vmNames names of the VMs to replicate
+    * @param storagePolicyName name of the target storage policy
+    * @param datastoreName name of the target datastore; not used with {@code balancedPlacement}
+    * @param balancedPlacement spread the VMs over all replication servers and compliant datastores, see
+    *                          {@link ReplicationPlacement}
+    * @param maxSnapshotAgeInMs age of the snapshot above which it is reported as a problem
+    * @return plan; specs are built for the VMs without a problem
+    */
+   public Plan plan(List<String> vmNames,
+                    String storagePolicyName,
+                    String datastoreName,
+                    boolean balancedPlacement,
+                    long maxSnapshotAgeInMs) {
+      Plan plan = new Plan();
+      long snapshotAgeInMs = System.currentTimeMillis() - this.snapshot.getCapturedAt();
+      if (snapshotAgeInMs > maxSnapshotAgeInMs) {
+         plan.problems.add(String.format("The inventory snapshot is %d ms old, more than %d ms.",
+                                         snapshotAgeInMs,
+                                         maxSnapshotAgeInMs));
+      }
+
+      List<VirtualMachine> vms = chooseVms(vmNames, plan.problems);
+      StoragePolicy storagePolicy = this.snapshot.getStoragePolicies()
+                                                 .stream()
+                                                 .filter(policy -> policy.getStoragePolicyName()
+                                                                         .equals(storagePolicyName))
+                                                 .findFirst()
+                                                 .orElse(null);
+      if (storagePolicy == null) {
+         plan.problems.add("Storage policy " + storagePolicyName + " does not exist on the remote site.");
+      } else if (!vms.isEmpty()) {
+         Map<String, ReplicationPlacement.Target> targets = balancedPlacement ?
+                                                            placeBalanced(vms, storagePolicy, plan.problems) :
+                                                            place(vms, storagePolicy, datastoreName, plan.problems);
+         for (VirtualMachine vm : vms) {
+            ReplicationPlacement.Target target = targets.get(vm.getId());
+            if (target != null) {
+               plan.specs.addAll(createVmsReplicationSpecs(this.snapshot.getPairing(),
+                                                           Collections.singletonList(vm),
+                                                           this.snapshot.getVmCapabilities(),
+                                                           target.getDatastore(),
+                                                           storagePolicy,
+                                                           target.getReplicationServer()));
+            }
+         }
+      }
+
+      estimate(plan);
+
+      return plan;
+   }
+
+   /**
+    * Execute a valid plan: create a remote session, configure all replications with one request and poll the tasks
+    * until they complete. The latencies of the requests and of the tasks are recorded in the snapshot.
+    * @param apiClient api client with a local session
+    * @param fanOut executor for the task polls
+    * @param plan valid plan
+    * @param remoteUsername username for the remote session
+    * @param remotePassword password for the remote session
+    * @return completed tasks
+    * @throws EnvironmentPrerequisiteException when the plan is not valid
+    */
+   public List<TaskDrResponseEntity> execute(ApiClient apiClient,
+                                             FanOutExecutor fanOut,
+                                             Plan plan,
+                                             String remoteUsername,
+                                             String remotePassword) {
+      if (!plan.isValid()) {
+         throw new EnvironmentPrerequisiteException("The plan has [{0}] problems and [{1}] specs, it is not executed.",
+                                                    plan.problems.size(),
+                                                    plan.specs.size());
+      }
+      PairingLibrary pairingLibrary = new PairingLibrary(apiClient);
+      String pairingId = this.snapshot.getPairing().getPairingId().toString();
+
+      this.snapshot.timed(REMOTE_LOGIN, () -> {
+         pairingLibrary.callRemoteLogin(pairingId, remoteUsername, remotePassword);
+         return null;
+      });
+
+      return execute(apiClient, fanOut, plan);
+   }
+
+   /**
+    * Execute a valid plan with an existing remote session: configure all replications with one request and poll the
+    * tasks until they complete. The latencies of the requests and of the tasks are recorded in the snapshot.
+    * @param apiClient api client with a local session and a remote session to the pairing
+    * @param fanOut executor for the task polls
+    * @param plan valid plan
+    * @return completed tasks
+    * @throws EnvironmentPrerequisiteException when the plan is not valid
+    */
+   public List<TaskDrResponseEntity> execute(ApiClient apiClient, FanOutExecutor fanOut, Plan plan) {
+      return execute(apiClient, fanOut, plan, Supplier::get);
+   }
+
+   /**
+    * Execute a valid plan with an existing remote session, sending each request, the configure replication request
+    * and every task poll, through {@code sender}.
+    * @param apiClient api client with a local session and a remote session to the pairing
+    * @param fanOut executor for the task polls
+    * @param plan valid plan
+    * @param sender sends one request
+    * @return completed tasks
+    * @throws EnvironmentPrerequisiteException when the plan is not valid
+    */
+   public List<TaskDrResponseEntity> execute(ApiClient apiClient,
+                                             FanOutExecutor fanOut,
+                                             Plan plan,
+                                             RequestSender sender) {
+      if (!plan.isValid()) {
+         throw new EnvironmentPrerequisiteException("The plan has [{0}] problems and [{1}] specs, it is not executed.",
+                                                    plan.problems.size(),
+                                                    plan.specs.size());
+      }
+      ReplicationLibrary replicationLibrary = new ReplicationLibrary(apiClient);
+      TasksLibrary tasksLibrary = new TasksLibrary(apiClient);
+      String pairingId = this.snapshot.getPairing().getPairingId().toString();
+
+      List<Task> tasks = sender.send(() -> this.snapshot.timed(
+            CONFIGURE_REPLICATION,
+            () -> replicationLibrary.callConfigureReplication(pairingId, plan.specs)));
+
+      List<CompletableFuture<TaskDrResponseEntity>> completions = new ArrayList<>();
+      for (Task task : tasks) {
+         completions.add(fanOut.submit(() -> fanOut.poll(
+               () -> sender.send(() -> this.snapshot.timed(GET_TASK_INFO,
+                                                           () -> tasksLibrary.callGetTaskInfo(task.getId()))),
+               TasksLibrary::isCompleted,
+               this.taskPollIntervalInMs)));
+      }
+      List<TaskDrResponseEntity> taskInfos = FanOutExecutor.joinAll(completions);
+      for (TaskDrResponseEntity taskInfo : taskInfos) {
+         if (taskInfo.getStartTime() != null && taskInfo.getCompleteTime() != null) {
+            this.snapshot.recordLatency(CONFIGURE_REPLICATION_TASK,
+                                        taskInfo.getCompleteTime() - taskInfo.getStartTime());
+         }
+      }
+
+      return taskInfos;
+   }
+
+   /**
+    * Create configure replication specs for VMs which all replicate to the same server and datastore.
+    * @param pairing pairing
+    * @param vmsToReplication VMs with their disks
+    * @param vmCapabilitiesByVmId capabilities of the VMs by VM ID
+    * @param targetDatastore target datastore
+    * @param targetStoragePolicy target storage policy; the default one has no ID
+    * @param targetVRServer target replication server
+    * @return one spec per VM
+    */
+   public static List<ConfigureReplicationSpec> createVmsReplicationSpecs(
+         Pairing pairing,
+         List<VirtualMachine> vmsToReplication,
+         Map<String, VmCapabilitiesDrResponseEntity> vmCapabilitiesByVmId,
+         Datastore targetDatastore,
+         StoragePolicy targetStoragePolicy,
+         ReplicationServerInfo targetVRServer) {
+      List<ConfigureReplicationSpec> replicationSpecs = new ArrayList<>();
+
+      for (VirtualMachine vmToReplication : vmsToReplication) {
+         // VM capabilities can be used to verify if a VM supports a given setting,
+         // but it's not always correct to use those as default values.
+         // There are different considerations for each of those.
+         VmCapabilitiesDrResponseEntity vmCapabilities = vmCapabilitiesByVmId.get(vmToReplication.getId());
+
+         ConfigureReplicationSpec spec = new ConfigureReplicationSpec();
+         spec.setAutoReplicateNewDisks(vmCapabilities.isAutoReplicateNewDisksSupported());
+         spec.setRpo(vmCapabilities.getMinRpoMins() + 10L);
+         spec.lwdEncryptionEnabled(vmCapabilities.isLwdEncryptionSupported());
+         spec.setMpitDays(0);
+         spec.setMpitEnabled(false); // can be also vmCapabilities.isMpitSupported()
+         spec.setMpitInstances(0);
+         spec.networkCompressionEnabled(vmCapabilities.isNetworkCompressionSupported());
+         spec.setQuiesceEnabled(vmCapabilities.isQuiescingSupported());
+         spec.setVmDataSetsReplicationEnabled(false);
+         spec.setTargetReplicationServerId(targetVRServer.getId());
+         spec.setVmId(vmToReplication.getId());
+         spec.setTargetVcId(pairing.getRemoteVcServer().getId().toString());
+
+         List<ConfigureReplicationVmDisk> diskSpecs =
+               createVmDiskSpecs(vmToReplication, targetDatastore, targetStoragePolicy);
+         spec.setDisks(diskSpecs);
+
+         replicationSpecs.add(spec);
+      }
+
+      return replicationSpecs;
+   }
+
+   private static List<ConfigureReplicationVmDisk> createVmDiskSpecs(VirtualMachine vm,
+                                                                     Datastore targetDatastore,
+                                                                     StoragePolicy targetStoragePolicy) {
+
+      List<ConfigureReplicationVmDisk> diskSpecs = new ArrayList<>();
+
+      for (VmDisk vmDisk : vm.getDisks()) {
+         ConfigureReplicationVmDisk diskSpec = new ConfigureReplicationVmDisk();
+         diskSpec.setDestinationDatastoreId(targetDatastore.getId());
+         diskSpec.setDestinationDiskFormat(DestinationDiskFormatEnum.SAME_AS_SOURCE);
+         diskSpec.setEnabledForReplication(true);
+         diskSpec.setUseSeeds(false);
+         diskSpec.destinationPath(null);
+         diskSpec.setDestinationStoragePolicyId(targetStoragePolicy.getStoragePolicyId());
+         diskSpec.setVmDisk(vmDisk);
+
+         diskSpecs.add(diskSpec);
+      }
+
+      return diskSpecs;
+   }
+
+   /**
+    * Find the VMs in the snapshot and check their capabilities.
+    * @return the VMs which can be replicated
+    */
+   private List<VirtualMachine> chooseVms(List<String> vmNames, List<String> problems) {
+      List<VirtualMachine> vms = new ArrayList<>();
+      for (String vmName : vmNames) {
+         VirtualMachine vm = this.snapshot.getVms()
+                                          .stream()
+                                          .filter(localVm -> localVm.getName().equals(vmName))
+                                          .findFirst()
+                                          .orElse(null);
+         if (vm == null) {
+            problems.add("VM " + vmName + " does not exist on the local site or is not suitable for replication.");
+            continue;
+         }
+
+         VmCapabilitiesDrResponseEntity capabilities = this.snapshot.getVmCapabilities().get(vm.getId());
+         int problemCount = problems.size();
+         if (capabilities == null) {
+            problems.add("VM " + vmName + " has no capabilities in the inventory snapshot.");
+         } else {
+            if (capabilities.getVmValidationStatus() != null &&
+                capabilities.getVmValidationStatus() != VmCapabilities.VmValidationStatusEnum.OK) {
+               problems.add("VM " + vmName + " can not be replicated: " + capabilities.getVmValidationStatus());
+            }
+            if (capabilities.getReplicationNotSupportedReasons() != null &&
+                !capabilities.getReplicationNotSupportedReasons().isEmpty()) {
+               problems.add("VM " + vmName + " can not be replicated: "
+                            + capabilities.getReplicationNotSupportedReasons());
+            }
+         }
+         if (vm.getDisks() != null) {
+            for (VmDisk disk : vm.getDisks()) {
+               if (Boolean.FALSE.equals(disk.isSupportedForReplication())) {
+                  problems.add("Disk " + disk.getLabel() + " of VM " + vmName + " can not be replicated.");
+               }
+            }
+         }
+         if (problems.size() == problemCount) {
+            vms.add(vm);
+         }
+      }
+
+      return vms;
+   }
+
+   private Map<String, ReplicationPlacement.Target> placeBalanced(List<VirtualMachine> vms,
+                                                                  StoragePolicy storagePolicy,
+                                                                  List<String> problems) {
+      List<StoragePolicyComplianceCheckData> compliance =
+            this.snapshot.getCompliance(storagePolicy.getStoragePolicyId());
+      if (storagePolicy.getStoragePolicyId() != null && compliance == null) {
+         problems.add("The compliance with storage policy " + storagePolicy.getStoragePolicyName()
+                      + " is not in the inventory snapshot.");
+         return Collections.emptyMap();
+      }
+      try {
+         return new ReplicationPlacement(this.snapshot.getReplicationServers(),
+                                         this.snapshot.getDatastores(),
+                                         compliance,
+                                         this.freeSpaceReservePercent).place(vms);
+      } catch (EnvironmentPrerequisiteException ex) {
+         problems.add(ex.getMessage());
+         return Collections.emptyMap();
+      }
+   }
+
+   private Map<String, ReplicationPlacement.Target> place(List<VirtualMachine> vms,
+                                                          StoragePolicy storagePolicy,
+                                                          String datastoreName,
+                                                          List<String> problems) {
+      Datastore datastore = this.snapshot.getDatastores()
+                                         .stream()
+                                         .filter(candidate -> candidate.getName().equals(datastoreName))
+                                         .findFirst()
+                                         .orElse(null);
+      ReplicationServerInfo server = this.snapshot.getReplicationServers()
+                                                  .stream()
+                                                  .filter(ReplicationPlanner::isUsable)
+                                                  .findFirst()
+                                                  .orElse(null);
+      if (datastore == null) {
+         problems.add("Datastore " + datastoreName + " does not exist on the remote site.");
+      }
+      if (server == null) {
+         problems.add("No connected replication server is found on the remote site.");
+      }
+      if (datastore == null || server == null) {
+         return Collections.emptyMap();
+      }
+
+      if (storagePolicy.getStoragePolicyId() != null) {
+         List<StoragePolicyComplianceCheckData> compliance =
+               this.snapshot.getCompliance(storagePolicy.getStoragePolicyId());
+         boolean compliant = compliance != null &&
+                             compliance.stream()
+                                       .anyMatch(check -> datastore.getId().equals(check.getDatastore()) &&
+                                                          Boolean.TRUE.equals(check.isCompliant()));
+         if (!compliant) {
+            problems.add("Datastore " + datastoreName + " is not compliant with storage policy "
+                         + storagePolicy.getStoragePolicyName() + ".");
+         }
+      }
+
+      long required = 0;
+      Map<String, ReplicationPlacement.Target> targets = new LinkedHashMap<>();
+      for (VirtualMachine vm : vms) {
+         required += ReplicationPlacement.sizeInBytes(vm);
+         targets.put(vm.getId(), new ReplicationPlacement.Target(server, datastore));
+      }
+      long capacity = datastore.getCapacity() != null ? datastore.getCapacity() : 0L;
+      long available = (datastore.getFreeSpace() != null ? datastore.getFreeSpace() : 0L)
+                       - capacity / 100 * this.freeSpaceReservePercent;
+      if (required > available) {
+         problems.add(String.format("Datastore %s has %d bytes available, the VMs need %d bytes.",
+                                    datastoreName,
+                                    available,
+                                    required));
+      }
+
+      return targets;
+   }
+
+   /**
+    * Count the requests of {@link #execute(ApiClient, FanOutExecutor, Plan, String, String)}, including login and
+    * logout, and estimate its duration. The tasks are polled concurrently, so they add the duration of one task.
+    */
+   private void estimate(Plan plan) {
+      int tasks = plan.specs.size();
+      Long taskDurationInMs = this.snapshot.getLatency(CONFIGURE_REPLICATION_TASK);
+      int pollsPerTask = taskDurationInMs != null ? (int) (taskDurationInMs / this.taskPollIntervalInMs) + 1 : 1;
+
+      plan.requestCounts.put(LOGIN, 1);
+      plan.requestCounts.put(REMOTE_LOGIN, 1);
+      plan.requestCounts.put(CONFIGURE_REPLICATION, 1);
+      plan.requestCounts.put(GET_TASK_INFO, tasks * pollsPerTask);
+      plan.requestCounts.put(LOGOUT, 1);
+
+      long duration = 0;
+      for (String request : Arrays.asList(LOGIN, REMOTE_LOGIN, CONFIGURE_REPLICATION, LOGOUT)) {
+         duration += latency(request, plan);
+      }
+      if (tasks > 0) {
+         if (taskDurationInMs == null) {
+            plan.unknownLatencies.add(CONFIGURE_REPLICATION_TASK);
+         }
+         duration += (pollsPerTask - 1) * this.taskPollIntervalInMs + pollsPerTask * latency(GET_TASK_INFO, plan);
+      }
+      plan.estimatedDurationInMs = duration;
+   }
+
+   private long latency(String request, Plan plan) {
+      Long latency = this.snapshot.getLatency(request);
+      if (latency == null) {
+         plan.unknownLatencies.add(request);
+         return 0;
+      }
+
+      return latency;
+   }
+
+   private static boolean isUsable(ReplicationServerInfo server) {
+      return !Boolean.FALSE.equals(server.isConnected()) &&
+             !Boolean.TRUE.equals(server.isDecommissioned()) &&
+             server.getFault() == null;
+   }
+}
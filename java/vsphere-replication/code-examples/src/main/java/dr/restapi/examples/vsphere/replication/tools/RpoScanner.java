@@ -0,0 +1,320 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.ApiException;
+import dr.restapi.examples.apiclient.vr.model.CompoundReplicationStatus.StatusEnum;
+import dr.restapi.examples.apiclient.vr.model.CompoundReplicationStatus;
+import dr.restapi.examples.apiclient.vr.model.ReplicationInfo;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.ReplicationLibrary;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Scans the replications of a pairing for status and RPO changes.
+ * <p>A full scan requests all pages concurrently, sized by the replication count, and processes every page as soon as
+ * it arrives. A sweep only requests the replications that currently violate their RPO plus the ones that violated it
+ * in the previous sweep, which is a small part of the full listing; it falls back to a full scan when the replication
+ * count changes and every {@code fullScanEvery} sweeps, which also picks up status changes outside of RPO violations.
+ * <p>All pages are sorted by replication ID, so concurrent pages neither overlap nor skip replications.
+ * <p>The last seen state is kept in primitive arrays indexed by a slot number per replication, not as
+ * {@link ReplicationInfo} objects, so tens of thousands of replications take a few bytes each.
+ */
+public class RpoScanner implements AutoCloseable {
+   private static final String RPO_VIOLATION_FILTER_PROPERTY = "status.rpoViolation";
+   private static final String SORT_BY_ID = "id";
+   private static final int NOT_FOUND = 404;
+   private static final StatusEnum[] STATUSES = StatusEnum.values();
+
+   /**
+    * A change of the status or the RPO of one replication.
+    */
+   public static final class RpoChange {
+      /**
+       * Kind of change.
+       */
+      public enum Type {
+         ADDED, CHANGED, REMOVED
+      }
+
+      private final Type type;
+      private final String replicationId;
+      private final String name;
+      private final StatusEnum previousStatus;
+      private final StatusEnum status;
+      private final long rpo;
+      private final boolean rpoViolation;
+      private final Long currentRpoViolation;
+
+      private RpoChange(Type type,
+                        String replicationId,
+                        String name,
+                        StatusEnum previousStatus,
+                        StatusEnum status,
+                        long rpo,
+                        boolean rpoViolation,
+                        Long currentRpoViolation) {
+         this.type = type;
+         this.replicationId = replicationId;
+         this.name = name;
+         this.previousStatus = previousStatus;
+         this.status = status;
+         this.rpo = rpo;
+         this.rpoViolation = rpoViolation;
+         this.currentRpoViolation = currentRpoViolation;
+      }
+
+      public Type getType() {
+         return type;
+      }
+
+      public String getReplicationId() {
+         return replicationId;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public StatusEnum getPreviousStatus() {
+         return previousStatus;
+      }
+
+      public StatusEnum getStatus() {
+         return status;
+      }
+
+      public long getRpo() {
+         return rpo;
+      }
+
+      public boolean isRpoViolation() {
+         return rpoViolation;
+      }
+
+      public Long getCurrentRpoViolation() {
+         return currentRpoViolation;
+      }
+
+      @Override
+      public String toString() {
+         return type + " " + (name != null ? name : replicationId) + " " + previousStatus + " -> " + status +
+                ", RPO " + rpo + " min" + (rpoViolation ? ", violated by " + currentRpoViolation + " min" : "");
+      }
+   }
+
+   private final ReplicationLibrary replicationLibrary;
+   private final String pairingId;
+   private final int pageSize;
+   private final int fullScanEvery;
+   private final ExecutorService executor;
+
+   // slot per replication ID; the arrays below are indexed by slot
+   private final Map<String, Integer> slots = new HashMap<>();
+   private String[] ids = new String[0];
+   private byte[] statuses = new byte[0];
+   private long[] rpos = new long[0];
+   private boolean[] violations = new boolean[0];
+   private BitSet present = new BitSet();
+   private BitSet seen = new BitSet();
+
+   private long lastCount = -1;
+   private int sweeps;
+
+   /**
+    * Constructor.
+    * @param apiClient api client with a remote session to the pairing
+    * @param pairingId pairing ID
+    * @param pageSize number of replications per request
+    * @param parallelism maximum number of concurrent page requests in a full scan
+    * @param fullScanEvery number of sweeps after which a full scan is done
+    */
+   public RpoScanner(ApiClient apiClient, String pairingId, int pageSize, int parallelism, int fullScanEvery) {
+      this.replicationLibrary = new ReplicationLibrary(apiClient);
+      this.pairingId = pairingId;
+      this.pageSize = pageSize;
+      this.fullScanEvery = fullScanEvery;
+      this.executor = Executors.newFixedThreadPool(parallelism);
+   }
+
+   /**
+    * Request all replications and emit every change since the previous scan, including removed replications.
+    * @param listener consumer receiving the changes
+    * @return number of replications
+    */
+   public synchronized long fullScan(Consumer<RpoChange> listener) {
+      long count = this.replicationLibrary.callGetReplicationsCount(this.pairingId);
+      int pages = (int) ((count + this.pageSize - 1) / this.pageSize);
+
+      this.seen = new BitSet(this.ids.length);
+      CompletionService<List<ReplicationInfo>> completionService = new ExecutorCompletionService<>(this.executor);
+      for (int page = 0; page < pages; page++) {
+         int offset = page * this.pageSize;
+         completionService.submit(() -> this.replicationLibrary.callGetAllReplications(this.pairingId,
+                                                                                       null,
+                                                                                       null,
+                                                                                       SORT_BY_ID,
+                                                                                       this.pageSize,
+                                                                                       offset,
+                                                                                       true));
+      }
+
+      // the last page is short unless replications were added during the scan; the next scan picks those up
+      for (int page = 0; page < pages; page++) {
+         for (ReplicationInfo replication : take(completionService)) {
+            update(replication, listener);
+         }
+      }
+
+      BitSet removed = (BitSet) this.present.clone();
+      removed.andNot(this.seen);
+      for (int slot = removed.nextSetBit(0); slot >= 0; slot = removed.nextSetBit(slot + 1)) {
+         remove(slot, listener);
+      }
+
+      this.lastCount = count;
+      return count;
+   }
+
+   /**
+    * Emit the changes since the previous scan or sweep, requesting as little as possible.
+    * @param listener consumer receiving the changes
+    */
+   public synchronized void sweep(Consumer<RpoChange> listener) {
+      this.sweeps++;
+      if (this.lastCount < 0 || this.sweeps % this.fullScanEvery == 0 ||
+          this.replicationLibrary.callGetReplicationsCount(this.pairingId) != this.lastCount) {
+         fullScan(listener);
+         return;
+      }
+
+      this.seen = new BitSet(this.ids.length);
+      int offset = 0;
+      List<ReplicationInfo> page;
+      do {
+         page = this.replicationLibrary.callGetAllReplications(this.pairingId,
+                                                               RPO_VIOLATION_FILTER_PROPERTY,
+                                                               Collections.singletonList("true"),
+                                                               SORT_BY_ID,
+                                                               this.pageSize,
+                                                               offset,
+                                                               true);
+         for (ReplicationInfo replication : page) {
+            update(replication, listener);
+         }
+         offset += page.size();
+      } while (page.size() == this.pageSize);
+
+      // replications that violated the RPO before but are not in the violating list any more; a deleted one is removed
+      for (int slot = 0; slot < this.ids.length; slot++) {
+         if (this.present.get(slot) && this.violations[slot] && !this.seen.get(slot)) {
+            ReplicationInfo replication;
+            try {
+               replication = this.replicationLibrary.callGetReplicationInfo(this.pairingId, this.ids[slot]);
+            } catch (ExamplesExecutionException ex) {
+               if (!(ex.getCause() instanceof ApiException) || ((ApiException) ex.getCause()).getCode() != NOT_FOUND) {
+                  throw ex;
+               }
+               remove(slot, listener);
+               continue;
+            }
+            update(replication, listener);
+         }
+      }
+   }
+
+   /**
+    * Number of replications currently violating their RPO.
+    * @return number of replications
+    */
+   public synchronized int getViolationCount() {
+      int count = 0;
+      for (int slot = this.present.nextSetBit(0); slot >= 0; slot = this.present.nextSetBit(slot + 1)) {
+         if (this.violations[slot]) {
+            count++;
+         }
+      }
+
+      return count;
+   }
+
+   @Override
+   public void close() {
+      this.executor.shutdownNow();
+   }
+
+   private void remove(int slot, Consumer<RpoChange> listener) {
+      listener.accept(new RpoChange(RpoChange.Type.REMOVED, this.ids[slot], null, status(slot), null,
+                                    this.rpos[slot], false, null));
+      this.present.clear(slot);
+      this.slots.remove(this.ids[slot]);
+   }
+
+   private void update(ReplicationInfo replication, Consumer<RpoChange> listener) {
+      CompoundReplicationStatus compoundStatus = replication.getStatus();
+      StatusEnum status = compoundStatus != null ? compoundStatus.getStatus() : null;
+      boolean violation = compoundStatus != null && Boolean.TRUE.equals(compoundStatus.isRpoViolation());
+      long rpo = replication.getRpo() != null ? replication.getRpo() : 0L;
+
+      Integer slot = this.slots.get(replication.getId());
+      RpoChange.Type type = null;
+      StatusEnum previousStatus = null;
+      if (slot == null) {
+         slot = allocate(replication.getId());
+         type = RpoChange.Type.ADDED;
+      } else {
+         previousStatus = status(slot);
+         if (previousStatus != status || this.rpos[slot] != rpo || this.violations[slot] != violation) {
+            type = RpoChange.Type.CHANGED;
+         }
+      }
+
+      this.statuses[slot] = (byte) (status != null ? status.ordinal() + 1 : 0);
+      this.rpos[slot] = rpo;
+      this.violations[slot] = violation;
+      this.seen.set(slot);
+
+      if (type != null) {
+         listener.accept(new RpoChange(type, replication.getId(), replication.getName(), previousStatus, status, rpo,
+                                       violation, replication.getCurrentRpoViolation()));
+      }
+   }
+
+   private int allocate(String replicationId) {
+      int slot = this.present.nextClearBit(0);
+      if (slot >= this.ids.length) {
+         int capacity = Math.max(16, this.ids.length * 2);
+         this.ids = Arrays.copyOf(this.ids, capacity);
+         this.statuses = Arrays.copyOf(this.statuses, capacity);
+         this.rpos = Arrays.copyOf(this.rpos, capacity);
+         this.violations = Arrays.copyOf(this.violations, capacity);
+      }
+      this.ids[slot] = replicationId;
+      this.present.set(slot);
+      this.slots.put(replicationId, slot);
+
+      return slot;
+   }
+
+   private StatusEnum status(int slot) {
+      return this.statuses[slot] == 0 ? null : STATUSES[this.statuses[slot] - 1];
+   }
+
+   private static List<ReplicationInfo> take(CompletionService<List<ReplicationInfo>> completionService) {
+      try {
+         return completionService.take().get();
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof ExamplesExecutionException) {
+            throw (ExamplesExecutionException) ex.getCause();
+         }
+         throw new ExamplesExecutionException("Replication scan failed. {0}", ex.getCause().getMessage());
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new ExamplesExecutionException("Replication scan interrupted.");
+      }
+   }
+}
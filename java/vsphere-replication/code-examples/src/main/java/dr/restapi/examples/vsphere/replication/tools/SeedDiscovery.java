@@ -0,0 +1,160 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.model.*;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.ReplicationLibrary;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Finds existing copies of the disks of new replications on their target datastores and uses them as seeds.
+ * <p>The disks of the replication specs, except the VM home disks, are grouped by target datastore and sent in
+ * batches to the find-seeds request; all batches of all datastores run concurrently. A disk uses the seed in a folder
+ * named after the VM, if there is exactly one such seed, and is switched to {@code useSeeds} with the seed as
+ * destination path. This holds even when only one seed is found, since the wildcard search also finds copies of other
+ * disks. A seed is used by one disk at most. Any other disk is left for a full initial sync, since picking the wrong
+ * seed would replicate over an unrelated disk.
+ */
+public class SeedDiscovery implements AutoCloseable {
+   private final ReplicationLibrary replicationLibrary;
+   private final int batchSize;
+   private final ExecutorService executor;
+
+   /**
+    * Constructor.
+    * @param apiClient api client with a remote session to the pairing
+    * @param batchSize maximum number of disks per find-seeds request
+    * @param parallelism maximum number of concurrent find-seeds requests
+    */
+   public SeedDiscovery(ApiClient apiClient, int batchSize, int parallelism) {
+      this.replicationLibrary = new ReplicationLibrary(apiClient);
+      this.batchSize = batchSize;
+      this.executor = Executors.newFixedThreadPool(parallelism);
+   }
+
+   /**
+    * Look for seeds of all disks enabled for replication in {@code specs} and update the disks which have one.
+    * @param pairingId pairing ID
+    * @param targetVcId ID of the target VC
+    * @param specs configure replication specs; disks with a seed are updated in place
+    * @param vmNames names of the VMs by VM ID, used to match the seeds to the VMs
+    * @return number of disks which use a seed
+    */
+   public int applySeeds(String pairingId,
+                         UUID targetVcId,
+                         List<ConfigureReplicationSpec> specs,
+                         Map<String, String> vmNames) {
+      Map<String, List<ConfigureReplicationVmDisk>> disksByDatastore = new LinkedHashMap<>();
+      Map<String, ConfigureReplicationVmDisk> disksById = new HashMap<>();
+      for (ConfigureReplicationSpec spec : specs) {
+         for (ConfigureReplicationVmDisk disk : spec.getDisks()) {
+            // The destination path of the VM home disk must stay null, so it never uses a seed.
+            if (Boolean.TRUE.equals(disk.isEnabledForReplication())
+                && disk.getDestinationDatastoreId() != null
+                && !Boolean.TRUE.equals(disk.getVmDisk().isIsVmHome())) {
+               disksByDatastore.computeIfAbsent(disk.getDestinationDatastoreId(), key -> new ArrayList<>()).add(disk);
+               disksById.put(diskKey(disk.getVmDisk().getVmId(), disk.getVmDisk().getDeviceKey()), disk);
+            }
+         }
+      }
+
+      List<Future<List<VmDiskSeedInformation>>> futures = new ArrayList<>();
+      for (Map.Entry<String, List<ConfigureReplicationVmDisk>> datastoreDisks : disksByDatastore.entrySet()) {
+         List<ConfigureReplicationVmDisk> disks = datastoreDisks.getValue();
+         for (int from = 0; from < disks.size(); from += this.batchSize) {
+            List<VmDiskFindSeedSpec> batch = new ArrayList<>();
+            for (ConfigureReplicationVmDisk disk : disks.subList(from, Math.min(from + this.batchSize, disks.size()))) {
+               VmDiskIdentifier diskIdentifier = new VmDiskIdentifier();
+               diskIdentifier.setVmId(disk.getVmDisk().getVmId());
+               diskIdentifier.setDeviceKey(disk.getVmDisk().getDeviceKey());
+
+               VmDiskFindSeedSpec findSeedSpec = new VmDiskFindSeedSpec();
+               findSeedSpec.setVmDisk(diskIdentifier);
+               findSeedSpec.setUseWildcard(true);
+               batch.add(findSeedSpec);
+            }
+            futures.add(this.executor.submit(() -> this.replicationLibrary.callGetSeedsForDisks(pairingId,
+                                                                                               targetVcId,
+                                                                                               datastoreDisks.getKey(),
+                                                                                               batch)));
+         }
+      }
+
+      int seeded = 0;
+      Set<String> assignedSeeds = new HashSet<>();
+      for (Future<List<VmDiskSeedInformation>> future : futures) {
+         for (VmDiskSeedInformation seedInformation : get(future)) {
+            ConfigureReplicationVmDisk disk = disksById.get(diskKey(seedInformation.getVmDisk().getVmId(),
+                                                                    seedInformation.getVmDisk().getDeviceKey()));
+            String seed = disk != null ?
+                          chooseSeed(seedInformation.getFoundSeeds(), vmNames.get(disk.getVmDisk().getVmId())) :
+                          null;
+            if (seed != null && !assignedSeeds.add(disk.getDestinationDatastoreId() + '#' + seed)) {
+               toSystemOut("Seed [{0}] of disk [{1}] of VM [{2}] is already used by another disk.",
+                           seed,
+                           disk.getVmDisk().getLabel(),
+                           disk.getVmDisk().getVmId());
+            } else if (seed != null) {
+               disk.setUseSeeds(true);
+               disk.setDestinationPath(seed);
+               seeded++;
+
+               toSystemOut("Disk [{0}] of VM [{1}] uses seed [{2}].",
+                           disk.getVmDisk().getLabel(),
+                           disk.getVmDisk().getVmId(),
+                           seed);
+            }
+         }
+      }
+
+      return seeded;
+   }
+
+   @Override
+   public void close() {
+      this.executor.shutdownNow();
+   }
+
+   private static String chooseSeed(List<String> seeds, String vmName) {
+      if (seeds == null || vmName == null) {
+         return null;
+      }
+
+      String match = null;
+      for (String seed : seeds) {
+         if (seed.contains(vmName + "/")) {
+            if (match != null) {
+               return null;
+            }
+            match = seed;
+         }
+      }
+
+      return match;
+   }
+
+   private static String diskKey(String vmId, Integer deviceKey) {
+      return vmId + '#' + deviceKey;
+   }
+
+   private static List<VmDiskSeedInformation> get(Future<List<VmDiskSeedInformation>> future) {
+      try {
+         List<VmDiskSeedInformation> seeds = future.get();
+         return seeds != null ? seeds : Collections.emptyList();
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof ExamplesExecutionException) {
+            throw (ExamplesExecutionException) ex.getCause();
+         }
+         throw new ExamplesExecutionException("Seed discovery failed. {0}", ex.getCause().getMessage());
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new ExamplesExecutionException("Seed discovery interrupted.");
+      }
+   }
+}
@@ -0,0 +1,284 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import dr.restapi.examples.apiclient.ApiClient;
+import dr.restapi.examples.apiclient.vr.model.*;
+import dr.restapi.examples.vsphere.replication.exceptions.ExamplesExecutionException;
+import dr.restapi.examples.vsphere.replication.libraries.ReplicationLibrary;
+import dr.restapi.examples.vsphere.replication.libraries.TasksLibrary;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Runs sync-now for many replications without overloading the target replication servers and datastores.
+ * <p>The queue is ordered by RPO slack, the minutes left until a replication violates its RPO, so the replications
+ * closest to a violation go first; on equal slack the longer syncs go first, which shortens the total run.
+ * Replications with a sync in progress are skipped. A queued sync starts as soon as its target replication server
+ * and all its target datastores are below their limits, so a busy server does not hold back syncs to other servers.
+ * <p>Before starting, the run is simulated with the duration of the last sync of each replication to estimate
+ * the completion time.
+ */
+public class SyncScheduler implements AutoCloseable {
+   private static final long DEFAULT_SYNC_DURATION_IN_MS = 60_000L;
+
+   /**
+    * Result of a sync-now run.
+    */
+   public static final class Report {
+      private final Map<String, String> results = new LinkedHashMap<>();
+      private int skipped;
+      private long estimatedDurationInMs;
+      private long durationInMs;
+
+      /**
+       * Task status or error by replication name, in the order the syncs were started.
+       * @return results
+       */
+      public Map<String, String> getResults() {
+         return results;
+      }
+
+      public int getSkipped() {
+         return skipped;
+      }
+
+      public long getEstimatedDurationInMs() {
+         return estimatedDurationInMs;
+      }
+
+      public long getDurationInMs() {
+         return durationInMs;
+      }
+   }
+
+   private static final class SyncItem {
+      private final ReplicationInfo replication;
+      private final String server;
+      private final long slack;
+      private final long durationInMs;
+      private Set<String> datastores = Collections.emptySet();
+
+      private SyncItem(ReplicationInfo replication, long now) {
+         this.replication = replication;
+         this.server = replication.getTargetReplicationServerUuid() != null ?
+                       replication.getTargetReplicationServerUuid().toString() :
+                       replication.getReplicationServerName();
+         long rpo = replication.getRpo() != null ? replication.getRpo() : 0L;
+         long sinceLastSync = replication.getLastSyncTime() != null ?
+                              TimeUnit.MILLISECONDS.toMinutes(now - replication.getLastSyncTime()) :
+                              rpo;
+         this.slack = rpo - sinceLastSync;
+         this.durationInMs = replication.getLastSyncDuration() != null && replication.getLastSyncDuration() > 0 ?
+                             TimeUnit.SECONDS.toMillis(replication.getLastSyncDuration()) :
+                             DEFAULT_SYNC_DURATION_IN_MS;
+      }
+   }
+
+   private final ReplicationLibrary replicationLibrary;
+   private final TasksLibrary tasksLibrary;
+   private final String pairingId;
+   private final int maxPerServer;
+   private final int maxPerDatastore;
+   private final int maxConcurrent;
+   private final ExecutorService executor;
+
+   private final Map<String, Integer> running = new HashMap<>();
+   private int inFlight;
+
+   /**
+    * Constructor.
+    * @param apiClient api client with a remote session to the pairing
+    * @param pairingId pairing ID
+    * @param maxPerServer maximum number of concurrent syncs per target replication server
+    * @param maxPerDatastore maximum number of concurrent syncs per target datastore
+    * @param maxConcurrent maximum number of concurrent syncs overall
+    */
+   public SyncScheduler(ApiClient apiClient, String pairingId, int maxPerServer, int maxPerDatastore, int maxConcurrent) {
+      this.replicationLibrary = new ReplicationLibrary(apiClient);
+      this.tasksLibrary = new TasksLibrary(apiClient);
+      this.pairingId = pairingId;
+      this.maxPerServer = maxPerServer;
+      this.maxPerDatastore = maxPerDatastore;
+      this.maxConcurrent = maxConcurrent;
+      this.executor = Executors.newFixedThreadPool(maxConcurrent);
+   }
+
+   /**
+    * Sync all {@code replications} and wait until all syncs are completed.
+    * @param replications replications to sync, with extended info
+    * @return report of the run
+    */
+   public Report syncAll(List<ReplicationInfo> replications) {
+      Report report = new Report();
+      long now = System.currentTimeMillis();
+
+      List<SyncItem> queue = new ArrayList<>();
+      for (ReplicationInfo replication : replications) {
+         SyncProgressData syncProgress = replication.getSyncProgress();
+         if (syncProgress != null && syncProgress.getProgress() != null &&
+             syncProgress.getProgress() > 0 && syncProgress.getProgress() < 100) {
+            report.skipped++;
+            continue;
+         }
+         queue.add(new SyncItem(replication, now));
+      }
+      resolveDatastores(queue);
+      queue.sort(Comparator.comparingLong((SyncItem item) -> item.slack)
+                           .thenComparing(Comparator.comparingLong((SyncItem item) -> item.durationInMs).reversed()));
+
+      report.estimatedDurationInMs = estimate(queue);
+      toSystemOut("Syncing [{0}] replications, [{1}] skipped. Estimated completion in [{2}] seconds.",
+                  queue.size(),
+                  report.skipped,
+                  TimeUnit.MILLISECONDS.toSeconds(report.estimatedDurationInMs));
+
+      List<Future<?>> futures = new ArrayList<>();
+      LinkedList<SyncItem> pending = new LinkedList<>(queue);
+      synchronized (this) {
+         while (!pending.isEmpty()) {
+            SyncItem next = this.inFlight < this.maxConcurrent ? pollDispatchable(pending) : null;
+            if (next == null) {
+               try {
+                  wait();
+               } catch (InterruptedException ex) {
+                  Thread.currentThread().interrupt();
+                  throw new ExamplesExecutionException("Sync scheduling interrupted.");
+               }
+               continue;
+            }
+
+            acquire(next);
+            this.inFlight++;
+            report.results.put(next.replication.getName(), "QUEUED");
+            futures.add(this.executor.submit(() -> sync(next, report)));
+         }
+      }
+      for (Future<?> future : futures) {
+         try {
+            future.get();
+         } catch (ExecutionException ex) {
+            // the result of the sync is already recorded in the report
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ExamplesExecutionException("Sync scheduling interrupted.");
+         }
+      }
+
+      report.durationInMs = System.currentTimeMillis() - now;
+      return report;
+   }
+
+   @Override
+   public void close() {
+      this.executor.shutdownNow();
+   }
+
+   private void sync(SyncItem item, Report report) {
+      String result = "FAILED";
+      try {
+         TaskDrResponseEntity task =
+               this.replicationLibrary.callSyncReplication(this.pairingId, item.replication.getId());
+         result = String.valueOf(this.tasksLibrary.waitForTaskCompletion(task.getId()).getStatus());
+      } catch (ExamplesExecutionException ex) {
+         result = ex.getMessage();
+      } finally {
+         synchronized (this) {
+            report.results.put(item.replication.getName(), result);
+            release(item);
+            this.inFlight--;
+            notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Look up the target datastores of all queued replications concurrently.
+    */
+   private void resolveDatastores(List<SyncItem> queue) {
+      Map<SyncItem, Future<List<ReplicatedVmDisk>>> futures = new LinkedHashMap<>();
+      for (SyncItem item : queue) {
+         futures.put(item, this.executor.submit(() -> this.replicationLibrary.callGetReplicatedVmDisks(
+               this.pairingId,
+               item.replication.getId())));
+      }
+      for (Map.Entry<SyncItem, Future<List<ReplicatedVmDisk>>> future : futures.entrySet()) {
+         Set<String> datastores = new HashSet<>();
+         try {
+            for (ReplicatedVmDisk disk : future.getValue().get()) {
+               if (disk.getDestinationPath() != null && disk.getDestinationPath().getDatastoreId() != null) {
+                  datastores.add(disk.getDestinationPath().getDatastoreId());
+               }
+            }
+         } catch (ExecutionException ex) {
+            toSystemOut("Target datastores of replication [{0}] are unknown. {1}",
+                        future.getKey().replication.getName(),
+                        ex.getCause().getMessage());
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ExamplesExecutionException("Sync scheduling interrupted.");
+         }
+         future.getKey().datastores = datastores;
+      }
+   }
+
+   /**
+    * Simulate the run with the same limits and the duration of the last sync of each replication.
+    * @return estimated duration of the run in milliseconds
+    */
+   private long estimate(List<SyncItem> queue) {
+      LinkedList<SyncItem> pending = new LinkedList<>(queue);
+      PriorityQueue<Map.Entry<Long, SyncItem>> inFlight = new PriorityQueue<>(Map.Entry.comparingByKey());
+      long time = 0;
+
+      while (!pending.isEmpty() || !inFlight.isEmpty()) {
+         SyncItem next;
+         while (inFlight.size() < this.maxConcurrent && (next = pollDispatchable(pending)) != null) {
+            acquire(next);
+            inFlight.add(new AbstractMap.SimpleEntry<>(time + next.durationInMs, next));
+         }
+         Map.Entry<Long, SyncItem> done = inFlight.poll();
+         if (done == null) {
+            break;
+         }
+         time = done.getKey();
+         release(done.getValue());
+      }
+      this.running.clear();
+
+      return time;
+   }
+
+   private SyncItem pollDispatchable(LinkedList<SyncItem> pending) {
+      for (Iterator<SyncItem> iterator = pending.iterator(); iterator.hasNext(); ) {
+         SyncItem item = iterator.next();
+         boolean free = this.running.getOrDefault("vrs:" + item.server, 0) < this.maxPerServer;
+         for (String datastore : item.datastores) {
+            free = free && this.running.getOrDefault("ds:" + datastore, 0) < this.maxPerDatastore;
+         }
+         if (free) {
+            iterator.remove();
+            return item;
+         }
+      }
+
+      return null;
+   }
+
+   private void acquire(SyncItem item) {
+      this.running.merge("vrs:" + item.server, 1, Integer::sum);
+      for (String datastore : item.datastores) {
+         this.running.merge("ds:" + datastore, 1, Integer::sum);
+      }
+   }
+
+   private void release(SyncItem item) {
+      this.running.merge("vrs:" + item.server, -1, Integer::sum);
+      for (String datastore : item.datastores) {
+         this.running.merge("ds:" + datastore, -1, Integer::sum);
+      }
+   }
+}
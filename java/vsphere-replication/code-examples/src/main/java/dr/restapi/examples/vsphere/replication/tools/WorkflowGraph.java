@@ -0,0 +1,186 @@
+/* Copyright 2023 VMware, Inc. */
+/* SPDX-License-Identifier: BSD-2-Clause */
+package dr.restapi.examples.vsphere.replication.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static dr.restapi.examples.vsphere.replication.util.ClientUtils.toSystemOut;
+
+/**
+ * Runs a workflow as a graph of steps.
+ * Every step declares the steps whose results it uses, and it is started as soon as all of them have completed, so
+ * that independent steps run concurrently. A step is added after its inputs, therefore the graph has no cycles.
+ * After the run, the timing of every step and the critical path, the chain of steps which determined the duration of
+ * the workflow, can be reported.
+ */
+public class WorkflowGraph implements AutoCloseable {
+   /**
+    * A step of the workflow.
+    * @param <T> result type of the step
+    */
+   public static final class Step<T> {
+      private final String name;
+      private final Supplier<T> action;
+      private final List<Step<?>> inputs;
+      private CompletableFuture<T> future;
+      private long startNanos;
+      private long endNanos;
+
+      private Step(String name, Supplier<T> action, List<Step<?>> inputs) {
+         this.name = name;
+         this.action = action;
+         this.inputs = inputs;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      /**
+       * Returns the result of the step.
+       * A step may only use the results of the steps it declared as inputs, which have completed when it starts.
+       * @return result of the step
+       * @throws IllegalStateException when the step has not completed yet
+       */
+      public T get() {
+         if (future == null || !future.isDone()) {
+            throw new IllegalStateException("Step " + name + " has not completed. Declare it as an input.");
+         }
+         return future.join();
+      }
+
+      private boolean hasRun() {
+         return endNanos != 0;
+      }
+   }
+
+   private final ExecutorService executor;
+   private final List<Step<?>> steps = new ArrayList<>();
+   private long startNanos;
+   private long endNanos;
+
+   /**
+    * Constructor.
+    * @param parallelism maximum number of steps running at the same time
+    */
+   public WorkflowGraph(int parallelism) {
+      this.executor = Executors.newFixedThreadPool(parallelism);
+   }
+
+   /**
+    * Adds a step to the workflow. Steps without a result return null.
+    * @param name name of the step, used in the report
+    * @param action action of the step, which may call {@link Step#get()} on its inputs
+    * @param inputs steps which must complete before this step starts
+    * @param <T> result type of the step
+    * @return step, to be used as input of other steps
+    */
+   public <T> Step<T> step(String name, Supplier<T> action, Step<?>... inputs) {
+      for (Step<?> input : inputs) {
+         if (!steps.contains(input)) {
+            throw new IllegalArgumentException("Input " + input.name + " of step " + name + " is not in the workflow.");
+         }
+      }
+      Step<T> step = new Step<>(name, action, List.of(inputs));
+      steps.add(step);
+      return step;
+   }
+
+   /**
+    * Runs all steps and waits for them.
+    * When a step fails, the steps which depend on it are not run, and the independent ones are completed.
+    * @throws RuntimeException failure of the first failed step, in the order the steps were added
+    */
+   public void run() {
+      startNanos = System.nanoTime();
+      for (Step<?> step : steps) {
+         schedule(step);
+      }
+      RuntimeException failure = null;
+      for (Step<?> step : steps) {
+         try {
+            step.future.join();
+         } catch (CompletionException e) {
+            if (failure == null && step.hasRun()) {
+               failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+         }
+      }
+      endNanos = System.nanoTime();
+      if (failure != null) {
+         throw failure;
+      }
+   }
+
+   /**
+    * Returns the critical path: starting from the step which completed last, each step is preceded by the input it
+    * waited for, the one which completed last.
+    * @return steps of the critical path, in the order they ran
+    */
+   public List<Step<?>> getCriticalPath() {
+      List<Step<?>> path = new ArrayList<>();
+      Step<?> step = steps.stream()
+                          .filter(Step::hasRun)
+                          .max(Comparator.comparingLong(s -> s.endNanos))
+                          .orElse(null);
+      while (step != null) {
+         path.add(step);
+         step = step.inputs.stream().max(Comparator.comparingLong(s -> s.endNanos)).orElse(null);
+      }
+      Collections.reverse(path);
+      return path;
+   }
+
+   /**
+    * Prints when every step started and how long it ran, and the critical path.
+    */
+   public void printReport() {
+      for (Step<?> step : steps) {
+         if (step.hasRun()) {
+            toSystemOut("Step [{0}] started at [{1}] ms and took [{2}] ms.",
+                        step.name,
+                        toMillis(step.startNanos - startNanos),
+                        toMillis(step.endNanos - step.startNanos));
+         } else {
+            toSystemOut("Step [{0}] did not run.", step.name);
+         }
+      }
+      long serialNanos = steps.stream().filter(Step::hasRun).mapToLong(s -> s.endNanos - s.startNanos).sum();
+      toSystemOut("Workflow took [{0}] ms, [{1}] ms when run in sequence.",
+                  toMillis(endNanos - startNanos),
+                  toMillis(serialNanos));
+      toSystemOut("Critical path is [{0}].",
+                  getCriticalPath().stream().map(Step::getName).collect(Collectors.joining(" -> ")));
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+   }
+
+   private <T> void schedule(Step<T> step) {
+      CompletableFuture<?>[] inputs = step.inputs.stream().map(input -> input.future).toArray(CompletableFuture[]::new);
+      step.future = CompletableFuture.allOf(inputs).thenApplyAsync(ignored -> {
+         step.startNanos = System.nanoTime();
+         try {
+            return step.action.get();
+         } finally {
+            step.endNanos = System.nanoTime();
+         }
+      }, executor);
+   }
+
+   private static long toMillis(long nanos) {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+   }
+}
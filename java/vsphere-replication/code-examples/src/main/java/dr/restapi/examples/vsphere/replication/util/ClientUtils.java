@@ -3,7 +3,7 @@
 package dr.restapi.examples.vsphere.replication.util;
 
 import dr.restapi.examples.apiclient.ApiClient;
-import dr.restapi.examples.apiclient.model.*;
+import dr.restapi.examples.apiclient.vr.model.*;
 import dr.restapi.examples.vsphere.replication.config.Config;
 import dr.restapi.examples.vsphere.replication.exceptions.EnvironmentPrerequisiteException;
 import dr.restapi.examples.vsphere.replication.libraries.Constants;
@@ -67,15 +67,55 @@ public class ClientUtils {
                            remoteVcName));
    }
 
+   /**
+    * Return the pairings from the specified list {@code pairings}, which remote VC server names are listed in
+    * {@link Constants.Config#PAIRING_FILTER}, or all of them when the filter is {@code *}.
+    * @param pairings list of pairings
+    * @return chosen pairings, in the order of {@code pairings}
+    * @throws EnvironmentPrerequisiteException when there is no such a pairing
+    */
+   public static List<Pairing> choosePairings(List<Pairing> pairings) {
+      String pairingFilter = Config.get().getPropertyNotEmpty(Constants.Config.PAIRING_FILTER);
+      Set<String> remoteVcNames = Arrays.stream(pairingFilter.split(","))
+                                        .map(String::trim)
+                                        .collect(Collectors.toSet());
+
+      List<Pairing> chosenPairings =
+            CollectionUtils.isEmpty(pairings) ?
+            Collections.emptyList() :
+            pairings.stream()
+                    .filter(pairing -> remoteVcNames.contains("*")
+                                       || remoteVcNames.contains(pairing.getRemoteVcServer().getName()))
+                    .collect(Collectors.toList());
+      if (chosenPairings.isEmpty()) {
+         throw new EnvironmentPrerequisiteException("No pairing with a remote VC name in [{0}] is found.",
+                                                    pairingFilter);
+      }
+
+      return chosenPairings;
+   }
+
    /**
     * Get a list of Vms, which names matches {@link Constants.Config#REPLICATION_VMS}.
     * @param vms a list of available VMs
     * @return a list of VMs chosen to set replication
     */
    public static List<VirtualMachine> chooseReplicationVms(List<VirtualMachine> vms) {
+      return chooseReplicationVms(vms, Collections.emptySet());
+   }
+
+   /**
+    * Get a list of Vms, which names matches {@link Constants.Config#REPLICATION_VMS}, except the ones in
+    * {@code excludedVmNames}, e.g. the VMs already replicated by an earlier run.
+    * @param vms a list of available VMs
+    * @param excludedVmNames names of the configured VMs which are not chosen, and need not be available
+    * @return a list of VMs chosen to set replication
+    */
+   public static List<VirtualMachine> chooseReplicationVms(List<VirtualMachine> vms, Set<String> excludedVmNames) {
       String[] configuredVmNames = Config.get().getPropertyNotEmpty(Constants.Config.REPLICATION_VMS).split(",");
 
       return Arrays.stream(configuredVmNames)
+                   .filter(configuredVmName -> !excludedVmNames.contains(configuredVmName))
                    .map(configuredVmName -> vms.stream()
                                                .filter(localVm -> localVm.getName().equals(configuredVmName))
                                                .findFirst()